@@ -58,6 +58,11 @@ public class PlainAccessValidator implements AccessValidator {
             accessResource.setWhiteRemoteAddress(remoteAddr);
         }
 
+        if (request.isCustomHeaderDecoded()) {
+            // a ROCKETMQ_BINARY header is not in extFields, put its fields there as the client signed them
+            request.makeCustomHeaderToNet();
+        }
+
         accessResource.setRequestCode(request.getCode());
 
         if (request.getExtFields() == null) {
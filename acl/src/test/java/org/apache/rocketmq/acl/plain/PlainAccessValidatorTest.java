@@ -32,6 +32,7 @@ import org.apache.rocketmq.acl.common.AclClientRPCHook;
 import org.apache.rocketmq.acl.common.AclConstants;
 import org.apache.rocketmq.acl.common.AclException;
 import org.apache.rocketmq.acl.common.AclUtils;
+import org.apache.rocketmq.acl.common.Permission;
 import org.apache.rocketmq.acl.common.SessionCredentials;
 import org.apache.rocketmq.common.AclConfig;
 import org.apache.rocketmq.common.DataVersion;
@@ -40,6 +41,7 @@ import org.apache.rocketmq.common.PlainAccessConfig;
 import org.apache.rocketmq.common.protocol.RequestCode;
 import org.apache.rocketmq.common.protocol.header.ConsumerSendMsgBackRequestHeader;
 import org.apache.rocketmq.common.protocol.header.GetConsumerListByGroupRequestHeader;
+import org.apache.rocketmq.common.protocol.header.HeaderCodecs;
 import org.apache.rocketmq.common.protocol.header.PullMessageRequestHeader;
 import org.apache.rocketmq.common.protocol.header.QueryMessageRequestHeader;
 import org.apache.rocketmq.common.protocol.header.SendMessageRequestHeader;
@@ -52,6 +54,7 @@ import org.apache.rocketmq.common.protocol.heartbeat.ProducerData;
 import org.apache.rocketmq.common.protocol.heartbeat.SubscriptionData;
 import org.apache.rocketmq.remoting.exception.RemotingCommandException;
 import org.apache.rocketmq.remoting.protocol.RemotingCommand;
+import org.apache.rocketmq.remoting.protocol.SerializeType;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -163,6 +166,67 @@ public class PlainAccessValidatorTest {
         }
     }
 
+    @Test
+    public void validateBinaryHeaderTest() throws RemotingCommandException {
+        HeaderCodecs.registerAll();
+
+        SendMessageRequestHeader messageRequestHeader = new SendMessageRequestHeader();
+        messageRequestHeader.setProducerGroup("producerGroupA");
+        messageRequestHeader.setTopic("topicB");
+        messageRequestHeader.setDefaultTopic("TBW102");
+        messageRequestHeader.setDefaultTopicQueueNums(4);
+        messageRequestHeader.setQueueId(0);
+        messageRequestHeader.setSysFlag(0);
+        messageRequestHeader.setBornTimestamp(System.currentTimeMillis());
+        messageRequestHeader.setFlag(0);
+        RemotingCommand sendRequest = RemotingCommand.createRequestCommand(RequestCode.SEND_MESSAGE_V2,
+            SendMessageRequestHeaderV2.createSendMessageRequestHeaderV2(messageRequestHeader));
+        // outside of the white remote addresses, so that the signature and the resources are checked
+        PlainAccessResource accessResource = parseBinary(sendRequest, "127.0.0.1:9876");
+        Assert.assertEquals(Permission.PUB, accessResource.getResourcePermMap().get("topicB").byteValue());
+        plainAccessValidator.validate(accessResource);
+
+        PullMessageRequestHeader pullMessageRequestHeader = new PullMessageRequestHeader();
+        pullMessageRequestHeader.setConsumerGroup("groupB");
+        pullMessageRequestHeader.setTopic("topicC");
+        pullMessageRequestHeader.setQueueId(0);
+        pullMessageRequestHeader.setQueueOffset(0L);
+        pullMessageRequestHeader.setMaxMsgNums(32);
+        pullMessageRequestHeader.setSysFlag(0);
+        pullMessageRequestHeader.setCommitOffset(0L);
+        pullMessageRequestHeader.setSuspendTimeoutMillis(15000L);
+        pullMessageRequestHeader.setSubVersion(0L);
+        RemotingCommand pullRequest = RemotingCommand.createRequestCommand(RequestCode.PULL_MESSAGE, pullMessageRequestHeader);
+        accessResource = parseBinary(pullRequest, "127.0.0.1:9876");
+        Assert.assertEquals(Permission.SUB, accessResource.getResourcePermMap().get("topicC").byteValue());
+        Assert.assertEquals(Permission.SUB, accessResource.getResourcePermMap().get(MixAll.getRetryTopic("groupB")).byteValue());
+        plainAccessValidator.validate(accessResource);
+
+        // topicC is not allowed to be sent to
+        messageRequestHeader.setTopic("topicC");
+        sendRequest = RemotingCommand.createRequestCommand(RequestCode.SEND_MESSAGE_V2,
+            SendMessageRequestHeaderV2.createSendMessageRequestHeaderV2(messageRequestHeader));
+        accessResource = parseBinary(sendRequest, "127.0.0.1:9876");
+        try {
+            plainAccessValidator.validate(accessResource);
+            Assert.fail("Should throw AclException");
+        } catch (AclException e) {
+            // expected
+        }
+    }
+
+    private PlainAccessResource parseBinary(RemotingCommand request, String remoteAddr) throws RemotingCommandException {
+        request.setSerializeTypeCurrentRPC(SerializeType.ROCKETMQ_BINARY);
+        aclClient.doBeforeRequest("", request);
+        ByteBuffer buf = request.encodeHeader();
+        buf.getInt();
+        buf = ByteBuffer.allocate(buf.limit() - buf.position()).put(buf);
+        buf.position(0);
+        RemotingCommand decoded = RemotingCommand.decode(buf);
+        Assert.assertTrue(decoded.isCustomHeaderDecoded());
+        return (PlainAccessResource) plainAccessValidator.parse(decoded, remoteAddr);
+    }
+
     @Test
     public void validateForAdminCommandWithOutAclRPCHook() {
         RemotingCommand consumerOffsetAdminRequest = RemotingCommand.createRequestCommand(RequestCode.GET_ALL_CONSUMER_OFFSET, null);
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.benchmark;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Map;
+import java.util.UUID;
+import org.apache.rocketmq.common.BrokerConfig;
+import org.apache.rocketmq.common.UtilAll;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.store.ConsumeQueue;
+import org.apache.rocketmq.store.DefaultMessageStore;
+import org.apache.rocketmq.store.MessageArrivingListener;
+import org.apache.rocketmq.store.MessageExtBrokerInner;
+import org.apache.rocketmq.store.config.FlushDiskType;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.apache.rocketmq.store.stats.BrokerStatsManager;
+
+/**
+ * Helpers shared by the store benchmarks: every trial runs against its own temporary store directory, which is
+ * removed on tear down so that consecutive runs start from an empty CommitLog.
+ */
+public class BenchmarkStoreSupport {
+    public static final String STORE_ROOT_PROPERTY = "rocketmq.benchmark.storeRoot";
+    public static final int CONSUME_QUEUE_UNITS_PER_FILE = 300000;
+
+    private static final SocketAddress BORN_HOST = new InetSocketAddress("127.0.0.1", 0);
+    private static final SocketAddress STORE_HOST = new InetSocketAddress("127.0.0.1", 10911);
+
+    public static String createTempStoreDir() {
+        String root = System.getProperty(STORE_ROOT_PROPERTY, System.getProperty("java.io.tmpdir"));
+        return root + File.separator + "rocketmq-benchmark" + File.separator + UUID.randomUUID();
+    }
+
+    public static MessageStoreConfig createStoreConfig(final String storeDir) {
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(storeDir);
+        messageStoreConfig.setStorePathCommitLog(storeDir + File.separator + "commitlog");
+        messageStoreConfig.setMappedFileSizeCommitLog(1024 * 1024 * 128);
+        messageStoreConfig.setMappedFileSizeConsumeQueue(CONSUME_QUEUE_UNITS_PER_FILE * ConsumeQueue.CQ_STORE_UNIT_SIZE);
+        messageStoreConfig.setFlushDiskType(FlushDiskType.ASYNC_FLUSH);
+        messageStoreConfig.setMessageIndexEnable(false);
+        return messageStoreConfig;
+    }
+
+    public static DefaultMessageStore createMessageStore(final MessageStoreConfig messageStoreConfig,
+        final boolean start) throws Exception {
+        DefaultMessageStore messageStore = new DefaultMessageStore(messageStoreConfig,
+            new BrokerStatsManager("benchmark", true), new NoopMessageArrivingListener(), new BrokerConfig());
+        if (!messageStore.load()) {
+            throw new IllegalStateException("Failed to load message store under " + messageStoreConfig.getStorePathRootDir());
+        }
+        if (start) {
+            messageStore.start();
+        }
+        return messageStore;
+    }
+
+    public static void destroyMessageStore(final DefaultMessageStore messageStore, final String storeDir) {
+        if (messageStore != null) {
+            messageStore.shutdown();
+            messageStore.destroy();
+        }
+        UtilAll.deleteFile(new File(storeDir));
+    }
+
+    public static MessageExtBrokerInner buildMessage(final String topic, final int queueId, final int bodySize) {
+        MessageExtBrokerInner msg = new MessageExtBrokerInner();
+        msg.setTopic(topic);
+        msg.setTags("TagA");
+        msg.setKeys("Key-" + queueId);
+        msg.setBody(new byte[bodySize]);
+        msg.setQueueId(queueId);
+        msg.setSysFlag(0);
+        msg.setBornTimestamp(System.currentTimeMillis());
+        msg.setBornHost(BORN_HOST);
+        msg.setStoreHost(STORE_HOST);
+        msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+        msg.setTagsCode(MessageExtBrokerInner.tagsString2tagsCode(msg.getTags()));
+        return msg;
+    }
+
+    static class NoopMessageArrivingListener implements MessageArrivingListener {
+        @Override
+        public void arriving(String topic, int queueId, long logicOffset, long tagsCode, long msgStoreTime,
+            byte[] filterBitMap, Map<String, String> properties) {
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.benchmark.common;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.apache.rocketmq.common.compression.CompressionType;
+import org.apache.rocketmq.common.compression.Compressor;
+import org.apache.rocketmq.common.compression.CompressorFactory;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the body codecs selectable on the producer over JSON payloads. Besides throughput, the compress benchmark
+ * reports the original and compressed bytes per operation as secondary results, their quotient is the ratio.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class CompressionBenchmark {
+    @Param({"ZLIB", "LZ4", "ZSTD"})
+    private String compressionType;
+
+    @Param({"4096", "65536"})
+    private int bodySize;
+
+    @Param({"5"})
+    private int compressLevel;
+
+    private Compressor compressor;
+    private byte[] body;
+    private byte[] compressed;
+
+    @Setup
+    public void setUp() throws IOException {
+        this.compressor = CompressorFactory.getCompressor(CompressionType.of(compressionType));
+        this.body = jsonPayload(bodySize);
+        this.compressed = compressor.compress(body, compressLevel);
+    }
+
+    private static byte[] jsonPayload(int size) {
+        StringBuilder sb = new StringBuilder(size + 128);
+        Random random = new Random(0);
+        sb.append('[');
+        while (sb.length() < size) {
+            sb.append("{\"orderId\":").append(random.nextInt(Integer.MAX_VALUE))
+                .append(",\"userId\":\"user-").append(random.nextInt(100000))
+                .append("\",\"amount\":").append(random.nextInt(100000) / 100.0)
+                .append(",\"status\":\"").append(random.nextBoolean() ? "PAID" : "CREATED")
+                .append("\",\"createdAt\":").append(1600000000000L + random.nextInt(Integer.MAX_VALUE))
+                .append("},");
+        }
+        sb.setLength(size - 1);
+        sb.append(']');
+        return sb.toString().getBytes(MessageDecoder.CHARSET_UTF8);
+    }
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Sizes {
+        public long originalBytes;
+        public long compressedBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            originalBytes = 0;
+            compressedBytes = 0;
+        }
+    }
+
+    @Benchmark
+    public byte[] compress(Sizes sizes) throws IOException {
+        byte[] result = compressor.compress(body, compressLevel);
+        sizes.originalBytes += body.length;
+        sizes.compressedBytes += result.length;
+        return result;
+    }
+
+    @Benchmark
+    public byte[] decompress() throws IOException {
+        return compressor.decompress(compressed);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.benchmark.common;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.rocketmq.common.message.MessageAccessor;
+import org.apache.rocketmq.common.message.MessageConst;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.common.sysflag.MessageSysFlag;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures MessageDecoder.decode/decodes over messages in the CommitLog wire format, as done by the client for every
+ * pulled batch and by the broker for query and schedule paths.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class MessageDecoderBenchmark {
+    @Param({"128", "4096"})
+    private int bodySize;
+
+    @Param({"32"})
+    private int batchSize;
+
+    @Param({"false", "true"})
+    private boolean binaryProperties;
+
+    private byte[] single;
+    private byte[] batch;
+
+    @Setup
+    public void setUp() throws Exception {
+        this.single = MessageDecoder.encode(buildMessage(0), false);
+        ByteArrayOutputStream batchStream = new ByteArrayOutputStream(single.length * batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            batchStream.write(MessageDecoder.encode(buildMessage(i), false));
+        }
+        this.batch = batchStream.toByteArray();
+    }
+
+    private MessageExt buildMessage(int index) {
+        MessageExt msg = new MessageExt();
+        msg.setTopic("BenchmarkTopic");
+        msg.setTags("TagA");
+        msg.setKeys("Key-" + index);
+        msg.putUserProperty("a", String.valueOf(index));
+        MessageAccessor.putProperty(msg, MessageConst.PROPERTY_UNIQ_CLIENT_MESSAGE_ID_KEYIDX, "7F000001000018B4AAC208C56F3F0000");
+        msg.setBody(new byte[bodySize]);
+        msg.setSysFlag(binaryProperties ? MessageSysFlag.BINARY_PROPERTIES_FLAG : 0);
+        msg.setQueueId(0);
+        msg.setQueueOffset(index);
+        msg.setCommitLogOffset(index);
+        msg.setBornTimestamp(System.currentTimeMillis());
+        msg.setStoreTimestamp(System.currentTimeMillis());
+        msg.setBornHost(new InetSocketAddress("127.0.0.1", 0));
+        msg.setStoreHost(new InetSocketAddress("127.0.0.1", 10911));
+        return msg;
+    }
+
+    @Benchmark
+    public MessageExt decode() {
+        return MessageDecoder.decode(ByteBuffer.wrap(single));
+    }
+
+    @Benchmark
+    public MessageExt clientDecode() {
+        return MessageDecoder.clientDecode(ByteBuffer.wrap(single), true);
+    }
+
+    @Benchmark
+    public List<MessageExt> decodes() {
+        return MessageDecoder.decodes(ByteBuffer.wrap(batch));
+    }
+}
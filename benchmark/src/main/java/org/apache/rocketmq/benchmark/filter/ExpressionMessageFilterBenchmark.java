@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.benchmark.filter;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.rocketmq.broker.filter.ConsumerFilterData;
+import org.apache.rocketmq.broker.filter.ConsumerFilterManager;
+import org.apache.rocketmq.broker.filter.ExpressionMessageFilter;
+import org.apache.rocketmq.common.filter.ExpressionType;
+import org.apache.rocketmq.common.filter.FilterAPI;
+import org.apache.rocketmq.common.message.MessageConst;
+import org.apache.rocketmq.common.protocol.heartbeat.SubscriptionData;
+import org.apache.rocketmq.store.MessageExtBrokerInner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures ExpressionMessageFilter evaluation for tag subscriptions (consume queue tags code match) and SQL92
+ * subscriptions (evaluated against the message properties).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class ExpressionMessageFilterBenchmark {
+    private static final String TOPIC = "BenchmarkTopic";
+    private static final String GROUP = "BenchmarkConsumerGroup";
+
+    private ExpressionMessageFilter tagFilter;
+    private ExpressionMessageFilter sqlFilter;
+    private long matchedTagsCode;
+    private long unmatchedTagsCode;
+    private Map<String, String> properties;
+
+    @Setup
+    public void setUp() throws Exception {
+        ConsumerFilterManager consumerFilterManager = new ConsumerFilterManager();
+
+        SubscriptionData tagSubscription = FilterAPI.build(TOPIC, "TagA || TagB || TagC", ExpressionType.TAG);
+        this.tagFilter = new ExpressionMessageFilter(tagSubscription, null, consumerFilterManager);
+        this.matchedTagsCode = MessageExtBrokerInner.tagsString2tagsCode("TagB");
+        this.unmatchedTagsCode = MessageExtBrokerInner.tagsString2tagsCode("TagZ");
+
+        String expression = "a is not null and a > 10 and b in ('x', 'y') and c = TRUE";
+        SubscriptionData sqlSubscription = FilterAPI.build(TOPIC, expression, ExpressionType.SQL92);
+        ConsumerFilterData consumerFilterData = ConsumerFilterManager.build(TOPIC, GROUP, expression,
+            ExpressionType.SQL92, System.currentTimeMillis());
+        this.sqlFilter = new ExpressionMessageFilter(sqlSubscription, consumerFilterData, consumerFilterManager);
+
+        this.properties = new HashMap<>();
+        this.properties.put("a", "100");
+        this.properties.put("b", "y");
+        this.properties.put("c", "TRUE");
+        this.properties.put(MessageConst.PROPERTY_TAGS, "TagA");
+    }
+
+    @Benchmark
+    public boolean tagMatched() {
+        return tagFilter.isMatchedByConsumeQueue(matchedTagsCode, null);
+    }
+
+    @Benchmark
+    public boolean tagUnmatched() {
+        return tagFilter.isMatchedByConsumeQueue(unmatchedTagsCode, null);
+    }
+
+    @Benchmark
+    public boolean sql92ByCommitLog() {
+        return sqlFilter.isMatchedByCommitLog(null, properties);
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.benchmark.remoting;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageAccessor;
+import org.apache.rocketmq.common.message.MessageConst;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.common.protocol.RequestCode;
+import org.apache.rocketmq.common.protocol.header.HeaderCodecs;
+import org.apache.rocketmq.common.protocol.header.PullMessageRequestHeader;
+import org.apache.rocketmq.common.protocol.header.SendMessageRequestHeader;
+import org.apache.rocketmq.common.protocol.header.SendMessageRequestHeaderV2;
+import org.apache.rocketmq.remoting.CommandCustomHeader;
+import org.apache.rocketmq.remoting.exception.RemotingCommandException;
+import org.apache.rocketmq.remoting.protocol.RemotingCommand;
+import org.apache.rocketmq.remoting.protocol.SerializeType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures RemotingCommand header encoding and decoding for the two hottest requests, SEND_MESSAGE_V2 and
+ * PULL_MESSAGE, for every supported SerializeType.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class RemotingCommandBenchmark {
+    @Param({"JSON", "ROCKETMQ", "ROCKETMQ_BINARY"})
+    private SerializeType serializeType;
+
+    private byte[] sendBody;
+    private ByteBuffer encodedSend;
+    private ByteBuffer encodedPull;
+    private ByteBuf headerBuffer;
+
+    @Setup
+    public void setUp() throws Exception {
+        HeaderCodecs.registerAll();
+        this.sendBody = new byte[1024];
+        this.encodedSend = stripLength(newSendCommand().encode());
+        this.encodedPull = stripLength(newPullCommand().encode());
+        this.headerBuffer = PooledByteBufAllocator.DEFAULT.directBuffer(4096);
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.headerBuffer.release();
+    }
+
+    /**
+     * NettyDecoder strips the frame length before handing the frame to RemotingCommand.decode.
+     */
+    private static ByteBuffer stripLength(ByteBuffer encoded) {
+        encoded.getInt();
+        return encoded.slice();
+    }
+
+    private RemotingCommand newSendCommand() {
+        SendMessageRequestHeader requestHeader = new SendMessageRequestHeader();
+        requestHeader.setProducerGroup("BenchmarkProducerGroup");
+        requestHeader.setTopic("BenchmarkTopic");
+        requestHeader.setDefaultTopic("TBW102");
+        requestHeader.setDefaultTopicQueueNums(4);
+        requestHeader.setQueueId(1);
+        requestHeader.setSysFlag(0);
+        requestHeader.setBornTimestamp(System.currentTimeMillis());
+        requestHeader.setFlag(0);
+        Message msg = new Message("BenchmarkTopic", "TagA", "Key-0", sendBody);
+        MessageAccessor.putProperty(msg, MessageConst.PROPERTY_UNIQ_CLIENT_MESSAGE_ID_KEYIDX, "7F000001000018B4AAC208C56F3F0000");
+        requestHeader.setProperties(MessageDecoder.messageProperties2String(msg.getProperties()));
+        requestHeader.setReconsumeTimes(0);
+        requestHeader.setUnitMode(false);
+        requestHeader.setBatch(false);
+        SendMessageRequestHeaderV2 requestHeaderV2 = SendMessageRequestHeaderV2.createSendMessageRequestHeaderV2(requestHeader);
+        RemotingCommand request = RemotingCommand.createRequestCommand(RequestCode.SEND_MESSAGE_V2, requestHeaderV2);
+        request.setSerializeTypeCurrentRPC(serializeType);
+        request.setBody(sendBody);
+        return request;
+    }
+
+    private RemotingCommand newPullCommand() {
+        PullMessageRequestHeader requestHeader = new PullMessageRequestHeader();
+        requestHeader.setConsumerGroup("BenchmarkConsumerGroup");
+        requestHeader.setTopic("BenchmarkTopic");
+        requestHeader.setQueueId(1);
+        requestHeader.setQueueOffset(123456L);
+        requestHeader.setMaxMsgNums(32);
+        requestHeader.setSysFlag(3);
+        requestHeader.setCommitOffset(123000L);
+        requestHeader.setSuspendTimeoutMillis(15000L);
+        requestHeader.setSubscription("*");
+        requestHeader.setSubVersion(System.currentTimeMillis());
+        requestHeader.setExpressionType("TAG");
+        RemotingCommand request = RemotingCommand.createRequestCommand(RequestCode.PULL_MESSAGE, requestHeader);
+        request.setSerializeTypeCurrentRPC(serializeType);
+        return request;
+    }
+
+    @Benchmark
+    public ByteBuffer encodeSendHeader() {
+        return newSendCommand().encodeHeader();
+    }
+
+    @Benchmark
+    public ByteBuffer encodePullHeader() {
+        return newPullCommand().encodeHeader();
+    }
+
+    /**
+     * The header written in place into a direct buffer, as NettyEncoder does.
+     */
+    @Benchmark
+    public ByteBuf fastEncodeSendHeader() {
+        headerBuffer.clear();
+        newSendCommand().fastEncodeHeader(headerBuffer);
+        return headerBuffer;
+    }
+
+    @Benchmark
+    public ByteBuf fastEncodePullHeader() {
+        headerBuffer.clear();
+        newPullCommand().fastEncodeHeader(headerBuffer);
+        return headerBuffer;
+    }
+
+    @Benchmark
+    public CommandCustomHeader decodeSendRequest() throws RemotingCommandException {
+        RemotingCommand request = RemotingCommand.decode(encodedSend.duplicate());
+        return request.decodeCommandCustomHeader(SendMessageRequestHeaderV2.class);
+    }
+
+    @Benchmark
+    public CommandCustomHeader decodePullRequest() throws RemotingCommandException {
+        RemotingCommand request = RemotingCommand.decode(encodedPull.duplicate());
+        return request.decodeCommandCustomHeader(PullMessageRequestHeader.class);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.benchmark.remoting;
+
+import io.netty.channel.ChannelHandlerContext;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.apache.rocketmq.remoting.netty.NettyClientConfig;
+import org.apache.rocketmq.remoting.netty.NettyRemotingClient;
+import org.apache.rocketmq.remoting.netty.NettyRemotingServer;
+import org.apache.rocketmq.remoting.netty.NettyRequestProcessor;
+import org.apache.rocketmq.remoting.netty.NettyServerConfig;
+import org.apache.rocketmq.remoting.netty.WriteBatchStats;
+import org.apache.rocketmq.remoting.protocol.RemotingCommand;
+import org.apache.rocketmq.remoting.protocol.RemotingSysResponseCode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures oneway and async sends from many threads over one channel, with and without flush consolidation. After
+ * every iteration the number of flushes, that is write syscalls, per message is printed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(16)
+@Fork(1)
+public class RemotingFlushConsolidationBenchmark {
+    private static final int REQUEST_CODE = 1000;
+
+    @Param({"false", "true"})
+    private boolean flushConsolidation;
+
+    @Param({"1024"})
+    private int bodySize;
+
+    private NettyRemotingServer server;
+    private NettyRemotingClient client;
+    private ExecutorService processorExecutor;
+    private String addr;
+    private byte[] body;
+    private long iterationWrites;
+    private long iterationFlushes;
+
+    @Setup
+    public void setUp() {
+        NettyServerConfig serverConfig = new NettyServerConfig();
+        serverConfig.setListenPort(0);
+        this.server = new NettyRemotingServer(serverConfig);
+        this.processorExecutor = Executors.newFixedThreadPool(8);
+        this.server.registerProcessor(REQUEST_CODE, new NettyRequestProcessor() {
+            @Override
+            public RemotingCommand processRequest(ChannelHandlerContext ctx, RemotingCommand request) {
+                return RemotingCommand.createResponseCommand(RemotingSysResponseCode.SUCCESS, null);
+            }
+
+            @Override
+            public boolean rejectRequest() {
+                return false;
+            }
+        }, this.processorExecutor);
+        this.server.start();
+
+        NettyClientConfig clientConfig = new NettyClientConfig();
+        clientConfig.setClientFlushConsolidationEnable(flushConsolidation);
+        this.client = new NettyRemotingClient(clientConfig);
+        this.client.start();
+
+        this.addr = "127.0.0.1:" + this.server.localListenPort();
+        this.body = new byte[bodySize];
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.client.shutdown();
+        this.server.shutdown();
+        this.processorExecutor.shutdown();
+    }
+
+    @Setup(Level.Iteration)
+    public void beginIteration() {
+        WriteBatchStats stats = this.client.getWriteBatchStats();
+        this.iterationWrites = stats.getWrites();
+        this.iterationFlushes = stats.getFlushes();
+    }
+
+    @TearDown(Level.Iteration)
+    public void endIteration() {
+        WriteBatchStats stats = this.client.getWriteBatchStats();
+        long writes = stats.getWrites() - this.iterationWrites;
+        long flushes = stats.getFlushes() - this.iterationFlushes;
+        System.out.printf("%n[flushConsolidation=%s] messages=%d, flushes=%d, flushes/message=%.4f, maxBatchSize=%d%n",
+            flushConsolidation, writes, flushes, writes > 0 ? (double) flushes / writes : 0, stats.getMaxBatchSize());
+    }
+
+    private RemotingCommand newRequest() {
+        RemotingCommand request = RemotingCommand.createRequestCommand(REQUEST_CODE, null);
+        request.setBody(body);
+        return request;
+    }
+
+    @Benchmark
+    public void invokeOneway() throws Exception {
+        client.invokeOneway(addr, newRequest(), 3000);
+    }
+
+    @Benchmark
+    public void invokeAsync() throws Exception {
+        client.invokeAsync(addr, newRequest(), 3000, null);
+    }
+}
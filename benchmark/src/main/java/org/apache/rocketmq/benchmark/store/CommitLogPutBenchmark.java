@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.benchmark.store;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.rocketmq.benchmark.BenchmarkStoreSupport;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.common.message.MessageExtBatch;
+import org.apache.rocketmq.store.CommitLog;
+import org.apache.rocketmq.store.DefaultMessageStore;
+import org.apache.rocketmq.store.MessageExtBrokerInner;
+import org.apache.rocketmq.store.PutMessageResult;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures CommitLog.asyncPutMessage(s), i.e. MessageExtEncoder plus DefaultAppendMessageCallback under the put lock.
+ * A fresh store is created for every iteration so the CommitLog never grows beyond one iteration worth of data.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class CommitLogPutBenchmark {
+    private static final String TOPIC = "BenchmarkTopic";
+
+    @Param({"128", "1024", "4096"})
+    private int bodySize;
+
+    @Param({"8"})
+    private int queueNum;
+
+    @Param({"16"})
+    private int batchSize;
+
+    @Param({"false", "true"})
+    private boolean multiWriterAppend;
+
+    private String storeDir;
+    private DefaultMessageStore messageStore;
+    private CommitLog commitLog;
+    private final AtomicInteger queueIdGenerator = new AtomicInteger(0);
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        this.storeDir = BenchmarkStoreSupport.createTempStoreDir();
+        MessageStoreConfig storeConfig = BenchmarkStoreSupport.createStoreConfig(storeDir);
+        storeConfig.setEnableMultiWriterAppend(multiWriterAppend);
+        this.messageStore = BenchmarkStoreSupport.createMessageStore(storeConfig, true);
+        this.commitLog = messageStore.getCommitLog();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        BenchmarkStoreSupport.destroyMessageStore(messageStore, storeDir);
+    }
+
+    @State(Scope.Thread)
+    public static class ProducerState {
+        private MessageExtBrokerInner msg;
+        private MessageExtBatch batch;
+
+        @Setup(Level.Trial)
+        public void setUp(CommitLogPutBenchmark benchmark) {
+            int queueId = benchmark.queueIdGenerator.getAndIncrement() % benchmark.queueNum;
+            this.msg = BenchmarkStoreSupport.buildMessage(TOPIC, queueId, benchmark.bodySize);
+
+            List<Message> messages = new ArrayList<>(benchmark.batchSize);
+            for (int i = 0; i < benchmark.batchSize; i++) {
+                Message message = new Message(TOPIC, "TagA", new byte[benchmark.bodySize]);
+                message.setKeys("Key-" + i);
+                messages.add(message);
+            }
+            this.batch = new MessageExtBatch();
+            this.batch.setTopic(TOPIC);
+            this.batch.setQueueId(queueId);
+            this.batch.setSysFlag(0);
+            this.batch.setBornTimestamp(System.currentTimeMillis());
+            this.batch.setBornHost(msg.getBornHost());
+            this.batch.setStoreHost(msg.getStoreHost());
+            this.batch.setBody(MessageDecoder.encodeMessages(messages));
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public PutMessageResult putMessageSingleThread(ProducerState state) {
+        return commitLog.asyncPutMessage(state.msg).join();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public PutMessageResult putMessageContended(ProducerState state) {
+        return commitLog.asyncPutMessage(state.msg).join();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public PutMessageResult putMessagesContended(ProducerState state) {
+        return commitLog.asyncPutMessages(state.batch).join();
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.benchmark.store;
+
+import java.util.concurrent.TimeUnit;
+import org.apache.rocketmq.benchmark.BenchmarkStoreSupport;
+import org.apache.rocketmq.store.ConsumeQueue;
+import org.apache.rocketmq.store.DefaultMessageStore;
+import org.apache.rocketmq.store.DispatchRequest;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.apache.rocketmq.store.config.StorePathConfigHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures ConsumeQueue.putMessagePositionInfoWrapper, the per message work done by the reput thread to build the
+ * consume queue.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ConsumeQueuePutBenchmark {
+    private static final String TOPIC = "BenchmarkTopic";
+    private static final int MSG_SIZE = 256;
+
+    private String storeDir;
+    private DefaultMessageStore messageStore;
+    private ConsumeQueue consumeQueue;
+    private long queueOffset;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        this.storeDir = BenchmarkStoreSupport.createTempStoreDir();
+        MessageStoreConfig messageStoreConfig = BenchmarkStoreSupport.createStoreConfig(storeDir);
+        this.messageStore = BenchmarkStoreSupport.createMessageStore(messageStoreConfig, false);
+        this.consumeQueue = new ConsumeQueue(TOPIC, 0,
+            StorePathConfigHelper.getStorePathConsumeQueue(messageStoreConfig.getStorePathRootDir()),
+            messageStoreConfig.getMappedFileSizeConsumeQueue(), messageStore);
+        this.consumeQueue.load();
+        this.queueOffset = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        consumeQueue.destroy();
+        BenchmarkStoreSupport.destroyMessageStore(messageStore, storeDir);
+    }
+
+    @Benchmark
+    public long putMessagePositionInfo() {
+        long offset = queueOffset++;
+        DispatchRequest request = new DispatchRequest(TOPIC, 0, offset * MSG_SIZE, MSG_SIZE, offset,
+            System.currentTimeMillis(), offset, null, null, 0, 0, null);
+        consumeQueue.putMessagePositionInfoWrapper(request, false);
+        return consumeQueue.getMaxOffsetInQueue();
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.benchmark.store;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.apache.rocketmq.common.filter.FilterAPI;
+import org.apache.rocketmq.store.ConsumeQueue;
+import org.apache.rocketmq.store.DefaultMessageFilter;
+import org.apache.rocketmq.store.MessageExtBrokerInner;
+import org.apache.rocketmq.store.MessageFilter;
+import org.apache.rocketmq.store.TagsCodeScanner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the filtering of a window of consume queue units by a tag subscription matching 1 unit out of 1000, unit
+ * by unit through MessageFilter as opposed to in bulk through TagsCodeScanner.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class ConsumeQueueTagsFilterBenchmark {
+    private static final String TOPIC = "BenchmarkTopic";
+    private static final int UNIT_NUM = 64 * 1024;
+    private static final int MATCH_INTERVAL = 1000;
+
+    private ByteBuffer byteBuffer;
+    private MessageFilter messageFilter;
+    private int[] tagsCodesToMatch;
+
+    @Setup
+    public void setUp() throws Exception {
+        long matchedTagsCode = MessageExtBrokerInner.tagsString2tagsCode("TagB");
+        long unmatchedTagsCode = MessageExtBrokerInner.tagsString2tagsCode("TagA");
+        this.byteBuffer = ByteBuffer.allocateDirect(UNIT_NUM * ConsumeQueue.CQ_STORE_UNIT_SIZE);
+        for (int i = 0; i < UNIT_NUM; i++) {
+            this.byteBuffer.putLong(i * 256L);
+            this.byteBuffer.putInt(256);
+            this.byteBuffer.putLong(i % MATCH_INTERVAL == 0 ? matchedTagsCode : unmatchedTagsCode);
+        }
+        this.byteBuffer.flip();
+        this.messageFilter = new DefaultMessageFilter(FilterAPI.build(TOPIC, "TagB || TagC", null));
+        this.tagsCodesToMatch = this.messageFilter.tagsCodesToMatch();
+    }
+
+    @Benchmark
+    public int filterUnitByUnit() {
+        int matched = 0;
+        ByteBuffer buffer = this.byteBuffer.duplicate();
+        for (int i = 0; i < UNIT_NUM; i++) {
+            buffer.getLong();
+            buffer.getInt();
+            long tagsCode = buffer.getLong();
+            if (this.messageFilter.isMatchedByConsumeQueue(tagsCode, null)) {
+                matched++;
+            }
+        }
+        return matched;
+    }
+
+    @Benchmark
+    public int filterInBulk() {
+        int matched = 0;
+        TagsCodeScanner scanner = new TagsCodeScanner(this.byteBuffer, this.tagsCodesToMatch);
+        int limit = this.byteBuffer.limit();
+        int pos = scanner.nextCandidate(0, limit);
+        while (pos < limit) {
+            matched++;
+            pos = scanner.nextCandidate(pos + ConsumeQueue.CQ_STORE_UNIT_SIZE, limit);
+        }
+        return matched;
+    }
+}
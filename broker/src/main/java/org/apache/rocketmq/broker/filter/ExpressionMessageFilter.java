@@ -26,6 +26,7 @@ import org.apache.rocketmq.common.protocol.heartbeat.SubscriptionData;
 import org.apache.rocketmq.filter.util.BitsArray;
 import org.apache.rocketmq.filter.util.BloomFilter;
 import org.apache.rocketmq.store.ConsumeQueueExt;
+import org.apache.rocketmq.store.DefaultMessageFilter;
 import org.apache.rocketmq.store.MessageFilter;
 
 import java.nio.ByteBuffer;
@@ -114,6 +115,16 @@ public class ExpressionMessageFilter implements MessageFilter {
         return true;
     }
 
+    @Override
+    public int[] tagsCodesToMatch() {
+        if (null == subscriptionData || subscriptionData.isClassFilterMode()
+            || !ExpressionType.isTagType(subscriptionData.getExpressionType())
+            || subscriptionData.getSubString().equals(SubscriptionData.SUB_ALL)) {
+            return null;
+        }
+        return DefaultMessageFilter.toTagsCodes(subscriptionData.getCodeSet());
+    }
+
     @Override
     public boolean isMatchedByCommitLog(ByteBuffer msgBuffer, Map<String, String> properties) {
         if (subscriptionData == null) {
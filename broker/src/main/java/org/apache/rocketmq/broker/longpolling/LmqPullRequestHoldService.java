@@ -53,8 +53,8 @@ public class LmqPullRequestHoldService extends PullRequestHoldService {
             }
             if (MixAll.isLmq(topic)) {
                 ManyPullRequest mpr = pullRequestTable.get(key);
-                if (mpr == null || mpr.getPullRequestList() == null || mpr.getPullRequestList().isEmpty()) {
-                    pullRequestTable.remove(key);
+                if (mpr != null) {
+                    removeIfEmpty(key, mpr);
                 }
             }
         }
@@ -20,27 +20,53 @@ import java.util.ArrayList;
 import java.util.List;
 
 public class ManyPullRequest {
-    private final ArrayList<PullRequest> pullRequestList = new ArrayList<>();
+    private ArrayList<PullRequest> pullRequestList = new ArrayList<>();
+    /**
+     * Set once this instance is removed from the pull request table, a request added afterwards would never be woken.
+     */
+    private boolean removed = false;
 
-    public synchronized void addPullRequest(final PullRequest pullRequest) {
+    public synchronized boolean addPullRequest(final PullRequest pullRequest) {
+        if (this.removed) {
+            return false;
+        }
         this.pullRequestList.add(pullRequest);
+        return true;
     }
 
-    public synchronized void addPullRequest(final List<PullRequest> many) {
+    public synchronized boolean addPullRequest(final List<PullRequest> many) {
+        if (this.removed) {
+            return false;
+        }
         this.pullRequestList.addAll(many);
+        return true;
+    }
+
+    public synchronized boolean removePullRequest(final PullRequest pullRequest) {
+        return this.pullRequestList.remove(pullRequest);
     }
 
     public synchronized List<PullRequest> cloneListAndClear() {
         if (!this.pullRequestList.isEmpty()) {
-            List<PullRequest> result = (ArrayList<PullRequest>) this.pullRequestList.clone();
-            this.pullRequestList.clear();
+            List<PullRequest> result = this.pullRequestList;
+            this.pullRequestList = new ArrayList<>();
             return result;
         }
 
         return null;
     }
 
-    public ArrayList<PullRequest> getPullRequestList() {
+    /**
+     * @return true if there is no request left, no request can be added afterwards
+     */
+    public synchronized boolean markRemovedIfEmpty() {
+        if (this.pullRequestList.isEmpty()) {
+            this.removed = true;
+        }
+        return this.removed;
+    }
+
+    public synchronized ArrayList<PullRequest> getPullRequestList() {
         return pullRequestList;
     }
 }
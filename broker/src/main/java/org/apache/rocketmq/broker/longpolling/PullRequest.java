@@ -17,6 +17,8 @@
 package org.apache.rocketmq.broker.longpolling;
 
 import io.netty.channel.Channel;
+import io.netty.util.Timeout;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.rocketmq.common.protocol.heartbeat.SubscriptionData;
 import org.apache.rocketmq.remoting.protocol.RemotingCommand;
 import org.apache.rocketmq.store.MessageFilter;
@@ -29,6 +31,8 @@ public class PullRequest {
     private final long pullFromThisOffset;
     private final SubscriptionData subscriptionData;
     private final MessageFilter messageFilter;
+    private final AtomicBoolean completed = new AtomicBoolean(false);
+    private volatile Timeout timeout;
 
     public PullRequest(RemotingCommand requestCommand, Channel clientChannel, long timeoutMillis, long suspendTimestamp,
         long pullFromThisOffset, SubscriptionData subscriptionData,
@@ -69,4 +73,29 @@ public class PullRequest {
     public MessageFilter getMessageFilter() {
         return messageFilter;
     }
+
+    /**
+     * Only the first caller, woken by a message arriving or by the timeout, gets true and has to execute the request.
+     */
+    public boolean markCompleted() {
+        if (this.completed.compareAndSet(false, true)) {
+            Timeout timeout = this.timeout;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+            return true;
+        }
+        return false;
+    }
+
+    public boolean isCompleted() {
+        return completed.get();
+    }
+
+    public void setTimeout(Timeout timeout) {
+        this.timeout = timeout;
+        if (this.completed.get()) {
+            timeout.cancel();
+        }
+    }
 }
@@ -16,24 +16,41 @@
  */
 package org.apache.rocketmq.broker.longpolling;
 
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import org.apache.rocketmq.broker.BrokerController;
 import org.apache.rocketmq.common.ServiceThread;
 import org.apache.rocketmq.common.SystemClock;
+import org.apache.rocketmq.common.ThreadFactoryImpl;
 import org.apache.rocketmq.common.constant.LoggerName;
 import org.apache.rocketmq.logging.InternalLogger;
 import org.apache.rocketmq.logging.InternalLoggerFactory;
 import org.apache.rocketmq.store.ConsumeQueueExt;
+import org.apache.rocketmq.store.config.BrokerRole;
 
+/**
+ * Holds the pull requests which found no message until a message arrives or they time out.
+ * <p>
+ * Suspended requests wait in a list per queue and are woken directly by {@link NotifyMessageArrivingListener} when
+ * a message is dispatched to the queue, their timeouts are driven by a timer wheel, so an idle queue costs nothing.
+ * The service thread only scans the queues when arrivals are not notified by the store, that is on a slave or with
+ * long polling disabled.
+ */
 public class PullRequestHoldService extends ServiceThread {
     private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.BROKER_LOGGER_NAME);
     protected static final String TOPIC_QUEUEID_SEPARATOR = "@";
     protected final BrokerController brokerController;
     private final SystemClock systemClock = new SystemClock();
+    private final Timer timer = new HashedWheelTimer(new ThreadFactoryImpl("PullRequestHoldTimer_", true),
+        10, TimeUnit.MILLISECONDS, 512);
     protected ConcurrentMap<String/* topic@queueId */, ManyPullRequest> pullRequestTable =
         new ConcurrentHashMap<String, ManyPullRequest>(1024);
 
@@ -42,7 +59,50 @@ public class PullRequestHoldService extends ServiceThread {
     }
 
     public void suspendPullRequest(final String topic, final int queueId, final PullRequest pullRequest) {
-        String key = this.buildKey(topic, queueId);
+        final String key = this.buildKey(topic, queueId);
+        this.holdPullRequest(key, pullRequest);
+
+        try {
+            pullRequest.setTimeout(this.timer.newTimeout(new TimerTask() {
+                @Override
+                public void run(Timeout timeout) {
+                    PullRequestHoldService.this.expirePullRequest(key, pullRequest);
+                }
+            }, pullRequest.getTimeoutMillis(), TimeUnit.MILLISECONDS));
+        } catch (IllegalStateException e) {
+            // the timer is stopped, answer right now
+            this.expirePullRequest(key, pullRequest);
+            return;
+        }
+
+        // a message may have arrived between the pull and the suspension
+        final long maxOffset = this.brokerController.getMessageStore().getMaxOffsetInQueue(topic, queueId);
+        if (maxOffset > pullRequest.getPullFromThisOffset()) {
+            this.notifyMessageArriving(topic, queueId, maxOffset);
+        }
+    }
+
+    private void holdPullRequest(final String key, final PullRequest pullRequest) {
+        while (true) {
+            ManyPullRequest mpr = this.getOrCreateManyPullRequest(key);
+            if (mpr.addPullRequest(pullRequest)) {
+                return;
+            }
+            this.pullRequestTable.remove(key, mpr);
+        }
+    }
+
+    private void holdPullRequest(final String key, final List<PullRequest> many) {
+        while (true) {
+            ManyPullRequest mpr = this.getOrCreateManyPullRequest(key);
+            if (mpr.addPullRequest(many)) {
+                return;
+            }
+            this.pullRequestTable.remove(key, mpr);
+        }
+    }
+
+    private ManyPullRequest getOrCreateManyPullRequest(final String key) {
         ManyPullRequest mpr = this.pullRequestTable.get(key);
         if (null == mpr) {
             mpr = new ManyPullRequest();
@@ -51,8 +111,37 @@ public class PullRequestHoldService extends ServiceThread {
                 mpr = prev;
             }
         }
+        return mpr;
+    }
 
-        mpr.addPullRequest(pullRequest);
+    /**
+     * Remove the waiters of the queue from the table once there is none left.
+     */
+    protected void removeIfEmpty(final String key, final ManyPullRequest mpr) {
+        if (mpr.markRemovedIfEmpty()) {
+            this.pullRequestTable.remove(key, mpr);
+        }
+    }
+
+    private void expirePullRequest(final String key, final PullRequest pullRequest) {
+        if (!pullRequest.markCompleted()) {
+            return;
+        }
+
+        ManyPullRequest mpr = this.pullRequestTable.get(key);
+        if (mpr != null && mpr.removePullRequest(pullRequest)) {
+            this.removeIfEmpty(key, mpr);
+        }
+        this.wakeupPullRequest(pullRequest);
+    }
+
+    private void wakeupPullRequest(final PullRequest request) {
+        try {
+            this.brokerController.getPullMessageProcessor().executeRequestWhenWakeup(request.getClientChannel(),
+                request.getRequestCommand());
+        } catch (Throwable e) {
+            log.error("execute request when wakeup failed.", e);
+        }
     }
 
     private String buildKey(final String topic, final int queueId) {
@@ -74,6 +163,10 @@ public class PullRequestHoldService extends ServiceThread {
                     this.waitForRunning(this.brokerController.getBrokerConfig().getShortPollingTimeMills());
                 }
 
+                if (this.isMessageArrivingNotified()) {
+                    continue;
+                }
+
                 long beginLockTimestamp = this.systemClock.now();
                 this.checkHoldRequest();
                 long costTime = this.systemClock.now() - beginLockTimestamp;
@@ -88,11 +181,25 @@ public class PullRequestHoldService extends ServiceThread {
         log.info("{} service end", this.getServiceName());
     }
 
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        this.timer.stop();
+    }
+
     @Override
     public String getServiceName() {
         return PullRequestHoldService.class.getSimpleName();
     }
 
+    /**
+     * Whether the store notifies every message dispatched, see DefaultMessageStore.ReputMessageService.
+     */
+    protected boolean isMessageArrivingNotified() {
+        return this.brokerController.getBrokerConfig().isLongPollingEnable()
+            && this.brokerController.getMessageStoreConfig().getBrokerRole() != BrokerRole.SLAVE;
+    }
+
     protected void checkHoldRequest() {
         for (String key : this.pullRequestTable.keySet()) {
             String[] kArray = key.split(TOPIC_QUEUEID_SEPARATOR);
@@ -123,6 +230,10 @@ public class PullRequestHoldService extends ServiceThread {
                 List<PullRequest> replayList = new ArrayList<PullRequest>();
 
                 for (PullRequest request : requestList) {
+                    if (request.isCompleted()) {
+                        continue;
+                    }
+
                     long newestOffset = maxOffset;
                     if (newestOffset <= request.getPullFromThisOffset()) {
                         newestOffset = this.brokerController.getMessageStore().getMaxOffsetInQueue(topic, queueId);
@@ -137,22 +248,16 @@ public class PullRequestHoldService extends ServiceThread {
                         }
 
                         if (match) {
-                            try {
-                                this.brokerController.getPullMessageProcessor().executeRequestWhenWakeup(request.getClientChannel(),
-                                    request.getRequestCommand());
-                            } catch (Throwable e) {
-                                log.error("execute request when wakeup failed.", e);
+                            if (request.markCompleted()) {
+                                this.wakeupPullRequest(request);
                             }
                             continue;
                         }
                     }
 
                     if (System.currentTimeMillis() >= (request.getSuspendTimestamp() + request.getTimeoutMillis())) {
-                        try {
-                            this.brokerController.getPullMessageProcessor().executeRequestWhenWakeup(request.getClientChannel(),
-                                request.getRequestCommand());
-                        } catch (Throwable e) {
-                            log.error("execute request when wakeup failed.", e);
+                        if (request.markCompleted()) {
+                            this.wakeupPullRequest(request);
                         }
                         continue;
                     }
@@ -161,7 +266,9 @@ public class PullRequestHoldService extends ServiceThread {
                 }
 
                 if (!replayList.isEmpty()) {
-                    mpr.addPullRequest(replayList);
+                    this.holdPullRequest(key, replayList);
+                } else {
+                    this.removeIfEmpty(key, mpr);
                 }
             }
         }
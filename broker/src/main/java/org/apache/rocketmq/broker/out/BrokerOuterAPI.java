@@ -70,7 +70,10 @@ public class BrokerOuterAPI {
     }
 
     public BrokerOuterAPI(final NettyClientConfig nettyClientConfig, RPCHook rpcHook) {
-        this.remotingClient = new NettyRemotingClient(nettyClientConfig);
+        NettyRemotingClient nettyRemotingClient = new NettyRemotingClient(nettyClientConfig);
+        // the name server drops the broker when the connection it registered over is closed
+        nettyRemotingClient.registerPrimaryConnectionRequestCodes(RequestCode.REGISTER_BROKER, RequestCode.UNREGISTER_BROKER);
+        this.remotingClient = nettyRemotingClient;
         this.remotingClient.registerRPCHook(rpcHook);
     }
 
@@ -54,6 +54,7 @@ import org.apache.rocketmq.remoting.exception.RemotingCommandException;
 import org.apache.rocketmq.remoting.netty.AsyncNettyRequestProcessor;
 import org.apache.rocketmq.remoting.netty.NettyRequestProcessor;
 import org.apache.rocketmq.remoting.protocol.RemotingCommand;
+import org.apache.rocketmq.remoting.protocol.SerializeType;
 import org.apache.rocketmq.store.MessageExtBrokerInner;
 
 public abstract class AbstractSendMessageProcessor extends AsyncNettyRequestProcessor implements NettyRequestProcessor {
@@ -153,9 +154,9 @@ public abstract class AbstractSendMessageProcessor extends AsyncNettyRequestProc
             response.setCode(ResponseCode.MESSAGE_ILLEGAL);
             return response;
         }
-        if (request.getBody().length > DBMsgConstants.MAX_BODY_SIZE) {
+        if (request.getBodyLength() > DBMsgConstants.MAX_BODY_SIZE) {
             log.warn(" topic {}  msg body size {}  from {}", requestHeader.getTopic(),
-                request.getBody().length, ChannelUtil.getRemoteIp(ctx.channel()));
+                request.getBodyLength(), ChannelUtil.getRemoteIp(ctx.channel()));
             response.setRemark("msg body must be less 64KB");
             response.setCode(ResponseCode.MESSAGE_ILLEGAL);
             return response;
@@ -262,7 +263,7 @@ public abstract class AbstractSendMessageProcessor extends AsyncNettyRequestProc
                         context.setNamespace(namespace);
                         context.setProducerGroup(requestHeader.getProducerGroup());
                         context.setTopic(requestHeader.getTopic());
-                        context.setBodyLength(request.getBody().length);
+                        context.setBodyLength(request.getBodyLength());
                         context.setMsgProps(requestHeader.getProperties());
                         context.setBornHost(RemotingHelper.parseChannelRemoteAddr(ctx.channel()));
                         context.setBrokerAddr(this.brokerController.getBrokerAddr());
@@ -305,6 +306,10 @@ public abstract class AbstractSendMessageProcessor extends AsyncNettyRequestProc
 
     static SendMessageRequestHeaderV2 decodeSendMessageHeaderV2(RemotingCommand request)
             throws RemotingCommandException {
+        if (request.getSerializeTypeCurrentRPC() == SerializeType.ROCKETMQ_BINARY) {
+            return (SendMessageRequestHeaderV2) request.decodeCommandCustomHeader(SendMessageRequestHeaderV2.class);
+        }
+
         SendMessageRequestHeaderV2 r = new SendMessageRequestHeaderV2();
         HashMap<String, String> fields = request.getExtFields();
         if (fields == null) {
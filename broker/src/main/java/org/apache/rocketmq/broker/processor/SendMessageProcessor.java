@@ -33,6 +33,7 @@ import org.apache.rocketmq.common.MixAll;
 import org.apache.rocketmq.common.TopicConfig;
 import org.apache.rocketmq.common.TopicFilterType;
 import org.apache.rocketmq.common.UtilAll;
+import org.apache.rocketmq.common.compression.CompressorFactory;
 import org.apache.rocketmq.common.constant.PermName;
 import org.apache.rocketmq.common.help.FAQUrl;
 import org.apache.rocketmq.common.message.MessageAccessor;
@@ -50,6 +51,7 @@ import org.apache.rocketmq.common.subscription.SubscriptionGroupConfig;
 import org.apache.rocketmq.common.sysflag.MessageSysFlag;
 import org.apache.rocketmq.common.sysflag.TopicSysFlag;
 import org.apache.rocketmq.common.topic.TopicValidator;
+import org.apache.rocketmq.remoting.common.RemotingHelper;
 import org.apache.rocketmq.remoting.exception.RemotingCommandException;
 import org.apache.rocketmq.remoting.netty.NettyRequestProcessor;
 import org.apache.rocketmq.remoting.netty.RemotingResponseCallback;
@@ -274,8 +276,6 @@ public class SendMessageProcessor extends AbstractSendMessageProcessor implement
             return CompletableFuture.completedFuture(response);
         }
 
-        final byte[] body = request.getBody();
-
         int queueIdInt = requestHeader.getQueueId();
         TopicConfig topicConfig = this.brokerController.getTopicConfigManager().selectTopicConfig(requestHeader.getTopic());
 
@@ -291,7 +291,8 @@ public class SendMessageProcessor extends AbstractSendMessageProcessor implement
             return CompletableFuture.completedFuture(response);
         }
 
-        msgInner.setBody(body);
+        // the body may still sit in the inbound buffer, it is then only copied when appended to the CommitLog
+        msgInner.setBodyBuffer(request.getBodyBuffer());
         msgInner.setFlag(requestHeader.getFlag());
         Map<String, String> origProps = MessageDecoder.string2messageProperties(requestHeader.getProperties());
         MessageAccessor.setProperties(msgInner, origProps);
@@ -566,7 +567,7 @@ public class SendMessageProcessor extends AbstractSendMessageProcessor implement
             return null;
         } else {
             if (hasSendMessageHook()) {
-                int wroteSize = request.getBody().length;
+                int wroteSize = request.getBodyLength();
                 int incValue = (int)Math.ceil(wroteSize / BrokerStatsManager.SIZE_PER_COUNT);
 
                 sendMessageContext.setCommercialSendStats(BrokerStatsManager.StatsType.SEND_FAILURE);
@@ -605,7 +606,23 @@ public class SendMessageProcessor extends AbstractSendMessageProcessor implement
         messageExtBatch.setTopic(requestHeader.getTopic());
         messageExtBatch.setQueueId(queueIdInt);
 
+        byte[] body = request.getBody();
         int sysFlag = requestHeader.getSysFlag();
+        if ((sysFlag & MessageSysFlag.COMPRESSED_FLAG) == MessageSysFlag.COMPRESSED_FLAG) {
+            // the producer compressed the encoded batch as a whole, expand it so that every message is stored as usual,
+            // refusing to expand it beyond the maximum message size
+            int maxMessageSize = this.brokerController.getMessageStoreConfig().getMaxMessageSize();
+            try {
+                body = CompressorFactory.getCompressor(MessageSysFlag.getCompressionType(sysFlag)).decompress(body, maxMessageSize);
+            } catch (Exception e) {
+                log.warn("Failed to decompress batch message, topic: {}, producer: {}", requestHeader.getTopic(),
+                    RemotingHelper.parseChannelRemoteAddr(ctx.channel()), e);
+                response.setCode(ResponseCode.MESSAGE_ILLEGAL);
+                response.setRemark("failed to decompress batch message within the maximum message size " + maxMessageSize);
+                return CompletableFuture.completedFuture(response);
+            }
+            sysFlag = MessageSysFlag.clearCompressedFlag(sysFlag);
+        }
         if (TopicFilterType.MULTI_TAG == topicConfig.getTopicFilterType()) {
             sysFlag |= MessageSysFlag.MULTI_TAGS_FLAG;
         }
@@ -613,7 +630,7 @@ public class SendMessageProcessor extends AbstractSendMessageProcessor implement
 
         messageExtBatch.setFlag(requestHeader.getFlag());
         MessageAccessor.setProperties(messageExtBatch, MessageDecoder.string2messageProperties(requestHeader.getProperties()));
-        messageExtBatch.setBody(request.getBody());
+        messageExtBatch.setBody(body);
         messageExtBatch.setBornTimestamp(requestHeader.getBornTimestamp());
         messageExtBatch.setBornHost(ctx.channel().remoteAddress());
         messageExtBatch.setStoreHost(this.getStoreHost());
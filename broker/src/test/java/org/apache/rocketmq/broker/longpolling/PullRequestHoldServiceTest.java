@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.broker.longpolling;
+
+import io.netty.channel.Channel;
+import java.util.concurrent.TimeUnit;
+import org.apache.rocketmq.broker.BrokerController;
+import org.apache.rocketmq.broker.processor.PullMessageProcessor;
+import org.apache.rocketmq.common.BrokerConfig;
+import org.apache.rocketmq.common.protocol.RequestCode;
+import org.apache.rocketmq.remoting.protocol.RemotingCommand;
+import org.apache.rocketmq.store.DefaultMessageFilter;
+import org.apache.rocketmq.store.MessageStore;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PullRequestHoldServiceTest {
+    private static final String TOPIC = "FooBar";
+    private static final int QUEUE_ID = 1;
+
+    private PullRequestHoldService pullRequestHoldService;
+    private MessageStore messageStore;
+    private PullMessageProcessor pullMessageProcessor;
+
+    @Before
+    public void init() {
+        BrokerController brokerController = mock(BrokerController.class);
+        messageStore = mock(MessageStore.class);
+        pullMessageProcessor = mock(PullMessageProcessor.class);
+        when(brokerController.getBrokerConfig()).thenReturn(new BrokerConfig());
+        when(brokerController.getMessageStoreConfig()).thenReturn(new MessageStoreConfig());
+        when(brokerController.getMessageStore()).thenReturn(messageStore);
+        when(brokerController.getPullMessageProcessor()).thenReturn(pullMessageProcessor);
+        pullRequestHoldService = new PullRequestHoldService(brokerController);
+    }
+
+    @After
+    public void destroy() {
+        pullRequestHoldService.shutdown();
+    }
+
+    @Test
+    public void testWakeupWhenMessageArriving() throws Exception {
+        when(messageStore.getMaxOffsetInQueue(TOPIC, QUEUE_ID)).thenReturn(10L);
+        PullRequest pullRequest = createPullRequest(10, 60 * 1000);
+        pullRequestHoldService.suspendPullRequest(TOPIC, QUEUE_ID, pullRequest);
+        verify(pullMessageProcessor, never()).executeRequestWhenWakeup(any(), any());
+
+        pullRequestHoldService.notifyMessageArriving(TOPIC, QUEUE_ID, 11);
+        verify(pullMessageProcessor, times(1)).executeRequestWhenWakeup(pullRequest.getClientChannel(),
+            pullRequest.getRequestCommand());
+        assertThat(pullRequest.isCompleted()).isTrue();
+        assertThat(pullRequestHoldService.pullRequestTable).isEmpty();
+
+        pullRequestHoldService.notifyMessageArriving(TOPIC, QUEUE_ID, 12);
+        verify(pullMessageProcessor, times(1)).executeRequestWhenWakeup(any(), any());
+    }
+
+    @Test
+    public void testWakeupWhenTimeout() throws Exception {
+        when(messageStore.getMaxOffsetInQueue(TOPIC, QUEUE_ID)).thenReturn(10L);
+        PullRequest pullRequest = createPullRequest(10, 100);
+        pullRequestHoldService.suspendPullRequest(TOPIC, QUEUE_ID, pullRequest);
+        PullRequest otherRequest = createPullRequest(10, 60 * 1000);
+        pullRequestHoldService.suspendPullRequest(TOPIC, QUEUE_ID, otherRequest);
+
+        await().atMost(5, TimeUnit.SECONDS).until(pullRequest::isCompleted);
+        verify(pullMessageProcessor, times(1)).executeRequestWhenWakeup(pullRequest.getClientChannel(),
+            pullRequest.getRequestCommand());
+        assertThat(otherRequest.isCompleted()).isFalse();
+        assertThat(pullRequestHoldService.pullRequestTable.get(TOPIC + "@" + QUEUE_ID).getPullRequestList())
+            .containsExactly(otherRequest);
+    }
+
+    @Test
+    public void testWakeupWhenMessageArrivedBeforeSuspend() throws Exception {
+        when(messageStore.getMaxOffsetInQueue(TOPIC, QUEUE_ID)).thenReturn(11L);
+        PullRequest pullRequest = createPullRequest(10, 60 * 1000);
+        pullRequestHoldService.suspendPullRequest(TOPIC, QUEUE_ID, pullRequest);
+
+        verify(pullMessageProcessor, times(1)).executeRequestWhenWakeup(pullRequest.getClientChannel(),
+            pullRequest.getRequestCommand());
+        assertThat(pullRequest.isCompleted()).isTrue();
+    }
+
+    private PullRequest createPullRequest(long pullFromThisOffset, long timeoutMillis) {
+        RemotingCommand request = RemotingCommand.createRequestCommand(RequestCode.PULL_MESSAGE, null);
+        return new PullRequest(request, mock(Channel.class), timeoutMillis, System.currentTimeMillis(),
+            pullFromThisOffset, null, new DefaultMessageFilter(null));
+    }
+}
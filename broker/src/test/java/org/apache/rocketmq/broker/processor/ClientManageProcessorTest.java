@@ -18,19 +18,33 @@ package org.apache.rocketmq.broker.processor;
 
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import org.apache.rocketmq.broker.BrokerController;
 import org.apache.rocketmq.broker.client.ClientChannelInfo;
 import org.apache.rocketmq.broker.client.ConsumerGroupInfo;
+import org.apache.rocketmq.client.ClientConfig;
+import org.apache.rocketmq.client.consumer.rebalance.AllocateMessageQueueAveragely;
+import org.apache.rocketmq.client.impl.ClientRemotingProcessor;
+import org.apache.rocketmq.client.impl.MQClientAPIImpl;
 import org.apache.rocketmq.common.BrokerConfig;
+import org.apache.rocketmq.common.message.MessageQueue;
 import org.apache.rocketmq.common.protocol.RequestCode;
 import org.apache.rocketmq.common.protocol.ResponseCode;
 import org.apache.rocketmq.common.protocol.header.UnregisterClientRequestHeader;
 import org.apache.rocketmq.common.protocol.heartbeat.ConsumerData;
+import org.apache.rocketmq.common.protocol.heartbeat.HeartbeatData;
+import org.apache.rocketmq.remoting.netty.ConnectionSelectors;
 import org.apache.rocketmq.remoting.exception.RemotingCommandException;
 import org.apache.rocketmq.remoting.netty.NettyClientConfig;
+import org.apache.rocketmq.remoting.netty.NettyRemotingServer;
 import org.apache.rocketmq.remoting.netty.NettyServerConfig;
 import org.apache.rocketmq.remoting.protocol.LanguageCode;
 import org.apache.rocketmq.remoting.protocol.RemotingCommand;
@@ -109,6 +123,61 @@ public class ClientManageProcessorTest {
         assertThat(consumerGroupInfo).isNull();
     }
 
+    @Test
+    public void processRequest_HeartbeatOverPooledConnections() throws Exception {
+        NettyServerConfig serverConfig = new NettyServerConfig();
+        serverConfig.setListenPort(0);
+        NettyRemotingServer remotingServer = new NettyRemotingServer(serverConfig);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        remotingServer.registerProcessor(RequestCode.HEART_BEAT, clientManageProcessor, executor);
+        remotingServer.start();
+
+        String pooledGroup = "PooledGroup";
+        String addr = "127.0.0.1:" + remotingServer.localListenPort();
+        List<String> clientIds = new ArrayList<String>();
+        List<MQClientAPIImpl> clients = new ArrayList<MQClientAPIImpl>();
+        try {
+            for (int i = 0; i < 2; i++) {
+                NettyClientConfig clientConfig = new NettyClientConfig();
+                clientConfig.setClientConnectionsPerAddr(2);
+                clientConfig.setClientConnectionSelector(ConnectionSelectors.ROUND_ROBIN);
+                MQClientAPIImpl client = new MQClientAPIImpl(clientConfig, new ClientRemotingProcessor(null), null,
+                    new ClientConfig());
+                client.start();
+                clients.add(client);
+
+                HeartbeatData heartbeatData = new HeartbeatData();
+                heartbeatData.setClientID("PooledClient" + i);
+                heartbeatData.getConsumerDataSet().add(createConsumerData(pooledGroup, topic));
+                for (int j = 0; j < 4; j++) {
+                    client.sendHeartbeat(addr, heartbeatData, 3000);
+                }
+                clientIds.add(heartbeatData.getClientID());
+            }
+
+            ConsumerGroupInfo consumerGroupInfo = brokerController.getConsumerManager().getConsumerGroupInfo(pooledGroup);
+            assertThat(consumerGroupInfo.getChannelInfoTable()).hasSize(2);
+            List<String> cidAll = consumerGroupInfo.getAllClientId();
+            assertThat(cidAll).hasSize(2).containsOnlyElementsOf(clientIds);
+
+            List<MessageQueue> mqAll = new ArrayList<MessageQueue>();
+            for (int queueId = 0; queueId < 4; queueId++) {
+                mqAll.add(new MessageQueue(topic, "BrokerA", queueId));
+            }
+            Set<MessageQueue> assigned = new HashSet<MessageQueue>();
+            for (String clientId : clientIds) {
+                assigned.addAll(new AllocateMessageQueueAveragely().allocate(pooledGroup, clientId, mqAll, cidAll));
+            }
+            assertThat(assigned).hasSize(mqAll.size()).containsOnlyElementsOf(mqAll);
+        } finally {
+            for (MQClientAPIImpl client : clients) {
+                client.shutdown();
+            }
+            remotingServer.shutdown();
+            executor.shutdown();
+        }
+    }
+
     private RemotingCommand createUnRegisterProducerCommand() {
         UnregisterClientRequestHeader requestHeader = new UnregisterClientRequestHeader();
         requestHeader.setClientID(clientId);
@@ -23,13 +23,18 @@ import org.apache.rocketmq.broker.mqtrace.SendMessageContext;
 import org.apache.rocketmq.broker.mqtrace.SendMessageHook;
 import org.apache.rocketmq.broker.transaction.TransactionalMessageService;
 import org.apache.rocketmq.common.BrokerConfig;
+import org.apache.rocketmq.common.compression.CompressionType;
+import org.apache.rocketmq.common.compression.CompressorFactory;
+import org.apache.rocketmq.common.message.Message;
 import org.apache.rocketmq.common.message.MessageConst;
 import org.apache.rocketmq.common.message.MessageDecoder;
 import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.common.message.MessageExtBatch;
 import org.apache.rocketmq.common.protocol.RequestCode;
 import org.apache.rocketmq.common.protocol.ResponseCode;
 import org.apache.rocketmq.common.protocol.header.ConsumerSendMsgBackRequestHeader;
 import org.apache.rocketmq.common.protocol.header.SendMessageRequestHeader;
+import org.apache.rocketmq.common.protocol.header.SendMessageRequestHeaderV2;
 import org.apache.rocketmq.common.sysflag.MessageSysFlag;
 import org.apache.rocketmq.common.topic.TopicValidator;
 import org.apache.rocketmq.remoting.exception.RemotingCommandException;
@@ -222,6 +227,56 @@ public class SendMessageProcessorTest {
         assertThat(response[0].getCode()).isEqualTo(ResponseCode.SUCCESS);
 
     }
+    @Test
+    public void testProcessRequest_CompressedBatch() throws Exception {
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            messages.add(new Message(topic, "TagA", ("compressed batch body " + i).getBytes(MessageDecoder.CHARSET_UTF8)));
+        }
+        byte[] body = MessageDecoder.encodeMessages(messages);
+        final MessageExtBatch[] stored = new MessageExtBatch[1];
+        when(messageStore.asyncPutMessages(any(MessageExtBatch.class))).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                stored[0] = invocation.getArgument(0);
+                return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.PUT_OK, new AppendMessageResult(AppendMessageStatus.PUT_OK)));
+            }
+        });
+
+        int sysFlag = MessageSysFlag.COMPRESSED_FLAG | CompressionType.LZ4.getCompressionFlag();
+        byte[] compressed = CompressorFactory.getCompressor(CompressionType.LZ4).compress(body, 5);
+        final RemotingCommand[] response = new RemotingCommand[1];
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                response[0] = invocation.getArgument(0);
+                return null;
+            }
+        }).when(handlerContext).writeAndFlush(any(Object.class));
+        assertThat(sendMessageProcessor.processRequest(handlerContext, createSendBatchMsgCommand(sysFlag, compressed))).isNull();
+        assertThat(response[0].getCode()).isEqualTo(ResponseCode.SUCCESS);
+        assertThat(stored[0].getBody()).isEqualTo(body);
+        assertThat(stored[0].getSysFlag() & (MessageSysFlag.COMPRESSED_FLAG | MessageSysFlag.COMPRESSION_TYPE_COMPARATOR)).isZero();
+    }
+
+    @Test
+    public void testProcessRequest_CorruptedCompressedBatch() throws Exception {
+        int sysFlag = MessageSysFlag.COMPRESSED_FLAG | CompressionType.ZLIB.getCompressionFlag();
+        RemotingCommand response = sendMessageProcessor.processRequest(handlerContext, createSendBatchMsgCommand(sysFlag, new byte[] {'a', 'b'}));
+        assertThat(response.getCode()).isEqualTo(ResponseCode.MESSAGE_ILLEGAL);
+    }
+
+    private RemotingCommand createSendBatchMsgCommand(int sysFlag, byte[] body) {
+        SendMessageRequestHeader requestHeader = createSendMsgRequestHeader();
+        requestHeader.setSysFlag(sysFlag);
+        requestHeader.setBatch(true);
+        RemotingCommand request = RemotingCommand.createRequestCommand(RequestCode.SEND_BATCH_MESSAGE,
+            SendMessageRequestHeaderV2.createSendMessageRequestHeaderV2(requestHeader));
+        request.setBody(body);
+        request.makeCustomHeaderToNet();
+        return request;
+    }
+
     private RemotingCommand createSendTransactionMsgCommand(int requestCode) {
         SendMessageRequestHeader header = createSendMsgRequestHeader();
         int sysFlag = header.getSysFlag();
@@ -28,6 +28,8 @@ import org.apache.rocketmq.client.log.ClientLogger;
 import org.apache.rocketmq.client.producer.RequestFutureHolder;
 import org.apache.rocketmq.client.producer.RequestResponseFuture;
 import org.apache.rocketmq.common.UtilAll;
+import org.apache.rocketmq.common.compression.Compressor;
+import org.apache.rocketmq.common.compression.CompressorFactory;
 import org.apache.rocketmq.common.message.MessageAccessor;
 import org.apache.rocketmq.common.message.MessageConst;
 import org.apache.rocketmq.common.message.MessageDecoder;
@@ -247,7 +249,8 @@ public class ClientRemotingProcessor extends AsyncNettyRequestProcessor implemen
             byte[] body = request.getBody();
             if ((requestHeader.getSysFlag() & MessageSysFlag.COMPRESSED_FLAG) == MessageSysFlag.COMPRESSED_FLAG) {
                 try {
-                    body = UtilAll.uncompress(body);
+                    Compressor compressor = CompressorFactory.getCompressor(MessageSysFlag.getCompressionType(requestHeader.getSysFlag()));
+                    body = compressor.decompress(body);
                 } catch (IOException e) {
                     log.warn("err when uncompress constant", e);
                 }
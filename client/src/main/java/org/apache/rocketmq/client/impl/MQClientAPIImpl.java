@@ -113,6 +113,7 @@ import org.apache.rocketmq.common.protocol.header.GetMinOffsetResponseHeader;
 import org.apache.rocketmq.common.protocol.header.GetProducerConnectionListRequestHeader;
 import org.apache.rocketmq.common.protocol.header.GetTopicStatsInfoRequestHeader;
 import org.apache.rocketmq.common.protocol.header.GetTopicsByClusterRequestHeader;
+import org.apache.rocketmq.common.protocol.header.HeaderCodecs;
 import org.apache.rocketmq.common.protocol.header.PullMessageRequestHeader;
 import org.apache.rocketmq.common.protocol.header.PullMessageResponseHeader;
 import org.apache.rocketmq.common.protocol.header.QueryConsumeQueueRequestHeader;
@@ -176,6 +177,7 @@ public class MQClientAPIImpl {
 
     static {
         System.setProperty(RemotingCommand.REMOTING_VERSION_KEY, Integer.toString(MQVersion.CURRENT_VERSION));
+        HeaderCodecs.registerAll();
     }
 
     private final RemotingClient remotingClient;
@@ -189,7 +191,13 @@ public class MQClientAPIImpl {
         RPCHook rpcHook, final ClientConfig clientConfig) {
         this.clientConfig = clientConfig;
         topAddressing = new TopAddressing(MixAll.getWSAddr(), clientConfig.getUnitName());
-        this.remotingClient = new NettyRemotingClient(nettyClientConfig, null);
+        NettyRemotingClient nettyRemotingClient = new NettyRemotingClient(nettyClientConfig, null);
+        // the broker registers a client for every connection its heartbeats come in on
+        nettyRemotingClient.registerPrimaryConnectionRequestCodes(RequestCode.HEART_BEAT, RequestCode.UNREGISTER_CLIENT);
+        nettyRemotingClient.registerRequestCodeConnection(1, RequestCode.SEND_MESSAGE, RequestCode.SEND_MESSAGE_V2,
+            RequestCode.SEND_BATCH_MESSAGE, RequestCode.SEND_REPLY_MESSAGE, RequestCode.SEND_REPLY_MESSAGE_V2);
+        nettyRemotingClient.registerRequestCodeConnection(2, RequestCode.PULL_MESSAGE);
+        this.remotingClient = nettyRemotingClient;
         this.clientRemotingProcessor = clientRemotingProcessor;
 
         this.remotingClient.registerRPCHook(rpcHook);
@@ -35,6 +35,7 @@ import org.apache.rocketmq.client.trace.TraceDispatcher;
 import org.apache.rocketmq.client.trace.hook.EndTransactionTraceHookImpl;
 import org.apache.rocketmq.client.trace.hook.SendMessageTraceHookImpl;
 import org.apache.rocketmq.common.MixAll;
+import org.apache.rocketmq.common.compression.CompressionType;
 import org.apache.rocketmq.common.message.Message;
 import org.apache.rocketmq.common.message.MessageBatch;
 import org.apache.rocketmq.common.message.MessageClientIDSetter;
@@ -106,6 +107,23 @@ public class DefaultMQProducer extends ClientConfig implements MQProducer {
      */
     private int compressMsgBodyOverHowmuch = 1024 * 4;
 
+    /**
+     * Codec used to compress message bodies over compressMsgBodyOverHowmuch. Consumers must support the codec, zlib is
+     * understood by all of them.
+     */
+    private CompressionType compressType = this.defaultCompressType();
+
+    /**
+     * Compression level passed to the codec, ignored by LZ4.
+     */
+    private int compressLevel = Integer.parseInt(System.getProperty(MixAll.MESSAGE_COMPRESS_LEVEL, "5"));
+
+    /**
+     * Indicate whether a batch whose encoded size is over compressMsgBodyOverHowmuch is compressed as a whole. The
+     * broker expands the batch before storing it, so this needs brokers that support compressed batches.
+     */
+    private boolean compressBatchEnable = false;
+
     /**
      * Maximum number of retry to perform internally before claiming sending failure in synchronous mode. </p>
      *
@@ -130,6 +148,12 @@ public class DefaultMQProducer extends ClientConfig implements MQProducer {
      */
     private int maxMessageSize = 1024 * 1024 * 4; // 4M
 
+    /**
+     * Indicate whether the broker should store message properties in the compact binary layout. Consumers and
+     * brokers must be able to read that layout before this is turned on.
+     */
+    private boolean binaryPropertiesEnable = false;
+
     /**
      * Interface of asynchronous transfer data
      */
@@ -1028,6 +1052,43 @@ public class DefaultMQProducer extends ClientConfig implements MQProducer {
         this.compressMsgBodyOverHowmuch = compressMsgBodyOverHowmuch;
     }
 
+    /**
+     * The codec named by the {@link MixAll#MESSAGE_COMPRESS_TYPE} system property, zlib if it names none.
+     */
+    private CompressionType defaultCompressType() {
+        String name = System.getProperty(MixAll.MESSAGE_COMPRESS_TYPE, "ZLIB");
+        try {
+            return CompressionType.of(name);
+        } catch (IllegalArgumentException e) {
+            log.warn("Unsupported compress type {} of {}, use ZLIB instead", name, MixAll.MESSAGE_COMPRESS_TYPE);
+            return CompressionType.ZLIB;
+        }
+    }
+
+    public CompressionType getCompressType() {
+        return compressType;
+    }
+
+    public void setCompressType(CompressionType compressType) {
+        this.compressType = compressType;
+    }
+
+    public boolean isCompressBatchEnable() {
+        return compressBatchEnable;
+    }
+
+    public void setCompressBatchEnable(boolean compressBatchEnable) {
+        this.compressBatchEnable = compressBatchEnable;
+    }
+
+    public int getCompressLevel() {
+        return compressLevel;
+    }
+
+    public void setCompressLevel(int compressLevel) {
+        this.compressLevel = compressLevel;
+    }
+
     @Deprecated
     public DefaultMQProducerImpl getDefaultMQProducerImpl() {
         return defaultMQProducerImpl;
@@ -1049,6 +1110,14 @@ public class DefaultMQProducer extends ClientConfig implements MQProducer {
         this.maxMessageSize = maxMessageSize;
     }
 
+    public boolean isBinaryPropertiesEnable() {
+        return binaryPropertiesEnable;
+    }
+
+    public void setBinaryPropertiesEnable(boolean binaryPropertiesEnable) {
+        this.binaryPropertiesEnable = binaryPropertiesEnable;
+    }
+
     public int getDefaultTopicQueueNums() {
         return defaultTopicQueueNums;
     }
@@ -41,6 +41,8 @@ import org.apache.rocketmq.client.impl.MQClientManager;
 import org.apache.rocketmq.client.impl.factory.MQClientInstance;
 import org.apache.rocketmq.client.impl.producer.DefaultMQProducerImpl;
 import org.apache.rocketmq.client.impl.producer.TopicPublishInfo;
+import org.apache.rocketmq.common.MixAll;
+import org.apache.rocketmq.common.compression.CompressionType;
 import org.apache.rocketmq.common.message.Message;
 import org.apache.rocketmq.common.message.MessageQueue;
 import org.apache.rocketmq.common.protocol.header.SendMessageRequestHeader;
@@ -116,6 +118,18 @@ public class DefaultMQProducerTest {
         producer.shutdown();
     }
 
+    @Test
+    public void testUnsupportedCompressTypeProperty() {
+        System.setProperty(MixAll.MESSAGE_COMPRESS_TYPE, "unknown");
+        try {
+            assertThat(new DefaultMQProducer("compressGroup").getCompressType()).isEqualTo(CompressionType.ZLIB);
+            System.setProperty(MixAll.MESSAGE_COMPRESS_TYPE, "lz4");
+            assertThat(new DefaultMQProducer("compressGroup").getCompressType()).isEqualTo(CompressionType.LZ4);
+        } finally {
+            System.clearProperty(MixAll.MESSAGE_COMPRESS_TYPE);
+        }
+    }
+
     @Test
     public void testSendMessage_ZeroMessage() throws InterruptedException, RemotingException, MQBrokerException {
         try {
@@ -25,6 +25,7 @@ import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
+import java.nio.ByteBuffer;
 import java.text.NumberFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -252,6 +253,25 @@ public class UtilAll {
         return (int) (crc32.getValue() & 0x7FFFFFFF);
     }
 
+    /**
+     * Computes the same checksum as {@link #crc32(byte[], int, int)} over {@code [offset, offset + length)} of the
+     * buffer without copying it. The buffer position and limit are left unchanged.
+     */
+    public static int crc32(ByteBuffer byteBuffer, int offset, int length) {
+        int position = byteBuffer.position();
+        int limit = byteBuffer.limit();
+        try {
+            byteBuffer.limit(offset + length);
+            byteBuffer.position(offset);
+            CRC32 crc32 = new CRC32();
+            crc32.update(byteBuffer);
+            return (int) (crc32.getValue() & 0x7FFFFFFF);
+        } finally {
+            byteBuffer.limit(limit);
+            byteBuffer.position(position);
+        }
+    }
+
     public static String bytes2string(byte[] src) {
         char[] hexChars = new char[src.length * 2];
         for (int j = 0; j < src.length; j++) {
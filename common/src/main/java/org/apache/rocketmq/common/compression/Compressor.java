@@ -0,0 +1,53 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.common.compression;
+
+import java.io.IOException;
+
+public interface Compressor {
+
+    /**
+     * Compress the message body.
+     *
+     * @param src message body
+     * @param level compression level, codecs without levels ignore it
+     * @return compressed body
+     */
+    byte[] compress(byte[] src, int level) throws IOException;
+
+    /**
+     * Decompress a body produced by {@link #compress(byte[], int)} of the same codec.
+     *
+     * @param src compressed body
+     * @return original body
+     */
+    default byte[] decompress(byte[] src) throws IOException {
+        return decompress(src, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Decompress a body produced by {@link #compress(byte[], int)} of the same codec, giving up as soon as the
+     * original body is known to be larger than {@code maxLength}, before it is expanded in memory.
+     *
+     * @param src compressed body
+     * @param maxLength the maximum length of the original body
+     * @return original body
+     * @throws IOException if the data is corrupted or the original body is larger than {@code maxLength}
+     */
+    byte[] decompress(byte[] src, int maxLength) throws IOException;
+}
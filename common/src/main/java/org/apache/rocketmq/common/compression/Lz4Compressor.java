@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.common.compression;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+/**
+ * LZ4 block codec. The block is prefixed with the original length as a 4 byte big-endian int so that decompression
+ * can allocate the exact output size up front.
+ */
+public class Lz4Compressor implements Compressor {
+    private static final int LENGTH_PREFIX_SIZE = 4;
+
+    private final LZ4Compressor compressor;
+    private final LZ4FastDecompressor decompressor;
+
+    public Lz4Compressor() {
+        LZ4Factory factory = LZ4Factory.fastestInstance();
+        this.compressor = factory.fastCompressor();
+        this.decompressor = factory.fastDecompressor();
+    }
+
+    @Override
+    public byte[] compress(byte[] src, int level) throws IOException {
+        int maxLength = this.compressor.maxCompressedLength(src.length);
+        byte[] buffer = new byte[LENGTH_PREFIX_SIZE + maxLength];
+        ByteBuffer.wrap(buffer).putInt(src.length);
+        try {
+            int compressedLength = this.compressor.compress(src, 0, src.length, buffer, LENGTH_PREFIX_SIZE, maxLength);
+            byte[] result = new byte[LENGTH_PREFIX_SIZE + compressedLength];
+            System.arraycopy(buffer, 0, result, 0, result.length);
+            return result;
+        } catch (LZ4Exception e) {
+            throw new IOException("Failed to compress data by lz4", e);
+        }
+    }
+
+    @Override
+    public byte[] decompress(byte[] src, int maxLength) throws IOException {
+        if (src.length < LENGTH_PREFIX_SIZE) {
+            throw new IOException("Invalid lz4 data, length " + src.length);
+        }
+        int length = ByteBuffer.wrap(src).getInt();
+        if (length < 0) {
+            throw new IOException("Invalid lz4 data, original length " + length);
+        }
+        if (length > maxLength) {
+            throw new IOException("Original length " + length + " of lz4 data exceeds " + maxLength);
+        }
+        byte[] result = new byte[length];
+        try {
+            int read = this.decompressor.decompress(src, LENGTH_PREFIX_SIZE, result, 0, length);
+            if (LENGTH_PREFIX_SIZE + read != src.length) {
+                throw new IOException("Invalid lz4 data, " + (src.length - LENGTH_PREFIX_SIZE - read) + " trailing bytes");
+            }
+            return result;
+        } catch (LZ4Exception e) {
+            throw new IOException("Failed to decompress data by lz4", e);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.common.compression;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import org.apache.rocketmq.common.UtilAll;
+
+/**
+ * The deflate codec every producer used before codecs became selectable. Deflate does not record the original
+ * length, so decompression is bounded by counting the inflated bytes as they are produced.
+ */
+public class ZlibCompressor implements Compressor {
+
+    @Override
+    public byte[] compress(byte[] src, int level) throws IOException {
+        return UtilAll.compress(src, level);
+    }
+
+    @Override
+    public byte[] decompress(byte[] src, int maxLength) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(src);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(src.length, maxLength));
+            byte[] buffer = new byte[Math.max(Math.min(src.length, maxLength), 512)];
+            while (!inflater.finished()) {
+                int len = inflater.inflate(buffer);
+                if (len == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Invalid zlib data, unexpected end of stream");
+                }
+                if (out.size() + (long) len > maxLength) {
+                    throw new IOException("Original length of zlib data exceeds " + maxLength);
+                }
+                out.write(buffer, 0, len);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException("Failed to decompress data by zlib", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
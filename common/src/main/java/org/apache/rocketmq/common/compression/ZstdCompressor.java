@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.common.compression;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdException;
+import java.io.IOException;
+
+/**
+ * Zstandard codec. The frame written by {@link Zstd#compress(byte[], int)} records the original length, which is used
+ * to size and bound the output on decompression.
+ */
+public class ZstdCompressor implements Compressor {
+
+    @Override
+    public byte[] compress(byte[] src, int level) throws IOException {
+        try {
+            return Zstd.compress(src, level);
+        } catch (ZstdException e) {
+            throw new IOException("Failed to compress data by zstd", e);
+        }
+    }
+
+    @Override
+    public byte[] decompress(byte[] src, int maxLength) throws IOException {
+        long length = Zstd.decompressedSize(src);
+        if (length <= 0 || length > Integer.MAX_VALUE) {
+            throw new IOException("Invalid zstd data, original length " + length);
+        }
+        if (length > maxLength) {
+            throw new IOException("Original length " + length + " of zstd data exceeds " + maxLength);
+        }
+        try {
+            return Zstd.decompress(src, (int) length);
+        } catch (ZstdException e) {
+            throw new IOException("Failed to decompress data by zstd", e);
+        }
+    }
+}
@@ -54,6 +54,8 @@ public class MessageConst {
     public static final String PROPERTY_MESSAGE_TYPE = "MSG_TYPE";
     public static final String PROPERTY_INNER_MULTI_DISPATCH = "INNER_MULTI_DISPATCH";
     public static final String PROPERTY_INNER_MULTI_QUEUE_OFFSET = "INNER_MULTI_QUEUE_OFFSET";
+    public static final String PROPERTY_TIMER_DELIVER_MS = "TIMER_DELIVER_MS";
+    public static final String PROPERTY_TIMER_DELAY_MS = "TIMER_DELAY_MS";
 
     public static final String KEY_SEPARATOR = " ";
 
@@ -91,5 +93,7 @@ public class MessageConst {
         STRING_HASH_SET.add(PROPERTY_CLUSTER);
         STRING_HASH_SET.add(PROPERTY_MESSAGE_TYPE);
         STRING_HASH_SET.add(PROPERTY_INNER_MULTI_QUEUE_OFFSET);
+        STRING_HASH_SET.add(PROPERTY_TIMER_DELIVER_MS);
+        STRING_HASH_SET.add(PROPERTY_TIMER_DELAY_MS);
     }
 }
@@ -28,6 +28,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import org.apache.rocketmq.common.UtilAll;
+import org.apache.rocketmq.common.compression.Compressor;
+import org.apache.rocketmq.common.compression.CompressorFactory;
 import org.apache.rocketmq.common.sysflag.MessageSysFlag;
 
 public class MessageDecoder {
@@ -134,13 +136,34 @@ public class MessageDecoder {
         if (propertiesLength > 0) {
             byte[] properties = new byte[propertiesLength];
             byteBuffer.get(properties);
-            String propertiesString = new String(properties, CHARSET_UTF8);
-            Map<String, String> map = string2messageProperties(propertiesString);
-            return map;
+            return decodeProperties(properties, 0, propertiesLength, sysFlag);
         }
         return null;
     }
 
+    /**
+     * Decode a stored properties block, which is in the binary layout if the sysFlag carries
+     * {@link MessageSysFlag#BINARY_PROPERTIES_FLAG} and in the legacy string layout otherwise.
+     */
+    public static Map<String, String> decodeProperties(byte[] properties, int offset, int length, int sysFlag) {
+        if ((sysFlag & MessageSysFlag.BINARY_PROPERTIES_FLAG) == MessageSysFlag.BINARY_PROPERTIES_FLAG) {
+            return MessagePropertiesCodec.decode(properties, offset, length);
+        }
+        return string2messageProperties(new String(properties, offset, length, CHARSET_UTF8));
+    }
+
+    /**
+     * Encode properties into a stored properties block, in the layout selected by the sysFlag.
+     *
+     * @return the properties block, or null if a property is too long for the binary layout
+     */
+    public static byte[] encodeProperties(Map<String, String> properties, int sysFlag) {
+        if ((sysFlag & MessageSysFlag.BINARY_PROPERTIES_FLAG) == MessageSysFlag.BINARY_PROPERTIES_FLAG) {
+            return MessagePropertiesCodec.encode(properties);
+        }
+        return messageProperties2String(properties).getBytes(CHARSET_UTF8);
+    }
+
     public static MessageExt decode(ByteBuffer byteBuffer) {
         return decode(byteBuffer, true, true, false);
     }
@@ -157,15 +180,18 @@ public class MessageDecoder {
         byte[] body = messageExt.getBody();
         byte[] topics = messageExt.getTopic().getBytes(CHARSET_UTF8);
         byte topicLen = (byte) topics.length;
-        String properties = messageProperties2String(messageExt.getProperties());
-        byte[] propertiesBytes = properties.getBytes(CHARSET_UTF8);
-        short propertiesLength = (short) propertiesBytes.length;
         int sysFlag = messageExt.getSysFlag();
+        byte[] propertiesBytes = encodeProperties(messageExt.getProperties(), sysFlag);
+        if (propertiesBytes == null) {
+            throw new IllegalArgumentException("Message properties are too long for the binary layout");
+        }
+        short propertiesLength = (short) propertiesBytes.length;
         int bornhostLength = (sysFlag & MessageSysFlag.BORNHOST_V6_FLAG) == 0 ? 8 : 20;
         int storehostAddressLength = (sysFlag & MessageSysFlag.STOREHOSTADDRESS_V6_FLAG) == 0 ? 8 : 20;
         byte[] newBody = messageExt.getBody();
         if (needCompress && (sysFlag & MessageSysFlag.COMPRESSED_FLAG) == MessageSysFlag.COMPRESSED_FLAG) {
-            newBody = UtilAll.compress(body, 5);
+            Compressor compressor = CompressorFactory.getCompressor(MessageSysFlag.getCompressionType(sysFlag));
+            newBody = compressor.compress(body, 5);
         }
         int bodyLength = newBody.length;
         int storeSize = messageExt.getStoreSize();
@@ -349,7 +375,8 @@ public class MessageDecoder {
 
                     // uncompress body
                     if (deCompressBody && (sysFlag & MessageSysFlag.COMPRESSED_FLAG) == MessageSysFlag.COMPRESSED_FLAG) {
-                        body = UtilAll.uncompress(body);
+                        Compressor compressor = CompressorFactory.getCompressor(MessageSysFlag.getCompressionType(sysFlag));
+                        body = compressor.decompress(body);
                     }
 
                     msgExt.setBody(body);
@@ -369,9 +396,7 @@ public class MessageDecoder {
             if (propertiesLength > 0) {
                 byte[] properties = new byte[propertiesLength];
                 byteBuffer.get(properties);
-                String propertiesString = new String(properties, CHARSET_UTF8);
-                Map<String, String> map = string2messageProperties(propertiesString);
-                msgExt.setProperties(map);
+                msgExt.setProperties(decodeProperties(properties, 0, propertiesLength, sysFlag));
             }
 
             int msgIDLength = storehostIPLength + 4 + 8;
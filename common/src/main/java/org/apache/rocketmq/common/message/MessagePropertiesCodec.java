@@ -0,0 +1,284 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.common.message;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Binary layout of the message properties block, used instead of the separator joined string when a message carries
+ * {@link org.apache.rocketmq.common.sysflag.MessageSysFlag#BINARY_PROPERTIES_FLAG}.
+ * <p>
+ * The block is a sequence of entries, each made of a key reference followed by the value:
+ * <pre>
+ * entry  := key value
+ * key    := id (1 byte, 1..127, a well known key from the dictionary below)
+ *         | 0 (1 byte) length bytes (a UTF-8 encoded custom key)
+ * value  := length bytes (UTF-8 encoded)
+ * length := 0xxxxxxx (0..127) | 1xxxxxxx xxxxxxxx (0..32767)
+ * </pre>
+ * The dictionary is append only: ids must never be reassigned once released.
+ */
+public class MessagePropertiesCodec {
+    public static final int CUSTOM_KEY_ID = 0;
+
+    private static final String[] WELL_KNOWN_KEYS = {
+        null,
+        MessageConst.PROPERTY_KEYS,
+        MessageConst.PROPERTY_TAGS,
+        MessageConst.PROPERTY_WAIT_STORE_MSG_OK,
+        MessageConst.PROPERTY_DELAY_TIME_LEVEL,
+        MessageConst.PROPERTY_RETRY_TOPIC,
+        MessageConst.PROPERTY_REAL_TOPIC,
+        MessageConst.PROPERTY_REAL_QUEUE_ID,
+        MessageConst.PROPERTY_TRANSACTION_PREPARED,
+        MessageConst.PROPERTY_PRODUCER_GROUP,
+        MessageConst.PROPERTY_MIN_OFFSET,
+        MessageConst.PROPERTY_MAX_OFFSET,
+        MessageConst.PROPERTY_BUYER_ID,
+        MessageConst.PROPERTY_ORIGIN_MESSAGE_ID,
+        MessageConst.PROPERTY_TRANSFER_FLAG,
+        MessageConst.PROPERTY_CORRECTION_FLAG,
+        MessageConst.PROPERTY_MQ2_FLAG,
+        MessageConst.PROPERTY_RECONSUME_TIME,
+        MessageConst.PROPERTY_MSG_REGION,
+        MessageConst.PROPERTY_TRACE_SWITCH,
+        MessageConst.PROPERTY_UNIQ_CLIENT_MESSAGE_ID_KEYIDX,
+        MessageConst.PROPERTY_MAX_RECONSUME_TIMES,
+        MessageConst.PROPERTY_CONSUME_START_TIMESTAMP,
+        MessageConst.PROPERTY_TRANSACTION_PREPARED_QUEUE_OFFSET,
+        MessageConst.PROPERTY_TRANSACTION_CHECK_TIMES,
+        MessageConst.PROPERTY_CHECK_IMMUNITY_TIME_IN_SECONDS,
+        MessageConst.PROPERTY_INSTANCE_ID,
+        MessageConst.PROPERTY_CORRELATION_ID,
+        MessageConst.PROPERTY_MESSAGE_REPLY_TO_CLIENT,
+        MessageConst.PROPERTY_MESSAGE_TTL,
+        MessageConst.PROPERTY_REPLY_MESSAGE_ARRIVE_TIME,
+        MessageConst.PROPERTY_PUSH_REPLY_TIME,
+        MessageConst.PROPERTY_CLUSTER,
+        MessageConst.PROPERTY_MESSAGE_TYPE,
+        MessageConst.PROPERTY_INNER_MULTI_DISPATCH,
+        MessageConst.PROPERTY_INNER_MULTI_QUEUE_OFFSET
+    };
+
+    private static final Map<String, Integer> KEY_IDS = new HashMap<>(WELL_KNOWN_KEYS.length * 2);
+
+    private static final int MAX_LENGTH = 0x7FFF;
+
+    static {
+        for (int i = 1; i < WELL_KNOWN_KEYS.length; i++) {
+            KEY_IDS.put(WELL_KNOWN_KEYS[i], i);
+        }
+    }
+
+    /**
+     * @return the dictionary id of a well known property, or {@link #CUSTOM_KEY_ID} if the key is not in the dictionary
+     */
+    public static int keyId(final String name) {
+        Integer id = KEY_IDS.get(name);
+        return id == null ? CUSTOM_KEY_ID : id;
+    }
+
+    /**
+     * @return the well known property with the given dictionary id, or null if the id is unknown
+     */
+    public static String keyName(final int id) {
+        if (id <= CUSTOM_KEY_ID || id >= WELL_KNOWN_KEYS.length) {
+            return null;
+        }
+        return WELL_KNOWN_KEYS[id];
+    }
+
+    /**
+     * Reads the length field starting at {@code index}.
+     */
+    public static int lengthAt(final byte[] bytes, final int index) {
+        int first = bytes[index];
+        if (first >= 0) {
+            return first;
+        }
+        return ((first & 0x7F) << 8) | (bytes[index + 1] & 0xFF);
+    }
+
+    /**
+     * @return how many bytes the length field starting at {@code index} takes
+     */
+    public static int lengthSizeAt(final byte[] bytes, final int index) {
+        return bytes[index] >= 0 ? 1 : 2;
+    }
+
+    /**
+     * @return the binary properties block, or null if a key or value is longer than the length field can hold, which
+     * callers report as oversized properties
+     */
+    public static byte[] encode(final Map<String, String> properties) {
+        return encode(properties, null);
+    }
+
+    /**
+     * Same as {@link #encode(Map)}, leaving out the property named excludedName.
+     */
+    public static byte[] encode(final Map<String, String> properties, final String excludedName) {
+        if (properties == null || properties.isEmpty()) {
+            return new byte[0];
+        }
+
+        int size = 0;
+        int count = 0;
+        byte[][] encoded = new byte[properties.size() * 2][];
+        for (final Map.Entry<String, String> entry : properties.entrySet()) {
+            final String name = entry.getKey();
+            final String value = entry.getValue();
+            if (name == null || value == null || name.equals(excludedName)) {
+                continue;
+            }
+            byte[] nameBytes = null;
+            if (keyId(name) == CUSTOM_KEY_ID) {
+                nameBytes = name.getBytes(MessageDecoder.CHARSET_UTF8);
+                if (nameBytes.length > MAX_LENGTH) {
+                    return null;
+                }
+                size += lengthSize(nameBytes.length) + nameBytes.length;
+            }
+            byte[] valueBytes = value.getBytes(MessageDecoder.CHARSET_UTF8);
+            if (valueBytes.length > MAX_LENGTH) {
+                return null;
+            }
+            size += 1 + lengthSize(valueBytes.length) + valueBytes.length;
+            encoded[count++] = nameBytes;
+            encoded[count++] = valueBytes;
+        }
+
+        byte[] bytes = new byte[size];
+        int index = 0;
+        count = 0;
+        for (final Map.Entry<String, String> entry : properties.entrySet()) {
+            if (entry.getKey() == null || entry.getValue() == null || entry.getKey().equals(excludedName)) {
+                continue;
+            }
+            byte[] nameBytes = encoded[count++];
+            byte[] valueBytes = encoded[count++];
+            if (nameBytes == null) {
+                bytes[index++] = (byte) keyId(entry.getKey());
+            } else {
+                bytes[index++] = CUSTOM_KEY_ID;
+                index = putBytes(bytes, index, nameBytes, 0, nameBytes.length);
+            }
+            index = putBytes(bytes, index, valueBytes, 0, valueBytes.length);
+        }
+        return bytes;
+    }
+
+    /**
+     * Converts properties in the separator joined string layout, read the same way as
+     * {@link MessageDecoder#string2messageProperties(String)}, to the binary block without building the property map.
+     * Entries keep their order, so of duplicated properties the last one still wins when decoded.
+     *
+     * @return the binary properties block, or null if a key or value is longer than the length field can hold
+     */
+    public static byte[] transcode(final byte[] bytes, final int offset, final int length) {
+        final int end = offset + length;
+        int entries = 1;
+        for (int i = offset; i < end; i++) {
+            if (bytes[i] == MessageDecoder.PROPERTY_SEPARATOR) {
+                entries++;
+            }
+        }
+        // an entry takes at most 4 more bytes than in the string layout: a key id and 2 length fields of 2 bytes
+        // instead of the 2 separators
+        byte[] block = new byte[length + 4 * entries];
+        int blockIndex = 0;
+        int index = offset;
+        while (index < end) {
+            int entryEnd = indexOf(bytes, MessageDecoder.PROPERTY_SEPARATOR, index, end);
+            if (entryEnd - index >= 3) {
+                int kvSepIndex = indexOf(bytes, MessageDecoder.NAME_VALUE_SEPARATOR, index, end);
+                if (kvSepIndex > index && kvSepIndex < entryEnd - 1) {
+                    int nameLength = kvSepIndex - index;
+                    int valueLength = entryEnd - kvSepIndex - 1;
+                    if (nameLength > MAX_LENGTH || valueLength > MAX_LENGTH) {
+                        return null;
+                    }
+                    int id = keyId(new String(bytes, index, nameLength, MessageDecoder.CHARSET_UTF8));
+                    block[blockIndex++] = (byte) id;
+                    if (id == CUSTOM_KEY_ID) {
+                        blockIndex = putBytes(block, blockIndex, bytes, index, nameLength);
+                    }
+                    blockIndex = putBytes(block, blockIndex, bytes, kvSepIndex + 1, valueLength);
+                }
+            }
+            index = entryEnd + 1;
+        }
+        return blockIndex == block.length ? block : Arrays.copyOf(block, blockIndex);
+    }
+
+    public static Map<String, String> decode(final byte[] bytes, final int offset, final int length) {
+        Map<String, String> map = new HashMap<String, String>();
+        int index = offset;
+        int end = offset + length;
+        while (index < end) {
+            int id = bytes[index++];
+            String name;
+            if (id == CUSTOM_KEY_ID) {
+                int nameLength = lengthAt(bytes, index);
+                index += lengthSizeAt(bytes, index);
+                name = new String(bytes, index, nameLength, MessageDecoder.CHARSET_UTF8);
+                index += nameLength;
+            } else {
+                name = keyName(id);
+            }
+            int valueLength = lengthAt(bytes, index);
+            index += lengthSizeAt(bytes, index);
+            if (name != null) {
+                map.put(name, new String(bytes, index, valueLength, MessageDecoder.CHARSET_UTF8));
+            }
+            index += valueLength;
+        }
+        return map;
+    }
+
+    private static int lengthSize(final int length) {
+        return length < 0x80 ? 1 : 2;
+    }
+
+    private static int putBytes(final byte[] bytes, final int index, final byte[] src, final int srcOffset,
+        final int srcLength) {
+        int i = index;
+        if (srcLength < 0x80) {
+            bytes[i++] = (byte) srcLength;
+        } else {
+            bytes[i++] = (byte) (0x80 | (srcLength >>> 8));
+            bytes[i++] = (byte) srcLength;
+        }
+        System.arraycopy(src, srcOffset, bytes, i, srcLength);
+        return i + srcLength;
+    }
+
+    /**
+     * @return index of the first separator at or after from, or end if there is none
+     */
+    private static int indexOf(final byte[] bytes, final char separator, final int from, final int end) {
+        for (int i = from; i < end; i++) {
+            if (bytes[i] == separator) {
+                return i;
+            }
+        }
+        return end;
+    }
+}
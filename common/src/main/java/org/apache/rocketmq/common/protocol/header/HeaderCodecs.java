@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.common.protocol.header;
+
+import io.netty.buffer.ByteBuf;
+import org.apache.rocketmq.remoting.exception.RemotingCommandException;
+import org.apache.rocketmq.remoting.protocol.HeaderCodec;
+import org.apache.rocketmq.remoting.protocol.HeaderCodecRegistry;
+
+/**
+ * Header codecs used by {@link org.apache.rocketmq.remoting.protocol.SerializeType#ROCKETMQ_BINARY}. The ids and
+ * the field order are part of the wire format, a new field is only ever appended and an id is never reused.
+ */
+public class HeaderCodecs {
+    public static final short SEND_MESSAGE_REQUEST_HEADER_V2 = 1;
+    public static final short SEND_MESSAGE_RESPONSE_HEADER = 2;
+    public static final short PULL_MESSAGE_REQUEST_HEADER = 3;
+    public static final short PULL_MESSAGE_RESPONSE_HEADER = 4;
+
+    static final HeaderCodec<SendMessageRequestHeaderV2> SEND_MESSAGE_REQUEST_HEADER_V2_CODEC =
+        new HeaderCodec<SendMessageRequestHeaderV2>() {
+            @Override
+            public void encode(SendMessageRequestHeaderV2 header, ByteBuf out) {
+                writeString(out, header.getA());
+                writeString(out, header.getB());
+                writeString(out, header.getC());
+                writeInteger(out, header.getD());
+                writeInteger(out, header.getE());
+                writeInteger(out, header.getF());
+                writeLong(out, header.getG());
+                writeInteger(out, header.getH());
+                writeString(out, header.getI());
+                writeInteger(out, header.getJ());
+                out.writeBoolean(header.isK());
+                writeInteger(out, header.getL());
+                out.writeBoolean(header.isM());
+            }
+
+            @Override
+            public SendMessageRequestHeaderV2 decode(ByteBuf in) throws RemotingCommandException {
+                SendMessageRequestHeaderV2 header = new SendMessageRequestHeaderV2();
+                header.setA(checkNotNull(readString(in), "a"));
+                header.setB(checkNotNull(readString(in), "b"));
+                header.setC(checkNotNull(readString(in), "c"));
+                header.setD(checkNotNull(readInteger(in), "d"));
+                header.setE(checkNotNull(readInteger(in), "e"));
+                header.setF(checkNotNull(readInteger(in), "f"));
+                header.setG(checkNotNull(readLong(in), "g"));
+                header.setH(checkNotNull(readInteger(in), "h"));
+                header.setI(readString(in));
+                header.setJ(readInteger(in));
+                header.setK(in.readBoolean());
+                header.setL(readInteger(in));
+                header.setM(in.readBoolean());
+                return header;
+            }
+        };
+
+    static final HeaderCodec<SendMessageResponseHeader> SEND_MESSAGE_RESPONSE_HEADER_CODEC =
+        new HeaderCodec<SendMessageResponseHeader>() {
+            @Override
+            public void encode(SendMessageResponseHeader header, ByteBuf out) {
+                writeString(out, header.getMsgId());
+                writeInteger(out, header.getQueueId());
+                writeLong(out, header.getQueueOffset());
+                writeString(out, header.getTransactionId());
+            }
+
+            @Override
+            public SendMessageResponseHeader decode(ByteBuf in) throws RemotingCommandException {
+                SendMessageResponseHeader header = new SendMessageResponseHeader();
+                header.setMsgId(checkNotNull(readString(in), "msgId"));
+                header.setQueueId(checkNotNull(readInteger(in), "queueId"));
+                header.setQueueOffset(checkNotNull(readLong(in), "queueOffset"));
+                header.setTransactionId(readString(in));
+                return header;
+            }
+        };
+
+    static final HeaderCodec<PullMessageRequestHeader> PULL_MESSAGE_REQUEST_HEADER_CODEC =
+        new HeaderCodec<PullMessageRequestHeader>() {
+            @Override
+            public void encode(PullMessageRequestHeader header, ByteBuf out) {
+                writeString(out, header.getConsumerGroup());
+                writeString(out, header.getTopic());
+                writeInteger(out, header.getQueueId());
+                writeLong(out, header.getQueueOffset());
+                writeInteger(out, header.getMaxMsgNums());
+                writeInteger(out, header.getSysFlag());
+                writeLong(out, header.getCommitOffset());
+                writeLong(out, header.getSuspendTimeoutMillis());
+                writeString(out, header.getSubscription());
+                writeLong(out, header.getSubVersion());
+                writeString(out, header.getExpressionType());
+            }
+
+            @Override
+            public PullMessageRequestHeader decode(ByteBuf in) throws RemotingCommandException {
+                PullMessageRequestHeader header = new PullMessageRequestHeader();
+                header.setConsumerGroup(checkNotNull(readString(in), "consumerGroup"));
+                header.setTopic(checkNotNull(readString(in), "topic"));
+                header.setQueueId(checkNotNull(readInteger(in), "queueId"));
+                header.setQueueOffset(checkNotNull(readLong(in), "queueOffset"));
+                header.setMaxMsgNums(checkNotNull(readInteger(in), "maxMsgNums"));
+                header.setSysFlag(checkNotNull(readInteger(in), "sysFlag"));
+                header.setCommitOffset(checkNotNull(readLong(in), "commitOffset"));
+                header.setSuspendTimeoutMillis(checkNotNull(readLong(in), "suspendTimeoutMillis"));
+                header.setSubscription(readString(in));
+                header.setSubVersion(checkNotNull(readLong(in), "subVersion"));
+                header.setExpressionType(readString(in));
+                return header;
+            }
+        };
+
+    static final HeaderCodec<PullMessageResponseHeader> PULL_MESSAGE_RESPONSE_HEADER_CODEC =
+        new HeaderCodec<PullMessageResponseHeader>() {
+            @Override
+            public void encode(PullMessageResponseHeader header, ByteBuf out) {
+                writeLong(out, header.getSuggestWhichBrokerId());
+                writeLong(out, header.getNextBeginOffset());
+                writeLong(out, header.getMinOffset());
+                writeLong(out, header.getMaxOffset());
+            }
+
+            @Override
+            public PullMessageResponseHeader decode(ByteBuf in) throws RemotingCommandException {
+                PullMessageResponseHeader header = new PullMessageResponseHeader();
+                header.setSuggestWhichBrokerId(checkNotNull(readLong(in), "suggestWhichBrokerId"));
+                header.setNextBeginOffset(checkNotNull(readLong(in), "nextBeginOffset"));
+                header.setMinOffset(checkNotNull(readLong(in), "minOffset"));
+                header.setMaxOffset(checkNotNull(readLong(in), "maxOffset"));
+                return header;
+            }
+        };
+
+    public static void registerAll() {
+        HeaderCodecRegistry.register(SEND_MESSAGE_REQUEST_HEADER_V2, SendMessageRequestHeaderV2.class, SEND_MESSAGE_REQUEST_HEADER_V2_CODEC);
+        HeaderCodecRegistry.register(SEND_MESSAGE_RESPONSE_HEADER, SendMessageResponseHeader.class, SEND_MESSAGE_RESPONSE_HEADER_CODEC);
+        HeaderCodecRegistry.register(PULL_MESSAGE_REQUEST_HEADER, PullMessageRequestHeader.class, PULL_MESSAGE_REQUEST_HEADER_CODEC);
+        HeaderCodecRegistry.register(PULL_MESSAGE_RESPONSE_HEADER, PullMessageResponseHeader.class, PULL_MESSAGE_RESPONSE_HEADER_CODEC);
+    }
+}
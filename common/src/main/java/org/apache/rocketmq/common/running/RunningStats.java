@@ -22,4 +22,9 @@ public enum RunningStats {
     commitLogDiskRatio,
     consumeQueueDiskRatio,
     scheduleMessageOffset,
+    scheduleMessageBacklog,
+    scheduleMessageDeliverLatency,
+    timerEnqueueBehindMessages,
+    timerDequeueBehindMillis,
+    timerDeliverPendingRequests,
 }
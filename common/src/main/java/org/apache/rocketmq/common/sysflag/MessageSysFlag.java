@@ -16,6 +16,8 @@
  */
 package org.apache.rocketmq.common.sysflag;
 
+import org.apache.rocketmq.common.compression.CompressionType;
+
 public class MessageSysFlag {
     public final static int COMPRESSED_FLAG = 0x1;
     public final static int MULTI_TAGS_FLAG = 0x1 << 1;
@@ -25,6 +27,19 @@ public class MessageSysFlag {
     public final static int TRANSACTION_ROLLBACK_TYPE = 0x3 << 2;
     public final static int BORNHOST_V6_FLAG = 0x1 << 4;
     public final static int STOREHOSTADDRESS_V6_FLAG = 0x1 << 5;
+    /**
+     * The properties block is stored in the binary layout of MessagePropertiesCodec instead of the separator
+     * joined string.
+     */
+    public final static int BINARY_PROPERTIES_FLAG = 0x1 << 6;
+    /**
+     * Bits 8-10 tell which codec compressed the body when COMPRESSED_FLAG is set. Zero means zlib, the only codec
+     * known to older producers.
+     */
+    public final static int COMPRESSION_LZ4_TYPE = 0x1 << 8;
+    public final static int COMPRESSION_ZSTD_TYPE = 0x2 << 8;
+    public final static int COMPRESSION_ZLIB_TYPE = 0x3 << 8;
+    public final static int COMPRESSION_TYPE_COMPARATOR = 0x7 << 8;
 
     public static int getTransactionValue(final int flag) {
         return flag & TRANSACTION_ROLLBACK_TYPE;
@@ -35,7 +50,12 @@ public class MessageSysFlag {
     }
 
     public static int clearCompressedFlag(final int flag) {
-        return flag & (~COMPRESSED_FLAG);
+        return flag & (~(COMPRESSED_FLAG | COMPRESSION_TYPE_COMPARATOR));
+    }
+
+    public static CompressionType getCompressionType(final int flag) {
+        int value = (flag & COMPRESSION_TYPE_COMPARATOR) >> 8;
+        return value == 0 ? CompressionType.ZLIB : CompressionType.findByValue(value);
     }
 
 }
@@ -22,6 +22,8 @@ public class TopicSysFlag {
 
     private final static int FLAG_UNIT_SUB = 0x1 << 1;
 
+    private final static int FLAG_COMPACTION = 0x1 << 2;
+
     public static int buildSysFlag(final boolean unit, final boolean hasUnitSub) {
         int sysFlag = 0;
 
@@ -59,4 +61,16 @@ public class TopicSysFlag {
     public static boolean hasUnitSubFlag(final int sysFlag) {
         return (sysFlag & FLAG_UNIT_SUB) == FLAG_UNIT_SUB;
     }
+
+    public static int setCompactionFlag(final int sysFlag) {
+        return sysFlag | FLAG_COMPACTION;
+    }
+
+    public static int clearCompactionFlag(final int sysFlag) {
+        return sysFlag & (~FLAG_COMPACTION);
+    }
+
+    public static boolean hasCompactionFlag(final int sysFlag) {
+        return (sysFlag & FLAG_COMPACTION) == FLAG_COMPACTION;
+    }
 }
@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.common.compression;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.common.sysflag.MessageSysFlag;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class CompressorTest {
+
+    private static byte[] jsonPayload(int size) {
+        StringBuilder sb = new StringBuilder(size + 64);
+        Random random = new Random(0);
+        sb.append('[');
+        while (sb.length() < size) {
+            sb.append("{\"id\":").append(random.nextInt(100000))
+                .append(",\"name\":\"user-").append(random.nextInt(1000))
+                .append("\",\"active\":").append(random.nextBoolean()).append("},");
+        }
+        sb.setLength(size - 1);
+        sb.append(']');
+        return sb.toString().getBytes(MessageDecoder.CHARSET_UTF8);
+    }
+
+    @Test
+    public void testCompressAndDecompress() throws IOException {
+        byte[] src = jsonPayload(8 * 1024);
+        for (CompressionType type : CompressionType.values()) {
+            Compressor compressor = CompressorFactory.getCompressor(type);
+            byte[] compressed = compressor.compress(src, 5);
+            assertThat(compressed.length).isLessThan(src.length);
+            assertThat(compressor.decompress(compressed)).isEqualTo(src);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testLz4DecompressCorrupted() throws IOException {
+        Compressor compressor = CompressorFactory.getCompressor(CompressionType.LZ4);
+        byte[] compressed = compressor.compress(jsonPayload(1024), 5);
+        ByteBuffer.wrap(compressed).putInt(0, 1024 * 1024);
+        compressor.decompress(compressed);
+    }
+
+    @Test
+    public void testDecompressBounded() throws IOException {
+        // a highly compressible body, the way a decompression bomb looks
+        byte[] src = new byte[64 * 1024];
+        for (CompressionType type : CompressionType.values()) {
+            Compressor compressor = CompressorFactory.getCompressor(type);
+            byte[] compressed = compressor.compress(src, 5);
+            assertThat(compressor.decompress(compressed, src.length)).isEqualTo(src);
+            try {
+                compressor.decompress(compressed, src.length - 1);
+                fail(type + " decompressed beyond the limit");
+            } catch (IOException e) {
+                assertThat(e).hasMessageContaining("exceeds");
+            }
+        }
+    }
+
+    @Test
+    public void testCompressionFlag() {
+        for (CompressionType type : CompressionType.values()) {
+            int sysFlag = MessageSysFlag.COMPRESSED_FLAG | type.getCompressionFlag();
+            assertThat(MessageSysFlag.getCompressionType(sysFlag)).isEqualTo(type);
+            assertThat(MessageSysFlag.clearCompressedFlag(sysFlag)).isZero();
+            assertThat(CompressionType.of(type.name().toLowerCase())).isEqualTo(type);
+        }
+        // producers from before codec selection never set the type bits
+        assertThat(MessageSysFlag.getCompressionType(MessageSysFlag.COMPRESSED_FLAG)).isEqualTo(CompressionType.ZLIB);
+    }
+
+    @Test
+    public void testMessageDecoder() throws Exception {
+        for (CompressionType type : CompressionType.values()) {
+            byte[] body = jsonPayload(4 * 1024);
+            MessageExt msg = new MessageExt();
+            msg.setTopic("abc");
+            msg.setBody(body);
+            msg.setBornHost(new InetSocketAddress("127.0.0.1", 9000));
+            msg.setStoreHost(new InetSocketAddress("127.0.0.1", 9000));
+            msg.setSysFlag(MessageSysFlag.COMPRESSED_FLAG | type.getCompressionFlag());
+
+            byte[] encoded = MessageDecoder.encode(msg, true);
+            assertThat(encoded.length).isLessThan(body.length);
+            MessageExt decoded = MessageDecoder.decode(ByteBuffer.wrap(encoded));
+            assertThat(decoded.getBody()).isEqualTo(body);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.common.message;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.rocketmq.common.sysflag.MessageSysFlag;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MessagePropertiesCodecTest {
+
+    @Test
+    public void testEncodeAndDecode() {
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put(MessageConst.PROPERTY_KEYS, "key1 key2");
+        properties.put(MessageConst.PROPERTY_TAGS, "TagA");
+        properties.put(MessageConst.PROPERTY_UNIQ_CLIENT_MESSAGE_ID_KEYIDX, "7F0000010B6A18B4AAC2126C8E7B0000");
+        properties.put("userKey", "用户值");
+        properties.put("emptyValue", "");
+        StringBuilder longValue = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            longValue.append('v');
+        }
+        properties.put("longValue", longValue.toString());
+        properties.put("nullValue", null);
+
+        byte[] bytes = MessagePropertiesCodec.encode(properties);
+        Map<String, String> decoded = MessagePropertiesCodec.decode(bytes, 0, bytes.length);
+
+        Map<String, String> expected = new HashMap<String, String>(properties);
+        expected.remove("nullValue");
+        assertThat(decoded).isEqualTo(expected);
+
+        byte[] legacy = MessageDecoder.messageProperties2String(properties).getBytes(MessageDecoder.CHARSET_UTF8);
+        assertThat(bytes.length).isLessThan(legacy.length);
+    }
+
+    @Test
+    public void testEncodeExcluded() {
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put(MessageConst.PROPERTY_TAGS, "TagA");
+        properties.put(MessageConst.PROPERTY_WAIT_STORE_MSG_OK, "true");
+
+        byte[] bytes = MessagePropertiesCodec.encode(properties, MessageConst.PROPERTY_WAIT_STORE_MSG_OK);
+        Map<String, String> decoded = MessagePropertiesCodec.decode(bytes, 0, bytes.length);
+        assertThat(decoded).hasSize(1);
+        assertThat(decoded.get(MessageConst.PROPERTY_TAGS)).isEqualTo("TagA");
+    }
+
+    @Test
+    public void testTranscode() {
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put(MessageConst.PROPERTY_KEYS, "key1 key2");
+        properties.put(MessageConst.PROPERTY_TAGS, "TagA");
+        properties.put("userKey", "用户值");
+        StringBuilder longValue = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            longValue.append('v');
+        }
+        properties.put("longValue", longValue.toString());
+        // a duplicated property and entries without a name or value, read the same way as the string layout
+        String string = MessageDecoder.messageProperties2String(properties) + MessageDecoder.PROPERTY_SEPARATOR
+            + "userKey" + MessageDecoder.NAME_VALUE_SEPARATOR + "last" + MessageDecoder.PROPERTY_SEPARATOR
+            + MessageDecoder.NAME_VALUE_SEPARATOR + "noName" + MessageDecoder.PROPERTY_SEPARATOR
+            + "noValue" + MessageDecoder.NAME_VALUE_SEPARATOR;
+        byte[] stringBytes = ("xx" + string).getBytes(MessageDecoder.CHARSET_UTF8);
+
+        byte[] bytes = MessagePropertiesCodec.transcode(stringBytes, 2, stringBytes.length - 2);
+        Map<String, String> decoded = MessagePropertiesCodec.decode(bytes, 0, bytes.length);
+        assertThat(decoded).isEqualTo(MessageDecoder.string2messageProperties(string));
+        assertThat(decoded.get("userKey")).isEqualTo("last");
+
+        assertThat(MessagePropertiesCodec.transcode(new byte[0], 0, 0)).isEmpty();
+    }
+
+    @Test
+    public void testEncodeEmpty() {
+        assertThat(MessagePropertiesCodec.encode(null)).isEmpty();
+        assertThat(MessagePropertiesCodec.decode(new byte[0], 0, 0)).isEmpty();
+    }
+
+    @Test
+    public void testEncodeOversizedValue() {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i <= Short.MAX_VALUE; i++) {
+            value.append('v');
+        }
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put(MessageConst.PROPERTY_TAGS, "TagA");
+        properties.put("userKey", value.toString());
+        assertThat(MessagePropertiesCodec.encode(properties)).isNull();
+
+        properties.put("userKey", value.substring(1));
+        assertThat(MessagePropertiesCodec.encode(properties)).isNotNull();
+    }
+
+    @Test
+    public void testUnknownKeyIdIsSkipped() {
+        byte[] bytes = new byte[] {127, 1, 'x', (byte) MessagePropertiesCodec.keyId(MessageConst.PROPERTY_TAGS), 1, 'a'};
+        Map<String, String> decoded = MessagePropertiesCodec.decode(bytes, 0, bytes.length);
+        assertThat(decoded).hasSize(1);
+        assertThat(decoded.get(MessageConst.PROPERTY_TAGS)).isEqualTo("a");
+    }
+
+    @Test
+    public void testMessageDecoderWithBinaryProperties() throws Exception {
+        MessageExt msg = new MessageExt();
+        msg.setTopic("abc");
+        msg.setBody("hello".getBytes(MessageDecoder.CHARSET_UTF8));
+        msg.setBornHost(new InetSocketAddress("127.0.0.1", 9000));
+        msg.setStoreHost(new InetSocketAddress("127.0.0.1", 9000));
+        msg.setSysFlag(MessageSysFlag.BINARY_PROPERTIES_FLAG);
+        msg.setTags("TagA");
+        msg.setKeys("key");
+        msg.putUserProperty("a", "123");
+
+        byte[] encoded = MessageDecoder.encode(msg, false);
+        MessageExt decoded = MessageDecoder.decode(ByteBuffer.wrap(encoded));
+        assertThat(decoded.getProperties()).isEqualTo(msg.getProperties());
+        assertThat(MessageDecoder.decodeProperties(ByteBuffer.wrap(encoded))).isEqualTo(msg.getProperties());
+
+        msg.setSysFlag(0);
+        encoded = MessageDecoder.encode(msg, false);
+        decoded = MessageDecoder.decode(ByteBuffer.wrap(encoded));
+        assertThat(decoded.getProperties()).isEqualTo(msg.getProperties());
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.common.protocol.header;
+
+import java.nio.ByteBuffer;
+import org.apache.rocketmq.common.protocol.RequestCode;
+import org.apache.rocketmq.remoting.CommandCustomHeader;
+import org.apache.rocketmq.remoting.exception.RemotingCommandException;
+import org.apache.rocketmq.remoting.protocol.RemotingCommand;
+import org.apache.rocketmq.remoting.protocol.SerializeType;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HeaderCodecsTest {
+
+    @BeforeClass
+    public static void registerCodecs() {
+        HeaderCodecs.registerAll();
+    }
+
+    @Test
+    public void testSendMessageRequestHeaderV2() throws RemotingCommandException {
+        SendMessageRequestHeaderV2 header = new SendMessageRequestHeaderV2();
+        header.setA("ProducerGroup");
+        header.setB("TopicTest");
+        header.setC("TBW102");
+        header.setD(4);
+        header.setE(1);
+        header.setF(0);
+        header.setG(System.currentTimeMillis());
+        header.setH(0);
+        header.setI("TAGS\u0001TagA\u0002");
+        header.setK(true);
+        header.setM(true);
+
+        SendMessageRequestHeaderV2 decoded = (SendMessageRequestHeaderV2) roundTrip(RequestCode.SEND_MESSAGE_V2, header)
+            .decodeCommandCustomHeader(SendMessageRequestHeaderV2.class);
+
+        assertThat(decoded.getA()).isEqualTo(header.getA());
+        assertThat(decoded.getB()).isEqualTo(header.getB());
+        assertThat(decoded.getC()).isEqualTo(header.getC());
+        assertThat(decoded.getD()).isEqualTo(4);
+        assertThat(decoded.getE()).isEqualTo(1);
+        assertThat(decoded.getF()).isEqualTo(0);
+        assertThat(decoded.getG()).isEqualTo(header.getG());
+        assertThat(decoded.getH()).isEqualTo(0);
+        assertThat(decoded.getI()).isEqualTo(header.getI());
+        assertThat(decoded.getJ()).isNull();
+        assertThat(decoded.isK()).isTrue();
+        assertThat(decoded.getL()).isNull();
+        assertThat(decoded.isM()).isTrue();
+    }
+
+    @Test
+    public void testPullMessageRequestHeader() throws RemotingCommandException {
+        PullMessageRequestHeader header = new PullMessageRequestHeader();
+        header.setConsumerGroup("ConsumerGroup");
+        header.setTopic("TopicTest");
+        header.setQueueId(2);
+        header.setQueueOffset(1024L);
+        header.setMaxMsgNums(32);
+        header.setSysFlag(3);
+        header.setCommitOffset(1000L);
+        header.setSuspendTimeoutMillis(15000L);
+        header.setSubVersion(1L);
+        header.setExpressionType("TAG");
+
+        PullMessageRequestHeader decoded = (PullMessageRequestHeader) roundTrip(RequestCode.PULL_MESSAGE, header)
+            .decodeCommandCustomHeader(PullMessageRequestHeader.class);
+
+        assertThat(decoded.getConsumerGroup()).isEqualTo("ConsumerGroup");
+        assertThat(decoded.getTopic()).isEqualTo("TopicTest");
+        assertThat(decoded.getQueueId()).isEqualTo(2);
+        assertThat(decoded.getQueueOffset()).isEqualTo(1024L);
+        assertThat(decoded.getMaxMsgNums()).isEqualTo(32);
+        assertThat(decoded.getSysFlag()).isEqualTo(3);
+        assertThat(decoded.getCommitOffset()).isEqualTo(1000L);
+        assertThat(decoded.getSuspendTimeoutMillis()).isEqualTo(15000L);
+        assertThat(decoded.getSubscription()).isNull();
+        assertThat(decoded.getSubVersion()).isEqualTo(1L);
+        assertThat(decoded.getExpressionType()).isEqualTo("TAG");
+    }
+
+    @Test
+    public void testResponseHeaders() throws RemotingCommandException {
+        SendMessageResponseHeader sendHeader = new SendMessageResponseHeader();
+        sendHeader.setMsgId("7F000001000018B4AAC208C56F3F0000");
+        sendHeader.setQueueId(1);
+        sendHeader.setQueueOffset(100L);
+        SendMessageResponseHeader decodedSendHeader = (SendMessageResponseHeader) roundTrip(0, sendHeader)
+            .decodeCommandCustomHeader(SendMessageResponseHeader.class);
+        assertThat(decodedSendHeader.getMsgId()).isEqualTo(sendHeader.getMsgId());
+        assertThat(decodedSendHeader.getQueueId()).isEqualTo(1);
+        assertThat(decodedSendHeader.getQueueOffset()).isEqualTo(100L);
+        assertThat(decodedSendHeader.getTransactionId()).isNull();
+
+        PullMessageResponseHeader pullHeader = new PullMessageResponseHeader();
+        pullHeader.setSuggestWhichBrokerId(0L);
+        pullHeader.setNextBeginOffset(132L);
+        pullHeader.setMinOffset(0L);
+        pullHeader.setMaxOffset(200L);
+        PullMessageResponseHeader decodedPullHeader = (PullMessageResponseHeader) roundTrip(0, pullHeader)
+            .decodeCommandCustomHeader(PullMessageResponseHeader.class);
+        assertThat(decodedPullHeader.getSuggestWhichBrokerId()).isEqualTo(0L);
+        assertThat(decodedPullHeader.getNextBeginOffset()).isEqualTo(132L);
+        assertThat(decodedPullHeader.getMinOffset()).isEqualTo(0L);
+        assertThat(decodedPullHeader.getMaxOffset()).isEqualTo(200L);
+    }
+
+    private static RemotingCommand roundTrip(int code,
+        CommandCustomHeader header) throws RemotingCommandException {
+        RemotingCommand cmd = RemotingCommand.createRequestCommand(code, header);
+        cmd.setSerializeTypeCurrentRPC(SerializeType.ROCKETMQ_BINARY);
+        ByteBuffer encoded = cmd.encode();
+        encoded.getInt();
+        RemotingCommand decoded = RemotingCommand.decode(encoded.slice());
+        assertThat(decoded.getSerializeTypeCurrentRPC()).isEqualTo(SerializeType.ROCKETMQ_BINARY);
+        return decoded;
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.remoting.netty;
+
+import org.apache.rocketmq.remoting.protocol.RemotingCommand;
+
+/**
+ * Picks one of the connections NettyRemotingClient keeps to an address, see
+ * {@link NettyClientConfig#getClientConnectionsPerAddr()}.
+ */
+public interface ConnectionSelector {
+
+    /**
+     * @param addr the remote address
+     * @param request the request about to be sent
+     * @param pendingRequests requests still waiting for a response on each connection, a connection not yet
+     * established counts none
+     * @return index of the connection to use, within the bounds of pendingRequests
+     */
+    int select(String addr, RemotingCommand request, int[] pendingRequests);
+}
@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.remoting.netty;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.rocketmq.remoting.protocol.RemotingCommand;
+
+/**
+ * The built-in {@link ConnectionSelector}s, chosen by name through {@link NettyClientConfig#getClientConnectionSelector()}.
+ */
+public final class ConnectionSelectors {
+    /**
+     * Use the connections in turn.
+     */
+    public static final String ROUND_ROBIN = "ROUND_ROBIN";
+    /**
+     * Use the connection with the fewest requests waiting for a response.
+     */
+    public static final String LEAST_PENDING = "LEAST_PENDING";
+    /**
+     * Send requests over the connection registered for their code by
+     * {@link NettyRemotingClient#registerRequestCodeConnection(int, int...)}, so that e.g. long pulls and small sends
+     * do not queue behind each other. Requests of codes not registered use the first connection.
+     */
+    public static final String REQUEST_CODE_AFFINITY = "REQUEST_CODE_AFFINITY";
+
+    private ConnectionSelectors() {
+    }
+
+    /**
+     * A new selector of the given name, or a round-robin one for an unknown name.
+     */
+    public static ConnectionSelector create(String name) {
+        return create(name, Collections.<Integer, Integer>emptyMap());
+    }
+
+    /**
+     * A new selector of the given name, a request code affinity one using the connections of requestCodeConnections.
+     */
+    public static ConnectionSelector create(String name, Map<Integer, Integer> requestCodeConnections) {
+        if (LEAST_PENDING.equalsIgnoreCase(name)) {
+            return new LeastPendingSelector();
+        } else if (REQUEST_CODE_AFFINITY.equalsIgnoreCase(name)) {
+            return new RequestCodeAffinitySelector(requestCodeConnections);
+        }
+        return new RoundRobinSelector();
+    }
+
+    static class RoundRobinSelector implements ConnectionSelector {
+        private final AtomicInteger index = new AtomicInteger(0);
+
+        @Override
+        public int select(String addr, RemotingCommand request, int[] pendingRequests) {
+            return Math.abs(this.index.getAndIncrement() % pendingRequests.length);
+        }
+    }
+
+    static class LeastPendingSelector implements ConnectionSelector {
+        @Override
+        public int select(String addr, RemotingCommand request, int[] pendingRequests) {
+            int selected = 0;
+            for (int i = 1; i < pendingRequests.length; i++) {
+                if (pendingRequests[i] < pendingRequests[selected]) {
+                    selected = i;
+                }
+            }
+            return selected;
+        }
+    }
+
+    static class RequestCodeAffinitySelector implements ConnectionSelector {
+        private final Map<Integer /* request code */, Integer /* connection */> requestCodeConnections;
+
+        RequestCodeAffinitySelector(Map<Integer, Integer> requestCodeConnections) {
+            this.requestCodeConnections = requestCodeConnections;
+        }
+
+        @Override
+        public int select(String addr, RemotingCommand request, int[] pendingRequests) {
+            Integer connection = this.requestCodeConnections.get(request.getCode());
+            if (connection == null) {
+                return 0;
+            }
+            return Math.abs(connection % pendingRequests.length);
+        }
+    }
+}
@@ -37,6 +37,26 @@ public class NettyClientConfig {
     private int clientSocketRcvBufSize = NettySystemConfig.socketRcvbufSize;
     private boolean clientPooledByteBufAllocatorEnable = false;
     private boolean clientCloseSocketIfTimeout = NettySystemConfig.clientCloseSocketIfTimeout;
+    /**
+     * One of {@link NettyTransport}, falls back to an available one.
+     */
+    private String clientTransport = NettySystemConfig.transport;
+    /**
+     * Flush the commands written to a channel together, once the event loop has drained its pending writes,
+     * instead of one flush and write syscall per command.
+     */
+    private boolean clientFlushConsolidationEnable = NettySystemConfig.clientFlushConsolidationEnable;
+    /**
+     * Flush anyway after this many consolidated flushes, bounding the commands held back.
+     */
+    private int clientFlushConsolidationMaxFlushes = 256;
+    private int clientSelectorThreads = 1;
+    /**
+     * Connections kept to every address other than the name servers, requests are spread over them by the
+     * {@link ConnectionSelectors} named by clientConnectionSelector.
+     */
+    private int clientConnectionsPerAddr = NettySystemConfig.clientConnectionsPerAddr;
+    private String clientConnectionSelector = ConnectionSelectors.ROUND_ROBIN;
 
     private boolean useTLS;
 
@@ -131,6 +151,54 @@ public class NettyClientConfig {
         this.clientPooledByteBufAllocatorEnable = clientPooledByteBufAllocatorEnable;
     }
 
+    public String getClientTransport() {
+        return clientTransport;
+    }
+
+    public void setClientTransport(String clientTransport) {
+        this.clientTransport = clientTransport;
+    }
+
+    public boolean isClientFlushConsolidationEnable() {
+        return clientFlushConsolidationEnable;
+    }
+
+    public void setClientFlushConsolidationEnable(boolean clientFlushConsolidationEnable) {
+        this.clientFlushConsolidationEnable = clientFlushConsolidationEnable;
+    }
+
+    public int getClientFlushConsolidationMaxFlushes() {
+        return clientFlushConsolidationMaxFlushes;
+    }
+
+    public void setClientFlushConsolidationMaxFlushes(int clientFlushConsolidationMaxFlushes) {
+        this.clientFlushConsolidationMaxFlushes = clientFlushConsolidationMaxFlushes;
+    }
+
+    public int getClientSelectorThreads() {
+        return clientSelectorThreads;
+    }
+
+    public void setClientSelectorThreads(int clientSelectorThreads) {
+        this.clientSelectorThreads = clientSelectorThreads;
+    }
+
+    public int getClientConnectionsPerAddr() {
+        return clientConnectionsPerAddr;
+    }
+
+    public void setClientConnectionsPerAddr(int clientConnectionsPerAddr) {
+        this.clientConnectionsPerAddr = clientConnectionsPerAddr;
+    }
+
+    public String getClientConnectionSelector() {
+        return clientConnectionSelector;
+    }
+
+    public void setClientConnectionSelector(String clientConnectionSelector) {
+        this.clientConnectionSelector = clientConnectionSelector;
+    }
+
     public boolean isUseTLS() {
         return useTLS;
     }
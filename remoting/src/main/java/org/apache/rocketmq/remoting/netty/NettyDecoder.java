@@ -19,21 +19,37 @@ package org.apache.rocketmq.remoting.netty;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
-import java.nio.ByteBuffer;
+import io.netty.util.AttributeKey;
 import org.apache.rocketmq.remoting.common.RemotingHelper;
 import org.apache.rocketmq.remoting.common.RemotingUtil;
 import org.apache.rocketmq.logging.InternalLogger;
 import org.apache.rocketmq.logging.InternalLoggerFactory;
 import org.apache.rocketmq.remoting.protocol.RemotingCommand;
+import org.apache.rocketmq.remoting.protocol.SerializeType;
 
 public class NettyDecoder extends LengthFieldBasedFrameDecoder {
     private static final InternalLogger log = InternalLoggerFactory.getLogger(RemotingHelper.ROCKETMQ_REMOTING);
 
+    /**
+     * Set once the peer sent a ROCKETMQ_BINARY request, responses on the channel are then encoded the same way.
+     */
+    static final AttributeKey<Boolean> PEER_ACCEPTS_BINARY_HEADER = AttributeKey.valueOf("PeerAcceptsBinaryHeader");
+
     private static final int FRAME_MAX_LENGTH =
         Integer.parseInt(System.getProperty("com.rocketmq.remoting.frameMaxLength", "16777216"));
 
+    /**
+     * Whether request bodies are kept as retained slices of the inbound frame instead of being copied.
+     */
+    private final boolean retainRequestBody;
+
     public NettyDecoder() {
+        this(false);
+    }
+
+    public NettyDecoder(boolean retainRequestBody) {
         super(FRAME_MAX_LENGTH, 0, 4, 0, 4);
+        this.retainRequestBody = retainRequestBody;
     }
 
     @Override
@@ -45,9 +61,11 @@ public class NettyDecoder extends LengthFieldBasedFrameDecoder {
                 return null;
             }
 
-            ByteBuffer byteBuffer = frame.nioBuffer();
-
-            return RemotingCommand.decode(byteBuffer);
+            RemotingCommand cmd = RemotingCommand.decode(frame, retainRequestBody);
+            if (cmd.getSerializeTypeCurrentRPC() == SerializeType.ROCKETMQ_BINARY && !cmd.isResponseType()) {
+                ctx.channel().attr(PEER_ACCEPTS_BINARY_HEADER).set(Boolean.TRUE);
+            }
+            return cmd;
         } catch (Exception e) {
             log.error("decode exception, " + RemotingHelper.parseChannelRemoteAddr(ctx.channel()), e);
             RemotingUtil.closeChannel(ctx.channel());
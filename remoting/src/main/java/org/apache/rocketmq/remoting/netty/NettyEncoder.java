@@ -17,36 +17,57 @@
 package org.apache.rocketmq.remoting.netty;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.MessageToByteEncoder;
-import java.nio.ByteBuffer;
+import io.netty.handler.codec.MessageToMessageEncoder;
+import java.util.List;
 import org.apache.rocketmq.remoting.common.RemotingHelper;
 import org.apache.rocketmq.remoting.common.RemotingUtil;
 import org.apache.rocketmq.logging.InternalLogger;
 import org.apache.rocketmq.logging.InternalLoggerFactory;
 import org.apache.rocketmq.remoting.protocol.RemotingCommand;
+import org.apache.rocketmq.remoting.protocol.SerializeType;
 
+/**
+ * Serializes the header into a pooled direct buffer of the channel allocator, and sends the body wrapped behind it
+ * without copying it.
+ */
 @ChannelHandler.Sharable
-public class NettyEncoder extends MessageToByteEncoder<RemotingCommand> {
+public class NettyEncoder extends MessageToMessageEncoder<RemotingCommand> {
     private static final InternalLogger log = InternalLoggerFactory.getLogger(RemotingHelper.ROCKETMQ_REMOTING);
 
     @Override
-    public void encode(ChannelHandlerContext ctx, RemotingCommand remotingCommand, ByteBuf out)
+    public void encode(ChannelHandlerContext ctx, RemotingCommand remotingCommand, List<Object> out)
         throws Exception {
+        ByteBuf header = null;
         try {
-            ByteBuffer header = remotingCommand.encodeHeader();
-            out.writeBytes(header);
+            if (remotingCommand.isResponseType()
+                && Boolean.TRUE.equals(ctx.channel().attr(NettyDecoder.PEER_ACCEPTS_BINARY_HEADER).get())) {
+                remotingCommand.setSerializeTypeCurrentRPC(SerializeType.ROCKETMQ_BINARY);
+            }
+            header = ctx.alloc().directBuffer();
+            remotingCommand.fastEncodeHeader(header);
             byte[] body = remotingCommand.getBody();
-            if (body != null) {
-                out.writeBytes(body);
+            if (body != null && body.length > 0) {
+                CompositeByteBuf frame = ctx.alloc().compositeDirectBuffer(2);
+                frame.addComponents(true, header, Unpooled.wrappedBuffer(body));
+                out.add(frame);
+            } else {
+                out.add(header);
             }
         } catch (Exception e) {
+            if (header != null) {
+                header.release();
+            }
             log.error("encode exception, " + RemotingHelper.parseChannelRemoteAddr(ctx.channel()), e);
             if (remotingCommand != null) {
                 log.error(remotingCommand.toString());
             }
             RemotingUtil.closeChannel(ctx.channel());
+            // an encoder has to produce a message
+            out.add(Unpooled.EMPTY_BUFFER);
         }
     }
 }
@@ -205,6 +205,8 @@ public abstract class NettyRemotingAbstract {
                             @Override
                             public void callback(RemotingCommand response) {
                                 doAfterRpcHooks(remoteAddr, cmd, response);
+                                // a request answered later is still referenced by its processor, keep its body
+                                cmd.releaseBody(response == null && !cmd.isOnewayRPC());
                                 if (!cmd.isOnewayRPC()) {
                                     if (response != null) {
                                         response.setOpaque(opaque);
@@ -232,6 +234,7 @@ public abstract class NettyRemotingAbstract {
                     } catch (Throwable e) {
                         log.error("process request exception", e);
                         log.error(cmd.toString());
+                        cmd.releaseBody();
 
                         if (!cmd.isOnewayRPC()) {
                             final RemotingCommand response = RemotingCommand.createResponseCommand(RemotingSysResponseCode.SYSTEM_ERROR,
@@ -246,6 +249,7 @@ public abstract class NettyRemotingAbstract {
             if (pair.getObject1().rejectRequest()) {
                 final RemotingCommand response = RemotingCommand.createResponseCommand(RemotingSysResponseCode.SYSTEM_BUSY,
                     "[REJECTREQUEST]system busy, start flow control for a while");
+                cmd.releaseBody();
                 response.setOpaque(opaque);
                 ctx.writeAndFlush(response);
                 return;
@@ -261,6 +265,7 @@ public abstract class NettyRemotingAbstract {
                         + pair.getObject2().toString()
                         + " request code: " + cmd.getCode());
                 }
+                cmd.releaseBody();
 
                 if (!cmd.isOnewayRPC()) {
                     final RemotingCommand response = RemotingCommand.createResponseCommand(RemotingSysResponseCode.SYSTEM_BUSY,
@@ -270,6 +275,7 @@ public abstract class NettyRemotingAbstract {
                 }
             }
         } else {
+            cmd.releaseBody();
             String error = " request type " + cmd.getCode() + " not supported";
             final RemotingCommand response =
                 RemotingCommand.createResponseCommand(RemotingSysResponseCode.REQUEST_CODE_NOT_SUPPORTED, error);
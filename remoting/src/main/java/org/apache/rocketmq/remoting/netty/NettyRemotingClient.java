@@ -17,6 +17,7 @@
 package org.apache.rocketmq.remoting.netty;
 
 import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelDuplexHandler;
 import io.netty.channel.ChannelFuture;
@@ -28,12 +29,13 @@ import io.netty.channel.ChannelPromise;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.channel.WriteBufferWaterMark;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.flush.FlushConsolidationHandler;
 import io.netty.handler.timeout.IdleState;
 import io.netty.handler.timeout.IdleStateEvent;
 import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
 import io.netty.util.concurrent.DefaultEventExecutorGroup;
 import java.io.IOException;
 import java.net.SocketAddress;
@@ -42,6 +44,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
@@ -50,6 +53,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
@@ -74,13 +78,28 @@ public class NettyRemotingClient extends NettyRemotingAbstract implements Remoti
 
     private static final long LOCK_TIMEOUT_MILLIS = 3000;
 
+    /**
+     * Separates the address from the connection index in the channelTables key of a pooled connection, the first
+     * connection to an address is keyed by the address alone.
+     */
+    private static final char CHANNEL_KEY_SEPARATOR = '#';
+    private static final AttributeKey<AtomicInteger> PENDING_REQUESTS = AttributeKey.valueOf("PendingRequests");
+
     private final NettyClientConfig nettyClientConfig;
+    private final NettyTransport transport;
     private final Bootstrap bootstrap = new Bootstrap();
     private final EventLoopGroup eventLoopGroupWorker;
     private final Lock lockChannelTables = new ReentrantLock();
     private final ConcurrentMap<String /* addr */, ChannelWrapper> channelTables = new ConcurrentHashMap<String, ChannelWrapper>();
+    private final ConcurrentMap<String /* addr */, String[]> channelKeyTable = new ConcurrentHashMap<String, String[]>();
+    private volatile ConnectionSelector connectionSelector;
+    private final Set<Integer /* request code */> primaryConnectionRequestCodes =
+        Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+    private final ConcurrentMap<Integer /* request code */, Integer /* connection */> requestCodeConnectionTable =
+        new ConcurrentHashMap<Integer, Integer>();
 
     private final Timer timer = new Timer("ClientHouseKeepingService", true);
+    private final WriteBatchStats writeBatchStats = new WriteBatchStats();
 
     private final AtomicReference<List<String>> namesrvAddrList = new AtomicReference<List<String>>();
     private final AtomicReference<String> namesrvAddrChoosed = new AtomicReference<String>();
@@ -120,7 +139,10 @@ public class NettyRemotingClient extends NettyRemotingAbstract implements Remoti
             }
         });
 
-        this.eventLoopGroupWorker = new NioEventLoopGroup(1, new ThreadFactory() {
+        this.transport = NettyTransport.select(nettyClientConfig.getClientTransport());
+        this.connectionSelector = ConnectionSelectors.create(nettyClientConfig.getClientConnectionSelector(),
+            this.requestCodeConnectionTable);
+        this.eventLoopGroupWorker = this.transport.newEventLoopGroup(nettyClientConfig.getClientSelectorThreads(), new ThreadFactory() {
             private AtomicInteger threadIndex = new AtomicInteger(0);
 
             @Override
@@ -162,7 +184,7 @@ public class NettyRemotingClient extends NettyRemotingAbstract implements Remoti
                 }
             });
 
-        Bootstrap handler = this.bootstrap.group(this.eventLoopGroupWorker).channel(NioSocketChannel.class)
+        Bootstrap handler = this.bootstrap.group(this.eventLoopGroupWorker).channel(this.transport.socketChannelClass())
             .option(ChannelOption.TCP_NODELAY, true)
             .option(ChannelOption.SO_KEEPALIVE, false)
             .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, nettyClientConfig.getConnectTimeoutMillis())
@@ -178,6 +200,10 @@ public class NettyRemotingClient extends NettyRemotingAbstract implements Remoti
                             log.warn("Connections are insecure as SSLContext is null!");
                         }
                     }
+                    pipeline.addLast(writeBatchStats.newCounter());
+                    if (nettyClientConfig.isClientFlushConsolidationEnable()) {
+                        pipeline.addLast(new FlushConsolidationHandler(nettyClientConfig.getClientFlushConsolidationMaxFlushes(), true));
+                    }
                     pipeline.addLast(
                         defaultEventExecutorGroup,
                         new NettyEncoder(),
@@ -201,6 +227,9 @@ public class NettyRemotingClient extends NettyRemotingAbstract implements Remoti
             handler.option(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(
                     nettyClientConfig.getWriteBufferLowWaterMark(), nettyClientConfig.getWriteBufferHighWaterMark()));
         }
+        if (nettyClientConfig.isClientPooledByteBufAllocatorEnable()) {
+            handler.option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+        }
 
         this.timer.scheduleAtFixedRate(new TimerTask() {
             @Override
@@ -228,6 +257,7 @@ public class NettyRemotingClient extends NettyRemotingAbstract implements Remoti
             }
 
             this.channelTables.clear();
+            log.info("client write batch stats: {}", this.writeBatchStats);
 
             this.eventLoopGroupWorker.shutdownGracefully();
 
@@ -255,7 +285,7 @@ public class NettyRemotingClient extends NettyRemotingAbstract implements Remoti
         if (null == channel)
             return;
 
-        final String addrRemote = null == addr ? RemotingHelper.parseChannelRemoteAddr(channel) : addr;
+        final String addrRemote = channelKeyOf(null == addr ? RemotingHelper.parseChannelRemoteAddr(channel) : addr, channel);
 
         try {
             if (this.lockChannelTables.tryLock(LOCK_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
@@ -379,8 +409,9 @@ public class NettyRemotingClient extends NettyRemotingAbstract implements Remoti
     public RemotingCommand invokeSync(String addr, final RemotingCommand request, long timeoutMillis)
         throws InterruptedException, RemotingConnectException, RemotingSendRequestException, RemotingTimeoutException {
         long beginStartTime = System.currentTimeMillis();
-        final Channel channel = this.getAndCreateChannel(addr);
+        final Channel channel = this.getAndCreateChannel(addr, request);
         if (channel != null && channel.isActive()) {
+            final AtomicInteger pendingRequests = this.trackPendingRequest(channel);
             try {
                 doBeforeRpcHooks(addr, request);
                 long costTime = System.currentTimeMillis() - beginStartTime;
@@ -401,6 +432,10 @@ public class NettyRemotingClient extends NettyRemotingAbstract implements Remoti
                 }
                 log.warn("invokeSync: wait response timeout exception, the channel[{}]", addr);
                 throw e;
+            } finally {
+                if (pendingRequests != null) {
+                    pendingRequests.decrementAndGet();
+                }
             }
         } else {
             this.closeChannel(addr, channel);
@@ -408,17 +443,97 @@ public class NettyRemotingClient extends NettyRemotingAbstract implements Remoti
         }
     }
 
-    private Channel getAndCreateChannel(final String addr) throws RemotingConnectException, InterruptedException {
+    private Channel getAndCreateChannel(final String addr, final RemotingCommand request)
+        throws RemotingConnectException, InterruptedException {
         if (null == addr) {
             return getAndCreateNameserverChannel();
         }
 
-        ChannelWrapper cw = this.channelTables.get(addr);
+        String channelKey = addr;
+        int connections = this.nettyClientConfig.getClientConnectionsPerAddr();
+        if (connections > 1 && !this.primaryConnectionRequestCodes.contains(request.getCode())) {
+            String[] channelKeys = this.channelKeysOf(addr, connections);
+            int[] pendingRequests = new int[connections];
+            for (int i = 0; i < connections; i++) {
+                ChannelWrapper cw = this.channelTables.get(channelKeys[i]);
+                if (cw != null && cw.isOK()) {
+                    pendingRequests[i] = pendingRequestsOf(cw.getChannel()).get();
+                }
+            }
+            int index = this.connectionSelector.select(addr, request, pendingRequests);
+            channelKey = channelKeys[Math.abs(index % connections)];
+        }
+
+        ChannelWrapper cw = this.channelTables.get(channelKey);
         if (cw != null && cw.isOK()) {
             return cw.getChannel();
         }
 
-        return this.createChannel(addr);
+        return this.createChannel(channelKey);
+    }
+
+    /**
+     * The channelTables keys of all connections to the address, the first one being the address itself.
+     */
+    private String[] channelKeysOf(final String addr, final int connections) {
+        String[] channelKeys = this.channelKeyTable.get(addr);
+        if (channelKeys == null || channelKeys.length != connections) {
+            channelKeys = new String[connections];
+            channelKeys[0] = addr;
+            for (int i = 1; i < connections; i++) {
+                channelKeys[i] = addr + CHANNEL_KEY_SEPARATOR + i;
+            }
+            this.channelKeyTable.put(addr, channelKeys);
+        }
+        return channelKeys;
+    }
+
+    /**
+     * The channelTables key the channel is registered under among the connections to the address, or the address
+     * itself when it is none of them.
+     */
+    private String channelKeyOf(final String addr, final Channel channel) {
+        int connections = this.nettyClientConfig.getClientConnectionsPerAddr();
+        if (connections > 1 && addr.indexOf(CHANNEL_KEY_SEPARATOR) < 0) {
+            for (String channelKey : this.channelKeysOf(addr, connections)) {
+                ChannelWrapper cw = this.channelTables.get(channelKey);
+                if (cw != null && cw.getChannel() == channel) {
+                    return channelKey;
+                }
+            }
+        }
+        return addr;
+    }
+
+    private static String addrOf(final String channelKey) {
+        int index = channelKey.indexOf(CHANNEL_KEY_SEPARATOR);
+        return index < 0 ? channelKey : channelKey.substring(0, index);
+    }
+
+    private static AtomicInteger pendingRequestsOf(final Channel channel) {
+        Attribute<AtomicInteger> attr = channel.attr(PENDING_REQUESTS);
+        AtomicInteger pendingRequests = attr.get();
+        if (pendingRequests == null) {
+            pendingRequests = new AtomicInteger(0);
+            AtomicInteger prev = attr.setIfAbsent(pendingRequests);
+            if (prev != null) {
+                pendingRequests = prev;
+            }
+        }
+        return pendingRequests;
+    }
+
+    /**
+     * Count a request waiting for a response on the channel, when there is more than one connection per address
+     * to choose from. The caller decrements the returned counter once the request completed.
+     */
+    private AtomicInteger trackPendingRequest(final Channel channel) {
+        if (this.nettyClientConfig.getClientConnectionsPerAddr() <= 1) {
+            return null;
+        }
+        AtomicInteger pendingRequests = pendingRequestsOf(channel);
+        pendingRequests.incrementAndGet();
+        return pendingRequests;
     }
 
     private Channel getAndCreateNameserverChannel() throws RemotingConnectException, InterruptedException {
@@ -492,7 +607,7 @@ public class NettyRemotingClient extends NettyRemotingAbstract implements Remoti
                 }
 
                 if (createNewConnection) {
-                    ChannelFuture channelFuture = this.bootstrap.connect(RemotingHelper.string2SocketAddress(addr));
+                    ChannelFuture channelFuture = this.bootstrap.connect(RemotingHelper.string2SocketAddress(addrOf(addr)));
                     log.info("createChannel: begin to connect remote host[{}] asynchronously", addr);
                     cw = new ChannelWrapper(channelFuture);
                     this.channelTables.put(addr, cw);
@@ -529,19 +644,30 @@ public class NettyRemotingClient extends NettyRemotingAbstract implements Remoti
         throws InterruptedException, RemotingConnectException, RemotingTooMuchRequestException, RemotingTimeoutException,
         RemotingSendRequestException {
         long beginStartTime = System.currentTimeMillis();
-        final Channel channel = this.getAndCreateChannel(addr);
+        final Channel channel = this.getAndCreateChannel(addr, request);
         if (channel != null && channel.isActive()) {
+            final AtomicInteger pendingRequests = this.trackPendingRequest(channel);
+            final PendingRequestCallback pendingRequestCallback =
+                pendingRequests != null ? new PendingRequestCallback(pendingRequests, invokeCallback) : null;
+            boolean sent = false;
             try {
                 doBeforeRpcHooks(addr, request);
                 long costTime = System.currentTimeMillis() - beginStartTime;
                 if (timeoutMillis < costTime) {
                     throw new RemotingTooMuchRequestException("invokeAsync call the addr[" + addr + "] timeout");
                 }
-                this.invokeAsyncImpl(channel, request, timeoutMillis - costTime, invokeCallback);
+                this.invokeAsyncImpl(channel, request, timeoutMillis - costTime,
+                    pendingRequestCallback != null ? pendingRequestCallback : invokeCallback);
+                sent = true;
             } catch (RemotingSendRequestException e) {
                 log.warn("invokeAsync: send request exception, so close the channel[{}]", addr);
                 this.closeChannel(addr, channel);
                 throw e;
+            } finally {
+                // the callback may never be invoked for a request that failed to be sent
+                if (pendingRequestCallback != null && !sent) {
+                    pendingRequestCallback.complete();
+                }
             }
         } else {
             this.closeChannel(addr, channel);
@@ -552,7 +678,7 @@ public class NettyRemotingClient extends NettyRemotingAbstract implements Remoti
     @Override
     public void invokeOneway(String addr, RemotingCommand request, long timeoutMillis) throws InterruptedException,
         RemotingConnectException, RemotingTooMuchRequestException, RemotingTimeoutException, RemotingSendRequestException {
-        final Channel channel = this.getAndCreateChannel(addr);
+        final Channel channel = this.getAndCreateChannel(addr, request);
         if (channel != null && channel.isActive()) {
             try {
                 doBeforeRpcHooks(addr, request);
@@ -581,6 +707,20 @@ public class NettyRemotingClient extends NettyRemotingAbstract implements Remoti
 
     @Override
     public boolean isChannelWritable(String addr) {
+        int connections = this.nettyClientConfig.getClientConnectionsPerAddr();
+        if (connections > 1) {
+            boolean writable = true;
+            for (String channelKey : this.channelKeysOf(addr, connections)) {
+                ChannelWrapper cw = this.channelTables.get(channelKey);
+                if (cw != null && cw.isOK()) {
+                    if (cw.isWritable()) {
+                        return true;
+                    }
+                    writable = false;
+                }
+            }
+            return writable;
+        }
         ChannelWrapper cw = this.channelTables.get(addr);
         if (cw != null && cw.isOK()) {
             return cw.isWritable();
@@ -608,6 +748,66 @@ public class NettyRemotingClient extends NettyRemotingAbstract implements Remoti
         this.callbackExecutor = callbackExecutor;
     }
 
+    public WriteBatchStats getWriteBatchStats() {
+        return writeBatchStats;
+    }
+
+    /**
+     * Replace the selector configured by {@link NettyClientConfig#getClientConnectionSelector()}.
+     */
+    public void setConnectionSelector(ConnectionSelector connectionSelector) {
+        this.connectionSelector = connectionSelector;
+    }
+
+    /**
+     * Always send requests of these codes over the first connection to an address, whatever the selector picks. The
+     * server keeps state per connection for some requests, e.g. it registers a client once for every connection its
+     * heartbeats come in on.
+     */
+    public void registerPrimaryConnectionRequestCodes(int... requestCodes) {
+        for (int requestCode : requestCodes) {
+            this.primaryConnectionRequestCodes.add(requestCode);
+        }
+    }
+
+    /**
+     * Send requests of these codes over the given connection when {@link ConnectionSelectors#REQUEST_CODE_AFFINITY}
+     * is configured, the connection index wraps around the connections kept to an address.
+     */
+    public void registerRequestCodeConnection(int connection, int... requestCodes) {
+        for (int requestCode : requestCodes) {
+            this.requestCodeConnectionTable.put(requestCode, connection);
+        }
+    }
+
+    /**
+     * Completes the pending request count of an async request exactly once, also when the request failed to be sent.
+     */
+    private static class PendingRequestCallback implements InvokeCallback {
+        private final AtomicInteger pendingRequests;
+        private final InvokeCallback invokeCallback;
+        private final AtomicBoolean completed = new AtomicBoolean(false);
+
+        PendingRequestCallback(AtomicInteger pendingRequests, InvokeCallback invokeCallback) {
+            this.pendingRequests = pendingRequests;
+            this.invokeCallback = invokeCallback;
+        }
+
+        void complete() {
+            if (this.completed.compareAndSet(false, true)) {
+                this.pendingRequests.decrementAndGet();
+            }
+        }
+
+        @Override
+        public void operationComplete(ResponseFuture responseFuture) {
+            complete();
+            if (this.invokeCallback != null) {
+                this.invokeCallback.operationComplete(responseFuture);
+            }
+        }
+    }
+
     static class ChannelWrapper {
         private final ChannelFuture channelFuture;
 
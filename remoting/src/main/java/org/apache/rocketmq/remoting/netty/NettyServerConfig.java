@@ -31,6 +31,10 @@ public class NettyServerConfig implements Cloneable {
     private int writeBufferLowWaterMark = NettySystemConfig.writeBufferLowWaterMark;
     private int serverSocketBacklog = NettySystemConfig.socketBacklog;
     private boolean serverPooledByteBufAllocatorEnable = true;
+    /**
+     * Keep request bodies as retained slices of the inbound buffer instead of copying them into arrays.
+     */
+    private boolean serverRetainRequestBodyEnable = false;
 
     /**
      * make make install
@@ -40,6 +44,10 @@ public class NettyServerConfig implements Cloneable {
      * --host=x86_64-linux-gnu \ --build=x86_64-pc-linux-gnu \ --without-gd
      */
     private boolean useEpollNativeSelector = false;
+    /**
+     * One of {@link NettyTransport}, falls back to an available one. EPOLL is used when useEpollNativeSelector is set.
+     */
+    private String serverTransport = NettySystemConfig.transport;
 
     public int getListenPort() {
         return listenPort;
@@ -129,6 +137,14 @@ public class NettyServerConfig implements Cloneable {
         this.serverPooledByteBufAllocatorEnable = serverPooledByteBufAllocatorEnable;
     }
 
+    public boolean isServerRetainRequestBodyEnable() {
+        return serverRetainRequestBodyEnable;
+    }
+
+    public void setServerRetainRequestBodyEnable(boolean serverRetainRequestBodyEnable) {
+        this.serverRetainRequestBodyEnable = serverRetainRequestBodyEnable;
+    }
+
     public boolean isUseEpollNativeSelector() {
         return useEpollNativeSelector;
     }
@@ -137,6 +153,14 @@ public class NettyServerConfig implements Cloneable {
         this.useEpollNativeSelector = useEpollNativeSelector;
     }
 
+    public String getServerTransport() {
+        return serverTransport;
+    }
+
+    public void setServerTransport(String serverTransport) {
+        this.serverTransport = serverTransport;
+    }
+
     @Override
     public Object clone() throws CloneNotSupportedException {
         return (NettyServerConfig) super.clone();
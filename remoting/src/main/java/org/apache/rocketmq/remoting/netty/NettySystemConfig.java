@@ -42,6 +42,12 @@ public class NettySystemConfig {
         "com.rocketmq.remoting.write.buffer.high.water.mark";
     public static final String COM_ROCKETMQ_REMOTING_WRITE_BUFFER_LOW_WATER_MARK =
         "com.rocketmq.remoting.write.buffer.low.water.mark";
+    public static final String COM_ROCKETMQ_REMOTING_CLIENT_FLUSH_CONSOLIDATION_ENABLE =
+        "com.rocketmq.remoting.client.flushConsolidation.enable";
+    public static final String COM_ROCKETMQ_REMOTING_CLIENT_CONNECTIONS_PER_ADDR =
+        "com.rocketmq.remoting.client.connectionsPerAddr";
+    public static final String COM_ROCKETMQ_REMOTING_TRANSPORT =
+        "com.rocketmq.remoting.transport";
 
     public static final boolean NETTY_POOLED_BYTE_BUF_ALLOCATOR_ENABLE = //
         Boolean.parseBoolean(System.getProperty(COM_ROCKETMQ_REMOTING_NETTY_POOLED_BYTE_BUF_ALLOCATOR_ENABLE, "false"));
@@ -67,5 +73,11 @@ public class NettySystemConfig {
         Integer.parseInt(System.getProperty(COM_ROCKETMQ_REMOTING_WRITE_BUFFER_HIGH_WATER_MARK_VALUE, "0"));
     public static int writeBufferLowWaterMark =
         Integer.parseInt(System.getProperty(COM_ROCKETMQ_REMOTING_WRITE_BUFFER_LOW_WATER_MARK, "0"));
+    public static boolean clientFlushConsolidationEnable =
+        Boolean.parseBoolean(System.getProperty(COM_ROCKETMQ_REMOTING_CLIENT_FLUSH_CONSOLIDATION_ENABLE, "false"));
+    public static int clientConnectionsPerAddr =
+        Integer.parseInt(System.getProperty(COM_ROCKETMQ_REMOTING_CLIENT_CONNECTIONS_PER_ADDR, "1"));
+    public static String transport =
+        System.getProperty(COM_ROCKETMQ_REMOTING_TRANSPORT, NettyTransport.NIO.name());
 
 }
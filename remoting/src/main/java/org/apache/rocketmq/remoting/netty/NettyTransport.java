@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.remoting.netty;
+
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import java.util.concurrent.ThreadFactory;
+import org.apache.rocketmq.logging.InternalLogger;
+import org.apache.rocketmq.logging.InternalLoggerFactory;
+import org.apache.rocketmq.remoting.common.RemotingHelper;
+import org.apache.rocketmq.remoting.common.RemotingUtil;
+
+/**
+ * The socket transports a remoting client or server can run on. A transport that is not available on this host is
+ * replaced by the next one in the order IO_URING, EPOLL, NIO, see {@link #select(String)}.
+ */
+public enum NettyTransport {
+    NIO {
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+
+        @Override
+        public EventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory) {
+            return new NioEventLoopGroup(threads, threadFactory);
+        }
+
+        @Override
+        public Class<? extends Channel> socketChannelClass() {
+            return NioSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends ServerChannel> serverSocketChannelClass() {
+            return NioServerSocketChannel.class;
+        }
+    },
+    EPOLL {
+        @Override
+        public boolean isAvailable() {
+            return RemotingUtil.isLinuxPlatform() && Epoll.isAvailable();
+        }
+
+        @Override
+        public EventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory) {
+            return new EpollEventLoopGroup(threads, threadFactory);
+        }
+
+        @Override
+        public Class<? extends Channel> socketChannelClass() {
+            return EpollSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends ServerChannel> serverSocketChannelClass() {
+            return EpollServerSocketChannel.class;
+        }
+    },
+    /**
+     * Needs netty-incubator-transport-native-io_uring on the classpath, its classes are looked up reflectively.
+     */
+    IO_URING {
+        @Override
+        public boolean isAvailable() {
+            return IoUring.AVAILABLE;
+        }
+
+        @Override
+        public EventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory) {
+            try {
+                return (EventLoopGroup) IoUring.loadClass("IOUringEventLoopGroup")
+                    .getConstructor(int.class, ThreadFactory.class).newInstance(threads, threadFactory);
+            } catch (Exception e) {
+                throw new IllegalStateException("create io_uring event loop group failed", e);
+            }
+        }
+
+        @Override
+        public Class<? extends Channel> socketChannelClass() {
+            return IoUring.loadClass("IOUringSocketChannel").asSubclass(Channel.class);
+        }
+
+        @Override
+        public Class<? extends ServerChannel> serverSocketChannelClass() {
+            return IoUring.loadClass("IOUringServerSocketChannel").asSubclass(ServerChannel.class);
+        }
+    };
+
+    private static final InternalLogger log = InternalLoggerFactory.getLogger(RemotingHelper.ROCKETMQ_REMOTING);
+
+    public abstract boolean isAvailable();
+
+    public abstract EventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory);
+
+    public abstract Class<? extends Channel> socketChannelClass();
+
+    public abstract Class<? extends ServerChannel> serverSocketChannelClass();
+
+    /**
+     * The requested transport if it is available here, otherwise the best one that is. Unknown names select NIO.
+     */
+    public static NettyTransport select(String name) {
+        NettyTransport requested = NIO;
+        if (name != null) {
+            try {
+                requested = NettyTransport.valueOf(name.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                log.warn("unknown netty transport {}, use {}", name, NIO);
+            }
+        }
+
+        NettyTransport[] candidates = values();
+        for (int i = requested.ordinal(); i >= 0; i--) {
+            if (candidates[i].isAvailable()) {
+                if (candidates[i] != requested) {
+                    log.warn("netty transport {} is not available, fall back to {}", requested, candidates[i]);
+                }
+                return candidates[i];
+            }
+        }
+        return NIO;
+    }
+
+    private static class IoUring {
+        private static final String PACKAGE = "io.netty.incubator.channel.uring.";
+        private static final boolean AVAILABLE = checkAvailable();
+
+        private static boolean checkAvailable() {
+            if (!RemotingUtil.isLinuxPlatform()) {
+                return false;
+            }
+            try {
+                return (Boolean) loadClass("IOUring").getMethod("isAvailable").invoke(null);
+            } catch (Throwable e) {
+                return false;
+            }
+        }
+
+        private static Class<?> loadClass(String simpleName) {
+            try {
+                return Class.forName(PACKAGE + simpleName);
+            } catch (ClassNotFoundException e) {
+                throw new IllegalStateException("io_uring transport is not on the classpath", e);
+            }
+        }
+    }
+}
@@ -81,6 +81,7 @@ public class RequestTask implements Runnable {
     }
 
     public void returnResponse(int code, String remark) {
+        this.request.releaseBody();
         final RemotingCommand response = RemotingCommand.createResponseCommand(code, remark);
         response.setOpaque(request.getOpaque());
         this.channel.writeAndFlush(response);
@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.remoting.netty;
+
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts how many commands reach the socket per flush, that is per write syscall, over all channels of a client.
+ */
+public class WriteBatchStats {
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final AtomicLong maxBatchSize = new AtomicLong();
+
+    /**
+     * A handler for one channel, to be put right before the socket so that it sees the flushes that hit it.
+     */
+    public ChannelHandler newCounter() {
+        return new ChannelOutboundHandlerAdapter() {
+            private int pendingWrites;
+
+            @Override
+            public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+                this.pendingWrites++;
+                super.write(ctx, msg, promise);
+            }
+
+            @Override
+            public void flush(ChannelHandlerContext ctx) throws Exception {
+                if (this.pendingWrites > 0) {
+                    record(this.pendingWrites);
+                    this.pendingWrites = 0;
+                }
+                super.flush(ctx);
+            }
+        };
+    }
+
+    private void record(int batchSize) {
+        this.writes.add(batchSize);
+        this.flushes.increment();
+        long max = this.maxBatchSize.get();
+        while (batchSize > max && !this.maxBatchSize.compareAndSet(max, batchSize)) {
+            max = this.maxBatchSize.get();
+        }
+    }
+
+    public long getWrites() {
+        return writes.sum();
+    }
+
+    public long getFlushes() {
+        return flushes.sum();
+    }
+
+    public long getMaxBatchSize() {
+        return maxBatchSize.get();
+    }
+
+    public double getAvgBatchSize() {
+        long flushes = getFlushes();
+        return flushes > 0 ? (double) getWrites() / flushes : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("writes=%d, flushes=%d, avgBatchSize=%.2f, maxBatchSize=%d",
+            getWrites(), getFlushes(), getAvgBatchSize(), getMaxBatchSize());
+    }
+}
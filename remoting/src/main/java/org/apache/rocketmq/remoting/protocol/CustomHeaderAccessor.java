@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.remoting.protocol;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.util.List;
+import org.apache.rocketmq.remoting.CommandCustomHeader;
+
+/**
+ * Constructor and fields of a custom header class, resolved once into method handles so that converting a header
+ * from and to ext fields does not reflect per request.
+ */
+class CustomHeaderAccessor {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private final MethodHandle constructor;
+    private final FieldAccessor[] fields;
+
+    CustomHeaderAccessor(Class<? extends CommandCustomHeader> headerClass, List<FieldAccessor> fields) {
+        MethodHandle handle;
+        try {
+            handle = LOOKUP.findConstructor(headerClass, MethodType.methodType(void.class))
+                .asType(MethodType.methodType(CommandCustomHeader.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            handle = null;
+        }
+        this.constructor = handle;
+        this.fields = fields.toArray(new FieldAccessor[0]);
+    }
+
+    /**
+     * @return a new header, or null if the class cannot be instantiated
+     */
+    CommandCustomHeader newInstance() throws Throwable {
+        if (this.constructor == null) {
+            return null;
+        }
+        return (CommandCustomHeader) this.constructor.invokeExact();
+    }
+
+    FieldAccessor[] getFields() {
+        return fields;
+    }
+
+    enum FieldType {
+        STRING,
+        INTEGER,
+        LONG,
+        BOOLEAN,
+        DOUBLE,
+        UNSUPPORTED;
+
+        static FieldType of(Class<?> type) {
+            if (type == String.class) {
+                return STRING;
+            } else if (type == Integer.class || type == int.class) {
+                return INTEGER;
+            } else if (type == Long.class || type == long.class) {
+                return LONG;
+            } else if (type == Boolean.class || type == boolean.class) {
+                return BOOLEAN;
+            } else if (type == Double.class || type == double.class) {
+                return DOUBLE;
+            }
+            return UNSUPPORTED;
+        }
+
+        Object parse(String value) {
+            switch (this) {
+                case STRING:
+                    return value;
+                case INTEGER:
+                    return Integer.parseInt(value);
+                case LONG:
+                    return Long.parseLong(value);
+                case BOOLEAN:
+                    return Boolean.parseBoolean(value);
+                case DOUBLE:
+                    return Double.parseDouble(value);
+                default:
+                    throw new IllegalStateException("unsupported field type");
+            }
+        }
+    }
+
+    static class FieldAccessor {
+        private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+        private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+        private final String name;
+        private final boolean nullable;
+        private final FieldType type;
+        private final MethodHandle getter;
+        private final MethodHandle setter;
+
+        FieldAccessor(Field field, boolean nullable) throws IllegalAccessException {
+            this.name = field.getName();
+            this.nullable = nullable;
+            this.type = FieldType.of(field.getType());
+            field.setAccessible(true);
+            this.getter = LOOKUP.unreflectGetter(field).asType(GETTER_TYPE);
+            this.setter = LOOKUP.unreflectSetter(field).asType(SETTER_TYPE);
+        }
+
+        String getName() {
+            return name;
+        }
+
+        boolean isNullable() {
+            return nullable;
+        }
+
+        FieldType getType() {
+            return type;
+        }
+
+        Object get(CommandCustomHeader header) throws Throwable {
+            return this.getter.invokeExact((Object) header);
+        }
+
+        void set(CommandCustomHeader header, Object value) throws Throwable {
+            this.setter.invokeExact((Object) header, value);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.remoting.protocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import java.nio.charset.Charset;
+import org.apache.rocketmq.remoting.CommandCustomHeader;
+import org.apache.rocketmq.remoting.exception.RemotingCommandException;
+
+/**
+ * Writes and reads one type of custom header directly, without reflection and without going through ext fields.
+ * Used by {@link SerializeType#ROCKETMQ_BINARY} for the headers registered in {@link HeaderCodecRegistry}.
+ */
+public abstract class HeaderCodec<T extends CommandCustomHeader> {
+    private static final Charset CHARSET_UTF8 = Charset.forName("UTF-8");
+
+    public abstract void encode(T header, ByteBuf out);
+
+    public abstract T decode(ByteBuf in) throws RemotingCommandException;
+
+    protected static void writeString(ByteBuf out, String value) {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        int lengthIndex = out.writerIndex();
+        out.writeInt(0);
+        int length = ByteBufUtil.writeUtf8(out, value);
+        out.setInt(lengthIndex, length);
+    }
+
+    protected static String readString(ByteBuf in) {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        return in.readCharSequence(length, CHARSET_UTF8).toString();
+    }
+
+    protected static void writeInteger(ByteBuf out, Integer value) {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeInt(value);
+        }
+    }
+
+    protected static Integer readInteger(ByteBuf in) {
+        return in.readBoolean() ? in.readInt() : null;
+    }
+
+    protected static void writeLong(ByteBuf out, Long value) {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value);
+        }
+    }
+
+    protected static Long readLong(ByteBuf in) {
+        return in.readBoolean() ? in.readLong() : null;
+    }
+
+    protected static <V> V checkNotNull(V value, String fieldName) throws RemotingCommandException {
+        if (value == null) {
+            throw new RemotingCommandException("the custom field <" + fieldName + "> is null");
+        }
+        return value;
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.remoting.protocol;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.rocketmq.remoting.CommandCustomHeader;
+
+/**
+ * Maps custom header classes to their {@link HeaderCodec} and to the id written on the wire. Both sides of a
+ * connection must register the same id for a header class, headers without a codec fall back to ext fields.
+ */
+public class HeaderCodecRegistry {
+    private static final ConcurrentMap<Class<? extends CommandCustomHeader>, Short> ID_TABLE =
+        new ConcurrentHashMap<Class<? extends CommandCustomHeader>, Short>();
+    private static final ConcurrentMap<Short, HeaderCodec<? extends CommandCustomHeader>> CODEC_TABLE =
+        new ConcurrentHashMap<Short, HeaderCodec<? extends CommandCustomHeader>>();
+
+    public static synchronized <T extends CommandCustomHeader> void register(short id, Class<T> headerClass,
+        HeaderCodec<T> codec) {
+        if (id <= 0) {
+            throw new IllegalArgumentException("header codec id must be positive, id=" + id);
+        }
+        Short registeredId = ID_TABLE.get(headerClass);
+        if (registeredId != null && registeredId != id) {
+            throw new IllegalArgumentException(headerClass.getName() + " is already registered with id " + registeredId);
+        }
+        HeaderCodec<? extends CommandCustomHeader> registeredCodec = CODEC_TABLE.get(id);
+        if (registeredCodec != null && registeredId == null) {
+            throw new IllegalArgumentException("header codec id " + id + " is already registered");
+        }
+        CODEC_TABLE.put(id, codec);
+        ID_TABLE.put(headerClass, id);
+    }
+
+    /**
+     * @return the id registered for the header class, or 0 if there is none
+     */
+    public static short getId(Class<? extends CommandCustomHeader> headerClass) {
+        Short id = ID_TABLE.get(headerClass);
+        return id == null ? 0 : id;
+    }
+
+    public static HeaderCodec<? extends CommandCustomHeader> getCodec(short id) {
+        return CODEC_TABLE.get(id);
+    }
+}
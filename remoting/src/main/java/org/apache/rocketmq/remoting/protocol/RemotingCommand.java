@@ -17,12 +17,15 @@
 package org.apache.rocketmq.remoting.protocol;
 
 import com.alibaba.fastjson.annotation.JSONField;
-import java.lang.annotation.Annotation;
+import io.netty.buffer.ByteBuf;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.rocketmq.logging.InternalLogger;
 import org.apache.rocketmq.logging.InternalLoggerFactory;
@@ -38,21 +41,10 @@ public class RemotingCommand {
     private static final InternalLogger log = InternalLoggerFactory.getLogger(RemotingHelper.ROCKETMQ_REMOTING);
     private static final int RPC_TYPE = 0; // 0, REQUEST_COMMAND
     private static final int RPC_ONEWAY = 1; // 0, RPC
-    private static final Map<Class<? extends CommandCustomHeader>, Field[]> CLASS_HASH_MAP =
-        new HashMap<Class<? extends CommandCustomHeader>, Field[]>();
-    private static final Map<Class, String> CANONICAL_NAME_CACHE = new HashMap<Class, String>();
     // 1, Oneway
     // 1, RESPONSE_COMMAND
-    private static final Map<Field, Boolean> NULLABLE_FIELD_CACHE = new HashMap<Field, Boolean>();
-    private static final String STRING_CANONICAL_NAME = String.class.getCanonicalName();
-    private static final String DOUBLE_CANONICAL_NAME_1 = Double.class.getCanonicalName();
-    private static final String DOUBLE_CANONICAL_NAME_2 = double.class.getCanonicalName();
-    private static final String INTEGER_CANONICAL_NAME_1 = Integer.class.getCanonicalName();
-    private static final String INTEGER_CANONICAL_NAME_2 = int.class.getCanonicalName();
-    private static final String LONG_CANONICAL_NAME_1 = Long.class.getCanonicalName();
-    private static final String LONG_CANONICAL_NAME_2 = long.class.getCanonicalName();
-    private static final String BOOLEAN_CANONICAL_NAME_1 = Boolean.class.getCanonicalName();
-    private static final String BOOLEAN_CANONICAL_NAME_2 = boolean.class.getCanonicalName();
+    private static final ConcurrentMap<Class<? extends CommandCustomHeader>, CustomHeaderAccessor> HEADER_ACCESSOR_TABLE =
+        new ConcurrentHashMap<Class<? extends CommandCustomHeader>, CustomHeaderAccessor>();
     private static volatile int configVersion = -1;
     private static AtomicInteger requestId = new AtomicInteger(0);
 
@@ -77,10 +69,19 @@ public class RemotingCommand {
     private String remark;
     private HashMap<String, String> extFields;
     private transient CommandCustomHeader customHeader;
+    /**
+     * Whether customHeader was read off the wire by a {@link HeaderCodec}, its fields are not in extFields then.
+     */
+    private transient boolean customHeaderDecoded;
 
     private SerializeType serializeTypeCurrentRPC = serializeTypeConfigInThisServer;
 
     private transient byte[] body;
+    /**
+     * Retained slice of the inbound frame holding the body, set instead of body by
+     * {@link #decode(ByteBuf, boolean)}; released by {@link #releaseBody()}.
+     */
+    private transient ByteBuf bodyBuf;
 
     protected RemotingCommand() {
     }
@@ -162,6 +163,36 @@ public class RemotingCommand {
         return cmd;
     }
 
+    /**
+     * Decode a frame without copying it into an intermediate buffer. When retainRequestBody is set, the body of a
+     * request is kept as a retained slice of the frame rather than copied into an array, the caller must then call
+     * {@link #releaseBody()} once the request has been processed.
+     */
+    public static RemotingCommand decode(final ByteBuf frame, final boolean retainRequestBody)
+        throws RemotingCommandException {
+        int length = frame.readableBytes();
+        int oriHeaderLen = frame.readInt();
+        int headerLength = getHeaderLength(oriHeaderLen);
+
+        byte[] headerData = new byte[headerLength];
+        frame.readBytes(headerData);
+
+        RemotingCommand cmd = headerDecode(headerData, getProtocolType(oriHeaderLen));
+
+        int bodyLength = length - 4 - headerLength;
+        if (bodyLength > 0) {
+            if (retainRequestBody && !cmd.isResponseType()) {
+                cmd.bodyBuf = frame.readRetainedSlice(bodyLength);
+            } else {
+                byte[] bodyData = new byte[bodyLength];
+                frame.readBytes(bodyData);
+                cmd.body = bodyData;
+            }
+        }
+
+        return cmd;
+    }
+
     public static int getHeaderLength(int length) {
         return length & 0xFFFFFF;
     }
@@ -176,6 +207,10 @@ public class RemotingCommand {
                 RemotingCommand resultRMQ = RocketMQSerializable.rocketMQProtocolDecode(headerData);
                 resultRMQ.setSerializeTypeCurrentRPC(type);
                 return resultRMQ;
+            case ROCKETMQ_BINARY:
+                RemotingCommand resultBinary = RocketMQSerializable.rocketMQBinaryProtocolDecode(headerData);
+                resultBinary.setSerializeTypeCurrentRPC(type);
+                return resultBinary;
             default:
                 break;
         }
@@ -231,57 +266,54 @@ public class RemotingCommand {
         this.customHeader = customHeader;
     }
 
+    void writeDecodedCustomHeader(CommandCustomHeader customHeader) {
+        this.customHeader = customHeader;
+        this.customHeaderDecoded = true;
+    }
+
+    public boolean isCustomHeaderDecoded() {
+        return customHeaderDecoded;
+    }
+
     public CommandCustomHeader decodeCommandCustomHeader(
         Class<? extends CommandCustomHeader> classHeader) throws RemotingCommandException {
+        if (this.customHeaderDecoded && classHeader == this.customHeader.getClass()) {
+            this.customHeader.checkFields();
+            return this.customHeader;
+        }
+
+        CustomHeaderAccessor accessor = getHeaderAccessor(classHeader);
         CommandCustomHeader objectHeader;
         try {
-            objectHeader = classHeader.newInstance();
-        } catch (InstantiationException e) {
+            objectHeader = accessor.newInstance();
+        } catch (Throwable e) {
             return null;
-        } catch (IllegalAccessException e) {
+        }
+        if (objectHeader == null) {
             return null;
         }
 
         if (this.extFields != null) {
 
-            Field[] fields = getClazzFields(classHeader);
-            for (Field field : fields) {
-                if (!Modifier.isStatic(field.getModifiers())) {
-                    String fieldName = field.getName();
-                    if (!fieldName.startsWith("this")) {
-                        try {
-                            String value = this.extFields.get(fieldName);
-                            if (null == value) {
-                                if (!isFieldNullable(field)) {
-                                    throw new RemotingCommandException("the custom field <" + fieldName + "> is null");
-                                }
-                                continue;
-                            }
-
-                            field.setAccessible(true);
-                            String type = getCanonicalName(field.getType());
-                            Object valueParsed;
-
-                            if (type.equals(STRING_CANONICAL_NAME)) {
-                                valueParsed = value;
-                            } else if (type.equals(INTEGER_CANONICAL_NAME_1) || type.equals(INTEGER_CANONICAL_NAME_2)) {
-                                valueParsed = Integer.parseInt(value);
-                            } else if (type.equals(LONG_CANONICAL_NAME_1) || type.equals(LONG_CANONICAL_NAME_2)) {
-                                valueParsed = Long.parseLong(value);
-                            } else if (type.equals(BOOLEAN_CANONICAL_NAME_1) || type.equals(BOOLEAN_CANONICAL_NAME_2)) {
-                                valueParsed = Boolean.parseBoolean(value);
-                            } else if (type.equals(DOUBLE_CANONICAL_NAME_1) || type.equals(DOUBLE_CANONICAL_NAME_2)) {
-                                valueParsed = Double.parseDouble(value);
-                            } else {
-                                throw new RemotingCommandException("the custom field <" + fieldName + "> type is not supported");
-                            }
-
-                            field.set(objectHeader, valueParsed);
-
-                        } catch (Throwable e) {
-                            log.error("Failed field [{}] decoding", fieldName, e);
+            for (CustomHeaderAccessor.FieldAccessor field : accessor.getFields()) {
+                String fieldName = field.getName();
+                try {
+                    String value = this.extFields.get(fieldName);
+                    if (null == value) {
+                        if (!field.isNullable()) {
+                            throw new RemotingCommandException("the custom field <" + fieldName + "> is null");
                         }
+                        continue;
+                    }
+
+                    if (field.getType() == CustomHeaderAccessor.FieldType.UNSUPPORTED) {
+                        throw new RemotingCommandException("the custom field <" + fieldName + "> type is not supported");
                     }
+
+                    field.set(objectHeader, field.getType().parse(value));
+
+                } catch (Throwable e) {
+                    log.error("Failed field [{}] decoding", fieldName, e);
                 }
             }
 
@@ -291,38 +323,31 @@ public class RemotingCommand {
         return objectHeader;
     }
 
-    private Field[] getClazzFields(Class<? extends CommandCustomHeader> classHeader) {
-        Field[] field = CLASS_HASH_MAP.get(classHeader);
-
-        if (field == null) {
-            field = classHeader.getDeclaredFields();
-            synchronized (CLASS_HASH_MAP) {
-                CLASS_HASH_MAP.put(classHeader, field);
+    private CustomHeaderAccessor getHeaderAccessor(Class<? extends CommandCustomHeader> classHeader) {
+        CustomHeaderAccessor accessor = HEADER_ACCESSOR_TABLE.get(classHeader);
+        if (accessor == null) {
+            List<CustomHeaderAccessor.FieldAccessor> fields = new ArrayList<CustomHeaderAccessor.FieldAccessor>();
+            for (Field field : classHeader.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()) || field.getName().startsWith("this")) {
+                    continue;
+                }
+                try {
+                    fields.add(new CustomHeaderAccessor.FieldAccessor(field, isFieldNullable(field)));
+                } catch (Exception e) {
+                    log.error("Failed to access field [{}]", field.getName(), e);
+                }
             }
-        }
-        return field;
-    }
-
-    private boolean isFieldNullable(Field field) {
-        if (!NULLABLE_FIELD_CACHE.containsKey(field)) {
-            Annotation annotation = field.getAnnotation(CFNotNull.class);
-            synchronized (NULLABLE_FIELD_CACHE) {
-                NULLABLE_FIELD_CACHE.put(field, annotation == null);
+            accessor = new CustomHeaderAccessor(classHeader, fields);
+            CustomHeaderAccessor prev = HEADER_ACCESSOR_TABLE.putIfAbsent(classHeader, accessor);
+            if (prev != null) {
+                accessor = prev;
             }
         }
-        return NULLABLE_FIELD_CACHE.get(field);
+        return accessor;
     }
 
-    private String getCanonicalName(Class clazz) {
-        String name = CANONICAL_NAME_CACHE.get(clazz);
-
-        if (name == null) {
-            name = clazz.getCanonicalName();
-            synchronized (CANONICAL_NAME_CACHE) {
-                CANONICAL_NAME_CACHE.put(clazz, name);
-            }
-        }
-        return name;
+    private boolean isFieldNullable(Field field) {
+        return field.getAnnotation(CFNotNull.class) == null;
     }
 
     public ByteBuffer encode() {
@@ -360,6 +385,9 @@ public class RemotingCommand {
     }
 
     private byte[] headerEncode() {
+        if (SerializeType.ROCKETMQ_BINARY == serializeTypeCurrentRPC) {
+            return RocketMQSerializable.rocketMQBinaryProtocolEncode(this);
+        }
         this.makeCustomHeaderToNet();
         if (SerializeType.ROCKETMQ == serializeTypeCurrentRPC) {
             return RocketMQSerializable.rocketMQProtocolEncode(this);
@@ -370,34 +398,28 @@ public class RemotingCommand {
 
     public void makeCustomHeaderToNet() {
         if (this.customHeader != null) {
-            Field[] fields = getClazzFields(customHeader.getClass());
+            CustomHeaderAccessor accessor = getHeaderAccessor(customHeader.getClass());
             if (null == this.extFields) {
                 this.extFields = new HashMap<String, String>();
             }
 
-            for (Field field : fields) {
-                if (!Modifier.isStatic(field.getModifiers())) {
-                    String name = field.getName();
-                    if (!name.startsWith("this")) {
-                        Object value = null;
-                        try {
-                            field.setAccessible(true);
-                            value = field.get(this.customHeader);
-                        } catch (Exception e) {
-                            log.error("Failed to access field [{}]", name, e);
-                        }
+            for (CustomHeaderAccessor.FieldAccessor field : accessor.getFields()) {
+                Object value = null;
+                try {
+                    value = field.get(this.customHeader);
+                } catch (Throwable e) {
+                    log.error("Failed to access field [{}]", field.getName(), e);
+                }
 
-                        if (value != null) {
-                            this.extFields.put(name, value.toString());
-                        }
-                    }
+                if (value != null) {
+                    this.extFields.put(field.getName(), value.toString());
                 }
             }
         }
     }
 
     public ByteBuffer encodeHeader() {
-        return encodeHeader(this.body != null ? this.body.length : 0);
+        return encodeHeader(getBodyLength());
     }
 
     public ByteBuffer encodeHeader(final int bodyLength) {
@@ -429,6 +451,34 @@ public class RemotingCommand {
         return result;
     }
 
+    /**
+     * Writes what {@link #encodeHeader()} returns to {@code out} directly, the header being serialized in place
+     * rather than into an intermediate array. The body is not written.
+     */
+    public void fastEncodeHeader(ByteBuf out) {
+        int bodyLength = getBodyLength();
+        int beginIndex = out.writerIndex();
+        // length and header length, set once the header is written
+        out.writeLong(0);
+
+        int headerLength;
+        if (SerializeType.ROCKETMQ_BINARY == serializeTypeCurrentRPC) {
+            headerLength = RocketMQSerializable.rocketMQBinaryProtocolEncode(this, out);
+        } else {
+            this.makeCustomHeaderToNet();
+            if (SerializeType.ROCKETMQ == serializeTypeCurrentRPC) {
+                headerLength = RocketMQSerializable.rocketMQProtocolEncode(this, out);
+            } else {
+                byte[] headerData = RemotingSerializable.encode(this);
+                headerLength = headerData.length;
+                out.writeBytes(headerData);
+            }
+        }
+
+        out.setInt(beginIndex, 4 + headerLength + bodyLength);
+        out.setInt(beginIndex + 4, (serializeTypeCurrentRPC.getCode() << 24) | (headerLength & 0xFFFFFF));
+    }
+
     public void markOnewayRPC() {
         int bits = 1 << RPC_ONEWAY;
         this.flag |= bits;
@@ -504,10 +554,56 @@ public class RemotingCommand {
     }
 
     public byte[] getBody() {
+        if (this.body == null && this.bodyBuf != null) {
+            byte[] bodyData = new byte[this.bodyBuf.readableBytes()];
+            this.bodyBuf.getBytes(this.bodyBuf.readerIndex(), bodyData);
+            this.body = bodyData;
+        }
         return body;
     }
 
+    @JSONField(serialize = false)
+    public int getBodyLength() {
+        if (this.body != null) {
+            return this.body.length;
+        }
+        return this.bodyBuf != null ? this.bodyBuf.readableBytes() : 0;
+    }
+
+    /**
+     * The body as a buffer, without copying it out of the inbound frame when it was retained there. A retained
+     * body is a read-only view that is only valid until {@link #releaseBody()} is called.
+     */
+    @JSONField(serialize = false)
+    public ByteBuffer getBodyBuffer() {
+        if (this.body != null) {
+            return ByteBuffer.wrap(this.body);
+        }
+        return this.bodyBuf != null ? this.bodyBuf.nioBuffer().asReadOnlyBuffer() : null;
+    }
+
+    /**
+     * Release the inbound frame retained for the body, if any. The body is copied out first when keepBody is set,
+     * for requests that are still referenced after processing returned.
+     */
+    public void releaseBody(boolean keepBody) {
+        ByteBuf buf = this.bodyBuf;
+        if (buf == null) {
+            return;
+        }
+        if (keepBody) {
+            getBody();
+        }
+        this.bodyBuf = null;
+        buf.release();
+    }
+
+    public void releaseBody() {
+        releaseBody(false);
+    }
+
     public void setBody(byte[] body) {
+        releaseBody();
         this.body = body;
     }
 
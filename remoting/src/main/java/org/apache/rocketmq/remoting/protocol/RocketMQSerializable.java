@@ -16,11 +16,15 @@
  */
 package org.apache.rocketmq.remoting.protocol;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import org.apache.rocketmq.remoting.CommandCustomHeader;
 import org.apache.rocketmq.remoting.exception.RemotingCommandException;
 
 public class RocketMQSerializable {
@@ -74,6 +78,53 @@ public class RocketMQSerializable {
         return headerBuffer.array();
     }
 
+    /**
+     * Writes the same bytes as {@link #rocketMQProtocolEncode(RemotingCommand)} to {@code out} directly.
+     *
+     * @return the number of bytes written
+     */
+    public static int rocketMQProtocolEncode(RemotingCommand cmd, ByteBuf out) {
+        int beginIndex = out.writerIndex();
+        writeCommonFields(cmd, out);
+        return out.writerIndex() - beginIndex;
+    }
+
+    private static void writeCommonFields(RemotingCommand cmd, ByteBuf out) {
+        // int code(~32767)
+        out.writeShort((short) cmd.getCode());
+        // LanguageCode language
+        out.writeByte(cmd.getLanguage().getCode());
+        // int version(~32767)
+        out.writeShort((short) cmd.getVersion());
+        // int opaque
+        out.writeInt(cmd.getOpaque());
+        // int flag
+        out.writeInt(cmd.getFlag());
+        // String remark
+        int lengthIndex = out.writerIndex();
+        out.writeInt(0);
+        if (cmd.getRemark() != null && cmd.getRemark().length() > 0) {
+            out.setInt(lengthIndex, ByteBufUtil.writeUtf8(out, cmd.getRemark()));
+        }
+        // HashMap<String, String> extFields
+        lengthIndex = out.writerIndex();
+        out.writeInt(0);
+        if (cmd.getExtFields() != null && !cmd.getExtFields().isEmpty()) {
+            for (Map.Entry<String, String> entry : cmd.getExtFields().entrySet()) {
+                if (entry.getKey() != null && entry.getValue() != null) {
+                    int keyLengthIndex = out.writerIndex();
+                    out.writeShort(0);
+                    out.setShort(keyLengthIndex, ByteBufUtil.writeUtf8(out, entry.getKey()));
+
+                    int valueLengthIndex = out.writerIndex();
+                    out.writeInt(0);
+                    out.setInt(valueLengthIndex, ByteBufUtil.writeUtf8(out, entry.getValue()));
+                }
+            }
+            out.setInt(lengthIndex, out.writerIndex() - lengthIndex - 4);
+        }
+    }
+
     public static byte[] mapSerialize(HashMap<String, String> map) {
         // keySize+key+valSize+val
         if (null == map || map.isEmpty())
@@ -135,8 +186,87 @@ public class RocketMQSerializable {
     }
 
     public static RemotingCommand rocketMQProtocolDecode(final byte[] headerArray) throws RemotingCommandException {
+        RemotingCommand cmd = new RemotingCommand();
+        decodeCommonFields(cmd, ByteBuffer.wrap(headerArray), headerArray.length);
+        return cmd;
+    }
+
+    /**
+     * The ROCKETMQ layout followed by the id of the custom header codec and, when the id is not 0, the header
+     * written by that codec. A header class without a registered codec is sent in ext fields as usual.
+     */
+    public static byte[] rocketMQBinaryProtocolEncode(RemotingCommand cmd) {
+        ByteBuf headerBuffer = Unpooled.buffer(256);
+        try {
+            rocketMQBinaryProtocolEncode(cmd, headerBuffer);
+            byte[] result = new byte[headerBuffer.readableBytes()];
+            headerBuffer.readBytes(result);
+            return result;
+        } finally {
+            headerBuffer.release();
+        }
+    }
+
+    /**
+     * Writes the same bytes as {@link #rocketMQBinaryProtocolEncode(RemotingCommand)} to {@code out} directly.
+     *
+     * @return the number of bytes written
+     */
+    public static int rocketMQBinaryProtocolEncode(RemotingCommand cmd, ByteBuf out) {
+        CommandCustomHeader customHeader = cmd.readCustomHeader();
+        short codecId = 0;
+        if (customHeader != null) {
+            codecId = HeaderCodecRegistry.getId(customHeader.getClass());
+            if (codecId == 0) {
+                cmd.makeCustomHeaderToNet();
+            }
+        }
+
+        int beginIndex = out.writerIndex();
+        // the ROCKETMQ layout, with only the ext fields added besides the custom header
+        writeCommonFields(cmd, out);
+        // short custom header codec id
+        out.writeShort(codecId);
+        if (codecId != 0) {
+            encodeCustomHeader(HeaderCodecRegistry.getCodec(codecId), customHeader, out);
+        }
+        return out.writerIndex() - beginIndex;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends CommandCustomHeader> void encodeCustomHeader(HeaderCodec<T> codec,
+        CommandCustomHeader customHeader, ByteBuf out) {
+        codec.encode((T) customHeader, out);
+    }
+
+    public static RemotingCommand rocketMQBinaryProtocolDecode(final byte[] headerArray) throws RemotingCommandException {
         RemotingCommand cmd = new RemotingCommand();
         ByteBuffer headerBuffer = ByteBuffer.wrap(headerArray);
+        decodeCommonFields(cmd, headerBuffer, headerArray.length);
+
+        // short custom header codec id
+        short codecId = headerBuffer.getShort();
+        if (codecId != 0) {
+            HeaderCodec<? extends CommandCustomHeader> codec = HeaderCodecRegistry.getCodec(codecId);
+            if (codec == null) {
+                throw new RemotingCommandException("RocketMQ binary protocol decoding failed, unknown header codec id: " + codecId);
+            }
+            ByteBuf in = Unpooled.wrappedBuffer(headerArray);
+            in.readerIndex(headerBuffer.position());
+            try {
+                cmd.writeDecodedCustomHeader(codec.decode(in));
+            } catch (IndexOutOfBoundsException e) {
+                throw new RemotingCommandException("RocketMQ binary protocol decoding failed, header codec id: " + codecId, e);
+            }
+            if (cmd.getExtFields() == null) {
+                cmd.setExtFields(new HashMap<String, String>());
+            }
+        }
+        return cmd;
+    }
+
+    private static void decodeCommonFields(RemotingCommand cmd, ByteBuffer headerBuffer,
+        int headerLength) throws RemotingCommandException {
         // int code(~32767)
         cmd.setCode(headerBuffer.getShort());
         // LanguageCode language
@@ -150,8 +280,8 @@ public class RocketMQSerializable {
         // String remark
         int remarkLength = headerBuffer.getInt();
         if (remarkLength > 0) {
-            if (remarkLength > headerArray.length) {
-                throw new RemotingCommandException("RocketMQ protocol decoding failed, remark length: " + remarkLength + ", but header length: " + headerArray.length);
+            if (remarkLength > headerLength) {
+                throw new RemotingCommandException("RocketMQ protocol decoding failed, remark length: " + remarkLength + ", but header length: " + headerLength);
             }
             byte[] remarkContent = new byte[remarkLength];
             headerBuffer.get(remarkContent);
@@ -161,14 +291,13 @@ public class RocketMQSerializable {
         // HashMap<String, String> extFields
         int extFieldsLength = headerBuffer.getInt();
         if (extFieldsLength > 0) {
-            if (extFieldsLength > headerArray.length) {
-                throw new RemotingCommandException("RocketMQ protocol decoding failed, extFields length: " + extFieldsLength + ", but header length: " + headerArray.length);
+            if (extFieldsLength > headerLength) {
+                throw new RemotingCommandException("RocketMQ protocol decoding failed, extFields length: " + extFieldsLength + ", but header length: " + headerLength);
             }
             byte[] extFieldsBytes = new byte[extFieldsLength];
             headerBuffer.get(extFieldsBytes);
             cmd.setExtFields(mapDeserialize(extFieldsBytes));
         }
-        return cmd;
     }
 
     public static HashMap<String, String> mapDeserialize(byte[] bytes) {
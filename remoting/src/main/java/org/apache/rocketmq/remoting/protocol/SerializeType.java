@@ -19,7 +19,12 @@ package org.apache.rocketmq.remoting.protocol;
 
 public enum SerializeType {
     JSON((byte) 0),
-    ROCKETMQ((byte) 1);
+    ROCKETMQ((byte) 1),
+    /**
+     * Same layout as {@link #ROCKETMQ}, but custom headers with a registered {@link HeaderCodec} are written by
+     * that codec instead of being converted into ext fields.
+     */
+    ROCKETMQ_BINARY((byte) 2);
 
     private byte code;
 
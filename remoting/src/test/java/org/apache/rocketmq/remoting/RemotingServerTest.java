@@ -18,6 +18,8 @@
 package org.apache.rocketmq.remoting;
 
 import io.netty.channel.ChannelHandlerContext;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
 import org.apache.rocketmq.remoting.annotation.CFNullable;
@@ -124,6 +126,27 @@ public class RemotingServerTest {
         });
         latch.await();
     }
+
+    @Test
+    public void testInvokeSync_ConnectionsPerAddr() throws InterruptedException, RemotingConnectException,
+        RemotingSendRequestException, RemotingTimeoutException {
+        NettyClientConfig clientConfig = new NettyClientConfig();
+        clientConfig.setClientConnectionsPerAddr(3);
+        clientConfig.setClientConnectionSelector(ConnectionSelectors.ROUND_ROBIN);
+        RemotingClient pooledClient = createRemotingClient(clientConfig);
+        try {
+            Set<String> remarks = new HashSet<String>();
+            for (int i = 0; i < 6; i++) {
+                RemotingCommand request = RemotingCommand.createRequestCommand(0, null);
+                RemotingCommand response = pooledClient.invokeSync("localhost:8888", request, 1000 * 3);
+                // the server answers with the remote address of the connection the request came in on
+                remarks.add(response.getRemark());
+            }
+            assertThat(remarks).hasSize(3);
+        } finally {
+            pooledClient.shutdown();
+        }
+    }
 }
 
 class RequestHeader implements CommandCustomHeader {
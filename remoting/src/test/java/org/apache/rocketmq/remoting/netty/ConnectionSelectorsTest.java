@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.remoting.netty;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.rocketmq.remoting.protocol.RemotingCommand;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ConnectionSelectorsTest {
+
+    @Test
+    public void testRoundRobin() {
+        ConnectionSelector selector = ConnectionSelectors.create(ConnectionSelectors.ROUND_ROBIN);
+        RemotingCommand request = RemotingCommand.createRequestCommand(10, null);
+        int[] pendingRequests = new int[3];
+        assertThat(selector.select("127.0.0.1:10911", request, pendingRequests)).isEqualTo(0);
+        assertThat(selector.select("127.0.0.1:10911", request, pendingRequests)).isEqualTo(1);
+        assertThat(selector.select("127.0.0.1:10911", request, pendingRequests)).isEqualTo(2);
+        assertThat(selector.select("127.0.0.1:10911", request, pendingRequests)).isEqualTo(0);
+    }
+
+    @Test
+    public void testLeastPending() {
+        ConnectionSelector selector = ConnectionSelectors.create(ConnectionSelectors.LEAST_PENDING);
+        RemotingCommand request = RemotingCommand.createRequestCommand(10, null);
+        assertThat(selector.select("127.0.0.1:10911", request, new int[] {5, 2, 7})).isEqualTo(1);
+        assertThat(selector.select("127.0.0.1:10911", request, new int[] {0, 0, 0})).isEqualTo(0);
+    }
+
+    @Test
+    public void testRequestCodeAffinity() {
+        Map<Integer, Integer> requestCodeConnections = new HashMap<Integer, Integer>();
+        requestCodeConnections.put(310, 1);
+        requestCodeConnections.put(320, 1);
+        requestCodeConnections.put(11, 2);
+        ConnectionSelector selector = ConnectionSelectors.create(ConnectionSelectors.REQUEST_CODE_AFFINITY,
+            requestCodeConnections);
+        int[] pendingRequests = new int[3];
+        assertThat(selector.select("127.0.0.1:10911", RemotingCommand.createRequestCommand(310, null), pendingRequests))
+            .isEqualTo(1);
+        assertThat(selector.select("127.0.0.1:10911", RemotingCommand.createRequestCommand(320, null), pendingRequests))
+            .isEqualTo(1);
+        assertThat(selector.select("127.0.0.1:10911", RemotingCommand.createRequestCommand(11, null), pendingRequests))
+            .isEqualTo(2);
+        assertThat(selector.select("127.0.0.1:10911", RemotingCommand.createRequestCommand(34, null), pendingRequests))
+            .isEqualTo(0);
+        // fewer connections than registered ones wrap around
+        assertThat(selector.select("127.0.0.1:10911", RemotingCommand.createRequestCommand(11, null), new int[2]))
+            .isEqualTo(0);
+    }
+
+    @Test
+    public void testUnknownSelectorIsRoundRobin() {
+        assertThat(ConnectionSelectors.create("unknown")).isInstanceOf(ConnectionSelectors.RoundRobinSelector.class);
+        assertThat(ConnectionSelectors.create(null)).isInstanceOf(ConnectionSelectors.RoundRobinSelector.class);
+    }
+}
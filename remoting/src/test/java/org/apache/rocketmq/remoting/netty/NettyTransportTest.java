@@ -0,0 +1,46 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.remoting.netty;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class NettyTransportTest {
+
+    @Test
+    public void testSelect() {
+        assertThat(NettyTransport.select("NIO")).isEqualTo(NettyTransport.NIO);
+        assertThat(NettyTransport.select("nio")).isEqualTo(NettyTransport.NIO);
+        assertThat(NettyTransport.select("unknown")).isEqualTo(NettyTransport.NIO);
+        assertThat(NettyTransport.select(null)).isEqualTo(NettyTransport.NIO);
+    }
+
+    @Test
+    public void testSelectFallsBackToAvailableTransport() {
+        NettyTransport epoll = NettyTransport.select("EPOLL");
+        assertThat(epoll.isAvailable()).isTrue();
+        assertThat(epoll).isEqualTo(NettyTransport.EPOLL.isAvailable() ? NettyTransport.EPOLL : NettyTransport.NIO);
+
+        NettyTransport ioUring = NettyTransport.select("IO_URING");
+        assertThat(ioUring.isAvailable()).isTrue();
+        if (!NettyTransport.IO_URING.isAvailable()) {
+            assertThat(ioUring).isEqualTo(epoll);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.remoting.netty;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.flush.FlushConsolidationHandler;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class WriteBatchStatsTest {
+
+    @Test
+    public void testCountWritesPerFlush() {
+        WriteBatchStats stats = new WriteBatchStats();
+        EmbeddedChannel channel = new EmbeddedChannel(stats.newCounter());
+
+        channel.write("a");
+        channel.write("b");
+        channel.write("c");
+        channel.flush();
+        channel.flush();
+        channel.writeAndFlush("d");
+
+        assertThat(stats.getWrites()).isEqualTo(4);
+        assertThat(stats.getFlushes()).isEqualTo(2);
+        assertThat(stats.getMaxBatchSize()).isEqualTo(3);
+        assertThat(stats.getAvgBatchSize()).isEqualTo(2.0);
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void testFlushConsolidation() {
+        WriteBatchStats stats = new WriteBatchStats();
+        // answers every inbound message with ten flushed writes, the way responses are written while reading
+        ChannelInboundHandlerAdapter responder = new ChannelInboundHandlerAdapter() {
+            @Override
+            public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                for (int i = 0; i < 10; i++) {
+                    ctx.writeAndFlush("msg" + i);
+                }
+            }
+        };
+        EmbeddedChannel channel = new EmbeddedChannel(stats.newCounter(), new FlushConsolidationHandler(256, true), responder);
+
+        // the flushes issued while the read is in progress are held back until the read completes
+        channel.writeInbound("request");
+        assertThat(stats.getWrites()).isEqualTo(10);
+        assertThat(stats.getFlushes()).isEqualTo(1);
+        assertThat(stats.getMaxBatchSize()).isEqualTo(10);
+        channel.finishAndReleaseAll();
+    }
+}
@@ -16,6 +16,8 @@
  */
 package org.apache.rocketmq.remoting.protocol;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
@@ -205,6 +207,87 @@ public class RemotingCommandTest {
 
     }
 
+    @Test
+    public void testFastEncodeHeader_SameAsEncodeHeader() {
+        for (SerializeType serializeType : SerializeType.values()) {
+            RemotingCommand cmd = RemotingCommand.createRequestCommand(103, new ExtFieldsHeader());
+            cmd.setSerializeTypeCurrentRPC(serializeType);
+            cmd.setRemark("remark");
+            cmd.addExtField("key", "value");
+            cmd.setBody(new byte[] {1, 2, 3});
+
+            ByteBuffer expected = cmd.encodeHeader();
+            ByteBuf out = Unpooled.directBuffer();
+            try {
+                cmd.fastEncodeHeader(out);
+                byte[] actual = new byte[out.readableBytes()];
+                out.readBytes(actual);
+                byte[] expectedBytes = new byte[expected.remaining()];
+                expected.get(expectedBytes);
+                assertThat(actual).as(serializeType.name()).isEqualTo(expectedBytes);
+            } finally {
+                out.release();
+            }
+        }
+    }
+
+    @Test
+    public void testDecode_RetainRequestBody() throws RemotingCommandException {
+        RemotingCommand cmd = RemotingCommand.createRequestCommand(103, new ExtFieldsHeader());
+        cmd.setBody(new byte[] {1, 2, 3});
+        ByteBuffer encoded = cmd.encode();
+        // the frame handed over by the length field decoder has no total length
+        encoded.getInt();
+        ByteBuf frame = Unpooled.directBuffer();
+        frame.writeBytes(encoded);
+
+        RemotingCommand decoded = RemotingCommand.decode(frame, true);
+        frame.release();
+        assertThat(frame.refCnt()).isEqualTo(1);
+        assertThat(decoded.getBodyLength()).isEqualTo(3);
+        ByteBuffer bodyBuffer = decoded.getBodyBuffer();
+        assertThat(bodyBuffer.isReadOnly()).isTrue();
+        assertThat(bodyBuffer.get(2)).isEqualTo((byte) 3);
+
+        decoded.releaseBody(true);
+        assertThat(frame.refCnt()).isEqualTo(0);
+        assertThat(decoded.getBody()).isEqualTo(new byte[] {1, 2, 3});
+    }
+
+    @Test
+    public void testDecode_CopyResponseBody() throws RemotingCommandException {
+        RemotingCommand cmd = RemotingCommand.createResponseCommand(0, null);
+        cmd.setBody(new byte[] {1, 2, 3});
+        ByteBuffer encoded = cmd.encode();
+        encoded.getInt();
+        ByteBuf frame = Unpooled.buffer();
+        frame.writeBytes(encoded);
+
+        RemotingCommand decoded = RemotingCommand.decode(frame, true);
+        frame.release();
+        assertThat(frame.refCnt()).isEqualTo(0);
+        assertThat(decoded.getBody()).isEqualTo(new byte[] {1, 2, 3});
+    }
+
+    @Test
+    public void testDecodeCommandCustomHeader_SkipsStaticAndMissingFields() throws RemotingCommandException {
+        RemotingCommand cmd = RemotingCommand.createRequestCommand(10, null);
+        cmd.addExtField("value", "NewValue");
+        cmd.addExtField("STATIC_VALUE", "ignored");
+
+        for (int i = 0; i < 2; i++) {
+            FieldTestClass header = (FieldTestClass) cmd.decodeCommandCustomHeader(FieldTestClass.class);
+            assertThat(header.value).isEqualTo("NewValue");
+            assertThat(header.nullString).isNull();
+            assertThat(header.nullable).isNull();
+            assertThat(FieldTestClass.STATIC_VALUE).isEqualTo("static");
+        }
+
+        RemotingCommand response = RemotingCommand.createResponseCommand(FieldTestClass.class);
+        response.makeCustomHeaderToNet();
+        assertThat(response.getExtFields()).hasSize(1).containsEntry("value", "NotNull");
+    }
+
     @Test
     public void testNotNullField() throws Exception {
         RemotingCommand remotingCommand = new RemotingCommand();
@@ -222,7 +305,9 @@ public class RemotingCommandTest {
     }
 }
 
-class FieldTestClass {
+class FieldTestClass implements CommandCustomHeader {
+    static String STATIC_VALUE = "static";
+
     @CFNotNull
     String nullString = null;
 
@@ -230,6 +315,10 @@ class FieldTestClass {
 
     @CFNotNull
     String value = "NotNull";
+
+    @Override
+    public void checkFields() throws RemotingCommandException {
+    }
 }
 
 class SampleCommandCustomHeader implements CommandCustomHeader {
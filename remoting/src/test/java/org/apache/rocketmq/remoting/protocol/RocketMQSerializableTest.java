@@ -16,7 +16,10 @@
  */
 package org.apache.rocketmq.remoting.protocol;
 
+import io.netty.buffer.ByteBuf;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
+import org.apache.rocketmq.remoting.CommandCustomHeader;
 import org.apache.rocketmq.remoting.exception.RemotingCommandException;
 import org.junit.Assert;
 import org.junit.Test;
@@ -149,6 +152,72 @@ public class RocketMQSerializableTest {
         }
     }
 
+    @Test
+    public void testRocketMQBinaryProtocolEncodeAndDecode_WithHeaderCodec() throws RemotingCommandException {
+        BinaryHeader.register();
+        BinaryHeader header = new BinaryHeader();
+        header.setTopic("BinaryTopic");
+        header.setQueueId(3);
+        RemotingCommand cmd = RemotingCommand.createRequestCommand(10, header);
+        cmd.setSerializeTypeCurrentRPC(SerializeType.ROCKETMQ_BINARY);
+        cmd.setRemark("Sample Remark");
+        cmd.addExtField("key", "value");
+
+        RemotingCommand decodedCommand = RemotingCommand.decode(stripLength(cmd.encode()));
+
+        assertThat(decodedCommand.getSerializeTypeCurrentRPC()).isEqualTo(SerializeType.ROCKETMQ_BINARY);
+        assertThat(decodedCommand.getCode()).isEqualTo(10);
+        assertThat(decodedCommand.getOpaque()).isEqualTo(cmd.getOpaque());
+        assertThat(decodedCommand.getRemark()).isEqualTo("Sample Remark");
+        assertThat(decodedCommand.getExtFields()).hasSize(1).containsEntry("key", "value");
+        BinaryHeader decodedHeader = (BinaryHeader) decodedCommand.decodeCommandCustomHeader(BinaryHeader.class);
+        assertThat(decodedHeader.getTopic()).isEqualTo("BinaryTopic");
+        assertThat(decodedHeader.getQueueId()).isEqualTo(3);
+        assertThat(decodedHeader.getOffset()).isNull();
+    }
+
+    @Test
+    public void testRocketMQBinaryProtocolEncodeAndDecode_WithoutHeaderCodec() throws RemotingCommandException {
+        RemotingCommand cmd = RemotingCommand.createRequestCommand(10, new ExtFieldsHeader());
+        cmd.setSerializeTypeCurrentRPC(SerializeType.ROCKETMQ_BINARY);
+
+        RemotingCommand decodedCommand = RemotingCommand.decode(stripLength(cmd.encode()));
+
+        assertThat(decodedCommand.getExtFields()).containsEntry("stringValue", "bilibili");
+        ExtFieldsHeader decodedHeader = (ExtFieldsHeader) decodedCommand.decodeCommandCustomHeader(ExtFieldsHeader.class);
+        assertThat(decodedHeader.getIntValue()).isEqualTo(2333);
+    }
+
+    @Test(expected = RemotingCommandException.class)
+    public void testRocketMQBinaryProtocolDecode_UnknownHeaderCodec() throws RemotingCommandException {
+        RemotingCommand cmd = RemotingCommand.createRequestCommand(10, new SampleCommandCustomHeader());
+        byte[] result = RocketMQSerializable.rocketMQBinaryProtocolEncode(cmd);
+        // the header codec id is the last field
+        result[result.length - 2] = 0x7F;
+        result[result.length - 1] = 0x7F;
+
+        RocketMQSerializable.rocketMQBinaryProtocolDecode(result);
+    }
+
+    @Test
+    public void testRocketMQBinaryProtocolDecode_MissingRequiredField() {
+        BinaryHeader.register();
+        RemotingCommand cmd = RemotingCommand.createRequestCommand(10, new BinaryHeader());
+        byte[] result = RocketMQSerializable.rocketMQBinaryProtocolEncode(cmd);
+
+        try {
+            RocketMQSerializable.rocketMQBinaryProtocolDecode(result);
+            Assert.fail("Should throw RemotingCommandException");
+        } catch (RemotingCommandException e) {
+            assertThat(e.getMessage()).contains("<topic>");
+        }
+    }
+
+    private static ByteBuffer stripLength(ByteBuffer encoded) {
+        encoded.getInt();
+        return encoded.slice();
+    }
+
     @Test
     public void testIsBlank_NotBlank() {
         assertThat(RocketMQSerializable.isBlank("bar")).isFalse();
@@ -170,4 +239,56 @@ public class RocketMQSerializableTest {
         return array[index] * 16777216 + array[++index] * 65536 + array[++index] * 256
             + array[++index];
     }
-}
\ No newline at end of file
+}
+
+class BinaryHeader implements CommandCustomHeader {
+    private static final HeaderCodec<BinaryHeader> CODEC = new HeaderCodec<BinaryHeader>() {
+        @Override
+        public void encode(BinaryHeader header, ByteBuf out) {
+            writeString(out, header.topic);
+            writeInteger(out, header.queueId);
+            writeLong(out, header.offset);
+        }
+
+        @Override
+        public BinaryHeader decode(ByteBuf in) throws RemotingCommandException {
+            BinaryHeader header = new BinaryHeader();
+            header.topic = checkNotNull(readString(in), "topic");
+            header.queueId = readInteger(in);
+            header.offset = readLong(in);
+            return header;
+        }
+    };
+
+    private String topic;
+    private Integer queueId;
+    private Long offset;
+
+    static void register() {
+        HeaderCodecRegistry.register((short) 1000, BinaryHeader.class, CODEC);
+    }
+
+    @Override
+    public void checkFields() throws RemotingCommandException {
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public void setTopic(String topic) {
+        this.topic = topic;
+    }
+
+    public Integer getQueueId() {
+        return queueId;
+    }
+
+    public void setQueueId(Integer queueId) {
+        this.queueId = queueId;
+    }
+
+    public Long getOffset() {
+        return offset;
+    }
+}
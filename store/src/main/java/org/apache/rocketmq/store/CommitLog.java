@@ -24,6 +24,7 @@ import org.apache.rocketmq.common.message.MessageConst;
 import org.apache.rocketmq.common.message.MessageDecoder;
 import org.apache.rocketmq.common.message.MessageExt;
 import org.apache.rocketmq.common.message.MessageExtBatch;
+import org.apache.rocketmq.common.message.MessagePropertiesCodec;
 import org.apache.rocketmq.common.sysflag.MessageSysFlag;
 import org.apache.rocketmq.common.topic.TopicValidator;
 import org.apache.rocketmq.logging.InternalLogger;
@@ -40,14 +41,15 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Supplier;
 
 /**
@@ -59,6 +61,21 @@ public class CommitLog {
     protected static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
     // End of file empty MAGIC CODE cbd43194
     protected final static int BLANK_MAGIC_CODE = -875286124;
+    // Region without message in the middle of a file, left by a write failed, MAGIC CODE aabbccdd
+    protected final static int FILLER_MAGIC_CODE = -1430532899;
+    private static final byte[] PROPERTY_KEYS_BYTES = MessageConst.PROPERTY_KEYS.getBytes(MessageDecoder.CHARSET_UTF8);
+    private static final byte[] PROPERTY_UNIQ_KEY_BYTES =
+        MessageConst.PROPERTY_UNIQ_CLIENT_MESSAGE_ID_KEYIDX.getBytes(MessageDecoder.CHARSET_UTF8);
+    private static final byte[] PROPERTY_TAGS_BYTES = MessageConst.PROPERTY_TAGS.getBytes(MessageDecoder.CHARSET_UTF8);
+    private static final byte[] PROPERTY_DELAY_BYTES =
+        MessageConst.PROPERTY_DELAY_TIME_LEVEL.getBytes(MessageDecoder.CHARSET_UTF8);
+    private static final int PROPERTY_KEYS_ID = MessagePropertiesCodec.keyId(MessageConst.PROPERTY_KEYS);
+    private static final int PROPERTY_UNIQ_KEY_ID =
+        MessagePropertiesCodec.keyId(MessageConst.PROPERTY_UNIQ_CLIENT_MESSAGE_ID_KEYIDX);
+    private static final int PROPERTY_TAGS_ID = MessagePropertiesCodec.keyId(MessageConst.PROPERTY_TAGS);
+    private static final int PROPERTY_DELAY_ID = MessagePropertiesCodec.keyId(MessageConst.PROPERTY_DELAY_TIME_LEVEL);
+    // Messages checked by one thread at a time on recovery
+    private static final int CRC_CHECK_SEGMENT_SIZE = 1024 * 1024 * 64;
     protected final MappedFileQueue mappedFileQueue;
     protected final DefaultMessageStore defaultMessageStore;
     private final FlushCommitLogService flushCommitLogService;
@@ -66,21 +83,23 @@ public class CommitLog {
     //If TransientStorePool enabled, we must flush message to FileChannel at fixed periods
     private final FlushCommitLogService commitLogService;
 
-    private final AppendMessageCallback appendMessageCallback;
+    private final DefaultAppendMessageCallback appendMessageCallback;
     private final ThreadLocal<PutMessageThreadLocal> putMessageThreadLocal;
-    protected HashMap<String/* topic-queueid */, Long/* offset */> topicQueueTable = new HashMap<String, Long>(1024);
-    protected Map<String/* topic-queueid */, Long/* offset */> lmqTopicQueueTable = new ConcurrentHashMap<>(1024);
     protected volatile long confirmOffset = -1L;
 
     private volatile long beginTimeInLock = 0;
 
     protected final PutMessageLock putMessageLock;
 
+    private final boolean multiWriterAppendEnable;
+
     private volatile Set<String> fullStorePaths = Collections.emptySet();
 
     private final MultiDispatch multiDispatch;
     private final FlushDiskWatcher flushDiskWatcher;
 
+    private final TopicNameCache topicNameCache = new TopicNameCache();
+
     public CommitLog(final DefaultMessageStore defaultMessageStore) {
         String storePath = defaultMessageStore.getMessageStoreConfig().getStorePathCommitLog();
         if (storePath.contains(MessageStoreConfig.MULTI_PATH_SPLITTER)) {
@@ -111,6 +130,7 @@ public class CommitLog {
             }
         };
         this.putMessageLock = defaultMessageStore.getMessageStoreConfig().isUseReentrantLockWhenPutMessage() ? new PutMessageReentrantLock() : new PutMessageSpinLock();
+        this.multiWriterAppendEnable = defaultMessageStore.getMessageStoreConfig().isEnableMultiWriterAppend();
 
         this.multiDispatch = new MultiDispatch(defaultMessageStore, this);
 
@@ -215,12 +235,18 @@ public class CommitLog {
             if (index < 0)
                 index = 0;
 
+            long crcFailedOffset = checkCRCOnRecover ? this.checkCRCInParallel(mappedFiles, index, 0) : Long.MAX_VALUE;
+
             MappedFile mappedFile = mappedFiles.get(index);
             ByteBuffer byteBuffer = mappedFile.sliceByteBuffer();
             long processOffset = mappedFile.getFileFromOffset();
             long mappedFileOffset = 0;
             while (true) {
-                DispatchRequest dispatchRequest = this.checkMessageAndReturnSize(byteBuffer, checkCRCOnRecover);
+                if (processOffset + mappedFileOffset >= crcFailedOffset) {
+                    log.info("recover physics file end at the CRC check failure, " + mappedFile.getFileName());
+                    break;
+                }
+                DispatchRequest dispatchRequest = this.checkMessageAndReturnSize(byteBuffer, false);
                 int size = dispatchRequest.getMsgSize();
                 // Normal data
                 if (dispatchRequest.isSuccess() && size > 0) {
@@ -254,6 +280,7 @@ public class CommitLog {
             this.mappedFileQueue.setFlushedWhere(processOffset);
             this.mappedFileQueue.setCommittedWhere(processOffset);
             this.mappedFileQueue.truncateDirtyFiles(processOffset);
+            this.defaultMessageStore.getStoreCheckpoint().truncateOffsets(processOffset);
 
             // Clear ConsumeQueue redundant data
             if (maxPhyOffsetOfConsumeQueue >= processOffset) {
@@ -282,7 +309,7 @@ public class CommitLog {
     /**
      * check the message and returns the message size
      *
-     * @return 0 Come the end of the file // >0 Normal messages // -1 Message checksum failure
+     * @return 0 Come the end of the file // >0 Normal messages or fillers // -1 Message checksum failure
      */
     public DispatchRequest checkMessageAndReturnSize(java.nio.ByteBuffer byteBuffer, final boolean checkCRC,
         final boolean readBody) {
@@ -297,13 +324,20 @@ public class CommitLog {
                     break;
                 case BLANK_MAGIC_CODE:
                     return new DispatchRequest(0, true /* success */);
+                case FILLER_MAGIC_CODE:
+                    if (totalSize < 4 + 4 || totalSize - 4 - 4 > byteBuffer.remaining()) {
+                        log.warn("found a filler of illegal size " + totalSize);
+                        return new DispatchRequest(-1, false /* success */);
+                    }
+                    byteBuffer.position(byteBuffer.position() + totalSize - 4 - 4);
+                    DispatchRequest filler = new DispatchRequest(totalSize, true /* success */);
+                    filler.setFiller(true);
+                    return filler;
                 default:
                     log.warn("found a illegal magic code 0x" + Integer.toHexString(magicCode));
                     return new DispatchRequest(-1, false /* success */);
             }
 
-            byte[] bytesContent = new byte[totalSize];
-
             int bodyCRC = byteBuffer.getInt();
 
             int queueId = byteBuffer.getInt();
@@ -318,21 +352,15 @@ public class CommitLog {
 
             long bornTimeStamp = byteBuffer.getLong();
 
-            ByteBuffer byteBuffer1;
-            if ((sysFlag & MessageSysFlag.BORNHOST_V6_FLAG) == 0) {
-                byteBuffer1 = byteBuffer.get(bytesContent, 0, 4 + 4);
-            } else {
-                byteBuffer1 = byteBuffer.get(bytesContent, 0, 16 + 4);
-            }
+            // BORNHOST is not needed for dispatching, skip it
+            int bornHostLength = (sysFlag & MessageSysFlag.BORNHOST_V6_FLAG) == 0 ? 4 + 4 : 16 + 4;
+            byteBuffer.position(byteBuffer.position() + bornHostLength);
 
             long storeTimestamp = byteBuffer.getLong();
 
-            ByteBuffer byteBuffer2;
-            if ((sysFlag & MessageSysFlag.STOREHOSTADDRESS_V6_FLAG) == 0) {
-                byteBuffer2 = byteBuffer.get(bytesContent, 0, 4 + 4);
-            } else {
-                byteBuffer2 = byteBuffer.get(bytesContent, 0, 16 + 4);
-            }
+            // STOREHOSTADDRESS is not needed for dispatching, skip it
+            int storeHostLength = (sysFlag & MessageSysFlag.STOREHOSTADDRESS_V6_FLAG) == 0 ? 4 + 4 : 16 + 4;
+            byteBuffer.position(byteBuffer.position() + storeHostLength);
 
             int reconsumeTimes = byteBuffer.getInt();
 
@@ -340,24 +368,19 @@ public class CommitLog {
 
             int bodyLen = byteBuffer.getInt();
             if (bodyLen > 0) {
-                if (readBody) {
-                    byteBuffer.get(bytesContent, 0, bodyLen);
-
-                    if (checkCRC) {
-                        int crc = UtilAll.crc32(bytesContent, 0, bodyLen);
-                        if (crc != bodyCRC) {
-                            log.warn("CRC check failed. bodyCRC={}, currentCRC={}", crc, bodyCRC);
-                            return new DispatchRequest(-1, false/* success */);
-                        }
+                if (readBody && checkCRC) {
+                    int crc = UtilAll.crc32(byteBuffer, byteBuffer.position(), bodyLen);
+                    if (crc != bodyCRC) {
+                        log.warn("CRC check failed. bodyCRC={}, currentCRC={}", crc, bodyCRC);
+                        return new DispatchRequest(-1, false/* success */);
                     }
-                } else {
-                    byteBuffer.position(byteBuffer.position() + bodyLen);
                 }
+                byteBuffer.position(byteBuffer.position() + bodyLen);
             }
 
             byte topicLen = byteBuffer.get();
-            byteBuffer.get(bytesContent, 0, topicLen);
-            String topic = new String(bytesContent, 0, topicLen, MessageDecoder.CHARSET_UTF8);
+            String topic = this.topicNameCache.get(byteBuffer, byteBuffer.position(), topicLen);
+            byteBuffer.position(byteBuffer.position() + topicLen);
 
             long tagsCode = 0;
             String keys = "";
@@ -366,33 +389,83 @@ public class CommitLog {
             short propertiesLength = byteBuffer.getShort();
             Map<String, String> propertiesMap = null;
             if (propertiesLength > 0) {
-                byteBuffer.get(bytesContent, 0, propertiesLength);
-                String properties = new String(bytesContent, 0, propertiesLength, MessageDecoder.CHARSET_UTF8);
-                propertiesMap = MessageDecoder.string2messageProperties(properties);
+                byte[] properties = new byte[propertiesLength];
+                byteBuffer.get(properties);
+                // The full map is only decoded when somebody asks for it, the well-known properties are picked
+                // out of the encoded form directly. As in MessageDecoder#string2messageProperties, the last
+                // occurrence of a property wins.
+                propertiesMap = new LazyPropertiesMap(properties, sysFlag);
+                boolean binaryProperties =
+                    (sysFlag & MessageSysFlag.BINARY_PROPERTIES_FLAG) == MessageSysFlag.BINARY_PROPERTIES_FLAG;
+
+                int keysIndex = -1;
+                int keysLength = 0;
+                int uniqKeyIndex = -1;
+                int uniqKeyLength = 0;
+                int tagsIndex = -1;
+                int tagsLength = 0;
+                int delayIndex = -1;
+                int delayLength = 0;
+                int index = 0;
+                while (index < propertiesLength) {
+                    int keyId = MessagePropertiesCodec.CUSTOM_KEY_ID;
+                    int valueIndex;
+                    int valueLength;
+                    if (binaryProperties) {
+                        keyId = properties[index++];
+                        if (keyId == MessagePropertiesCodec.CUSTOM_KEY_ID) {
+                            index += MessagePropertiesCodec.lengthSizeAt(properties, index)
+                                + MessagePropertiesCodec.lengthAt(properties, index);
+                        }
+                        valueLength = MessagePropertiesCodec.lengthAt(properties, index);
+                        valueIndex = index + MessagePropertiesCodec.lengthSizeAt(properties, index);
+                        index = valueIndex + valueLength;
+                    } else {
+                        int entryEnd = indexOf(properties, (byte) MessageDecoder.PROPERTY_SEPARATOR, index, propertiesLength);
+                        int separator = indexOf(properties, (byte) MessageDecoder.NAME_VALUE_SEPARATOR, index, entryEnd);
+                        valueIndex = separator + 1;
+                        valueLength = entryEnd - valueIndex;
+                        if (separator > index && separator < entryEnd - 1) {
+                            keyId = stringPropertyKeyId(properties, index, separator - index);
+                        }
+                        index = entryEnd + 1;
+                    }
 
-                keys = propertiesMap.get(MessageConst.PROPERTY_KEYS);
+                    if (keyId == PROPERTY_KEYS_ID) {
+                        keysIndex = valueIndex;
+                        keysLength = valueLength;
+                    } else if (keyId == PROPERTY_UNIQ_KEY_ID) {
+                        uniqKeyIndex = valueIndex;
+                        uniqKeyLength = valueLength;
+                    } else if (keyId == PROPERTY_TAGS_ID) {
+                        tagsIndex = valueIndex;
+                        tagsLength = valueLength;
+                    } else if (keyId == PROPERTY_DELAY_ID) {
+                        delayIndex = valueIndex;
+                        delayLength = valueLength;
+                    }
+                }
 
-                uniqKey = propertiesMap.get(MessageConst.PROPERTY_UNIQ_CLIENT_MESSAGE_ID_KEYIDX);
+                keys = keysIndex < 0 ? null : new String(properties, keysIndex, keysLength, MessageDecoder.CHARSET_UTF8);
 
-                String tags = propertiesMap.get(MessageConst.PROPERTY_TAGS);
-                if (tags != null && tags.length() > 0) {
-                    tagsCode = MessageExtBrokerInner.tagsString2tagsCode(MessageExt.parseTopicFilterType(sysFlag), tags);
+                uniqKey = uniqKeyIndex < 0 ? null
+                    : new String(properties, uniqKeyIndex, uniqKeyLength, MessageDecoder.CHARSET_UTF8);
+
+                if (tagsIndex >= 0 && tagsLength > 0) {
+                    tagsCode = tagsCode(properties, tagsIndex, tagsLength, sysFlag);
                 }
 
                 // Timing message processing
-                {
-                    String t = propertiesMap.get(MessageConst.PROPERTY_DELAY_TIME_LEVEL);
-                    if (TopicValidator.RMQ_SYS_SCHEDULE_TOPIC.equals(topic) && t != null) {
-                        int delayLevel = Integer.parseInt(t);
+                if (delayIndex >= 0 && TopicValidator.RMQ_SYS_SCHEDULE_TOPIC.equals(topic)) {
+                    int delayLevel = Integer.parseInt(new String(properties, delayIndex, delayLength, MessageDecoder.CHARSET_UTF8));
 
-                        if (delayLevel > this.defaultMessageStore.getScheduleMessageService().getMaxDelayLevel()) {
-                            delayLevel = this.defaultMessageStore.getScheduleMessageService().getMaxDelayLevel();
-                        }
+                    if (delayLevel > this.defaultMessageStore.getScheduleMessageService().getMaxDelayLevel()) {
+                        delayLevel = this.defaultMessageStore.getScheduleMessageService().getMaxDelayLevel();
+                    }
 
-                        if (delayLevel > 0) {
-                            tagsCode = this.defaultMessageStore.getScheduleMessageService().computeDeliverTimestamp(delayLevel,
-                                storeTimestamp);
-                        }
+                    if (delayLevel > 0) {
+                        tagsCode = this.defaultMessageStore.getScheduleMessageService().computeDeliverTimestamp(delayLevel,
+                            storeTimestamp);
                     }
                 }
             }
@@ -402,8 +475,6 @@ public class CommitLog {
                 doNothingForDeadCode(reconsumeTimes);
                 doNothingForDeadCode(flag);
                 doNothingForDeadCode(bornTimeStamp);
-                doNothingForDeadCode(byteBuffer1);
-                doNothingForDeadCode(byteBuffer2);
                 log.error(
                     "[BUG]read total count not equals msg total size. totalSize={}, readTotalCount={}, bodyLen={}, topicLen={}, propertiesLength={}",
                     totalSize, readLength, bodyLen, topicLen, propertiesLength);
@@ -430,6 +501,61 @@ public class CommitLog {
         return new DispatchRequest(-1, false /* success */);
     }
 
+    private static int indexOf(byte[] bytes, byte b, int fromIndex, int toIndex) {
+        for (int i = fromIndex; i < toIndex; i++) {
+            if (bytes[i] == b) {
+                return i;
+            }
+        }
+        return toIndex;
+    }
+
+    /**
+     * Maps the name of a string encoded property to its MessagePropertiesCodec dictionary id, only for the
+     * properties needed to build a DispatchRequest.
+     */
+    private static int stringPropertyKeyId(byte[] bytes, int index, int length) {
+        if (regionEquals(bytes, index, length, PROPERTY_KEYS_BYTES)) {
+            return PROPERTY_KEYS_ID;
+        } else if (regionEquals(bytes, index, length, PROPERTY_UNIQ_KEY_BYTES)) {
+            return PROPERTY_UNIQ_KEY_ID;
+        } else if (regionEquals(bytes, index, length, PROPERTY_TAGS_BYTES)) {
+            return PROPERTY_TAGS_ID;
+        } else if (regionEquals(bytes, index, length, PROPERTY_DELAY_BYTES)) {
+            return PROPERTY_DELAY_ID;
+        }
+        return MessagePropertiesCodec.CUSTOM_KEY_ID;
+    }
+
+    private static boolean regionEquals(byte[] bytes, int index, int length, byte[] expected) {
+        if (length != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (bytes[index + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Same as {@link MessageExtBrokerInner#tagsString2tagsCode}, computed on the encoded tags when they are plain
+     * ASCII, whose String hash code can be derived from the bytes directly.
+     */
+    private static long tagsCode(byte[] bytes, int index, int length, int sysFlag) {
+        int hash = 0;
+        for (int i = index; i < index + length; i++) {
+            byte b = bytes[i];
+            if (b < 0) {
+                String tags = new String(bytes, index, length, MessageDecoder.CHARSET_UTF8);
+                return MessageExtBrokerInner.tagsString2tagsCode(MessageExt.parseTopicFilterType(sysFlag), tags);
+            }
+            hash = 31 * hash + b;
+        }
+        return hash;
+    }
+
     protected static int calMsgLength(int sysFlag, int bodyLength, int topicLength, int propertiesLength) {
         int bornhostLength = (sysFlag & MessageSysFlag.BORNHOST_V6_FLAG) == 0 ? 8 : 20;
         int storehostAddressLength = (sysFlag & MessageSysFlag.STOREHOSTADDRESS_V6_FLAG) == 0 ? 8 : 20;
@@ -468,27 +594,44 @@ public class CommitLog {
         boolean checkCRCOnRecover = this.defaultMessageStore.getMessageStoreConfig().isCheckCRCOnRecover();
         final List<MappedFile> mappedFiles = this.mappedFileQueue.getMappedFiles();
         if (!mappedFiles.isEmpty()) {
-            // Looking beginning to recover from which file
-            int index = mappedFiles.size() - 1;
+            // Recover from the checkpoint, below which every message is flushed and dispatched, if it is in the files
+            long checkpointOffset = this.getRecoverCheckpointOffset();
+            int index = checkpointOffset > 0 ? indexOfMappedFile(mappedFiles, checkpointOffset) : -1;
+            int startPosition = 0;
             MappedFile mappedFile = null;
-            for (; index >= 0; index--) {
+            if (index >= 0) {
                 mappedFile = mappedFiles.get(index);
-                if (this.isMappedFileMatchedRecover(mappedFile)) {
-                    log.info("recover from this mapped file " + mappedFile.getFileName());
-                    break;
+                startPosition = (int) (checkpointOffset - mappedFile.getFileFromOffset());
+                log.info("recover from the checkpoint {} in mapped file {}", checkpointOffset, mappedFile.getFileName());
+            } else {
+                // Looking beginning to recover from which file
+                index = mappedFiles.size() - 1;
+                for (; index >= 0; index--) {
+                    mappedFile = mappedFiles.get(index);
+                    if (this.isMappedFileMatchedRecover(mappedFile)) {
+                        log.info("recover from this mapped file " + mappedFile.getFileName());
+                        break;
+                    }
                 }
-            }
 
-            if (index < 0) {
-                index = 0;
-                mappedFile = mappedFiles.get(index);
+                if (index < 0) {
+                    index = 0;
+                    mappedFile = mappedFiles.get(index);
+                }
             }
 
+            long crcFailedOffset = checkCRCOnRecover ? this.checkCRCInParallel(mappedFiles, index, startPosition) : Long.MAX_VALUE;
+
             ByteBuffer byteBuffer = mappedFile.sliceByteBuffer();
+            byteBuffer.position(startPosition);
             long processOffset = mappedFile.getFileFromOffset();
-            long mappedFileOffset = 0;
+            long mappedFileOffset = startPosition;
             while (true) {
-                DispatchRequest dispatchRequest = this.checkMessageAndReturnSize(byteBuffer, checkCRCOnRecover);
+                if (processOffset + mappedFileOffset >= crcFailedOffset) {
+                    log.info("recover physics file end at the CRC check failure, " + mappedFile.getFileName());
+                    break;
+                }
+                DispatchRequest dispatchRequest = this.checkMessageAndReturnSize(byteBuffer, false);
                 int size = dispatchRequest.getMsgSize();
 
                 if (dispatchRequest.isSuccess()) {
@@ -496,6 +639,9 @@ public class CommitLog {
                     if (size > 0) {
                         mappedFileOffset += size;
 
+                        if (dispatchRequest.isFiller()) {
+                            continue;
+                        }
                         if (this.defaultMessageStore.getMessageStoreConfig().isDuplicationEnable()) {
                             if (dispatchRequest.getCommitLogOffset() < this.defaultMessageStore.getConfirmOffset()) {
                                 this.defaultMessageStore.doDispatch(dispatchRequest);
@@ -532,6 +678,7 @@ public class CommitLog {
             this.mappedFileQueue.setFlushedWhere(processOffset);
             this.mappedFileQueue.setCommittedWhere(processOffset);
             this.mappedFileQueue.truncateDirtyFiles(processOffset);
+            this.defaultMessageStore.getStoreCheckpoint().truncateOffsets(processOffset);
 
             // Clear ConsumeQueue redundant data
             if (maxPhyOffsetOfConsumeQueue >= processOffset) {
@@ -548,6 +695,112 @@ public class CommitLog {
         }
     }
 
+    private long getRecoverCheckpointOffset() {
+        StoreCheckpoint storeCheckpoint = this.defaultMessageStore.getStoreCheckpoint();
+        if (this.defaultMessageStore.getMessageStoreConfig().isMessageIndexEnable()
+            && this.defaultMessageStore.getMessageStoreConfig().isMessageIndexSafe()) {
+            return storeCheckpoint.getMinOffsetIndex();
+        }
+        return storeCheckpoint.getMinOffset();
+    }
+
+    /**
+     * @return index of the mapped file holding {@code offset}, or -1 if none does
+     */
+    private static int indexOfMappedFile(final List<MappedFile> mappedFiles, final long offset) {
+        for (int i = mappedFiles.size() - 1; i >= 0; i--) {
+            MappedFile mappedFile = mappedFiles.get(i);
+            if (offset >= mappedFile.getFileFromOffset() && offset < mappedFile.getFileFromOffset() + mappedFile.getFileSize()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Check the body CRC of the messages from {@code startPosition} of the mapped file at {@code index} on. The
+     * message boundaries are found by walking the headers, which is cheap, then the segments between them are checked
+     * by recoverCheckCRCThreadNum threads.
+     *
+     * @return offset of the first message whose CRC does not match, or Long.MAX_VALUE
+     */
+    private long checkCRCInParallel(final List<MappedFile> mappedFiles, final int index, final int startPosition) {
+        long beginTime = System.currentTimeMillis();
+        List<CRCCheckSegment> segments = new ArrayList<>();
+        for (int i = index; i < mappedFiles.size(); i++) {
+            MappedFile mappedFile = mappedFiles.get(i);
+            ByteBuffer byteBuffer = mappedFile.sliceByteBuffer();
+            int position = i == index ? startPosition : 0;
+            int segmentFrom = position;
+            boolean end = true;
+            while (position + 8 <= mappedFile.getFileSize()) {
+                int totalSize = byteBuffer.getInt(position);
+                int magicCode = byteBuffer.getInt(position + 4);
+                if (magicCode != MESSAGE_MAGIC_CODE && magicCode != FILLER_MAGIC_CODE
+                    || totalSize <= 0 || totalSize > mappedFile.getFileSize() - position) {
+                    end = magicCode != BLANK_MAGIC_CODE;
+                    break;
+                }
+                position += totalSize;
+                if (position - segmentFrom >= CRC_CHECK_SEGMENT_SIZE) {
+                    segments.add(new CRCCheckSegment(mappedFile, segmentFrom, position));
+                    segmentFrom = position;
+                }
+            }
+            if (position > segmentFrom) {
+                segments.add(new CRCCheckSegment(mappedFile, segmentFrom, position));
+            }
+            if (end) {
+                break;
+            }
+        }
+
+        long crcFailedOffset = Long.MAX_VALUE;
+        int threadNum = Math.min(this.defaultMessageStore.getMessageStoreConfig().getRecoverCheckCRCThreadNum(), segments.size());
+        if (threadNum > 1) {
+            ForkJoinPool pool = new ForkJoinPool(threadNum);
+            try {
+                crcFailedOffset = pool.submit(() -> segments.parallelStream().mapToLong(CommitLog::checkCRC)
+                    .min().orElse(Long.MAX_VALUE)).get();
+            } catch (InterruptedException | ExecutionException e) {
+                log.warn("check CRC in parallel failed, check it in this thread", e);
+                crcFailedOffset = segments.stream().mapToLong(CommitLog::checkCRC).min().orElse(Long.MAX_VALUE);
+            } finally {
+                pool.shutdown();
+            }
+        } else {
+            crcFailedOffset = segments.stream().mapToLong(CommitLog::checkCRC).min().orElse(Long.MAX_VALUE);
+        }
+        log.info("check CRC of {} segments over, crcFailedOffset={}, cost {} ms", segments.size(),
+            crcFailedOffset == Long.MAX_VALUE ? -1 : crcFailedOffset, System.currentTimeMillis() - beginTime);
+        return crcFailedOffset;
+    }
+
+    private static long checkCRC(final CRCCheckSegment segment) {
+        ByteBuffer byteBuffer = segment.mappedFile.sliceByteBuffer();
+        int position = segment.from;
+        while (position < segment.to) {
+            int totalSize = byteBuffer.getInt(position);
+            if (byteBuffer.getInt(position + 4) == FILLER_MAGIC_CODE) {
+                position += totalSize;
+                continue;
+            }
+            int bodyCRC = byteBuffer.getInt(position + 4 + 4);
+            int sysFlag = byteBuffer.getInt(position + MessageDecoder.SYSFLAG_POSITION);
+            int bornHostLength = (sysFlag & MessageSysFlag.BORNHOST_V6_FLAG) == 0 ? 4 + 4 : 16 + 4;
+            int storeHostLength = (sysFlag & MessageSysFlag.STOREHOSTADDRESS_V6_FLAG) == 0 ? 4 + 4 : 16 + 4;
+            int bodyLenPosition = position + 4 + 4 + 4 + 4 + 4 + 8 + 8 + 4 + 8 + bornHostLength + 8 + storeHostLength + 4 + 8;
+            int bodyLen = bodyLenPosition + 4 <= position + totalSize ? byteBuffer.getInt(bodyLenPosition) : -1;
+            if (bodyLen < 0 || bodyLenPosition + 4 + bodyLen > position + totalSize
+                || bodyLen > 0 && UtilAll.crc32(byteBuffer, bodyLenPosition + 4, bodyLen) != bodyCRC) {
+                log.warn("CRC check failed, mapped file {}, position {}", segment.mappedFile.getFileName(), position);
+                return segment.mappedFile.getFileFromOffset() + position;
+            }
+            position += totalSize;
+        }
+        return Long.MAX_VALUE;
+    }
+
     private boolean isMappedFileMatchedRecover(final MappedFile mappedFile) {
         ByteBuffer byteBuffer = mappedFile.sliceByteBuffer();
 
@@ -596,20 +849,17 @@ public class CommitLog {
         return beginTimeInLock;
     }
 
-    private String generateKey(StringBuilder keyBuilder, MessageExt messageExt) {
-        keyBuilder.setLength(0);
-        keyBuilder.append(messageExt.getTopic());
-        keyBuilder.append('-');
-        keyBuilder.append(messageExt.getQueueId());
-        return keyBuilder.toString();
-    }
-
     public CompletableFuture<PutMessageResult> asyncPutMessage(final MessageExtBrokerInner msg) {
         // Set the storage time
         msg.setStoreTimestamp(System.currentTimeMillis());
         // Set the message body BODY CRC (consider the most appropriate setting
         // on the client)
-        msg.setBodyCRC(UtilAll.crc32(msg.getBody()));
+        ByteBuffer bodyBuffer = msg.getBodyBuffer();
+        if (bodyBuffer != null) {
+            msg.setBodyCRC(UtilAll.crc32(bodyBuffer.duplicate(), bodyBuffer.position(), bodyBuffer.remaining()));
+        } else {
+            msg.setBodyCRC(UtilAll.crc32(msg.getBody()));
+        }
         // Back to Results
         AppendMessageResult result = null;
 
@@ -636,6 +886,12 @@ public class CommitLog {
 
                 msg.setTopic(topic);
                 msg.setQueueId(queueId);
+            } else if (this.defaultMessageStore.getTimerMessageStore() != null) {
+                PutMessageResult transformResult = this.defaultMessageStore.getTimerMessageStore().transformTimerMessage(msg);
+                if (transformResult != null) {
+                    return CompletableFuture.completedFuture(transformResult);
+                }
+                topic = msg.getTopic();
             }
         }
 
@@ -655,7 +911,7 @@ public class CommitLog {
             return CompletableFuture.completedFuture(encodeResult);
         }
         msg.setEncodedBuff(putMessageThreadLocal.getEncoder().encoderBuffer);
-        PutMessageContext putMessageContext = new PutMessageContext(generateKey(putMessageThreadLocal.getKeyBuilder(), msg));
+        PutMessageContext putMessageContext = new PutMessageContext(this.defaultMessageStore.findConsumeQueue(msg.getTopic(), msg.getQueueId()));
 
         long elapsedTimeInLock = 0;
         MappedFile unlockMappedFile = null;
@@ -678,7 +934,7 @@ public class CommitLog {
                 return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.CREATE_MAPEDFILE_FAILED, null));
             }
 
-            result = mappedFile.appendMessage(msg, this.appendMessageCallback, putMessageContext);
+            result = appendMessage(mappedFile, msg, putMessageContext);
             switch (result.getStatus()) {
                 case PUT_OK:
                     break;
@@ -691,7 +947,7 @@ public class CommitLog {
                         log.error("create mapped file2 error, topic: " + msg.getTopic() + " clientAddr: " + msg.getBornHostString());
                         return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.CREATE_MAPEDFILE_FAILED, result));
                     }
-                    result = mappedFile.appendMessage(msg, this.appendMessageCallback, putMessageContext);
+                    result = appendMessage(mappedFile, msg, putMessageContext);
                     break;
                 case MESSAGE_SIZE_EXCEEDED:
                 case PROPERTIES_SIZE_EXCEEDED:
@@ -708,8 +964,16 @@ public class CommitLog {
             putMessageLock.unlock();
         }
 
+        if (putMessageContext.isReserved()) {
+            boolean written = writeReserved(putMessageContext, msg.getEncodedBuff(), result);
+            msg.setEncodedBuff(null);
+            if (!written) {
+                return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.UNKNOWN_ERROR, result));
+            }
+        }
+
         if (elapsedTimeInLock > 500) {
-            log.warn("[NOTIFYME]putMessage in lock cost time(ms)={}, bodyLength={} AppendMessageResult={}", elapsedTimeInLock, msg.getBody().length, result);
+            log.warn("[NOTIFYME]putMessage in lock cost time(ms)={}, bodyLength={} AppendMessageResult={}", elapsedTimeInLock, msg.getBodyLength(), result);
         }
 
         if (null != unlockMappedFile && this.defaultMessageStore.getMessageStoreConfig().isWarmMapedFileEnable()) {
@@ -768,8 +1032,12 @@ public class CommitLog {
         PutMessageThreadLocal pmThreadLocal = this.putMessageThreadLocal.get();
         MessageExtEncoder batchEncoder = pmThreadLocal.getEncoder();
 
-        PutMessageContext putMessageContext = new PutMessageContext(generateKey(pmThreadLocal.getKeyBuilder(), messageExtBatch));
-        messageExtBatch.setEncodedBuff(batchEncoder.encode(messageExtBatch, putMessageContext));
+        PutMessageContext putMessageContext = new PutMessageContext(this.defaultMessageStore.findConsumeQueue(messageExtBatch.getTopic(), messageExtBatch.getQueueId()));
+        ByteBuffer encodedBuff = batchEncoder.encode(messageExtBatch, putMessageContext);
+        if (encodedBuff == null) {
+            return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.PROPERTIES_SIZE_EXCEEDED, null));
+        }
+        messageExtBatch.setEncodedBuff(encodedBuff);
 
         putMessageLock.lock();
         try {
@@ -788,7 +1056,7 @@ public class CommitLog {
                 return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.CREATE_MAPEDFILE_FAILED, null));
             }
 
-            result = mappedFile.appendMessages(messageExtBatch, this.appendMessageCallback, putMessageContext);
+            result = appendMessages(mappedFile, messageExtBatch, putMessageContext);
             switch (result.getStatus()) {
                 case PUT_OK:
                     break;
@@ -801,7 +1069,7 @@ public class CommitLog {
                         log.error("Create mapped file2 error, topic: {} clientAddr: {}", messageExtBatch.getTopic(), messageExtBatch.getBornHostString());
                         return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.CREATE_MAPEDFILE_FAILED, result));
                     }
-                    result = mappedFile.appendMessages(messageExtBatch, this.appendMessageCallback, putMessageContext);
+                    result = appendMessages(mappedFile, messageExtBatch, putMessageContext);
                     break;
                 case MESSAGE_SIZE_EXCEEDED:
                 case PROPERTIES_SIZE_EXCEEDED:
@@ -817,6 +1085,14 @@ public class CommitLog {
             putMessageLock.unlock();
         }
 
+        if (putMessageContext.isReserved()) {
+            boolean written = writeReserved(putMessageContext, messageExtBatch.getEncodedBuff(), result);
+            messageExtBatch.setEncodedBuff(null);
+            if (!written) {
+                return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.UNKNOWN_ERROR, result));
+            }
+        }
+
         if (elapsedTimeInLock > 500) {
             log.warn("[NOTIFYME]putMessages in lock cost time(ms)={}, bodyLength={} AppendMessageResult={}", elapsedTimeInLock, messageExtBatch.getBody().length, result);
         }
@@ -845,6 +1121,58 @@ public class CommitLog {
 
     }
 
+    private AppendMessageResult appendMessage(final MappedFile mappedFile, final MessageExtBrokerInner msg,
+        final PutMessageContext putMessageContext) {
+        if (this.multiWriterAppendEnable) {
+            return this.appendMessageCallback.doReserve(mappedFile, msg, putMessageContext);
+        }
+        return mappedFile.appendMessage(msg, this.appendMessageCallback, putMessageContext);
+    }
+
+    private AppendMessageResult appendMessages(final MappedFile mappedFile, final MessageExtBatch messageExtBatch,
+        final PutMessageContext putMessageContext) {
+        if (this.multiWriterAppendEnable) {
+            return this.appendMessageCallback.doReserve(mappedFile, messageExtBatch, putMessageContext);
+        }
+        return mappedFile.appendMessages(messageExtBatch, this.appendMessageCallback, putMessageContext);
+    }
+
+    /**
+     * Copy the encoded messages into the region reserved under the put message lock, outside of the lock. The region
+     * is always published, even on failure, otherwise writers reserved after it would wait forever. A region that
+     * could not be written is published as a filler, which readers and recovery skip by its size, so that they never
+     * see a partial message in it and go on with the messages after it.
+     *
+     * @return false if the messages could not be written
+     */
+    private boolean writeReserved(final PutMessageContext putMessageContext, final ByteBuffer encodedBuff,
+        final AppendMessageResult result) {
+        MappedFile mappedFile = putMessageContext.getReservedMappedFile();
+        int position = putMessageContext.getReservedPosition();
+        try {
+            mappedFile.writeReserved(position, encodedBuff);
+            return true;
+        } catch (Throwable e) {
+            log.error("Write reserved region error, file: {} position: {} size: {}", mappedFile.getFileName(), position,
+                result.getWroteBytes(), e);
+            try {
+                ByteBuffer filler = ByteBuffer.allocate(4 + 4);
+                // 1 TOTALSIZE
+                filler.putInt(result.getWroteBytes());
+                // 2 MAGICCODE
+                filler.putInt(CommitLog.FILLER_MAGIC_CODE);
+                filler.flip();
+                mappedFile.writeReserved(position, filler);
+            } catch (Throwable fillerError) {
+                log.error("Write filler into reserved region error, file: {} position: {}", mappedFile.getFileName(),
+                    position, fillerError);
+            }
+            return false;
+        } finally {
+            mappedFile.publishReserved(position, result.getWroteBytes(), result.getStoreTimestamp());
+        }
+    }
+
     public CompletableFuture<PutMessageStatus> submitFlushRequest(AppendMessageResult result, MessageExt messageExt) {
         // Synchronization flush
         if (FlushDiskType.SYNC_FLUSH == this.defaultMessageStore.getMessageStoreConfig().getFlushDiskType()) {
@@ -934,17 +1262,33 @@ public class CommitLog {
         return null;
     }
 
-    public long rollNextFile(final long offset) {
+    /**
+     * Advise the OS to read ahead [offset, offset + size) of the CommitLog, the range may span several files.
+     *
+     * @return bytes advised
+     */
+    public long prefetch(final long offset, final long size) {
         int mappedFileSize = this.defaultMessageStore.getMessageStoreConfig().getMappedFileSizeCommitLog();
-        return offset + mappedFileSize - offset % mappedFileSize;
-    }
-
-    public HashMap<String, Long> getTopicQueueTable() {
-        return topicQueueTable;
+        long current = offset;
+        long end = offset + size;
+        while (current < end) {
+            MappedFile mappedFile = this.mappedFileQueue.findMappedFileByOffset(current, false);
+            if (mappedFile == null) {
+                break;
+            }
+            int pos = (int) (current % mappedFileSize);
+            int length = (int) Math.min(end - current, mappedFileSize - pos);
+            if (mappedFile.madviseWillNeed(pos, length) != 0) {
+                break;
+            }
+            current += length;
+        }
+        return current - offset;
     }
 
-    public void setTopicQueueTable(HashMap<String, Long> topicQueueTable) {
-        this.topicQueueTable = topicQueueTable;
+    public long rollNextFile(final long offset) {
+        int mappedFileSize = this.defaultMessageStore.getMessageStoreConfig().getMappedFileSizeCommitLog();
+        return offset + mappedFileSize - offset % mappedFileSize;
     }
 
     public void destroy() {
@@ -970,16 +1314,6 @@ public class CommitLog {
         return this.mappedFileQueue.retryDeleteFirstFile(intervalForcibly);
     }
 
-    public void removeQueueFromTopicQueueTable(final String topic, final int queueId) {
-        String key = topic + "-" + queueId;
-        synchronized (this) {
-            this.topicQueueTable.remove(key);
-            this.lmqTopicQueueTable.remove(key);
-        }
-
-        log.info("removeQueueFromTopicQueueTable OK Topic: {} QueueId: {}", topic, queueId);
-    }
-
     public void checkSelf() {
         mappedFileQueue.checkSelf();
     }
@@ -998,10 +1332,6 @@ public class CommitLog {
         return diff;
     }
 
-    public Map<String, Long> getLmqTopicQueueTable() {
-        return this.lmqTopicQueueTable;
-    }
-
     abstract class FlushCommitLogService extends ServiceThread {
         protected static final int RETRY_TIMES_OVER = 10;
     }
@@ -1101,6 +1431,7 @@ public class CommitLog {
                     long storeTimestamp = CommitLog.this.mappedFileQueue.getStoreTimestamp();
                     if (storeTimestamp > 0) {
                         CommitLog.this.defaultMessageStore.getStoreCheckpoint().setPhysicMsgTimestamp(storeTimestamp);
+                        CommitLog.this.defaultMessageStore.getStoreCheckpoint().setPhysicOffset(CommitLog.this.mappedFileQueue.getFlushedWhere());
                     }
                     long past = System.currentTimeMillis() - begin;
                     if (past > 500) {
@@ -1214,6 +1545,7 @@ public class CommitLog {
                 long storeTimestamp = CommitLog.this.mappedFileQueue.getStoreTimestamp();
                 if (storeTimestamp > 0) {
                     CommitLog.this.defaultMessageStore.getStoreCheckpoint().setPhysicMsgTimestamp(storeTimestamp);
+                    CommitLog.this.defaultMessageStore.getStoreCheckpoint().setPhysicOffset(CommitLog.this.mappedFileQueue.getFlushedWhere());
                 }
 
                 this.requestsRead = new LinkedList<>();
@@ -1304,12 +1636,8 @@ public class CommitLog {
             };
 
             // Record ConsumeQueue information
-            String key = putMessageContext.getTopicQueueTableKey();
-            Long queueOffset = CommitLog.this.topicQueueTable.get(key);
-            if (null == queueOffset) {
-                queueOffset = 0L;
-                CommitLog.this.topicQueueTable.put(key, queueOffset);
-            }
+            ConsumeQueue consumeQueue = putMessageContext.getConsumeQueue();
+            long queueOffset = consumeQueue.getNextQueueOffset();
 
             boolean multiDispatchWrapResult = CommitLog.this.multiDispatch.wrapMultiDispatch(msgInner);
             if (!multiDispatchWrapResult) {
@@ -1378,7 +1706,7 @@ public class CommitLog {
                 case MessageSysFlag.TRANSACTION_NOT_TYPE:
                 case MessageSysFlag.TRANSACTION_COMMIT_TYPE:
                     // The next update ConsumeQueue information
-                    CommitLog.this.topicQueueTable.put(key, ++queueOffset);
+                    consumeQueue.setNextQueueOffset(++queueOffset);
                     CommitLog.this.multiDispatch.updateMultiQueueOffset(msgInner);
                     break;
                 default:
@@ -1393,12 +1721,8 @@ public class CommitLog {
             //physical offset
             long wroteOffset = fileFromOffset + byteBuffer.position();
             // Record ConsumeQueue information
-            String key = putMessageContext.getTopicQueueTableKey();
-            Long queueOffset = CommitLog.this.topicQueueTable.get(key);
-            if (null == queueOffset) {
-                queueOffset = 0L;
-                CommitLog.this.topicQueueTable.put(key, queueOffset);
-            }
+            ConsumeQueue consumeQueue = putMessageContext.getConsumeQueue();
+            long queueOffset = consumeQueue.getNextQueueOffset();
             long beginQueueOffset = queueOffset;
             int totalMsgLen = 0;
             int msgNum = 0;
@@ -1482,11 +1806,182 @@ public class CommitLog {
             AppendMessageResult result = new AppendMessageResult(AppendMessageStatus.PUT_OK, wroteOffset, totalMsgLen, msgIdSupplier,
                 messageExtBatch.getStoreTimestamp(), beginQueueOffset, CommitLog.this.defaultMessageStore.now() - beginTimeMills);
             result.setMsgNum(msgNum);
-            CommitLog.this.topicQueueTable.put(key, queueOffset);
+            consumeQueue.setNextQueueOffset(queueOffset);
+
+            return result;
+        }
+
+        /**
+         * Multi-writer version of {@link #doAppend(long, ByteBuffer, int, MessageExtBrokerInner, PutMessageContext)},
+         * called under the put message lock. Only reserves space and assigns the queue offset, the encoded message
+         * is copied into the reserved region by the caller after the lock is released.
+         */
+        public AppendMessageResult doReserve(final MappedFile mappedFile, final MessageExtBrokerInner msgInner,
+            PutMessageContext putMessageContext) {
+            final long beginTimeMills = CommitLog.this.defaultMessageStore.now();
+
+            ConsumeQueue consumeQueue = putMessageContext.getConsumeQueue();
+            long queueOffset = consumeQueue.getNextQueueOffset();
+
+            // may re-encode the message, so it has to be done before the space is reserved
+            boolean multiDispatchWrapResult = CommitLog.this.multiDispatch.wrapMultiDispatch(msgInner);
+            if (!multiDispatchWrapResult) {
+                return new AppendMessageResult(AppendMessageStatus.UNKNOWN_ERROR);
+            }
+
+            ByteBuffer preEncodeBuffer = msgInner.getEncodedBuff();
+            final int msgLen = preEncodeBuffer.getInt(0);
+            int position = mappedFile.reserve(msgLen, END_FILE_MIN_BLANK_LENGTH);
+            if (position < 0) {
+                return this.reserveEndOfFile(mappedFile, msgInner.getStoreTimestamp(), queueOffset, beginTimeMills);
+            }
+            final long wroteOffset = mappedFile.getFileFromOffset() + position;
+
+            final int tranType = MessageSysFlag.getTransactionValue(msgInner.getSysFlag());
+            if (tranType == MessageSysFlag.TRANSACTION_PREPARED_TYPE || tranType == MessageSysFlag.TRANSACTION_ROLLBACK_TYPE) {
+                queueOffset = 0L;
+            }
+
+            int pos = 4 + 4 + 4 + 4 + 4;
+            // 6 QUEUEOFFSET
+            preEncodeBuffer.putLong(pos, queueOffset);
+            pos += 8;
+            // 7 PHYSICALOFFSET
+            preEncodeBuffer.putLong(pos, wroteOffset);
+            int ipLen = (msgInner.getSysFlag() & MessageSysFlag.BORNHOST_V6_FLAG) == 0 ? 4 + 4 : 16 + 4;
+            // 8 SYSFLAG, 9 BORNTIMESTAMP, 10 BORNHOST, 11 STORETIMESTAMP
+            pos += 8 + 4 + 8 + ipLen;
+            preEncodeBuffer.putLong(pos, msgInner.getStoreTimestamp());
+
+            Supplier<String> msgIdSupplier = () -> {
+                int sysflag = msgInner.getSysFlag();
+                int msgIdLen = (sysflag & MessageSysFlag.STOREHOSTADDRESS_V6_FLAG) == 0 ? 4 + 4 + 8 : 16 + 4 + 8;
+                ByteBuffer msgIdBuffer = ByteBuffer.allocate(msgIdLen);
+                MessageExt.socketAddress2ByteBuffer(msgInner.getStoreHost(), msgIdBuffer);
+                msgIdBuffer.clear();//because socketAddress2ByteBuffer flip the buffer
+                msgIdBuffer.putLong(msgIdLen - 8, wroteOffset);
+                return UtilAll.bytes2string(msgIdBuffer.array());
+            };
+
+            putMessageContext.setReserved(mappedFile, position);
+            AppendMessageResult result = new AppendMessageResult(AppendMessageStatus.PUT_OK, wroteOffset, msgLen, msgIdSupplier,
+                msgInner.getStoreTimestamp(), queueOffset, CommitLog.this.defaultMessageStore.now() - beginTimeMills);
+
+            if (tranType == MessageSysFlag.TRANSACTION_NOT_TYPE || tranType == MessageSysFlag.TRANSACTION_COMMIT_TYPE) {
+                consumeQueue.setNextQueueOffset(++queueOffset);
+                CommitLog.this.multiDispatch.updateMultiQueueOffset(msgInner);
+            }
+            return result;
+        }
+
+        /**
+         * Multi-writer version of {@link #doAppend(long, ByteBuffer, int, MessageExtBatch, PutMessageContext)}.
+         */
+        public AppendMessageResult doReserve(final MappedFile mappedFile, final MessageExtBatch messageExtBatch,
+            PutMessageContext putMessageContext) {
+            final long beginTimeMills = CommitLog.this.defaultMessageStore.now();
+            ByteBuffer messagesByteBuff = messageExtBatch.getEncodedBuff();
+
+            ConsumeQueue consumeQueue = putMessageContext.getConsumeQueue();
+            long queueOffset = consumeQueue.getNextQueueOffset();
+            long beginQueueOffset = queueOffset;
+
+            int totalMsgLen = 0;
+            int msgNum = 0;
+            while (totalMsgLen < messagesByteBuff.limit()) {
+                final int msgLen = messagesByteBuff.getInt(totalMsgLen);
+                if (msgLen > this.maxMessageSize) {
+                    CommitLog.log.warn("message size exceeded, msg total size: " + msgLen + ", msg body size: " + (msgLen - 40)
+                        + ", maxMessageSize: " + this.maxMessageSize);
+                    return new AppendMessageResult(AppendMessageStatus.MESSAGE_SIZE_EXCEEDED);
+                }
+                totalMsgLen += msgLen;
+                msgNum++;
+            }
+
+            int position = mappedFile.reserve(totalMsgLen, END_FILE_MIN_BLANK_LENGTH);
+            if (position < 0) {
+                return this.reserveEndOfFile(mappedFile, messageExtBatch.getStoreTimestamp(), beginQueueOffset, beginTimeMills);
+            }
+            final long wroteOffset = mappedFile.getFileFromOffset() + position;
+
+            int sysFlag = messageExtBatch.getSysFlag();
+            int bornHostLength = (sysFlag & MessageSysFlag.BORNHOST_V6_FLAG) == 0 ? 4 + 4 : 16 + 4;
+            int storeHostLength = (sysFlag & MessageSysFlag.STOREHOSTADDRESS_V6_FLAG) == 0 ? 4 + 4 : 16 + 4;
+            Supplier<String> msgIdSupplier = () -> {
+                int msgIdLen = storeHostLength + 8;
+                int batchCount = putMessageContext.getBatchSize();
+                long[] phyPosArray = putMessageContext.getPhyPos();
+                ByteBuffer msgIdBuffer = ByteBuffer.allocate(msgIdLen);
+                MessageExt.socketAddress2ByteBuffer(messageExtBatch.getStoreHost(), msgIdBuffer);
+                msgIdBuffer.clear();//because socketAddress2ByteBuffer flip the buffer
+
+                StringBuilder buffer = new StringBuilder(batchCount * msgIdLen * 2 + batchCount - 1);
+                for (int i = 0; i < phyPosArray.length; i++) {
+                    msgIdBuffer.putLong(msgIdLen - 8, phyPosArray[i]);
+                    String msgId = UtilAll.bytes2string(msgIdBuffer.array());
+                    if (i != 0) {
+                        buffer.append(',');
+                    }
+                    buffer.append(msgId);
+                }
+                return buffer.toString();
+            };
+
+            int msgPos = 0;
+            for (int index = 0; index < msgNum; index++) {
+                final int msgLen = messagesByteBuff.getInt(msgPos);
+                //move to add queue offset and commitlog offset
+                int pos = msgPos + 20;
+                messagesByteBuff.putLong(pos, queueOffset);
+                pos += 8;
+                messagesByteBuff.putLong(pos, wroteOffset + msgPos);
+                // 8 SYSFLAG, 9 BORNTIMESTAMP, 10 BORNHOST, 11 STORETIMESTAMP
+                pos += 8 + 4 + 8 + bornHostLength;
+                messagesByteBuff.putLong(pos, messageExtBatch.getStoreTimestamp());
 
+                putMessageContext.getPhyPos()[index] = wroteOffset + msgPos;
+                queueOffset++;
+                msgPos += msgLen;
+            }
+
+            messagesByteBuff.position(0);
+            messagesByteBuff.limit(totalMsgLen);
+            putMessageContext.setReserved(mappedFile, position);
+            AppendMessageResult result = new AppendMessageResult(AppendMessageStatus.PUT_OK, wroteOffset, totalMsgLen, msgIdSupplier,
+                messageExtBatch.getStoreTimestamp(), beginQueueOffset, CommitLog.this.defaultMessageStore.now() - beginTimeMills);
+            result.setMsgNum(msgNum);
+            consumeQueue.setNextQueueOffset(queueOffset);
             return result;
         }
 
+        /**
+         * Reserve the rest of the file and fill it with the end of file blank. The blank is published right away, which
+         * waits for the regions reserved before it to be written.
+         */
+        private AppendMessageResult reserveEndOfFile(final MappedFile mappedFile, final long storeTimestamp,
+            final long queueOffset, final long beginTimeMills) {
+            int position = mappedFile.reserveRemaining();
+            if (position < 0) {
+                return new AppendMessageResult(AppendMessageStatus.END_OF_FILE, mappedFile.getFileFromOffset() + mappedFile.getFileSize(),
+                    0, (String) null, storeTimestamp, queueOffset, 0);
+            }
+            int maxBlank = mappedFile.getFileSize() - position;
+            ByteBuffer blank = ByteBuffer.allocate(END_FILE_MIN_BLANK_LENGTH);
+            // 1 TOTALSIZE
+            blank.putInt(maxBlank);
+            // 2 MAGICCODE
+            blank.putInt(CommitLog.BLANK_MAGIC_CODE);
+            blank.flip();
+            try {
+                mappedFile.writeReserved(position, blank);
+            } finally {
+                mappedFile.publishReserved(position, maxBlank, storeTimestamp);
+            }
+            return new AppendMessageResult(AppendMessageStatus.END_OF_FILE, mappedFile.getFileFromOffset() + position,
+                maxBlank, (String) null, storeTimestamp, queueOffset, CommitLog.this.defaultMessageStore.now() - beginTimeMills);
+        }
+
         private void resetByteBuffer(final ByteBuffer byteBuffer, final int limit) {
             byteBuffer.flip();
             byteBuffer.limit(limit);
@@ -1520,8 +2015,18 @@ public class CommitLog {
             /**
              * Serialize message
              */
-            final byte[] propertiesData =
-                    msgInner.getPropertiesString() == null ? null : msgInner.getPropertiesString().getBytes(MessageDecoder.CHARSET_UTF8);
+            final byte[] propertiesData;
+            if ((msgInner.getSysFlag() & MessageSysFlag.BINARY_PROPERTIES_FLAG) == MessageSysFlag.BINARY_PROPERTIES_FLAG) {
+                // encoded from the properties already parsed on the broker, leaving out WAIT as the string does
+                propertiesData = MessagePropertiesCodec.encode(msgInner.getProperties(), MessageConst.PROPERTY_WAIT_STORE_MSG_OK);
+            } else {
+                propertiesData = msgInner.getPropertiesString() == null ? null : msgInner.getPropertiesString().getBytes(MessageDecoder.CHARSET_UTF8);
+            }
+
+            if (propertiesData == null && (msgInner.getSysFlag() & MessageSysFlag.BINARY_PROPERTIES_FLAG) == MessageSysFlag.BINARY_PROPERTIES_FLAG) {
+                log.warn("putMessage message property too long for the binary properties layout");
+                return new PutMessageResult(PutMessageStatus.PROPERTIES_SIZE_EXCEEDED, null);
+            }
 
             final int propertiesLength = propertiesData == null ? 0 : propertiesData.length;
 
@@ -1533,7 +2038,7 @@ public class CommitLog {
             final byte[] topicData = msgInner.getTopic().getBytes(MessageDecoder.CHARSET_UTF8);
             final int topicLength = topicData.length;
 
-            final int bodyLength = msgInner.getBody() == null ? 0 : msgInner.getBody().length;
+            final int bodyLength = msgInner.getBodyLength();
 
             final int msgLen = calMsgLength(msgInner.getSysFlag(), bodyLength, topicLength, propertiesLength);
 
@@ -1576,8 +2081,14 @@ public class CommitLog {
             this.encoderBuffer.putLong(msgInner.getPreparedTransactionOffset());
             // 15 BODY
             this.encoderBuffer.putInt(bodyLength);
-            if (bodyLength > 0)
-                this.encoderBuffer.put(msgInner.getBody());
+            if (bodyLength > 0) {
+                ByteBuffer bodyBuffer = msgInner.getBodyBuffer();
+                if (bodyBuffer != null) {
+                    this.encoderBuffer.put(bodyBuffer.duplicate());
+                } else {
+                    this.encoderBuffer.put(msgInner.getBody());
+                }
+            }
             // 16 TOPIC
             this.encoderBuffer.put((byte) topicLength);
             this.encoderBuffer.put(topicData);
@@ -1590,12 +2101,16 @@ public class CommitLog {
             return null;
         }
 
+        /**
+         * @return the encoded batch, or null if the properties of a message in it are too long to be stored
+         */
         protected ByteBuffer encode(final MessageExtBatch messageExtBatch, PutMessageContext putMessageContext) {
             encoderBuffer.clear(); //not thread-safe
             int totalMsgLen = 0;
             ByteBuffer messagesByteBuff = messageExtBatch.wrap();
 
             int sysFlag = messageExtBatch.getSysFlag();
+            boolean binaryProperties = (sysFlag & MessageSysFlag.BINARY_PROPERTIES_FLAG) == MessageSysFlag.BINARY_PROPERTIES_FLAG;
             int bornHostLength = (sysFlag & MessageSysFlag.BORNHOST_V6_FLAG) == 0 ? 4 + 4 : 16 + 4;
             int storeHostLength = (sysFlag & MessageSysFlag.STOREHOSTADDRESS_V6_FLAG) == 0 ? 4 + 4 : 16 + 4;
             ByteBuffer bornHostHolder = ByteBuffer.allocate(bornHostLength);
@@ -1607,9 +2122,14 @@ public class CommitLog {
             int batchPropDataLen = batchPropData.length;
             if (batchPropDataLen > Short.MAX_VALUE) {
                 CommitLog.log.warn("Properties size of messageExtBatch exceeded, properties size: {}, maxSize: {}.", batchPropDataLen, Short.MAX_VALUE);
-                throw new RuntimeException("Properties size of messageExtBatch exceeded!");
+                return null;
             }
             final short batchPropLen = (short) batchPropDataLen;
+            final byte[] batchBinaryPropData = binaryProperties ? MessagePropertiesCodec.encode(messageExtBatch.getProperties()) : null;
+            if (binaryProperties && batchBinaryPropData == null) {
+                CommitLog.log.warn("Properties size of messageExtBatch exceeded, maxSize: {}.", Short.MAX_VALUE);
+                return null;
+            }
 
             int batchSize = 0;
             while (messagesByteBuff.hasRemaining()) {
@@ -1638,8 +2158,21 @@ public class CommitLog {
 
                 final int topicLength = topicData.length;
 
-                int totalPropLen = needAppendLastPropertySeparator ? propertiesLen + batchPropLen + 1
-                                                                     : propertiesLen + batchPropLen;
+                byte[] binaryPropData = null;
+                int totalPropLen;
+                if (binaryProperties) {
+                    // the batch body is always encoded with string properties by the client, transcode them and
+                    // append the batch properties, which take precedence on decode as in the string layout
+                    binaryPropData = MessagePropertiesCodec.transcode(messagesByteBuff.array(), propertiesPos, propertiesLen);
+                    totalPropLen = binaryPropData == null ? Integer.MAX_VALUE : binaryPropData.length + batchBinaryPropData.length;
+                } else {
+                    totalPropLen = needAppendLastPropertySeparator ? propertiesLen + batchPropLen + 1
+                                                                   : propertiesLen + batchPropLen;
+                }
+                if (totalPropLen > Short.MAX_VALUE) {
+                    CommitLog.log.warn("Properties size of message in batch exceeded, maxSize: {}.", Short.MAX_VALUE);
+                    return null;
+                }
                 final int msgLen = calMsgLength(messageExtBatch.getSysFlag(), bodyLen, topicLength, totalPropLen);
 
                 // Exceeds the maximum message
@@ -1694,10 +2227,13 @@ public class CommitLog {
                 this.encoderBuffer.put(topicData);
                 // 17 PROPERTIES
                 this.encoderBuffer.putShort((short) totalPropLen);
-                if (propertiesLen > 0) {
+                if (binaryPropData != null) {
+                    this.encoderBuffer.put(binaryPropData);
+                    this.encoderBuffer.put(batchBinaryPropData);
+                } else if (propertiesLen > 0) {
                     this.encoderBuffer.put(messagesByteBuff.array(), propertiesPos, propertiesLen);
                 }
-                if (batchPropLen > 0) {
+                if (binaryPropData == null && batchPropLen > 0) {
                     if (needAppendLastPropertySeparator) {
                         this.encoderBuffer.put((byte) MessageDecoder.PROPERTY_SEPARATOR);
                     }
@@ -1722,32 +2258,28 @@ public class CommitLog {
 
     static class PutMessageThreadLocal {
         private MessageExtEncoder encoder;
-        private StringBuilder keyBuilder;
         PutMessageThreadLocal(int size) {
             encoder = new MessageExtEncoder(size);
-            keyBuilder = new StringBuilder();
         }
 
         public MessageExtEncoder getEncoder() {
             return encoder;
         }
-
-        public StringBuilder getKeyBuilder() {
-            return keyBuilder;
-        }
     }
 
     static class PutMessageContext {
-        private String topicQueueTableKey;
+        private final ConsumeQueue consumeQueue;
         private long[] phyPos;
         private int batchSize;
+        private MappedFile reservedMappedFile;
+        private int reservedPosition = -1;
 
-        public PutMessageContext(String topicQueueTableKey) {
-            this.topicQueueTableKey = topicQueueTableKey;
+        public PutMessageContext(ConsumeQueue consumeQueue) {
+            this.consumeQueue = consumeQueue;
         }
 
-        public String getTopicQueueTableKey() {
-            return topicQueueTableKey;
+        public ConsumeQueue getConsumeQueue() {
+            return consumeQueue;
         }
 
         public long[] getPhyPos() {
@@ -1765,5 +2297,34 @@ public class CommitLog {
         public void setBatchSize(int batchSize) {
             this.batchSize = batchSize;
         }
+
+        public boolean isReserved() {
+            return reservedMappedFile != null;
+        }
+
+        public void setReserved(MappedFile reservedMappedFile, int reservedPosition) {
+            this.reservedMappedFile = reservedMappedFile;
+            this.reservedPosition = reservedPosition;
+        }
+
+        public MappedFile getReservedMappedFile() {
+            return reservedMappedFile;
+        }
+
+        public int getReservedPosition() {
+            return reservedPosition;
+        }
+    }
+
+    private static class CRCCheckSegment {
+        private final MappedFile mappedFile;
+        private final int from;
+        private final int to;
+
+        CRCCheckSegment(final MappedFile mappedFile, final int from, final int to) {
+            this.mappedFile = mappedFile;
+            this.from = from;
+            this.to = to;
+        }
     }
 }
@@ -0,0 +1,284 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.rocketmq.common.ServiceThread;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.logging.InternalLogger;
+import org.apache.rocketmq.logging.InternalLoggerFactory;
+
+/**
+ * Reads ahead the CommitLog for consumers catching up from disk.
+ * <p>
+ * Every pull reaching {@link DefaultMessageStore#getMessage} is reported per group and queue, a reader pulling from
+ * where its previous pull stopped while its messages are no longer in memory is considered a sequential cold reader.
+ * For such a reader the next prefetchMessageNum entries of its ConsumeQueue are resolved to CommitLog ranges which are
+ * handed to the OS with madvise(MADV_WILLNEED), so the disk reads are issued before the consumer asks for them.
+ * <p>
+ * The advised bytes are limited by prefetchMaxBytesPerSecond and nothing is advised while the page cache is busy with
+ * writes, catch-up readers therefore never compete with the producers.
+ */
+public class CommitLogPrefetchService extends ServiceThread {
+    private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
+
+    private static final int MAX_PENDING_REQUESTS = 1024;
+    /**
+     * Ranges closer than this are advised together, reading the gap is cheaper than one more IO.
+     */
+    private static final int MERGE_GAP = 1024 * 64;
+    private static final long READER_EXPIRED_MILLS = 1000 * 60;
+
+    private final DefaultMessageStore messageStore;
+    private final ConcurrentMap<String, Reader> readerTable = new ConcurrentHashMap<>(256);
+    private final BlockingQueue<Reader> requestQueue = new LinkedBlockingQueue<>(MAX_PENDING_REQUESTS);
+
+    private final LongAdder prefetchTimes = new LongAdder();
+    private final LongAdder prefetchBytes = new LongAdder();
+    private final LongAdder skippedTimes = new LongAdder();
+
+    private long windowBeginTimestamp = System.currentTimeMillis();
+    private long windowBytes = 0;
+    private long lastExpireTimestamp = System.currentTimeMillis();
+
+    public CommitLogPrefetchService(final DefaultMessageStore messageStore) {
+        this.messageStore = messageStore;
+    }
+
+    @Override
+    public String getServiceName() {
+        return CommitLogPrefetchService.class.getSimpleName();
+    }
+
+    /**
+     * Called after a pull found messages.
+     *
+     * @param offset the queue offset the pull started from
+     * @param nextBeginOffset the queue offset the next pull is expected to start from
+     * @param inDisk whether the last message pulled was no longer in memory
+     */
+    public void notifyPull(final String group, final String topic, final int queueId, final long offset,
+        final long nextBeginOffset, final boolean inDisk) {
+        final String key = buildKey(group, topic, queueId);
+        Reader reader = this.readerTable.get(key);
+        if (null == reader) {
+            if (!inDisk) {
+                return;
+            }
+            reader = new Reader(topic, queueId);
+            Reader old = this.readerTable.putIfAbsent(key, reader);
+            if (old != null) {
+                reader = old;
+            }
+        }
+
+        final boolean sequential = reader.nextOffset == offset;
+        reader.nextOffset = nextBeginOffset;
+        reader.lastPullTimestamp = System.currentTimeMillis();
+        if (!sequential || !inDisk || reader.pending) {
+            return;
+        }
+
+        // advise again once the reader consumed half of what was read ahead
+        final int prefetchMessageNum = this.messageStore.getMessageStoreConfig().getPrefetchMessageNum();
+        if (reader.prefetchedOffset - nextBeginOffset > prefetchMessageNum / 2) {
+            return;
+        }
+
+        reader.pending = true;
+        if (!this.requestQueue.offer(reader)) {
+            reader.pending = false;
+            this.skippedTimes.add(1);
+        }
+    }
+
+    @Override
+    public void run() {
+        log.info(this.getServiceName() + " service started");
+
+        while (!this.isStopped()) {
+            try {
+                Reader reader = this.requestQueue.poll(100, TimeUnit.MILLISECONDS);
+                if (reader != null) {
+                    try {
+                        this.prefetch(reader);
+                    } finally {
+                        reader.pending = false;
+                    }
+                }
+                this.expireReaders();
+            } catch (InterruptedException e) {
+                log.warn(this.getServiceName() + " interrupted, this may caused by shutdown");
+            } catch (Throwable e) {
+                log.warn(this.getServiceName() + " service has exception. ", e);
+            }
+        }
+
+        log.info(this.getServiceName() + " service end");
+    }
+
+    private void prefetch(final Reader reader) {
+        if (this.messageStore.isOSPageCacheBusy()) {
+            this.skippedTimes.add(1);
+            return;
+        }
+
+        ConsumeQueue consumeQueue = this.messageStore.findConsumeQueue(reader.topic, reader.queueId);
+        if (null == consumeQueue) {
+            return;
+        }
+
+        final long from = Math.max(reader.nextOffset, reader.prefetchedOffset);
+        final long to = reader.nextOffset + this.messageStore.getMessageStoreConfig().getPrefetchMessageNum();
+        if (from >= to) {
+            return;
+        }
+
+        SelectMappedBufferResult bufferConsumeQueue = consumeQueue.getIndexBuffer(from);
+        if (null == bufferConsumeQueue) {
+            return;
+        }
+
+        final CommitLog commitLog = this.messageStore.getCommitLog();
+        final long maxOffsetPy = commitLog.getMaxOffset();
+        long current = from;
+        long rangeBegin = -1;
+        long rangeEnd = -1;
+        try {
+            for (int i = 0; i < bufferConsumeQueue.getSize() && current < to; i += ConsumeQueue.CQ_STORE_UNIT_SIZE) {
+                long offsetPy = bufferConsumeQueue.getByteBuffer().getLong();
+                int sizePy = bufferConsumeQueue.getByteBuffer().getInt();
+                bufferConsumeQueue.getByteBuffer().getLong();
+
+                if (offsetPy + sizePy > maxOffsetPy) {
+                    break;
+                }
+
+                if (rangeBegin >= 0 && offsetPy - rangeEnd > MERGE_GAP) {
+                    if (!this.advise(commitLog, rangeBegin, rangeEnd)) {
+                        return;
+                    }
+                    reader.prefetchedOffset = current;
+                    rangeBegin = -1;
+                }
+
+                if (rangeBegin < 0) {
+                    rangeBegin = offsetPy;
+                }
+                rangeEnd = Math.max(rangeEnd, offsetPy + sizePy);
+                current++;
+            }
+
+            if (rangeBegin >= 0 && this.advise(commitLog, rangeBegin, rangeEnd)) {
+                reader.prefetchedOffset = current;
+            }
+        } finally {
+            bufferConsumeQueue.release();
+        }
+    }
+
+    private boolean advise(final CommitLog commitLog, final long begin, final long end) {
+        if (!this.acquire(end - begin) || this.messageStore.isOSPageCacheBusy()) {
+            this.skippedTimes.add(1);
+            return false;
+        }
+        long advised = commitLog.prefetch(begin, end - begin);
+        this.prefetchTimes.add(1);
+        this.prefetchBytes.add(advised);
+        return advised == end - begin;
+    }
+
+    /**
+     * Wait until the bytes fit in the budget of the current second, false if stopped in the meantime.
+     */
+    private boolean acquire(final long bytes) {
+        final long maxBytesPerSecond = this.messageStore.getMessageStoreConfig().getPrefetchMaxBytesPerSecond();
+        long now = System.currentTimeMillis();
+        if (now - this.windowBeginTimestamp >= 1000) {
+            this.windowBeginTimestamp = now;
+            this.windowBytes = 0;
+        }
+
+        if (this.windowBytes > 0 && this.windowBytes + bytes > maxBytesPerSecond) {
+            this.waitForRunning(Math.max(1, 1000 - (now - this.windowBeginTimestamp)));
+            if (this.isStopped()) {
+                return false;
+            }
+            this.windowBeginTimestamp = System.currentTimeMillis();
+            this.windowBytes = 0;
+        }
+
+        this.windowBytes += bytes;
+        return true;
+    }
+
+    private void expireReaders() {
+        long now = System.currentTimeMillis();
+        if (now - this.lastExpireTimestamp < READER_EXPIRED_MILLS) {
+            return;
+        }
+        this.lastExpireTimestamp = now;
+
+        Iterator<Map.Entry<String, Reader>> it = this.readerTable.entrySet().iterator();
+        while (it.hasNext()) {
+            if (now - it.next().getValue().lastPullTimestamp > READER_EXPIRED_MILLS) {
+                it.remove();
+            }
+        }
+    }
+
+    private static String buildKey(final String group, final String topic, final int queueId) {
+        return group + "@" + topic + "@" + queueId;
+    }
+
+    public long getPrefetchTimes() {
+        return prefetchTimes.sum();
+    }
+
+    public long getPrefetchBytes() {
+        return prefetchBytes.sum();
+    }
+
+    public long getSkippedTimes() {
+        return skippedTimes.sum();
+    }
+
+    public int getReaderNum() {
+        return readerTable.size();
+    }
+
+    static class Reader {
+        private final String topic;
+        private final int queueId;
+        private volatile long nextOffset = -1;
+        private volatile long prefetchedOffset = -1;
+        private volatile long lastPullTimestamp = System.currentTimeMillis();
+        private volatile boolean pending = false;
+
+        Reader(final String topic, final int queueId) {
+            this.topic = topic;
+            this.queueId = queueId;
+        }
+    }
+}
@@ -20,6 +20,7 @@ import java.io.File;
 import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.rocketmq.common.MixAll;
 import org.apache.rocketmq.common.constant.LoggerName;
@@ -47,6 +48,11 @@ public class ConsumeQueue {
     private long maxPhysicOffset = -1;
     private volatile long minLogicOffset = 0;
     private ConsumeQueueExt consumeQueueExt = null;
+    /**
+     * Queue offset of the next message of this queue appended to the CommitLog, runs ahead of
+     * {@link #getMaxOffsetInQueue()} until the appended messages are dispatched.
+     */
+    private final AtomicLong nextQueueOffset = new AtomicLong(0);
 
     public ConsumeQueue(
         final String topic,
@@ -156,6 +162,56 @@ public class ConsumeQueue {
         }
     }
 
+    /**
+     * Recover after a normal shutdown: every unit is flushed and the units are followed by zeros only, so the end of
+     * the queue is found by a binary search in the last file instead of scanning the last files unit by unit.
+     */
+    public void recover(final boolean lastExitOK) {
+        if (!lastExitOK) {
+            this.recover();
+            return;
+        }
+
+        final List<MappedFile> mappedFiles = this.mappedFileQueue.getMappedFiles();
+        if (mappedFiles.isEmpty()) {
+            return;
+        }
+
+        MappedFile mappedFile = mappedFiles.get(mappedFiles.size() - 1);
+        ByteBuffer byteBuffer = mappedFile.sliceByteBuffer();
+        int low = 0;
+        int high = this.mappedFileSize / CQ_STORE_UNIT_SIZE;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (byteBuffer.getInt(mid * CQ_STORE_UNIT_SIZE + 8) > 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        long processOffset = mappedFile.getFileFromOffset() + (long) low * CQ_STORE_UNIT_SIZE;
+
+        if (low > 0) {
+            int position = (low - 1) * CQ_STORE_UNIT_SIZE;
+            this.maxPhysicOffset = byteBuffer.getLong(position) + byteBuffer.getInt(position + 8);
+        } else if (mappedFiles.size() > 1) {
+            ByteBuffer previous = mappedFiles.get(mappedFiles.size() - 2).sliceByteBuffer();
+            int position = this.mappedFileSize - CQ_STORE_UNIT_SIZE;
+            this.maxPhysicOffset = previous.getLong(position) + previous.getInt(position + 8);
+        }
+        log.info("recover consume queue {}-{} over by the last file {}, offset {}", this.topic, this.queueId,
+            mappedFile.getFileName(), processOffset);
+
+        this.mappedFileQueue.setFlushedWhere(processOffset);
+        this.mappedFileQueue.setCommittedWhere(processOffset);
+        this.mappedFileQueue.truncateDirtyFiles(processOffset);
+
+        if (isExtReadEnable()) {
+            // flushed along with the consume queue, nothing to truncate
+            this.consumeQueueExt.recover();
+        }
+    }
+
     public long getOffsetInQueueByTime(final long timestamp) {
         MappedFile mappedFile = this.mappedFileQueue.getMappedFileByTime(timestamp);
         if (mappedFile != null) {
@@ -406,7 +462,10 @@ public class ConsumeQueue {
                     this.defaultMessageStore.getMessageStoreConfig().isEnableDLegerCommitLog()) {
                     this.defaultMessageStore.getStoreCheckpoint().setPhysicMsgTimestamp(request.getStoreTimestamp());
                 }
-                this.defaultMessageStore.getStoreCheckpoint().setLogicsMsgTimestamp(request.getStoreTimestamp());
+                if (this.defaultMessageStore.getMessageStoreConfig().getReputDispatchThreadNum() <= 0) {
+                    // with parallel dispatch the timestamp every worker has reached is published on flush instead
+                    this.defaultMessageStore.getStoreCheckpoint().setLogicsMsgTimestamp(request.getStoreTimestamp());
+                }
                 if (multiQueue) {
                     multiDispatchLmqQueue(request, maxRetries);
                 }
@@ -475,7 +534,7 @@ public class ConsumeQueue {
         }
     }
 
-    private boolean putMessagePositionInfo(final long offset, final int size, final long tagsCode,
+    protected boolean putMessagePositionInfo(final long offset, final int size, final long tagsCode,
         final long cqOffset) {
 
         if (offset + size <= this.maxPhysicOffset) {
@@ -611,6 +670,14 @@ public class ConsumeQueue {
         return this.getMaxOffsetInQueue() - this.getMinOffsetInQueue();
     }
 
+    public long getNextQueueOffset() {
+        return nextQueueOffset.get();
+    }
+
+    public void setNextQueueOffset(long nextQueueOffset) {
+        this.nextQueueOffset.set(nextQueueOffset);
+    }
+
     public long getMaxOffsetInQueue() {
         return this.mappedFileQueue.getMaxOffset() / CQ_STORE_UNIT_SIZE;
     }
@@ -638,4 +705,39 @@ public class ConsumeQueue {
         return ConsumeQueueExt.isExtAddr(tagsCode);
     }
 
+    /**
+     * Read the tags codes of {@code unitNum} units starting at {@code pos} of a buffer returned by
+     * {@link #getIndexBuffer}, without moving its position.
+     *
+     * @return number of units read, less than {@code unitNum} if the buffer ends before
+     */
+    public static int readTagsCodes(final ByteBuffer byteBuffer, final int pos, final long[] tagsCodes, final int unitNum) {
+        final int num = Math.min(Math.min(unitNum, tagsCodes.length), (byteBuffer.limit() - pos) / CQ_STORE_UNIT_SIZE);
+        for (int i = 0, unitPos = pos + 12; i < num; i++, unitPos += CQ_STORE_UNIT_SIZE) {
+            tagsCodes[i] = byteBuffer.getLong(unitPos);
+        }
+        return Math.max(num, 0);
+    }
+
+    /**
+     * Collect the indexes of the tags codes accepted by {@code acceptedTagsCodes} into {@code matchedIndexes}, an
+     * address of the extend file is always collected as its tags code is unknown here.
+     *
+     * @return number of indexes collected
+     */
+    public static int matchTagsCodes(final long[] tagsCodes, final int num, final int[] acceptedTagsCodes,
+        final int[] matchedIndexes) {
+        int matched = 0;
+        for (int i = 0; i < num; i++) {
+            final long tagsCode = tagsCodes[i];
+            final int code = (int) tagsCode;
+            boolean hit = tagsCode <= ConsumeQueueExt.MAX_ADDR;
+            for (int j = 0; j < acceptedTagsCodes.length; j++) {
+                hit |= acceptedTagsCodes[j] == code;
+            }
+            matchedIndexes[matched] = i;
+            matched += hit ? 1 : 0;
+        }
+        return matched;
+    }
 }
@@ -20,6 +20,7 @@ import org.apache.rocketmq.common.protocol.heartbeat.SubscriptionData;
 
 import java.nio.ByteBuffer;
 import java.util.Map;
+import java.util.Set;
 
 public class DefaultMessageFilter implements MessageFilter {
 
@@ -43,8 +44,26 @@ public class DefaultMessageFilter implements MessageFilter {
             || subscriptionData.getCodeSet().contains(tagsCode.intValue());
     }
 
+    @Override
+    public int[] tagsCodesToMatch() {
+        if (null == subscriptionData || subscriptionData.isClassFilterMode()
+            || subscriptionData.getSubString().equals(SubscriptionData.SUB_ALL)) {
+            return null;
+        }
+        return toTagsCodes(subscriptionData.getCodeSet());
+    }
+
     @Override
     public boolean isMatchedByCommitLog(ByteBuffer msgBuffer, Map<String, String> properties) {
         return true;
     }
+
+    public static int[] toTagsCodes(final Set<Integer> codeSet) {
+        int[] tagsCodes = new int[codeSet.size()];
+        int i = 0;
+        for (Integer code : codeSet) {
+            tagsCodes[i++] = code;
+        }
+        return tagsCodes;
+    }
 }
@@ -16,6 +16,7 @@
  */
 package org.apache.rocketmq.store;
 
+import com.sun.jna.Platform;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
@@ -24,24 +25,30 @@ import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileLock;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.rocketmq.common.BrokerConfig;
@@ -60,15 +67,20 @@ import org.apache.rocketmq.common.sysflag.MessageSysFlag;
 import org.apache.rocketmq.common.topic.TopicValidator;
 import org.apache.rocketmq.logging.InternalLogger;
 import org.apache.rocketmq.logging.InternalLoggerFactory;
+import org.apache.rocketmq.store.compaction.CompactedQueue;
+import org.apache.rocketmq.store.compaction.CompactionService;
 import org.apache.rocketmq.store.config.BrokerRole;
+import org.apache.rocketmq.store.config.ConsumeQueueStoreType;
 import org.apache.rocketmq.store.config.MessageStoreConfig;
 import org.apache.rocketmq.store.config.StorePathConfigHelper;
 import org.apache.rocketmq.store.dledger.DLedgerCommitLog;
 import org.apache.rocketmq.store.ha.HAService;
 import org.apache.rocketmq.store.index.IndexService;
 import org.apache.rocketmq.store.index.QueryOffsetResult;
+import org.apache.rocketmq.store.kv.ConsumeQueueKvStore;
 import org.apache.rocketmq.store.schedule.ScheduleMessageService;
 import org.apache.rocketmq.store.stats.BrokerStatsManager;
+import org.apache.rocketmq.store.timer.TimerMessageStore;
 
 public class DefaultMessageStore implements MessageStore {
     private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
@@ -99,6 +111,16 @@ public class DefaultMessageStore implements MessageStore {
 
     private final TransientStorePool transientStorePool;
 
+    private final MessageCache messageCache;
+
+    private final CommitLogPrefetchService prefetchService;
+
+    private final TimerMessageStore timerMessageStore;
+
+    private final CompactionService compactionService;
+
+    private final ConsumeQueueKvStore consumeQueueKvStore;
+
     private final RunningFlags runningFlags = new RunningFlags();
     private final SystemClock systemClock = new SystemClock();
 
@@ -161,6 +183,36 @@ public class DefaultMessageStore implements MessageStore {
             this.transientStorePool.init();
         }
 
+        if (messageStoreConfig.isMessageCacheEnable()) {
+            this.messageCache = new MessageCache(messageStoreConfig.getMessageCacheSize(), messageStoreConfig.getMessageCacheSegmentSize());
+        } else {
+            this.messageCache = null;
+        }
+
+        if (messageStoreConfig.isPrefetchEnable() && !messageStoreConfig.isEnableDLegerCommitLog() && !Platform.isWindows()) {
+            this.prefetchService = new CommitLogPrefetchService(this);
+        } else {
+            this.prefetchService = null;
+        }
+
+        if (messageStoreConfig.isTimerWheelEnable() && !messageStoreConfig.isEnableDLegerCommitLog()) {
+            this.timerMessageStore = new TimerMessageStore(this);
+        } else {
+            this.timerMessageStore = null;
+        }
+
+        if (messageStoreConfig.getConsumeQueueStoreType() == ConsumeQueueStoreType.KV) {
+            this.consumeQueueKvStore = new ConsumeQueueKvStore(this);
+        } else {
+            this.consumeQueueKvStore = null;
+        }
+
+        if (messageStoreConfig.isCompactionEnable() && !messageStoreConfig.isEnableDLegerCommitLog()) {
+            this.compactionService = new CompactionService(this);
+        } else {
+            this.compactionService = null;
+        }
+
         this.allocateMappedFileService.start();
 
         this.indexService.start();
@@ -177,6 +229,10 @@ public class DefaultMessageStore implements MessageStore {
     }
 
     public void truncateDirtyLogicFiles(long phyOffset) {
+        if (this.messageCache != null) {
+            this.messageCache.clear();
+        }
+
         ConcurrentMap<String, ConcurrentMap<Integer, ConsumeQueue>> tables = DefaultMessageStore.this.consumeQueueTable;
 
         for (ConcurrentMap<Integer, ConsumeQueue> maps : tables.values()) {
@@ -197,16 +253,22 @@ public class DefaultMessageStore implements MessageStore {
             log.info("last shutdown {}", lastExitOK ? "normally" : "abnormally");
 
             // load Commit Log
+            long beginTime = System.currentTimeMillis();
             result = result && this.commitLog.load();
+            log.info("load commit log over, cost {} ms", System.currentTimeMillis() - beginTime);
 
             // load Consume Queue
+            beginTime = System.currentTimeMillis();
             result = result && this.loadConsumeQueue();
+            log.info("load consume queue over, cost {} ms", System.currentTimeMillis() - beginTime);
 
             if (result) {
                 this.storeCheckpoint =
                     new StoreCheckpoint(StorePathConfigHelper.getStoreCheckpoint(this.messageStoreConfig.getStorePathRootDir()));
 
+                beginTime = System.currentTimeMillis();
                 this.indexService.load(lastExitOK);
+                log.info("load index over, cost {} ms", System.currentTimeMillis() - beginTime);
 
                 this.recover(lastExitOK);
 
@@ -215,6 +277,14 @@ public class DefaultMessageStore implements MessageStore {
                 if (null != scheduleMessageService) {
                     result =  this.scheduleMessageService.load();
                 }
+
+                if (null != timerMessageStore) {
+                    result = result && this.timerMessageStore.load(lastExitOK);
+                }
+
+                if (null != compactionService) {
+                    result = result && this.compactionService.load();
+                }
             }
 
         } catch (Exception e) {
@@ -256,6 +326,10 @@ public class DefaultMessageStore implements MessageStore {
                     }
                 }
             }
+            if (this.consumeQueueKvStore != null && this.consumeQueueKvStore.getDispatchedOffsetPy() >= 0) {
+                // the units dispatched after the last flush of the kv store are lost if it crashed, dispatch them again
+                maxPhysicalPosInLogicQueue = this.consumeQueueKvStore.getDispatchedOffsetPy();
+            }
             if (maxPhysicalPosInLogicQueue < 0) {
                 maxPhysicalPosInLogicQueue = 0;
             }
@@ -298,6 +372,12 @@ public class DefaultMessageStore implements MessageStore {
         this.flushConsumeQueueService.start();
         this.commitLog.start();
         this.storeStatsService.start();
+        if (this.prefetchService != null) {
+            this.prefetchService.start();
+        }
+        if (this.compactionService != null) {
+            this.compactionService.start();
+        }
 
         this.createTempFile();
         this.addScheduleTask();
@@ -320,10 +400,19 @@ public class DefaultMessageStore implements MessageStore {
             if (this.scheduleMessageService != null) {
                 this.scheduleMessageService.shutdown();
             }
+            if (this.timerMessageStore != null) {
+                this.timerMessageStore.shutdown();
+            }
             if (this.haService != null) {
                 this.haService.shutdown();
             }
 
+            if (this.prefetchService != null) {
+                this.prefetchService.shutdown();
+            }
+            if (this.compactionService != null) {
+                this.compactionService.shutdown();
+            }
             this.storeStatsService.shutdown();
             this.indexService.shutdown();
             this.commitLog.shutdown();
@@ -343,6 +432,10 @@ public class DefaultMessageStore implements MessageStore {
 
         this.transientStorePool.destroy();
 
+        if (this.messageCache != null) {
+            this.messageCache.clear();
+        }
+
         if (lockFile != null && lock != null) {
             try {
                 lock.release();
@@ -356,6 +449,12 @@ public class DefaultMessageStore implements MessageStore {
         this.destroyLogics();
         this.commitLog.destroy();
         this.indexService.destroy();
+        if (this.timerMessageStore != null) {
+            this.timerMessageStore.destroy();
+        }
+        if (this.compactionService != null) {
+            this.compactionService.destroy();
+        }
         this.deleteFile(StorePathConfigHelper.getAbortFile(this.messageStoreConfig.getStorePathRootDir()));
         this.deleteFile(StorePathConfigHelper.getStoreCheckpoint(this.messageStoreConfig.getStorePathRootDir()));
     }
@@ -366,6 +465,9 @@ public class DefaultMessageStore implements MessageStore {
                 logic.destroy();
             }
         }
+        if (this.consumeQueueKvStore != null) {
+            this.consumeQueueKvStore.destroy();
+        }
     }
 
     private PutMessageStatus checkMessage(MessageExtBrokerInner msg) {
@@ -467,7 +569,7 @@ public class DefaultMessageStore implements MessageStore {
         putResultFuture.thenAccept((result) -> {
             long elapsedTime = this.getSystemClock().now() - beginTime;
             if (elapsedTime > 500) {
-                log.warn("putMessage not in lock elapsed time(ms)={}, bodyLength={}", elapsedTime, msg.getBody().length);
+                log.warn("putMessage not in lock elapsed time(ms)={}, bodyLength={}", elapsedTime, msg.getBodyLength());
             }
             this.storeStatsService.setPutMessageEntireTimeMax(elapsedTime);
 
@@ -587,6 +689,8 @@ public class DefaultMessageStore implements MessageStore {
         final long maxOffsetPy = this.commitLog.getMaxOffset();
 
         ConsumeQueue consumeQueue = findConsumeQueue(topic, queueId);
+        CompactedQueue compactedQueue = this.compactionService != null
+            ? this.compactionService.findCompactedQueue(topic, queueId) : null;
         if (consumeQueue != null) {
             minOffset = consumeQueue.getMinOffsetInQueue();
             maxOffset = consumeQueue.getMaxOffsetInQueue();
@@ -594,6 +698,13 @@ public class DefaultMessageStore implements MessageStore {
             if (maxOffset == 0) {
                 status = GetMessageStatus.NO_MESSAGE_IN_QUEUE;
                 nextBeginOffset = nextOffsetCorrection(offset, 0);
+            } else if (compactedQueue != null && offset < compactedQueue.getCompactedOffset()) {
+                // the latest message of each key below the compacted offset is kept in the compacted log
+                getResult = compactedQueue.getMessage(offset, maxMsgNums,
+                    this.messageStoreConfig.getMaxTransferBytesOnMessageInDisk(), messageFilter);
+                status = getResult.getStatus();
+                nextBeginOffset = getResult.getNextBeginOffset();
+                this.storeStatsService.getGetMessageTransferedMsgCount().add(getResult.getMessageCount());
             } else if (offset < minOffset) {
                 status = GetMessageStatus.OFFSET_TOO_SMALL;
                 nextBeginOffset = nextOffsetCorrection(offset, minOffset);
@@ -615,15 +726,31 @@ public class DefaultMessageStore implements MessageStore {
 
                         long nextPhyFileStartOffset = Long.MIN_VALUE;
                         long maxPhyOffsetPulling = 0;
+                        boolean pullingInDisk = false;
 
                         int i = 0;
-                        final int maxFilterMessageCount = Math.max(16000, maxMsgNums * ConsumeQueue.CQ_STORE_UNIT_SIZE);
+                        final int[] tagsCodesToMatch = messageFilter != null ? messageFilter.tagsCodesToMatch() : null;
+                        final int maxFilterMessageCount = tagsCodesToMatch != null
+                            ? Math.max(16000, this.messageStoreConfig.getMaxTagsCodeScanUnitNum() * ConsumeQueue.CQ_STORE_UNIT_SIZE)
+                            : Math.max(16000, maxMsgNums * ConsumeQueue.CQ_STORE_UNIT_SIZE);
+                        final int scanLimit = Math.min(bufferConsumeQueue.getSize(), maxFilterMessageCount);
+                        final TagsCodeScanner tagsCodeScanner = tagsCodesToMatch != null
+                            ? new TagsCodeScanner(bufferConsumeQueue.getByteBuffer(), tagsCodesToMatch) : null;
                         final boolean diskFallRecorded = this.messageStoreConfig.isDiskFallRecorded();
 
                         getResult = new GetMessageResult(maxMsgNums);
 
                         ConsumeQueueExt.CqExtUnit cqExtUnit = new ConsumeQueueExt.CqExtUnit();
-                        for (; i < bufferConsumeQueue.getSize() && i < maxFilterMessageCount; i += ConsumeQueue.CQ_STORE_UNIT_SIZE) {
+                        for (; i < scanLimit; i += ConsumeQueue.CQ_STORE_UNIT_SIZE) {
+                            if (tagsCodeScanner != null) {
+                                // skip the units of other tags in bulk
+                                i = tagsCodeScanner.nextCandidate(i, scanLimit);
+                                if (i >= scanLimit) {
+                                    break;
+                                }
+                                bufferConsumeQueue.getByteBuffer().position(i);
+                            }
+
                             long offsetPy = bufferConsumeQueue.getByteBuffer().getLong();
                             int sizePy = bufferConsumeQueue.getByteBuffer().getInt();
                             long tagsCode = bufferConsumeQueue.getByteBuffer().getLong();
@@ -636,6 +763,7 @@ public class DefaultMessageStore implements MessageStore {
                             }
 
                             boolean isInDisk = checkInDiskByCommitOffset(offsetPy, maxOffsetPy);
+                            pullingInDisk = isInDisk;
 
                             if (this.isTheBatchFull(sizePy, maxMsgNums, getResult.getBufferTotalSize(), getResult.getMessageCount(),
                                 isInDisk)) {
@@ -664,7 +792,7 @@ public class DefaultMessageStore implements MessageStore {
                                 continue;
                             }
 
-                            SelectMappedBufferResult selectResult = this.commitLog.getMessage(offsetPy, sizePy);
+                            SelectMappedBufferResult selectResult = this.selectMessage(offsetPy, sizePy, maxOffsetPy, isInDisk);
                             if (null == selectResult) {
                                 if (getResult.getBufferTotalSize() == 0) {
                                     status = GetMessageStatus.MESSAGE_WAS_REMOVING;
@@ -690,6 +818,12 @@ public class DefaultMessageStore implements MessageStore {
                             nextPhyFileStartOffset = Long.MIN_VALUE;
                         }
 
+                        if (tagsCodeScanner != null && i >= scanLimit && i > 0) {
+                            // the units skipped by the scanner are pulled as well
+                            maxPhyOffsetPulling = Math.max(maxPhyOffsetPulling,
+                                bufferConsumeQueue.getByteBuffer().getLong(scanLimit - ConsumeQueue.CQ_STORE_UNIT_SIZE));
+                        }
+
                         if (diskFallRecorded) {
                             long fallBehind = maxOffsetPy - maxPhyOffsetPulling;
                             brokerStatsManager.recordDiskFallBehindSize(group, topic, queueId, fallBehind);
@@ -697,6 +831,10 @@ public class DefaultMessageStore implements MessageStore {
 
                         nextBeginOffset = offset + (i / ConsumeQueue.CQ_STORE_UNIT_SIZE);
 
+                        if (this.prefetchService != null && GetMessageStatus.FOUND == status) {
+                            this.prefetchService.notifyPull(group, topic, queueId, offset, nextBeginOffset, pullingInDisk);
+                        }
+
                         long diff = maxOffsetPy - maxPhyOffsetPulling;
                         long memory = (long) (StoreUtil.TOTAL_PHYSICAL_MEMORY_SIZE
                             * (this.messageStoreConfig.getAccessMessageInMemoryMaxRatio() / 100.0));
@@ -737,6 +875,30 @@ public class DefaultMessageStore implements MessageStore {
         return getResult;
     }
 
+    /**
+     * Reads the message from the MessageCache if enabled, a missed message is admitted when it is in memory by
+     * accessMessageInMemoryMaxRatio and close enough to the CommitLog tail to stay cached for a while.
+     */
+    private SelectMappedBufferResult selectMessage(final long offsetPy, final int sizePy, final long maxOffsetPy,
+        final boolean isInDisk) {
+        if (this.messageCache == null) {
+            return this.commitLog.getMessage(offsetPy, sizePy);
+        }
+
+        SelectMappedBufferResult selectResult = this.messageCache.get(offsetPy, sizePy);
+        if (selectResult != null) {
+            this.storeStatsService.getMessageCacheHitCount().add(1);
+            return selectResult;
+        }
+
+        this.storeStatsService.getMessageCacheMissCount().add(1);
+        selectResult = this.commitLog.getMessage(offsetPy, sizePy);
+        if (selectResult != null && !isInDisk && maxOffsetPy - offsetPy <= this.messageCache.getCapacity()) {
+            this.messageCache.put(offsetPy, selectResult.getByteBuffer(), sizePy);
+        }
+        return selectResult;
+    }
+
     public long getMaxOffsetInQueue(String topic, int queueId) {
         ConsumeQueue logic = this.findConsumeQueue(topic, queueId);
         if (logic != null) {
@@ -863,8 +1025,12 @@ public class DefaultMessageStore implements MessageStore {
             if (this.scheduleMessageService != null) {
                 this.scheduleMessageService.buildRunningStats(result);
             }
+            if (this.timerMessageStore != null) {
+                this.timerMessageStore.buildRunningStats(result);
+            }
         }
 
+        result.put("dispatchPendingRequests", String.valueOf(this.reputMessageService.getPendingRequestNum()));
         result.put(RunningStats.commitLogMinOffset.name(), String.valueOf(DefaultMessageStore.this.getMinPhyOffset()));
         result.put(RunningStats.commitLogMaxOffset.name(), String.valueOf(DefaultMessageStore.this.getMaxPhyOffset()));
 
@@ -1067,8 +1233,6 @@ public class DefaultMessageStore implements MessageStore {
                         cq.getTopic(),
                         cq.getQueueId()
                     );
-
-                    this.commitLog.removeQueueFromTopicQueueTable(cq.getTopic(), cq.getQueueId());
                 }
                 it.remove();
 
@@ -1111,9 +1275,6 @@ public class DefaultMessageStore implements MessageStore {
                             minCommitLogOffset,
                             maxCLOffsetInConsumeQueue);
 
-                        DefaultMessageStore.this.commitLog.removeQueueFromTopicQueueTable(nextQT.getValue().getTopic(),
-                            nextQT.getValue().getQueueId());
-
                         nextQT.getValue().destroy();
                         itQT.remove();
                     }
@@ -1251,12 +1412,7 @@ public class DefaultMessageStore implements MessageStore {
 
         ConsumeQueue logic = map.get(queueId);
         if (null == logic) {
-            ConsumeQueue newLogic = new ConsumeQueue(
-                topic,
-                queueId,
-                StorePathConfigHelper.getStorePathConsumeQueue(this.messageStoreConfig.getStorePathRootDir()),
-                this.getMessageStoreConfig().getMappedFileSizeConsumeQueue(),
-                this);
+            ConsumeQueue newLogic = this.newConsumeQueue(topic, queueId);
             ConsumeQueue oldLogic = map.putIfAbsent(queueId, newLogic);
             if (oldLogic != null) {
                 logic = oldLogic;
@@ -1271,6 +1427,18 @@ public class DefaultMessageStore implements MessageStore {
         return logic;
     }
 
+    private ConsumeQueue newConsumeQueue(final String topic, final int queueId) {
+        if (this.consumeQueueKvStore != null) {
+            return this.consumeQueueKvStore.newConsumeQueue(topic, queueId);
+        }
+        return new ConsumeQueue(
+            topic,
+            queueId,
+            StorePathConfigHelper.getStorePathConsumeQueue(this.messageStoreConfig.getStorePathRootDir()),
+            this.getMessageStoreConfig().getMappedFileSizeConsumeQueue(),
+            this);
+    }
+
     private long nextOffsetCorrection(long oldOffset, long newOffset) {
         long nextOffset = oldOffset;
         if (this.getMessageStoreConfig().getBrokerRole() != BrokerRole.SLAVE || this.getMessageStoreConfig().isOffsetCheckInSlave()) {
@@ -1407,7 +1575,12 @@ public class DefaultMessageStore implements MessageStore {
         return file.exists();
     }
 
-    private boolean loadConsumeQueue() {
+    private boolean loadConsumeQueue() throws InterruptedException, ExecutionException {
+        if (this.consumeQueueKvStore != null) {
+            return this.consumeQueueKvStore.load();
+        }
+
+        List<ConsumeQueue> logics = new ArrayList<>();
         File dirLogic = new File(StorePathConfigHelper.getStorePathConsumeQueue(this.messageStoreConfig.getStorePathRootDir()));
         File[] fileTopicList = dirLogic.listFiles();
         if (fileTopicList != null) {
@@ -1431,29 +1604,64 @@ public class DefaultMessageStore implements MessageStore {
                             this.getMessageStoreConfig().getMappedFileSizeConsumeQueue(),
                             this);
                         this.putConsumeQueue(topic, queueId, logic);
-                        if (!logic.load()) {
-                            return false;
-                        }
+                        logics.add(logic);
                     }
                 }
             }
         }
 
-        log.info("load logics queue all over, OK");
+        if (!this.forEachConsumeQueue(logics, ConsumeQueue::load)) {
+            return false;
+        }
+
+        log.info("load logics queue all over, OK, {} queues", logics.size());
 
         return true;
     }
 
-    private void recover(final boolean lastExitOK) {
-        long maxPhyOffsetOfConsumeQueue = this.recoverConsumeQueue();
+    /**
+     * Run {@code action} on the queues in a ForkJoinPool of consumeQueueLoadThreadNum threads, the queues being
+     * independent of each other.
+     *
+     * @return false once {@code action} returns false for a queue
+     */
+    private boolean forEachConsumeQueue(final List<ConsumeQueue> logics,
+        final Predicate<ConsumeQueue> action) throws InterruptedException, ExecutionException {
+        int threadNum = Math.min(this.messageStoreConfig.getConsumeQueueLoadThreadNum(), logics.size());
+        if (threadNum <= 1) {
+            for (ConsumeQueue logic : logics) {
+                if (!action.test(logic)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threadNum);
+        try {
+            return pool.submit(() -> logics.parallelStream().allMatch(action)).get();
+        } finally {
+            pool.shutdown();
+        }
+    }
 
+    private void recover(final boolean lastExitOK) throws InterruptedException, ExecutionException {
+        long beginTime = System.currentTimeMillis();
+        long maxPhyOffsetOfConsumeQueue = this.recoverConsumeQueue(lastExitOK);
+        log.info("recover consume queue over, maxPhyOffset={}, cost {} ms", maxPhyOffsetOfConsumeQueue,
+            System.currentTimeMillis() - beginTime);
+
+        beginTime = System.currentTimeMillis();
         if (lastExitOK) {
             this.commitLog.recoverNormally(maxPhyOffsetOfConsumeQueue);
         } else {
             this.commitLog.recoverAbnormally(maxPhyOffsetOfConsumeQueue);
         }
+        log.info("recover commit log over, cost {} ms", System.currentTimeMillis() - beginTime);
 
+        beginTime = System.currentTimeMillis();
         this.recoverTopicQueueTable();
+        log.info("recover topic queue table over, cost {} ms", System.currentTimeMillis() - beginTime);
     }
 
     public MessageStoreConfig getMessageStoreConfig() {
@@ -1478,14 +1686,21 @@ public class DefaultMessageStore implements MessageStore {
         }
     }
 
-    private long recoverConsumeQueue() {
-        long maxPhysicOffset = -1;
+    private long recoverConsumeQueue(final boolean lastExitOK) throws InterruptedException, ExecutionException {
+        List<ConsumeQueue> logics = new ArrayList<>();
         for (ConcurrentMap<Integer, ConsumeQueue> maps : this.consumeQueueTable.values()) {
-            for (ConsumeQueue logic : maps.values()) {
-                logic.recover();
-                if (logic.getMaxPhysicOffset() > maxPhysicOffset) {
-                    maxPhysicOffset = logic.getMaxPhysicOffset();
-                }
+            logics.addAll(maps.values());
+        }
+
+        this.forEachConsumeQueue(logics, logic -> {
+            logic.recover(lastExitOK);
+            return true;
+        });
+
+        long maxPhysicOffset = -1;
+        for (ConsumeQueue logic : logics) {
+            if (logic.getMaxPhysicOffset() > maxPhysicOffset) {
+                maxPhysicOffset = logic.getMaxPhysicOffset();
             }
         }
 
@@ -1493,23 +1708,27 @@ public class DefaultMessageStore implements MessageStore {
     }
 
     public void recoverTopicQueueTable() {
-        HashMap<String/* topic-queueid */, Long/* offset */> table = new HashMap<String, Long>(1024);
         long minPhyOffset = this.commitLog.getMinOffset();
         for (ConcurrentMap<Integer, ConsumeQueue> maps : this.consumeQueueTable.values()) {
             for (ConsumeQueue logic : maps.values()) {
-                String key = logic.getTopic() + "-" + logic.getQueueId();
-                table.put(key, logic.getMaxOffsetInQueue());
+                logic.setNextQueueOffset(logic.getMaxOffsetInQueue());
                 logic.correctMinOffset(minPhyOffset);
             }
         }
-
-        this.commitLog.setTopicQueueTable(table);
     }
 
     public AllocateMappedFileService getAllocateMappedFileService() {
         return allocateMappedFileService;
     }
 
+    public MessageCache getMessageCache() {
+        return messageCache;
+    }
+
+    public CommitLogPrefetchService getPrefetchService() {
+        return prefetchService;
+    }
+
     public StoreStatsService getStoreStatsService() {
         return storeStatsService;
     }
@@ -1534,6 +1753,18 @@ public class DefaultMessageStore implements MessageStore {
         return scheduleMessageService;
     }
 
+    public TimerMessageStore getTimerMessageStore() {
+        return timerMessageStore;
+    }
+
+    public CompactionService getCompactionService() {
+        return compactionService;
+    }
+
+    public ConsumeQueueKvStore getConsumeQueueKvStore() {
+        return consumeQueueKvStore;
+    }
+
     public RunningFlags getRunningFlags() {
         return runningFlags;
     }
@@ -1549,12 +1780,12 @@ public class DefaultMessageStore implements MessageStore {
         cq.putMessagePositionInfoWrapper(dispatchRequest, checkMultiDispatchQueue(dispatchRequest));
     }
 
-    private boolean checkMultiDispatchQueue(DispatchRequest dispatchRequest) {
+    boolean checkMultiDispatchQueue(DispatchRequest dispatchRequest) {
         if (!this.messageStoreConfig.isEnableMultiDispatch()) {
             return false;
         }
         Map<String, String> prop = dispatchRequest.getPropertiesMap();
-        if (prop == null && prop.isEmpty()) {
+        if (prop == null || prop.isEmpty()) {
             return false;
         }
         String multiDispatchQueue = prop.get(MessageConst.PROPERTY_INNER_MULTI_DISPATCH);
@@ -1579,6 +1810,13 @@ public class DefaultMessageStore implements MessageStore {
                 this.scheduleMessageService.start();
             }
         }
+        if (this.timerMessageStore != null) {
+            if (brokerRole == BrokerRole.SLAVE) {
+                this.timerMessageStore.stop();
+            } else {
+                this.timerMessageStore.start();
+            }
+        }
 
     }
 
@@ -1593,8 +1831,6 @@ public class DefaultMessageStore implements MessageStore {
                     cq.getTopic(),
                     cq.getQueueId()
                 );
-
-                this.commitLog.removeQueueFromTopicQueueTable(cq.getTopic(), cq.getQueueId());
                 this.lmqConsumeQueueNum.getAndDecrement();
             }
             this.consumeQueueTable.remove(topic);
@@ -1934,13 +2170,15 @@ public class DefaultMessageStore implements MessageStore {
             }
 
             long logicsMsgTimestamp = 0;
+            long logicsOffset = 0;
 
             int flushConsumeQueueThoroughInterval = DefaultMessageStore.this.getMessageStoreConfig().getFlushConsumeQueueThoroughInterval();
             long currentTimeMillis = System.currentTimeMillis();
             if (currentTimeMillis >= (this.lastFlushTimestamp + flushConsumeQueueThoroughInterval)) {
                 this.lastFlushTimestamp = currentTimeMillis;
                 flushConsumeQueueLeastPages = 0;
-                logicsMsgTimestamp = DefaultMessageStore.this.getStoreCheckpoint().getLogicsMsgTimestamp();
+                logicsMsgTimestamp = DefaultMessageStore.this.reputMessageService.getDispatchedTimestamp();
+                logicsOffset = DefaultMessageStore.this.reputMessageService.getDispatchedOffset();
             }
 
             ConcurrentMap<String, ConcurrentMap<Integer, ConsumeQueue>> tables = DefaultMessageStore.this.consumeQueueTable;
@@ -1954,10 +2192,17 @@ public class DefaultMessageStore implements MessageStore {
                 }
             }
 
+            if (DefaultMessageStore.this.consumeQueueKvStore != null) {
+                DefaultMessageStore.this.consumeQueueKvStore.flush(DefaultMessageStore.this.reputMessageService.getDispatchedOffset());
+            }
+
             if (0 == flushConsumeQueueLeastPages) {
                 if (logicsMsgTimestamp > 0) {
                     DefaultMessageStore.this.getStoreCheckpoint().setLogicsMsgTimestamp(logicsMsgTimestamp);
                 }
+                if (logicsOffset > 0) {
+                    DefaultMessageStore.this.getStoreCheckpoint().setLogicsOffset(logicsOffset);
+                }
                 DefaultMessageStore.this.getStoreCheckpoint().flush();
             }
         }
@@ -1995,12 +2240,50 @@ public class DefaultMessageStore implements MessageStore {
 
         private volatile long reputFromOffset = 0;
 
+        /**
+         * Only created when reputDispatchThreadNum is positive, otherwise messages are dispatched in this thread.
+         */
+        private DispatchWorker[] consumeQueueWorkers;
+
+        private DispatchWorker indexWorker;
+
         public long getReputFromOffset() {
             return reputFromOffset;
         }
 
         public void setReputFromOffset(long reputFromOffset) {
             this.reputFromOffset = reputFromOffset;
+            if (this.consumeQueueWorkers != null) {
+                for (DispatchWorker worker : this.consumeQueueWorkers) {
+                    worker.resetOffset(reputFromOffset);
+                }
+            }
+            if (this.indexWorker != null) {
+                this.indexWorker.resetOffset(reputFromOffset);
+            }
+        }
+
+        @Override
+        public void start() {
+            int threadNum = DefaultMessageStore.this.messageStoreConfig.getReputDispatchThreadNum();
+            if (threadNum > 0) {
+                int capacity = DefaultMessageStore.this.messageStoreConfig.getReputDispatchQueueCapacity();
+                this.consumeQueueWorkers = new DispatchWorker[threadNum];
+                for (int i = 0; i < threadNum; i++) {
+                    this.consumeQueueWorkers[i] = new DispatchWorker("ConsumeQueueDispatchWorker_" + i, capacity, false);
+                }
+                if (DefaultMessageStore.this.messageStoreConfig.isMessageIndexEnable()) {
+                    this.indexWorker = new DispatchWorker("IndexDispatchWorker", capacity, true);
+                }
+                this.setReputFromOffset(this.reputFromOffset);
+                for (DispatchWorker worker : this.consumeQueueWorkers) {
+                    worker.start();
+                }
+                if (this.indexWorker != null) {
+                    this.indexWorker.start();
+                }
+            }
+            super.start();
         }
 
         @Override
@@ -2018,17 +2301,128 @@ public class DefaultMessageStore implements MessageStore {
             }
 
             super.shutdown();
+
+            if (this.consumeQueueWorkers != null) {
+                // every worker dispatches what is left in its queue before it stops
+                for (DispatchWorker worker : this.consumeQueueWorkers) {
+                    worker.shutdown();
+                }
+                if (this.indexWorker != null) {
+                    this.indexWorker.shutdown();
+                }
+            }
         }
 
         public long behind() {
-            return DefaultMessageStore.this.commitLog.getMaxOffset() - this.reputFromOffset;
+            return DefaultMessageStore.this.commitLog.getMaxOffset() - this.getDispatchedOffset();
+        }
+
+        /**
+         * @return the offset below which every message read from the CommitLog has been dispatched
+         */
+        public long getDispatchedOffset() {
+            // reputFromOffset is advanced after the message is handed to the workers, read it first
+            long dispatchedOffset = this.reputFromOffset;
+            if (this.consumeQueueWorkers != null) {
+                for (DispatchWorker worker : this.consumeQueueWorkers) {
+                    dispatchedOffset = Math.min(dispatchedOffset, worker.getDispatchedOffset());
+                }
+                if (this.indexWorker != null) {
+                    dispatchedOffset = Math.min(dispatchedOffset, this.indexWorker.getDispatchedOffset());
+                }
+            }
+            return dispatchedOffset;
+        }
+
+        /**
+         * @return store timestamp of a message before which every message has been written to its ConsumeQueue,
+         * 0 if not known yet
+         */
+        public long getDispatchedTimestamp() {
+            if (this.consumeQueueWorkers == null) {
+                return DefaultMessageStore.this.getStoreCheckpoint().getLogicsMsgTimestamp();
+            }
+            // a worker behind holds back the timestamp like it holds back the dispatched offset
+            long laggingTimestamp = Long.MAX_VALUE;
+            long latestTimestamp = 0;
+            for (DispatchWorker worker : this.consumeQueueWorkers) {
+                long timestamp = worker.doneTimestamp;
+                if (worker.getDispatchedOffset() == Long.MAX_VALUE) {
+                    latestTimestamp = Math.max(latestTimestamp, timestamp);
+                } else {
+                    laggingTimestamp = Math.min(laggingTimestamp, timestamp);
+                }
+            }
+            return laggingTimestamp != Long.MAX_VALUE ? laggingTimestamp : latestTimestamp;
+        }
+
+        public long getPendingRequestNum() {
+            long pending = 0;
+            if (this.consumeQueueWorkers != null) {
+                for (DispatchWorker worker : this.consumeQueueWorkers) {
+                    pending += worker.getPendingRequestNum();
+                }
+                if (this.indexWorker != null) {
+                    pending += this.indexWorker.getPendingRequestNum();
+                }
+            }
+            return pending;
+        }
+
+        private void dispatch(DispatchRequest dispatchRequest) throws InterruptedException {
+            if (this.consumeQueueWorkers == null) {
+                DefaultMessageStore.this.doDispatch(dispatchRequest);
+                this.notifyMessageArriving(dispatchRequest);
+                return;
+            }
+
+            if (DefaultMessageStore.this.checkMultiDispatchQueue(dispatchRequest)) {
+                // the message is also written to queues owned by other workers, every worker stops at the barrier
+                // once it is done with the messages before it, and the last one to arrive dispatches it
+                int parties = this.consumeQueueWorkers.length + (this.indexWorker != null ? 1 : 0);
+                CyclicBarrier barrier = new CyclicBarrier(parties, () -> {
+                    try {
+                        DefaultMessageStore.this.doDispatch(dispatchRequest);
+                        this.notifyMessageArriving(dispatchRequest);
+                    } catch (Throwable e) {
+                        DefaultMessageStore.log.warn("dispatch multi-dispatch message error, offset: {}",
+                            dispatchRequest.getCommitLogOffset(), e);
+                    }
+                });
+                for (DispatchWorker worker : this.consumeQueueWorkers) {
+                    worker.putBarrier(dispatchRequest, barrier);
+                }
+                if (this.indexWorker != null) {
+                    this.indexWorker.putBarrier(dispatchRequest, barrier);
+                }
+                return;
+            }
+
+            int hash = dispatchRequest.getTopic().hashCode() * 31 + dispatchRequest.getQueueId();
+            DispatchWorker worker = this.consumeQueueWorkers[(hash & Integer.MAX_VALUE) % this.consumeQueueWorkers.length];
+            worker.putRequest(dispatchRequest);
+            if (this.indexWorker != null) {
+                this.indexWorker.putRequest(dispatchRequest);
+            }
+        }
+
+        private void notifyMessageArriving(DispatchRequest dispatchRequest) {
+            if (BrokerRole.SLAVE != DefaultMessageStore.this.getMessageStoreConfig().getBrokerRole()
+                && DefaultMessageStore.this.brokerConfig.isLongPollingEnable()
+                && DefaultMessageStore.this.messageArrivingListener != null) {
+                DefaultMessageStore.this.messageArrivingListener.arriving(dispatchRequest.getTopic(),
+                    dispatchRequest.getQueueId(), dispatchRequest.getConsumeQueueOffset() + 1,
+                    dispatchRequest.getTagsCode(), dispatchRequest.getStoreTimestamp(),
+                    dispatchRequest.getBitMap(), dispatchRequest.getPropertiesMap());
+                notifyMessageArrive4MultiQueue(dispatchRequest);
+            }
         }
 
         private boolean isCommitLogAvailable() {
             return this.reputFromOffset < DefaultMessageStore.this.commitLog.getMaxOffset();
         }
 
-        private void doReput() {
+        private void doReput() throws InterruptedException {
             if (this.reputFromOffset < DefaultMessageStore.this.commitLog.getMinOffset()) {
                 log.warn("The reputFromOffset={} is smaller than minPyOffset={}, this usually indicate that the dispatch behind too much and the commitlog has expired.",
                     this.reputFromOffset, DefaultMessageStore.this.commitLog.getMinOffset());
@@ -2052,18 +2446,11 @@ public class DefaultMessageStore implements MessageStore {
                             int size = dispatchRequest.getBufferSize() == -1 ? dispatchRequest.getMsgSize() : dispatchRequest.getBufferSize();
 
                             if (dispatchRequest.isSuccess()) {
-                                if (size > 0) {
-                                    DefaultMessageStore.this.doDispatch(dispatchRequest);
-
-                                    if (BrokerRole.SLAVE != DefaultMessageStore.this.getMessageStoreConfig().getBrokerRole()
-                                            && DefaultMessageStore.this.brokerConfig.isLongPollingEnable()
-                                            && DefaultMessageStore.this.messageArrivingListener != null) {
-                                        DefaultMessageStore.this.messageArrivingListener.arriving(dispatchRequest.getTopic(),
-                                            dispatchRequest.getQueueId(), dispatchRequest.getConsumeQueueOffset() + 1,
-                                            dispatchRequest.getTagsCode(), dispatchRequest.getStoreTimestamp(),
-                                            dispatchRequest.getBitMap(), dispatchRequest.getPropertiesMap());
-                                        notifyMessageArrive4MultiQueue(dispatchRequest);
-                                    }
+                                if (size > 0 && dispatchRequest.isFiller()) {
+                                    this.reputFromOffset += size;
+                                    readSize += size;
+                                } else if (size > 0) {
+                                    this.dispatch(dispatchRequest);
 
                                     this.reputFromOffset += size;
                                     readSize += size;
@@ -2106,6 +2493,9 @@ public class DefaultMessageStore implements MessageStore {
         }
 
         private void notifyMessageArrive4MultiQueue(DispatchRequest dispatchRequest) {
+            if (!DefaultMessageStore.this.messageStoreConfig.isEnableMultiDispatch()) {
+                return;
+            }
             Map<String, String> prop = dispatchRequest.getPropertiesMap();
             if (prop == null) {
                 return;
@@ -2154,5 +2544,141 @@ public class DefaultMessageStore implements MessageStore {
             return ReputMessageService.class.getSimpleName();
         }
 
+        /**
+         * A message written to queues of several workers, dispatched once all of them have reached it.
+         */
+        class DispatchBarrier {
+            private final DispatchRequest dispatchRequest;
+            private final CyclicBarrier barrier;
+
+            DispatchBarrier(DispatchRequest dispatchRequest, CyclicBarrier barrier) {
+                this.dispatchRequest = dispatchRequest;
+                this.barrier = barrier;
+            }
+        }
+
+        /**
+         * Runs the dispatchers for one shard of the ConsumeQueues, or only the index dispatcher, in read order.
+         */
+        class DispatchWorker extends ServiceThread {
+            private final String serviceName;
+            private final boolean indexOnly;
+            /**
+             * Holds DispatchRequests, and DispatchBarriers for the messages every worker has to wait for.
+             */
+            private final LinkedBlockingQueue<Object> requestQueue;
+            /**
+             * End offset of the last message handed to this worker, only written by the reput thread.
+             */
+            private volatile long putOffset;
+            /**
+             * End offset of the last message this worker has dispatched.
+             */
+            private volatile long doneOffset;
+            /**
+             * Store timestamp of the last message this worker has dispatched, written before doneOffset.
+             */
+            private volatile long doneTimestamp;
+
+            DispatchWorker(String serviceName, int capacity, boolean indexOnly) {
+                this.serviceName = serviceName;
+                this.indexOnly = indexOnly;
+                this.requestQueue = new LinkedBlockingQueue<>(capacity);
+            }
+
+            void resetOffset(long offset) {
+                this.putOffset = offset;
+                this.doneOffset = offset;
+            }
+
+            void putRequest(DispatchRequest dispatchRequest) throws InterruptedException {
+                this.putOffset = dispatchRequest.getCommitLogOffset() + dispatchRequest.getMsgSize();
+                this.requestQueue.put(dispatchRequest);
+                DefaultMessageStore.this.storeStatsService.setDispatchMaxBuffer(this.requestQueue.size());
+            }
+
+            void putBarrier(DispatchRequest dispatchRequest, CyclicBarrier barrier) throws InterruptedException {
+                this.putOffset = dispatchRequest.getCommitLogOffset() + dispatchRequest.getMsgSize();
+                this.requestQueue.put(new DispatchBarrier(dispatchRequest, barrier));
+                DefaultMessageStore.this.storeStatsService.setDispatchMaxBuffer(this.requestQueue.size());
+            }
+
+            /**
+             * Messages of this worker below the returned offset have all been dispatched, messages of other workers may
+             * still be pending.
+             */
+            long getDispatchedOffset() {
+                long put = this.putOffset;
+                long done = this.doneOffset;
+                return done >= put ? Long.MAX_VALUE : done;
+            }
+
+            int getPendingRequestNum() {
+                return this.requestQueue.size();
+            }
+
+            private void doDispatch(DispatchRequest dispatchRequest) {
+                for (CommitLogDispatcher dispatcher : DefaultMessageStore.this.dispatcherList) {
+                    boolean isIndexDispatcher = dispatcher instanceof CommitLogDispatcherBuildIndex;
+                    if (this.indexOnly == isIndexDispatcher || (!this.indexOnly && ReputMessageService.this.indexWorker == null)) {
+                        dispatcher.dispatch(dispatchRequest);
+                    }
+                }
+                if (!this.indexOnly) {
+                    ReputMessageService.this.notifyMessageArriving(dispatchRequest);
+                }
+            }
+
+            private void process(Object request) {
+                DispatchRequest dispatchRequest;
+                if (request instanceof DispatchBarrier) {
+                    dispatchRequest = ((DispatchBarrier) request).dispatchRequest;
+                } else {
+                    dispatchRequest = (DispatchRequest) request;
+                }
+                try {
+                    if (request instanceof DispatchBarrier) {
+                        // the last worker to arrive dispatches the message before any of them goes on
+                        ((DispatchBarrier) request).barrier.await();
+                    } else {
+                        this.doDispatch(dispatchRequest);
+                    }
+                } catch (Throwable e) {
+                    DefaultMessageStore.log.warn(this.getServiceName() + " service has exception. ", e);
+                } finally {
+                    this.doneTimestamp = dispatchRequest.getStoreTimestamp();
+                    this.doneOffset = dispatchRequest.getCommitLogOffset() + dispatchRequest.getMsgSize();
+                }
+            }
+
+            @Override
+            public void run() {
+                DefaultMessageStore.log.info(this.getServiceName() + " service started");
+
+                while (!this.isStopped()) {
+                    try {
+                        Object request = this.requestQueue.poll(10, TimeUnit.MILLISECONDS);
+                        if (request != null) {
+                            this.process(request);
+                        }
+                    } catch (Throwable e) {
+                        DefaultMessageStore.log.warn(this.getServiceName() + " service has exception. ", e);
+                    }
+                }
+
+                // the reput thread has stopped, nothing is added any more
+                Object request;
+                while ((request = this.requestQueue.poll()) != null) {
+                    this.process(request);
+                }
+
+                DefaultMessageStore.log.info(this.getServiceName() + " service end");
+            }
+
+            @Override
+            public String getServiceName() {
+                return this.serviceName;
+            }
+        }
     }
 }
@@ -36,6 +36,7 @@ public class DispatchRequest {
     private byte[] bitMap;
 
     private int bufferSize = -1;//the buffer size maybe larger than the msg size if the message is wrapped by something
+    private boolean filler;//a region of the CommitLog without message, skipped by its size
 
     public DispatchRequest(
         final String topic,
@@ -170,4 +171,12 @@ public class DispatchRequest {
     public void setBufferSize(int bufferSize) {
         this.bufferSize = bufferSize;
     }
+
+    public boolean isFiller() {
+        return filler;
+    }
+
+    public void setFiller(boolean filler) {
+        this.filler = filler;
+    }
 }
@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.store;
+
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.Set;
+import org.apache.rocketmq.common.message.MessageDecoder;
+
+/**
+ * Message properties kept in their encoded form until somebody actually reads them. Most dispatched messages never
+ * have their properties looked at beyond the few keys extracted while parsing, so the map is only decoded on first
+ * access.
+ */
+class LazyPropertiesMap extends AbstractMap<String, String> {
+    private final byte[] encoded;
+    private final int sysFlag;
+    private volatile Map<String, String> decoded;
+
+    LazyPropertiesMap(byte[] encoded, int sysFlag) {
+        this.encoded = encoded;
+        this.sysFlag = sysFlag;
+    }
+
+    private Map<String, String> decoded() {
+        Map<String, String> map = this.decoded;
+        if (map == null) {
+            map = MessageDecoder.decodeProperties(this.encoded, 0, this.encoded.length, this.sysFlag);
+            this.decoded = map;
+        }
+        return map;
+    }
+
+    @Override
+    public String get(Object key) {
+        return decoded().get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return decoded().containsKey(key);
+    }
+
+    @Override
+    public String put(String key, String value) {
+        return decoded().put(key, value);
+    }
+
+    @Override
+    public String remove(Object key) {
+        return decoded().remove(key);
+    }
+
+    @Override
+    public int size() {
+        return decoded().size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return decoded().isEmpty();
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return decoded().entrySet();
+    }
+}
@@ -52,6 +52,11 @@ public class MappedFile extends ReferenceResource {
     private static final AtomicInteger TOTAL_MAPPED_FILES = new AtomicInteger(0);
     protected final AtomicInteger wrotePosition = new AtomicInteger(0);
     protected final AtomicInteger committedPosition = new AtomicInteger(0);
+    /**
+     * Only used by multi-writer append: space is reserved by CAS on this position, the reserved region becomes
+     * readable once {@link #publishReserved(int, int, long)} moves wrotePosition past it.
+     */
+    protected final AtomicInteger reservedPosition = new AtomicInteger(0);
     private final AtomicInteger flushedPosition = new AtomicInteger(0);
     protected int fileSize;
     protected FileChannel fileChannel;
@@ -285,6 +290,71 @@ public class MappedFile extends ReferenceResource {
         return false;
     }
 
+    /**
+     * Reserve a region of the given size, always leaving at least minBlankLength bytes for the end of file blank.
+     *
+     * @return the start position of the reserved region, or -1 if there is not enough space left in this file
+     */
+    public int reserve(final int size, final int minBlankLength) {
+        while (true) {
+            int currentPos = this.reservedPosition.get();
+            int wrotePos = this.wrotePosition.get();
+            if (currentPos < wrotePos) {
+                // data appended through the single writer path, catch up with it
+                this.reservedPosition.compareAndSet(currentPos, wrotePos);
+                continue;
+            }
+            if (currentPos + size + minBlankLength > this.fileSize) {
+                return -1;
+            }
+            if (this.reservedPosition.compareAndSet(currentPos, currentPos + size)) {
+                return currentPos;
+            }
+        }
+    }
+
+    /**
+     * Reserve all the space left in this file, used to write the end of file blank.
+     *
+     * @return the start position of the reserved region, or -1 if this file is already fully reserved
+     */
+    public int reserveRemaining() {
+        while (true) {
+            int reservedPos = this.reservedPosition.get();
+            int currentPos = Math.max(reservedPos, this.wrotePosition.get());
+            if (currentPos >= this.fileSize) {
+                return -1;
+            }
+            if (this.reservedPosition.compareAndSet(reservedPos, this.fileSize)) {
+                return currentPos;
+            }
+        }
+    }
+
+    /**
+     * Copy data into a region previously returned by {@link #reserve(int, int)}, may run concurrently with other
+     * writers since every writer owns its own region.
+     */
+    public void writeReserved(final int position, final ByteBuffer data) {
+        ByteBuffer byteBuffer = writeBuffer != null ? writeBuffer.slice() : this.mappedByteBuffer.slice();
+        byteBuffer.position(position);
+        byteBuffer.put(data);
+    }
+
+    /**
+     * Make a written region visible to readers, flush and commit. Regions are published in reservation order, so this
+     * waits until every region reserved before this one has been published.
+     */
+    public void publishReserved(final int position, final int size, final long storeTimestamp) {
+        int spins = 0;
+        while (!this.wrotePosition.compareAndSet(position, position + size)) {
+            if (++spins % 100 == 0) {
+                Thread.yield();
+            }
+        }
+        this.storeTimestamp = storeTimestamp;
+    }
+
     /**
      * @return The current flushed position
      */
@@ -488,6 +558,7 @@ public class MappedFile extends ReferenceResource {
 
     public void setWrotePosition(int pos) {
         this.wrotePosition.set(pos);
+        this.reservedPosition.set(pos);
     }
 
     /**
@@ -587,6 +658,25 @@ public class MappedFile extends ReferenceResource {
         log.info("munlock {} {} {} ret = {} time consuming = {}", address, this.fileName, this.fileSize, ret, System.currentTimeMillis() - beginTime);
     }
 
+    /**
+     * Advise the OS that [pos, pos + size) of this file will be read soon, the range is widened to page boundaries.
+     *
+     * @return the madvise result, or -1 if the range is out of the file or the file is being destroyed
+     */
+    public int madviseWillNeed(final int pos, final int size) {
+        if (pos < 0 || size <= 0 || pos >= this.fileSize || !this.hold()) {
+            return -1;
+        }
+        try {
+            final long address = ((DirectBuffer) (this.mappedByteBuffer)).address();
+            final long begin = address + pos - (address + pos) % OS_PAGE_SIZE;
+            final long end = address + Math.min((long) pos + size, this.fileSize);
+            return LibC.INSTANCE.madvise(new Pointer(begin), new NativeLong(end - begin), LibC.MADV_WILLNEED);
+        } finally {
+            this.release();
+        }
+    }
+
     //testable
     File getFile() {
         return this.file;
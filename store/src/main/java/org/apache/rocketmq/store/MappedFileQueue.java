@@ -122,7 +122,7 @@ public class MappedFileQueue {
         this.deleteExpiredFile(willRemoveFiles);
     }
 
-    void deleteExpiredFile(List<MappedFile> files) {
+    public void deleteExpiredFile(List<MappedFile> files) {
 
         if (!files.isEmpty()) {
 
@@ -0,0 +1,212 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.store;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Off-heap cache of pulled messages keyed by their CommitLog offset, consulted by getMessage before the CommitLog.
+ * Messages are copied into fixed-size direct segments in the order they are admitted, so a segment holds a range
+ * of the CommitLog. The segment read least recently is evicted as a whole and its buffer is recycled once the
+ * results still referring to it are released.
+ */
+public class MessageCache {
+    private final int segmentSize;
+    private final int maxSegmentNum;
+    private final ConcurrentMap<Long/* offsetPy */, Entry> entryTable = new ConcurrentHashMap<>(1024);
+    private final ConcurrentLinkedQueue<ByteBuffer> freeBuffers = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * Logical clock ordering segment accesses, ticked by every get and put.
+     */
+    private final AtomicLong accessClock = new AtomicLong(0);
+    // guarded by lock
+    private final List<Segment> segments = new ArrayList<>();
+    private int allocatedSegmentNum;
+    private Segment writingSegment;
+
+    public MessageCache(final long cacheSize, final int segmentSize) {
+        this.segmentSize = segmentSize;
+        this.maxSegmentNum = (int) Math.max(2, cacheSize / segmentSize);
+    }
+
+    public long getCapacity() {
+        return (long) this.segmentSize * this.maxSegmentNum;
+    }
+
+    /**
+     * @return the cached message, to be released like any other result, or null on a miss
+     */
+    public SelectMappedBufferResult get(final long offsetPy, final int sizePy) {
+        return get(offsetPy, sizePy, this.accessClock.incrementAndGet());
+    }
+
+    SelectMappedBufferResult get(final long offsetPy, final int sizePy, final long accessTick) {
+        Entry entry = this.entryTable.get(offsetPy);
+        if (entry == null || entry.size != sizePy || !entry.segment.hold()) {
+            return null;
+        }
+
+        Segment segment = entry.segment;
+        segment.lastAccessTick = accessTick;
+        ByteBuffer byteBuffer = segment.buffer.duplicate();
+        byteBuffer.limit(entry.position + entry.size);
+        byteBuffer.position(entry.position);
+        return new SelectMappedBufferResult(offsetPy, byteBuffer.slice(), sizePy, segment);
+    }
+
+    /**
+     * Copies the message into the cache, nothing is done if all segments are still being read.
+     */
+    public void put(final long offsetPy, final ByteBuffer message, final int size) {
+        put(offsetPy, message, size, this.accessClock.incrementAndGet());
+    }
+
+    void put(final long offsetPy, final ByteBuffer message, final int size, final long accessTick) {
+        if (size > this.segmentSize || this.entryTable.containsKey(offsetPy)) {
+            return;
+        }
+
+        this.lock.lock();
+        try {
+            if (this.entryTable.containsKey(offsetPy)) {
+                return;
+            }
+
+            Segment segment = this.writingSegment;
+            if (segment == null || this.segmentSize - segment.writePosition < size) {
+                segment = this.newSegment(accessTick);
+                if (segment == null) {
+                    return;
+                }
+                this.writingSegment = segment;
+            }
+
+            ByteBuffer target = segment.buffer.duplicate();
+            target.position(segment.writePosition);
+            ByteBuffer source = message.duplicate();
+            source.limit(source.position() + size);
+            target.put(source);
+
+            Entry entry = new Entry(segment, segment.writePosition, size);
+            segment.writePosition += size;
+            segment.offsets.add(offsetPy);
+            this.entryTable.put(offsetPy, entry);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Drops every cached message, used when the CommitLog is truncated so stale offsets are never served.
+     */
+    public void clear() {
+        this.lock.lock();
+        try {
+            this.entryTable.clear();
+            for (Segment segment : this.segments) {
+                segment.shutdown(0);
+            }
+            this.segments.clear();
+            this.writingSegment = null;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public long getCachedMessageNum() {
+        return this.entryTable.size();
+    }
+
+    private Segment newSegment(final long accessTick) {
+        ByteBuffer buffer = this.freeBuffers.poll();
+        if (buffer == null && this.allocatedSegmentNum < this.maxSegmentNum) {
+            buffer = ByteBuffer.allocateDirect(this.segmentSize);
+            this.allocatedSegmentNum++;
+        }
+        if (buffer == null) {
+            this.evictLeastRecentlyUsed();
+            buffer = this.freeBuffers.poll();
+            if (buffer == null) {
+                return null;
+            }
+        }
+
+        Segment segment = new Segment(buffer, accessTick);
+        this.segments.add(segment);
+        return segment;
+    }
+
+    private void evictLeastRecentlyUsed() {
+        Segment victim = null;
+        for (Segment segment : this.segments) {
+            if (segment != this.writingSegment
+                && (victim == null || segment.lastAccessTick < victim.lastAccessTick)) {
+                victim = segment;
+            }
+        }
+        if (victim == null) {
+            return;
+        }
+
+        this.segments.remove(victim);
+        for (Long offsetPy : victim.offsets) {
+            this.entryTable.remove(offsetPy);
+        }
+        victim.shutdown(0);
+    }
+
+    private static class Entry {
+        private final Segment segment;
+        private final int position;
+        private final int size;
+
+        Entry(Segment segment, int position, int size) {
+            this.segment = segment;
+            this.position = position;
+            this.size = size;
+        }
+    }
+
+    private class Segment extends ReferenceResource {
+        private final ByteBuffer buffer;
+        private final List<Long> offsets = new ArrayList<>();
+        private int writePosition;
+        private volatile long lastAccessTick;
+
+        Segment(ByteBuffer buffer, long accessTick) {
+            this.buffer = buffer;
+            this.lastAccessTick = accessTick;
+        }
+
+        @Override
+        public boolean cleanup(final long currentRef) {
+            if (currentRef <= 0 && !this.cleanupOver) {
+                freeBuffers.offer(this.buffer);
+            }
+            return true;
+        }
+    }
+}
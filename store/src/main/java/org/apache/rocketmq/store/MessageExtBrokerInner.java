@@ -27,6 +27,10 @@ public class MessageExtBrokerInner extends MessageExt {
     private long tagsCode;
 
     private ByteBuffer encodedBuff;
+    /**
+     * Body left in the buffer it was received in, appended to the CommitLog without copying it into an array first.
+     */
+    private ByteBuffer bodyBuffer;
 
     public ByteBuffer getEncodedBuff() {
         return encodedBuff;
@@ -36,6 +40,45 @@ public class MessageExtBrokerInner extends MessageExt {
         this.encodedBuff = encodedBuff;
     }
 
+    public ByteBuffer getBodyBuffer() {
+        return bodyBuffer;
+    }
+
+    public void setBodyBuffer(ByteBuffer bodyBuffer) {
+        this.bodyBuffer = bodyBuffer;
+    }
+
+    @Override
+    public byte[] getBody() {
+        byte[] body = super.getBody();
+        if (body == null && this.bodyBuffer != null) {
+            ByteBuffer buffer = this.bodyBuffer;
+            if (buffer.hasArray() && buffer.arrayOffset() + buffer.position() == 0
+                && buffer.remaining() == buffer.array().length) {
+                body = buffer.array();
+            } else {
+                body = new byte[buffer.remaining()];
+                buffer.duplicate().get(body);
+            }
+            super.setBody(body);
+        }
+        return body;
+    }
+
+    @Override
+    public void setBody(byte[] body) {
+        this.bodyBuffer = null;
+        super.setBody(body);
+    }
+
+    public int getBodyLength() {
+        byte[] body = super.getBody();
+        if (body != null) {
+            return body.length;
+        }
+        return this.bodyBuffer != null ? this.bodyBuffer.remaining() : 0;
+    }
+
     public static long tagsString2tagsCode(final TopicFilterType filter, final String tags) {
         if (null == tags || tags.length() == 0) { return 0; }
 
@@ -40,4 +40,14 @@ public interface MessageFilter {
      */
     boolean isMatchedByCommitLog(final ByteBuffer msgBuffer,
         final Map<String, String> properties);
+
+    /**
+     * Tags codes accepted by {@link #isMatchedByConsumeQueue}, so that the store can skip the consume queue units
+     * of other tags in bulk before calling it.
+     *
+     * @return null if the filter does not only match by tags code.
+     */
+    default int[] tagsCodesToMatch() {
+        return null;
+    }
 }
@@ -31,7 +31,6 @@ import org.apache.rocketmq.store.CommitLog.MessageExtEncoder;
  */
 public class MultiDispatch {
     private static final InternalLogger LOGGER = InternalLoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
-    private final StringBuilder keyBuilder = new StringBuilder();
     private final DefaultMessageStore messageStore;
     private final CommitLog commitLog;
 
@@ -40,16 +39,11 @@ public class MultiDispatch {
         this.commitLog = commitLog;
     }
 
-    public String queueKey(String queueName, MessageExtBrokerInner msgInner) {
-        keyBuilder.setLength(0);
-        keyBuilder.append(queueName);
-        keyBuilder.append('-');
-        int queueId = msgInner.getQueueId();
+    private int queueId(String queueName, MessageExtBrokerInner msgInner) {
         if (messageStore.getMessageStoreConfig().isEnableLmq() && MixAll.isLmq(queueName)) {
-            queueId = 0;
+            return 0;
         }
-        keyBuilder.append(queueId);
-        return keyBuilder.toString();
+        return msgInner.getQueueId();
     }
 
     public boolean wrapMultiDispatch(final MessageExtBrokerInner msgInner) {
@@ -63,22 +57,13 @@ public class MultiDispatch {
         String[] queues = multiDispatchQueue.split(MixAll.MULTI_DISPATCH_QUEUE_SPLITTER);
         Long[] queueOffsets = new Long[queues.length];
         for (int i = 0; i < queues.length; i++) {
-            String key = queueKey(queues[i], msgInner);
-            Long queueOffset;
+            ConsumeQueue consumeQueue;
             try {
-                queueOffset = getTopicQueueOffset(key);
+                consumeQueue = messageStore.findConsumeQueue(queues[i], queueId(queues[i], msgInner));
             } catch (Exception e) {
                 return false;
             }
-            if (null == queueOffset) {
-                queueOffset = 0L;
-                if (messageStore.getMessageStoreConfig().isEnableLmq() && MixAll.isLmq(key)) {
-                    commitLog.getLmqTopicQueueTable().put(key, queueOffset);
-                } else {
-                    commitLog.getTopicQueueTable().put(key, queueOffset);
-                }
-            }
-            queueOffsets[i] = queueOffset;
+            queueOffsets[i] = consumeQueue.getNextQueueOffset();
         }
         MessageAccessor.putProperty(msgInner, MessageConst.PROPERTY_INNER_MULTI_QUEUE_OFFSET,
             StringUtils.join(queueOffsets, MixAll.MULTI_DISPATCH_QUEUE_SPLITTER));
@@ -131,27 +116,9 @@ public class MultiDispatch {
             return;
         }
         for (int i = 0; i < queues.length; i++) {
-            String key = queueKey(queues[i], msgInner);
             long queueOffset = Long.parseLong(queueOffsets[i]);
-            if (messageStore.getMessageStoreConfig().isEnableLmq() && MixAll.isLmq(key)) {
-                commitLog.getLmqTopicQueueTable().put(key, ++queueOffset);
-            } else {
-                commitLog.getTopicQueueTable().put(key, ++queueOffset);
-            }
-        }
-    }
-
-    private Long getTopicQueueOffset(String key) throws Exception {
-        Long offset = null;
-        if (messageStore.getMessageStoreConfig().isEnableLmq() && MixAll.isLmq(key)) {
-            Long queueNextOffset = commitLog.getLmqTopicQueueTable().get(key);
-            if (queueNextOffset != null) {
-                offset = queueNextOffset;
-            }
-        } else {
-            offset = commitLog.getTopicQueueTable().get(key);
+            messageStore.findConsumeQueue(queues[i], queueId(queues[i], msgInner)).setNextQueueOffset(++queueOffset);
         }
-        return offset;
     }
 
 }
@@ -26,9 +26,12 @@ public class SelectMappedBufferResult {
 
     private int size;
 
-    private MappedFile mappedFile;
+    /**
+     * The MappedFile, or the MessageCache segment, the buffer is taken from. It is released with this result.
+     */
+    private ReferenceResource mappedFile;
 
-    public SelectMappedBufferResult(long startOffset, ByteBuffer byteBuffer, int size, MappedFile mappedFile) {
+    public SelectMappedBufferResult(long startOffset, ByteBuffer byteBuffer, int size, ReferenceResource mappedFile) {
         this.startOffset = startOffset;
         this.byteBuffer = byteBuffer;
         this.size = size;
@@ -35,6 +35,13 @@ public class StoreCheckpoint {
     private volatile long physicMsgTimestamp = 0;
     private volatile long logicsMsgTimestamp = 0;
     private volatile long indexMsgTimestamp = 0;
+    /**
+     * Offsets of the CommitLog below which the messages are flushed, dispatched to the flushed ConsumeQueues, and
+     * indexed in a flushed index file. Abnormal recovery starts from the least of them, 0 if unknown.
+     */
+    private volatile long physicOffset = 0;
+    private volatile long logicsOffset = 0;
+    private volatile long indexOffset = 0;
 
     public StoreCheckpoint(final String scpPath) throws IOException {
         File file = new File(scpPath);
@@ -50,6 +57,9 @@ public class StoreCheckpoint {
             this.physicMsgTimestamp = this.mappedByteBuffer.getLong(0);
             this.logicsMsgTimestamp = this.mappedByteBuffer.getLong(8);
             this.indexMsgTimestamp = this.mappedByteBuffer.getLong(16);
+            this.physicOffset = this.mappedByteBuffer.getLong(24);
+            this.logicsOffset = this.mappedByteBuffer.getLong(32);
+            this.indexOffset = this.mappedByteBuffer.getLong(40);
 
             log.info("store checkpoint file physicMsgTimestamp " + this.physicMsgTimestamp + ", "
                 + UtilAll.timeMillisToHumanString(this.physicMsgTimestamp));
@@ -57,6 +67,8 @@ public class StoreCheckpoint {
                 + UtilAll.timeMillisToHumanString(this.logicsMsgTimestamp));
             log.info("store checkpoint file indexMsgTimestamp " + this.indexMsgTimestamp + ", "
                 + UtilAll.timeMillisToHumanString(this.indexMsgTimestamp));
+            log.info("store checkpoint file physicOffset {}, logicsOffset {}, indexOffset {}",
+                this.physicOffset, this.logicsOffset, this.indexOffset);
         } else {
             log.info("store checkpoint file not exists, " + scpPath);
         }
@@ -79,6 +91,9 @@ public class StoreCheckpoint {
         this.mappedByteBuffer.putLong(0, this.physicMsgTimestamp);
         this.mappedByteBuffer.putLong(8, this.logicsMsgTimestamp);
         this.mappedByteBuffer.putLong(16, this.indexMsgTimestamp);
+        this.mappedByteBuffer.putLong(24, this.physicOffset);
+        this.mappedByteBuffer.putLong(32, this.logicsOffset);
+        this.mappedByteBuffer.putLong(40, this.indexOffset);
         this.mappedByteBuffer.force();
     }
 
@@ -120,4 +135,46 @@ public class StoreCheckpoint {
         this.indexMsgTimestamp = indexMsgTimestamp;
     }
 
+    public long getPhysicOffset() {
+        return physicOffset;
+    }
+
+    public void setPhysicOffset(long physicOffset) {
+        this.physicOffset = physicOffset;
+    }
+
+    public long getLogicsOffset() {
+        return logicsOffset;
+    }
+
+    public void setLogicsOffset(long logicsOffset) {
+        this.logicsOffset = logicsOffset;
+    }
+
+    public long getIndexOffset() {
+        return indexOffset;
+    }
+
+    public void setIndexOffset(long indexOffset) {
+        this.indexOffset = indexOffset;
+    }
+
+    public long getMinOffset() {
+        return Math.min(this.physicOffset, this.logicsOffset);
+    }
+
+    public long getMinOffsetIndex() {
+        return Math.min(this.getMinOffset(), this.indexOffset);
+    }
+
+    /**
+     * The CommitLog is recovered up to {@code offset}, the messages after it are gone.
+     */
+    public void truncateOffsets(final long offset) {
+        this.physicOffset = Math.min(this.physicOffset, offset);
+        this.logicsOffset = Math.min(this.logicsOffset, offset);
+        this.indexOffset = Math.min(this.indexOffset, offset);
+        this.flush();
+    }
+
 }
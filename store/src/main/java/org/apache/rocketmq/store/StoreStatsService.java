@@ -61,6 +61,8 @@ public class StoreStatsService extends ServiceThread {
     private final LongAdder getMessageTimesTotalFound = new LongAdder();
     private final LongAdder getMessageTransferedMsgCount = new LongAdder();
     private final LongAdder getMessageTimesTotalMiss = new LongAdder();
+    private final LongAdder messageCacheHitCount = new LongAdder();
+    private final LongAdder messageCacheMissCount = new LongAdder();
     private final LinkedList<CallSnapshot> putTimesList = new LinkedList<CallSnapshot>();
 
     private final LinkedList<CallSnapshot> getTimesFoundList = new LinkedList<CallSnapshot>();
@@ -258,6 +260,8 @@ public class StoreStatsService extends ServiceThread {
         sb.append("\tgetMissTps: " + this.getGetMissTps() + "\r\n");
         sb.append("\tgetTotalTps: " + this.getGetTotalTps() + "\r\n");
         sb.append("\tgetTransferedTps: " + this.getGetTransferedTps() + "\r\n");
+        sb.append("\tmessageCacheHitCount: " + this.messageCacheHitCount + "\r\n");
+        sb.append("\tmessageCacheMissCount: " + this.messageCacheMissCount + "\r\n");
         return sb.toString();
     }
 
@@ -511,6 +515,9 @@ public class StoreStatsService extends ServiceThread {
         result.put("getMissTps", this.getGetMissTps());
         result.put("getTotalTps", this.getGetTotalTps());
         result.put("getTransferedTps", this.getGetTransferedTps());
+        result.put("messageCacheHitCount", String.valueOf(this.messageCacheHitCount));
+        result.put("messageCacheMissCount", String.valueOf(this.messageCacheMissCount));
+        result.put("messageCacheHitRatio", this.getMessageCacheHitRatio());
         result.put("putLatency99", String.format("%.2f", this.findPutMessageEntireTimePX(0.99)));
         result.put("putLatency999", String.format("%.2f", this.findPutMessageEntireTimePX(0.999)));
 
@@ -609,6 +616,20 @@ public class StoreStatsService extends ServiceThread {
         return getMessageTimesTotalMiss;
     }
 
+    public LongAdder getMessageCacheHitCount() {
+        return messageCacheHitCount;
+    }
+
+    public LongAdder getMessageCacheMissCount() {
+        return messageCacheMissCount;
+    }
+
+    private String getMessageCacheHitRatio() {
+        long hit = this.messageCacheHitCount.longValue();
+        long total = hit + this.messageCacheMissCount.longValue();
+        return String.format("%.2f", total == 0 ? 0.0 : hit * 100.0 / total);
+    }
+
     public LongAdder getGetMessageTransferedMsgCount() {
         return getMessageTransferedMsgCount;
     }
@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Finds the units of a consume queue buffer whose tags code may be accepted, a window of units is read into a long[]
+ * and matched at once instead of matching the units one by one.
+ */
+public class TagsCodeScanner {
+    private static final int WINDOW_UNIT_NUM = 1024;
+
+    private final ByteBuffer byteBuffer;
+    private final int[] acceptedTagsCodes;
+    private final long[] tagsCodes = new long[WINDOW_UNIT_NUM];
+    private final int[] matchedIndexes = new int[WINDOW_UNIT_NUM];
+
+    private int windowPos = 0;
+    private int windowUnitNum = 0;
+    private int matchedNum = 0;
+    private int matchedCursor = 0;
+
+    public TagsCodeScanner(final ByteBuffer byteBuffer, final int[] acceptedTagsCodes) {
+        this.byteBuffer = byteBuffer;
+        this.acceptedTagsCodes = acceptedTagsCodes;
+    }
+
+    /**
+     * @return position of the first unit at or after {@code pos} which may be accepted, or {@code limit} if none
+     */
+    public int nextCandidate(int pos, final int limit) {
+        while (pos < limit) {
+            if (pos < this.windowPos || pos >= this.windowPos + this.windowUnitNum * ConsumeQueue.CQ_STORE_UNIT_SIZE) {
+                this.windowPos = pos;
+                this.windowUnitNum = ConsumeQueue.readTagsCodes(this.byteBuffer, pos, this.tagsCodes,
+                    (limit - pos) / ConsumeQueue.CQ_STORE_UNIT_SIZE);
+                this.matchedNum = ConsumeQueue.matchTagsCodes(this.tagsCodes, this.windowUnitNum,
+                    this.acceptedTagsCodes, this.matchedIndexes);
+                this.matchedCursor = 0;
+                if (this.windowUnitNum == 0) {
+                    return limit;
+                }
+            }
+
+            while (this.matchedCursor < this.matchedNum) {
+                int candidate = this.windowPos + this.matchedIndexes[this.matchedCursor] * ConsumeQueue.CQ_STORE_UNIT_SIZE;
+                if (candidate >= pos) {
+                    return candidate;
+                }
+                this.matchedCursor++;
+            }
+            pos = this.windowPos + this.windowUnitNum * ConsumeQueue.CQ_STORE_UNIT_SIZE;
+        }
+        return limit;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.store;
+
+import java.nio.ByteBuffer;
+import org.apache.rocketmq.common.message.MessageDecoder;
+
+/**
+ * Direct-mapped cache of topic names keyed by their encoded bytes, so that parsing a message from the commit log
+ * returns the same String instance for a topic seen before instead of decoding a new one.
+ * <p>
+ * Entries are immutable and slots are overwritten without locking; a racing reader either sees a complete entry or
+ * misses and decodes the name itself.
+ */
+class TopicNameCache {
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private final Entry[] entries;
+    private final int mask;
+
+    TopicNameCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    TopicNameCache(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 1) - 1) << 1;
+        this.entries = new Entry[Math.max(size, 1)];
+        this.mask = this.entries.length - 1;
+    }
+
+    /**
+     * Returns the topic whose UTF-8 encoding is stored at {@code [position, position + length)} of the buffer. The
+     * buffer position is not changed.
+     */
+    String get(ByteBuffer byteBuffer, int position, int length) {
+        int hash = 1;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + byteBuffer.get(position + i);
+        }
+        int index = (hash ^ (hash >>> 16)) & this.mask;
+
+        Entry entry = this.entries[index];
+        if (entry != null && entry.matches(byteBuffer, position, length)) {
+            return entry.name;
+        }
+
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = byteBuffer.get(position + i);
+        }
+        String name = new String(bytes, MessageDecoder.CHARSET_UTF8);
+        this.entries[index] = new Entry(bytes, name);
+        return name;
+    }
+
+    private static final class Entry {
+        private final byte[] bytes;
+        private final String name;
+
+        private Entry(byte[] bytes, String name) {
+            this.bytes = bytes;
+            this.name = name;
+        }
+
+        private boolean matches(ByteBuffer byteBuffer, int position, int length) {
+            if (this.bytes.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (this.bytes[i] != byteBuffer.get(position + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,472 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.compaction;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import org.apache.rocketmq.common.UtilAll;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.common.message.MessageConst;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.logging.InternalLogger;
+import org.apache.rocketmq.logging.InternalLoggerFactory;
+import org.apache.rocketmq.store.CommitLog;
+import org.apache.rocketmq.store.ConsumeQueue;
+import org.apache.rocketmq.store.GetMessageResult;
+import org.apache.rocketmq.store.GetMessageStatus;
+import org.apache.rocketmq.store.MappedFile;
+import org.apache.rocketmq.store.MessageExtBrokerInner;
+import org.apache.rocketmq.store.MessageFilter;
+import org.apache.rocketmq.store.SelectMappedBufferResult;
+
+/**
+ * The latest message of each key of a queue, up to the compacted offset, and every message without key. Every
+ * compaction writes a new generation made of a directory of segments, data files of at most segmentSize holding the
+ * messages as they are stored in the CommitLog, and an index file, the consume queue of the compacted log.
+ * <pre>
+ * index: | compactedOffset(8) | segmentNum(4) | segmentSize(4) * segmentNum | unitNum(4) | unit * unitNum |
+ * unit:  | queueOffset(8) | segment(4) | position(4) | size(4) | tagsCode(8) |
+ * </pre>
+ * The messages keep their queue offset, a consumer reads the compacted log below the compacted offset and the
+ * consume queue from there on.
+ */
+public class CompactedQueue {
+    private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
+
+    private static final String INDEX_SUFFIX = ".index";
+    private static final String TEMP_SUFFIX = ".tmp";
+    static final int INDEX_UNIT_SIZE = 8 + 4 + 4 + 4 + 8;
+    private static final int MAX_SCAN_UNIT_NUM = 16000 / ConsumeQueue.CQ_STORE_UNIT_SIZE;
+
+    private final String topic;
+    private final int queueId;
+    private final String storePath;
+    private final int segmentSize;
+
+    private volatile Generation generation = new Generation(-1, 0, new MappedFile[0], 0);
+    private final List<MappedFile> expiredFiles = new ArrayList<MappedFile>();
+
+    public CompactedQueue(final String topic, final int queueId, final String storePath, final int segmentSize) {
+        this.topic = topic;
+        this.queueId = queueId;
+        this.storePath = storePath + File.separator + topic + File.separator + queueId;
+        this.segmentSize = segmentSize;
+    }
+
+    public boolean load() {
+        File dir = new File(this.storePath);
+        File[] files = dir.listFiles();
+        if (null == files) {
+            return true;
+        }
+
+        long lastGen = -1;
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(INDEX_SUFFIX)) {
+                lastGen = Math.max(lastGen, Long.parseLong(name.substring(0, name.length() - INDEX_SUFFIX.length())));
+            }
+        }
+
+        if (lastGen >= 0) {
+            try {
+                this.generation = this.loadGeneration(lastGen);
+            } catch (IOException e) {
+                log.error("load compacted queue {}-{} failed", this.topic, this.queueId, e);
+                return false;
+            }
+        }
+
+        // the files of the previous generations, or of a compaction not completed
+        String lastName = UtilAll.offset2FileName(lastGen);
+        for (File file : files) {
+            if (lastGen < 0 || !file.getName().startsWith(lastName)) {
+                log.info("delete stale compacted file {}", file.getPath());
+                UtilAll.deleteFile(file);
+            }
+        }
+        log.info("load compacted queue {}-{}, compactedOffset={}, messageNum={}", this.topic, this.queueId,
+            this.generation.compactedOffset, this.generation.unitNum);
+        return true;
+    }
+
+    private Generation loadGeneration(final long gen) throws IOException {
+        String name = UtilAll.offset2FileName(gen);
+        byte[] index;
+        try (RandomAccessFile indexFile = new RandomAccessFile(new File(this.storePath, name + INDEX_SUFFIX), "r")) {
+            index = new byte[(int) indexFile.length()];
+            indexFile.readFully(index);
+        }
+
+        ByteBuffer indexBuffer = ByteBuffer.wrap(index);
+        long compactedOffset = indexBuffer.getLong();
+        MappedFile[] segments = new MappedFile[indexBuffer.getInt()];
+        for (int i = 0; i < segments.length; i++) {
+            int size = indexBuffer.getInt();
+            segments[i] = new MappedFile(this.segmentPath(name, i), size);
+            segments[i].setWrotePosition(size);
+            segments[i].setFlushedPosition(size);
+            segments[i].setCommittedPosition(size);
+        }
+        int unitNum = indexBuffer.getInt();
+
+        Generation generation = new Generation(gen, compactedOffset, segments, unitNum);
+        for (int i = 0; i < unitNum; i++) {
+            generation.queueOffsets[i] = indexBuffer.getLong();
+            generation.segmentIndexes[i] = indexBuffer.getInt();
+            generation.positions[i] = indexBuffer.getInt();
+            generation.sizes[i] = indexBuffer.getInt();
+            generation.tagsCodes[i] = indexBuffer.getLong();
+        }
+        return generation;
+    }
+
+    /**
+     * Next queue offset to compact, the messages below it are read from the compacted log.
+     */
+    public long getCompactedOffset() {
+        return this.generation.compactedOffset;
+    }
+
+    public int getMessageNum() {
+        return this.generation.unitNum;
+    }
+
+    public GetMessageResult getMessage(final long offset, final int maxMsgNums, final int maxTotalSize,
+        final MessageFilter messageFilter) {
+        Generation generation = this.generation;
+        GetMessageResult getResult = new GetMessageResult(maxMsgNums);
+        GetMessageStatus status = GetMessageStatus.NO_MATCHED_MESSAGE;
+
+        int index = Arrays.binarySearch(generation.queueOffsets, 0, generation.unitNum, offset);
+        if (index < 0) {
+            index = -index - 1;
+        }
+
+        int end = (int) Math.min(generation.unitNum, (long) index + Math.max(maxMsgNums, MAX_SCAN_UNIT_NUM));
+        long nextBeginOffset = offset;
+        for (; index < end; index++) {
+            if (getResult.getMessageCount() >= maxMsgNums
+                || getResult.getBufferTotalSize() + generation.sizes[index] > maxTotalSize && getResult.getMessageCount() > 0) {
+                break;
+            }
+
+            if (messageFilter != null && !messageFilter.isMatchedByConsumeQueue(generation.tagsCodes[index], null)) {
+                continue;
+            }
+
+            SelectMappedBufferResult selectResult = generation.segments[generation.segmentIndexes[index]]
+                .selectMappedBuffer(generation.positions[index], generation.sizes[index]);
+            if (null == selectResult) {
+                // replaced by a new generation meanwhile, read again
+                break;
+            }
+
+            if (messageFilter != null && !messageFilter.isMatchedByCommitLog(selectResult.getByteBuffer().slice(), null)) {
+                selectResult.release();
+                continue;
+            }
+
+            getResult.addMessage(selectResult);
+            status = GetMessageStatus.FOUND;
+        }
+
+        if (index < generation.unitNum) {
+            nextBeginOffset = Math.max(nextBeginOffset, generation.queueOffsets[index]);
+        } else {
+            nextBeginOffset = generation.compactedOffset;
+        }
+
+        getResult.setStatus(status);
+        getResult.setNextBeginOffset(nextBeginOffset);
+        return getResult;
+    }
+
+    /**
+     * Merge the current generation with the units of the consume queue up to {@code toOffset} into a new generation,
+     * keeping the last message of every key. The messages without key are kept as they are, there is nothing to
+     * compact them by.
+     */
+    boolean compact(final ConsumeQueue consumeQueue, final CommitLog commitLog, final long toOffset) throws IOException {
+        long beginTime = System.currentTimeMillis();
+        Generation current = this.generation;
+        Map<String, Unit> latest = new HashMap<String, Unit>(Math.max(16, current.unitNum * 2));
+        List<Unit> keyless = new ArrayList<Unit>();
+
+        for (int i = 0; i < current.unitNum; i++) {
+            SelectMappedBufferResult result = current.segments[current.segmentIndexes[i]]
+                .selectMappedBuffer(current.positions[i], current.sizes[i]);
+            if (null == result) {
+                return false;
+            }
+            try {
+                this.putLatest(latest, keyless, result.getByteBuffer(), new Unit(current.queueOffsets[i], -1,
+                    current.segmentIndexes[i], current.positions[i], current.sizes[i]));
+            } finally {
+                result.release();
+            }
+        }
+
+        long offset = current.compactedOffset;
+        if (offset < consumeQueue.getMinOffsetInQueue()) {
+            log.warn("compacted queue {}-{} is behind the min offset {} of the consume queue, the messages in between are lost",
+                this.topic, this.queueId, consumeQueue.getMinOffsetInQueue());
+            offset = consumeQueue.getMinOffsetInQueue();
+        }
+        while (offset < toOffset) {
+            SelectMappedBufferResult bufferCQ = consumeQueue.getIndexBuffer(offset);
+            if (null == bufferCQ) {
+                log.warn("compacted queue {}-{} failed to read the consume queue at {}", this.topic, this.queueId, offset);
+                return false;
+            }
+            try {
+                ByteBuffer byteBuffer = bufferCQ.getByteBuffer();
+                for (int i = 0; i < bufferCQ.getSize() && offset < toOffset; i += ConsumeQueue.CQ_STORE_UNIT_SIZE) {
+                    long offsetPy = byteBuffer.getLong();
+                    int sizePy = byteBuffer.getInt();
+                    byteBuffer.getLong();
+
+                    SelectMappedBufferResult result = commitLog.getMessage(offsetPy, sizePy);
+                    if (result != null) {
+                        try {
+                            this.putLatest(latest, keyless, result.getByteBuffer(), new Unit(offset, offsetPy, -1, -1, sizePy));
+                        } finally {
+                            result.release();
+                        }
+                    }
+                    offset++;
+                }
+            } finally {
+                bufferCQ.release();
+            }
+        }
+
+        List<Unit> units = new ArrayList<Unit>(latest.size() + keyless.size());
+        units.addAll(latest.values());
+        units.addAll(keyless);
+        Collections.sort(units);
+        this.writeGeneration(current, units, commitLog, toOffset);
+        this.destroyExpiredFiles();
+
+        log.info("compact queue {}-{} to offset {}, {} keys, {} messages without key, cost {} ms", this.topic,
+            this.queueId, toOffset, latest.size(), keyless.size(), System.currentTimeMillis() - beginTime);
+        return true;
+    }
+
+    private void putLatest(final Map<String, Unit> latest, final List<Unit> keyless, final ByteBuffer message,
+        final Unit unit) {
+        Map<String, String> properties = MessageDecoder.decodeProperties(message);
+        if (properties != null) {
+            unit.tagsCode = MessageExtBrokerInner.tagsString2tagsCode(properties.get(MessageConst.PROPERTY_TAGS));
+        }
+        String keys = properties == null ? null : properties.get(MessageConst.PROPERTY_KEYS);
+        if (null == keys) {
+            keyless.add(unit);
+        } else {
+            latest.put(keys, unit);
+        }
+    }
+
+    private void writeGeneration(final Generation current, final List<Unit> units, final CommitLog commitLog,
+        final long compactedOffset) throws IOException {
+        long gen = current.gen + 1;
+        String name = UtilAll.offset2FileName(gen);
+        MappedFile.ensureDirOK(this.storePath);
+
+        Generation next = new Generation(gen, compactedOffset, null, units.size());
+        List<MappedFile> segments = new ArrayList<MappedFile>();
+        try {
+            MappedFile segment = null;
+            int unitNum = 0;
+            for (int i = 0; i < units.size(); i++) {
+                Unit unit = units.get(i);
+                if (null == segment || segment.getFileSize() - segment.getWrotePosition() < unit.size) {
+                    segment = new MappedFile(this.segmentPath(name, segments.size()), this.segmentSizeFrom(units, i));
+                    segments.add(segment);
+                }
+                SelectMappedBufferResult result = unit.offsetPy >= 0 ? commitLog.getMessage(unit.offsetPy, unit.size)
+                    : current.segments[unit.segmentIndex].selectMappedBuffer(unit.position, unit.size);
+                if (null == result) {
+                    continue;
+                }
+                try {
+                    next.queueOffsets[unitNum] = unit.queueOffset;
+                    next.segmentIndexes[unitNum] = segments.size() - 1;
+                    next.positions[unitNum] = segment.getWrotePosition();
+                    next.sizes[unitNum] = unit.size;
+                    next.tagsCodes[unitNum] = unit.tagsCode;
+                    byte[] bytes = new byte[unit.size];
+                    result.getByteBuffer().get(bytes);
+                    segment.appendMessage(bytes);
+                    unitNum++;
+                } finally {
+                    result.release();
+                }
+            }
+            next.unitNum = unitNum;
+            next.segments = segments.toArray(new MappedFile[0]);
+            for (MappedFile mappedFile : next.segments) {
+                mappedFile.flush(0);
+            }
+
+            // the index makes the generation visible after a restart, it is renamed once complete
+            ByteBuffer index = ByteBuffer.allocate(8 + 4 + next.segments.length * 4 + 4 + unitNum * INDEX_UNIT_SIZE);
+            index.putLong(compactedOffset);
+            index.putInt(next.segments.length);
+            for (MappedFile mappedFile : next.segments) {
+                index.putInt(mappedFile.getFileSize());
+            }
+            index.putInt(unitNum);
+            for (int i = 0; i < unitNum; i++) {
+                index.putLong(next.queueOffsets[i]);
+                index.putInt(next.segmentIndexes[i]);
+                index.putInt(next.positions[i]);
+                index.putInt(next.sizes[i]);
+                index.putLong(next.tagsCodes[i]);
+            }
+            index.flip();
+            File tempFile = new File(this.storePath, name + INDEX_SUFFIX + TEMP_SUFFIX);
+            try (RandomAccessFile indexFile = new RandomAccessFile(tempFile, "rw")) {
+                FileChannel channel = indexFile.getChannel();
+                while (index.hasRemaining()) {
+                    channel.write(index);
+                }
+                channel.force(true);
+            }
+            if (!tempFile.renameTo(new File(this.storePath, name + INDEX_SUFFIX))) {
+                throw new IOException("rename " + tempFile.getPath() + " failed");
+            }
+        } catch (IOException e) {
+            for (MappedFile mappedFile : segments) {
+                mappedFile.destroy(0);
+            }
+            throw e;
+        }
+
+        this.generation = next;
+        if (current.gen >= 0) {
+            new File(this.storePath, UtilAll.offset2FileName(current.gen) + INDEX_SUFFIX).delete();
+            Collections.addAll(this.expiredFiles, current.segments);
+        }
+    }
+
+    /**
+     * Size of the segment starting with the unit at {@code from}, enough for the units up to segmentSize, so that
+     * the last segment is not larger than needed. A unit larger than segmentSize gets a segment of its own.
+     */
+    private int segmentSizeFrom(final List<Unit> units, final int from) {
+        long size = units.get(from).size;
+        for (int i = from + 1; i < units.size() && size + units.get(i).size <= this.segmentSize; i++) {
+            size += units.get(i).size;
+        }
+        return (int) size;
+    }
+
+    private String segmentPath(final String name, final int segmentIndex) {
+        return this.storePath + File.separator + name + File.separator + UtilAll.offset2FileName(segmentIndex);
+    }
+
+    private void destroyExpiredFiles() {
+        Iterator<MappedFile> it = this.expiredFiles.iterator();
+        while (it.hasNext()) {
+            MappedFile mappedFile = it.next();
+            if (mappedFile.destroy(1000 * 60)) {
+                it.remove();
+                // the directory of the generation, once its last segment is deleted
+                new File(mappedFile.getFileName()).getParentFile().delete();
+            }
+        }
+    }
+
+    public void destroy() {
+        Generation generation = this.generation;
+        this.generation = new Generation(-1, 0, new MappedFile[0], 0);
+        Collections.addAll(this.expiredFiles, generation.segments);
+        for (MappedFile mappedFile : this.expiredFiles) {
+            mappedFile.destroy(0);
+        }
+        this.expiredFiles.clear();
+        UtilAll.deleteFile(new File(this.storePath));
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public int getQueueId() {
+        return queueId;
+    }
+
+    private static class Generation {
+        private final long gen;
+        private final long compactedOffset;
+        private MappedFile[] segments;
+        private final long[] queueOffsets;
+        private final int[] segmentIndexes;
+        private final int[] positions;
+        private final int[] sizes;
+        private final long[] tagsCodes;
+        private int unitNum;
+
+        Generation(long gen, long compactedOffset, MappedFile[] segments, int unitNum) {
+            this.gen = gen;
+            this.compactedOffset = compactedOffset;
+            this.segments = segments;
+            this.unitNum = unitNum;
+            this.queueOffsets = new long[unitNum];
+            this.segmentIndexes = new int[unitNum];
+            this.positions = new int[unitNum];
+            this.sizes = new int[unitNum];
+            this.tagsCodes = new long[unitNum];
+        }
+    }
+
+    /**
+     * A message of the current generation with its segment and position, or of the CommitLog with its offsetPy.
+     */
+    private static class Unit implements Comparable<Unit> {
+        private final long queueOffset;
+        private final long offsetPy;
+        private final int segmentIndex;
+        private final int position;
+        private final int size;
+        private long tagsCode;
+
+        Unit(long queueOffset, long offsetPy, int segmentIndex, int position, int size) {
+            this.queueOffset = queueOffset;
+            this.offsetPy = offsetPy;
+            this.segmentIndex = segmentIndex;
+            this.position = position;
+            this.size = size;
+        }
+
+        @Override
+        public int compareTo(Unit o) {
+            return Long.compare(this.queueOffset, o.queueOffset);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.compaction;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Predicate;
+import org.apache.rocketmq.common.ServiceThread;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.logging.InternalLogger;
+import org.apache.rocketmq.logging.InternalLoggerFactory;
+import org.apache.rocketmq.store.ConsumeQueue;
+import org.apache.rocketmq.store.DefaultMessageStore;
+import org.apache.rocketmq.store.config.StorePathConfigHelper;
+
+/**
+ * Compacts the queues of the compaction topics periodically, keeping the latest message of every key. The consume
+ * queue files but the last one are compacted, so the compacted log covers the messages which will be deleted first.
+ */
+public class CompactionService extends ServiceThread {
+    private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
+
+    private final DefaultMessageStore defaultMessageStore;
+    private final String storePath;
+    private final ConcurrentMap<String/* topic */, ConcurrentMap<Integer/* queueId */, CompactedQueue>> compactedQueueTable =
+        new ConcurrentHashMap<>(32);
+
+    private volatile Predicate<String> compactionTopicFilter = topic -> false;
+
+    public CompactionService(final DefaultMessageStore defaultMessageStore) {
+        this.defaultMessageStore = defaultMessageStore;
+        this.storePath = StorePathConfigHelper.getStorePathCompaction(
+            defaultMessageStore.getMessageStoreConfig().getStorePathRootDir());
+    }
+
+    public boolean load() {
+        File[] topicDirs = new File(this.storePath).listFiles();
+        if (null == topicDirs) {
+            return true;
+        }
+
+        for (File topicDir : topicDirs) {
+            File[] queueDirs = topicDir.listFiles();
+            if (null == queueDirs) {
+                continue;
+            }
+            for (File queueDir : queueDirs) {
+                int queueId;
+                try {
+                    queueId = Integer.parseInt(queueDir.getName());
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                CompactedQueue compactedQueue = new CompactedQueue(topicDir.getName(), queueId, this.storePath,
+                    this.defaultMessageStore.getMessageStoreConfig().getCompactionSegmentSize());
+                if (!compactedQueue.load()) {
+                    return false;
+                }
+                this.compactedQueueTable.computeIfAbsent(topicDir.getName(), k -> new ConcurrentHashMap<>())
+                    .put(queueId, compactedQueue);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the compacted queue of a compaction topic, or null
+     */
+    public CompactedQueue findCompactedQueue(final String topic, final int queueId) {
+        ConcurrentMap<Integer, CompactedQueue> map = this.compactedQueueTable.get(topic);
+        if (null == map || !this.compactionTopicFilter.test(topic)) {
+            return null;
+        }
+        return map.get(queueId);
+    }
+
+    @Override
+    public void run() {
+        log.info(this.getServiceName() + " service started");
+
+        while (!this.isStopped()) {
+            this.waitForRunning(this.defaultMessageStore.getMessageStoreConfig().getCompactionIntervalMs());
+            if (this.isStopped()) {
+                break;
+            }
+            try {
+                this.compactAll();
+            } catch (Throwable e) {
+                log.warn(this.getServiceName() + " service has exception. ", e);
+            }
+        }
+
+        log.info(this.getServiceName() + " service end");
+    }
+
+    public void compactAll() {
+        int unitsPerFile = this.defaultMessageStore.getMessageStoreConfig().getMappedFileSizeConsumeQueue()
+            / ConsumeQueue.CQ_STORE_UNIT_SIZE;
+        int segmentSize = this.defaultMessageStore.getMessageStoreConfig().getCompactionSegmentSize();
+
+        for (Map.Entry<String, ConcurrentMap<Integer, ConsumeQueue>> entry : this.defaultMessageStore.getConsumeQueueTable().entrySet()) {
+            String topic = entry.getKey();
+            if (!this.compactionTopicFilter.test(topic)) {
+                continue;
+            }
+            for (ConsumeQueue consumeQueue : entry.getValue().values()) {
+                // the last file is still written to
+                long toOffset = consumeQueue.getMaxOffsetInQueue() / unitsPerFile * unitsPerFile;
+                CompactedQueue compactedQueue = this.compactedQueueTable.computeIfAbsent(topic, k -> new ConcurrentHashMap<>())
+                    .computeIfAbsent(consumeQueue.getQueueId(), k -> new CompactedQueue(topic, k, this.storePath, segmentSize));
+                if (toOffset <= compactedQueue.getCompactedOffset()) {
+                    continue;
+                }
+                try {
+                    compactedQueue.compact(consumeQueue, this.defaultMessageStore.getCommitLog(), toOffset);
+                } catch (Exception e) {
+                    log.error("compact queue {}-{} failed", topic, consumeQueue.getQueueId(), e);
+                }
+            }
+        }
+
+        Iterator<Map.Entry<String, ConcurrentMap<Integer, CompactedQueue>>> it = this.compactedQueueTable.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, ConcurrentMap<Integer, CompactedQueue>> entry = it.next();
+            if (!this.defaultMessageStore.getConsumeQueueTable().containsKey(entry.getKey())) {
+                log.info("topic {} is deleted, destroy its compacted queues", entry.getKey());
+                for (CompactedQueue compactedQueue : entry.getValue().values()) {
+                    compactedQueue.destroy();
+                }
+                it.remove();
+            }
+        }
+    }
+
+    public void destroy() {
+        for (ConcurrentMap<Integer, CompactedQueue> map : this.compactedQueueTable.values()) {
+            for (CompactedQueue compactedQueue : map.values()) {
+                compactedQueue.destroy();
+            }
+        }
+        this.compactedQueueTable.clear();
+    }
+
+    public void setCompactionTopicFilter(final Predicate<String> compactionTopicFilter) {
+        this.compactionTopicFilter = compactionTopicFilter;
+    }
+
+    @Override
+    public String getServiceName() {
+        return CompactionService.class.getSimpleName();
+    }
+}
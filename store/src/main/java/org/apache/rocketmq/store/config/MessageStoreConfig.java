@@ -47,6 +47,14 @@ public class MessageStoreConfig {
     // Bit count of filter bit map.
     // this will be set by pipe of calculate filter bit map.
     private int bitMapLengthConsumeQueueExt = 64;
+    /**
+     * With KV, the units of all the consume queues are kept in a few shared segment files instead of mapped files per
+     * queue, for brokers with a massive number of queues like LMQ. The segments are merged once there are more than
+     * kvConsumeQueueMaxSegmentNum, into segments of kvConsumeQueueMaxSegmentSize at most.
+     */
+    private ConsumeQueueStoreType consumeQueueStoreType = ConsumeQueueStoreType.MAPPED_FILE;
+    private int kvConsumeQueueMaxSegmentNum = 16;
+    private int kvConsumeQueueMaxSegmentSize = 1024 * 1024 * 512;
 
     // CommitLog flush interval
     // flush data to disk
@@ -63,6 +71,12 @@ public class MessageStoreConfig {
      */
     private boolean useReentrantLockWhenPutMessage = true;
 
+    /**
+     * Only reserve space and assign queue offsets inside the put message lock, and copy message bytes into the
+     * reserved region of the CommitLog concurrently outside of it.
+     */
+    private boolean enableMultiWriterAppend = false;
+
     // Whether schedule flush
     @ImportantField
     private boolean flushCommitLogTimed = true;
@@ -91,6 +105,8 @@ public class MessageStoreConfig {
     // This ensures no on-the-wire or on-disk corruption to the messages occurred.
     // This check adds some overhead,so it may be disabled in cases seeking extreme performance.
     private boolean checkCRCOnRecover = true;
+    // Number of threads checking the CRC32 of the segments of the CommitLog recovered
+    private int recoverCheckCRCThreadNum = Math.min(Runtime.getRuntime().availableProcessors(), 8);
     // How many pages are to be flushed when flush CommitLog
     private int flushCommitLogLeastPages = 4;
     // How many pages are to be committed when commit data to file
@@ -112,6 +128,35 @@ public class MessageStoreConfig {
     private int maxTransferCountOnMessageInDisk = 8;
     @ImportantField
     private int accessMessageInMemoryMaxRatio = 40;
+    /**
+     * Keep recently pulled messages in an off-heap cache in front of the CommitLog, so that consumers reading the
+     * tail are still served from memory when lagging consumers push those pages out of the page cache.
+     */
+    private boolean messageCacheEnable = false;
+    private long messageCacheSize = 1024L * 1024 * 256;
+    private int messageCacheSegmentSize = 1024 * 1024 * 4;
+    /**
+     * Ask the OS to read ahead the CommitLog ranges a sequential consumer pulling from disk is about to read, at most
+     * prefetchMessageNum messages in front of it and prefetchMaxBytesPerSecond in total so that writes are not starved.
+     */
+    private boolean prefetchEnable = false;
+    private int prefetchMessageNum = 1024;
+    private long prefetchMaxBytesPerSecond = 1024L * 1024 * 64;
+    /**
+     * Consume queue units scanned at most by one pull of a tag subscription, the units are matched by tags code in
+     * bulk so a sparse subscription can skip many more units than the ones it reads.
+     */
+    private int maxTagsCodeScanUnitNum = 1024 * 64;
+    /**
+     * Deliver the messages carrying a deliver time through a timer wheel, see TimerMessageStore. A message is written
+     * to the CommitLog again every timerRollWindowSec until it is due, which has to stay below fileReservedTime.
+     */
+    private boolean timerWheelEnable = false;
+    private int timerPrecisionMs = 1000;
+    private int timerRollWindowSec = 3600 * 24 * 2;
+    private int timerMaxDelaySec = 3600 * 24 * 40;
+    private int timerFlushIntervalMs = 1000;
+    private int mappedFileSizeTimerLog = 1024 * 1024 * 100;
     @ImportantField
     private boolean messageIndexEnable = true;
     private int maxHashSlotNum = 5000000;
@@ -119,6 +164,20 @@ public class MessageStoreConfig {
     private int maxMsgsNumBatch = 64;
     @ImportantField
     private boolean messageIndexSafe = false;
+    /**
+     * Number of threads dispatching the messages read by ReputMessageService to ConsumeQueues, each one owns a shard
+     * of the queues so the order inside a queue is kept. The index is then built by one more thread. 0 dispatches
+     * every message in the reput thread.
+     */
+    private int reputDispatchThreadNum = 0;
+    /**
+     * Max number of messages waiting in each dispatch thread, the reput thread blocks once it is reached.
+     */
+    private int reputDispatchQueueCapacity = 10000;
+    /**
+     * Number of threads loading and recovering the ConsumeQueues at startup, 1 does it in the loading thread.
+     */
+    private int consumeQueueLoadThreadNum = Math.min(Runtime.getRuntime().availableProcessors(), 16);
     private int haListenPort = 10912;
     private int haSendHeartbeatInterval = 1000 * 5;
     private int haHousekeepingInterval = 1000 * 20;
@@ -167,6 +226,28 @@ public class MessageStoreConfig {
     private boolean enableScheduleAsyncDeliver = false;
     private int scheduleAsyncDeliverMaxPendingLimit = 2000;
     private int scheduleAsyncDeliverMaxResendNum2Blocked = 3;
+    /**
+     * Due messages of a delay level put to the store together before waiting for their results, they are read and
+     * rebuilt by scheduleDeliverThreadNumPerLevel threads. A batch size of 1 delivers one message after the other.
+     */
+    private int scheduleDeliverBatchSize = 1;
+    private int scheduleDeliverThreadNumPerLevel = 1;
+    /**
+     * Keep the latest message of each key of the compaction topics in a compacted log, see CompactionService. The
+     * consume queue files but the last one are compacted every compactionIntervalMs. The compacted log is written in
+     * files of at most compactionSegmentSize, a larger message gets a file of its own.
+     */
+    private boolean compactionEnable = false;
+    private long compactionIntervalMs = 1000L * 60 * 5;
+    private int compactionSegmentSize = 1024 * 1024 * 100;
+
+    public boolean isEnableMultiWriterAppend() {
+        return enableMultiWriterAppend;
+    }
+
+    public void setEnableMultiWriterAppend(boolean enableMultiWriterAppend) {
+        this.enableMultiWriterAppend = enableMultiWriterAppend;
+    }
 
     public boolean isDebugLockEnable() {
         return debugLockEnable;
@@ -234,6 +315,34 @@ public class MessageStoreConfig {
         this.enableConsumeQueueExt = enableConsumeQueueExt;
     }
 
+    public ConsumeQueueStoreType getConsumeQueueStoreType() {
+        return consumeQueueStoreType;
+    }
+
+    public void setConsumeQueueStoreType(ConsumeQueueStoreType consumeQueueStoreType) {
+        this.consumeQueueStoreType = consumeQueueStoreType;
+    }
+
+    public void setConsumeQueueStoreType(String consumeQueueStoreType) {
+        this.consumeQueueStoreType = ConsumeQueueStoreType.valueOf(consumeQueueStoreType);
+    }
+
+    public int getKvConsumeQueueMaxSegmentNum() {
+        return kvConsumeQueueMaxSegmentNum;
+    }
+
+    public void setKvConsumeQueueMaxSegmentNum(int kvConsumeQueueMaxSegmentNum) {
+        this.kvConsumeQueueMaxSegmentNum = kvConsumeQueueMaxSegmentNum;
+    }
+
+    public int getKvConsumeQueueMaxSegmentSize() {
+        return kvConsumeQueueMaxSegmentSize;
+    }
+
+    public void setKvConsumeQueueMaxSegmentSize(int kvConsumeQueueMaxSegmentSize) {
+        this.kvConsumeQueueMaxSegmentSize = kvConsumeQueueMaxSegmentSize;
+    }
+
     public int getMappedFileSizeConsumeQueueExt() {
         return mappedFileSizeConsumeQueueExt;
     }
@@ -302,6 +411,14 @@ public class MessageStoreConfig {
         this.checkCRCOnRecover = checkCRCOnRecover;
     }
 
+    public int getRecoverCheckCRCThreadNum() {
+        return recoverCheckCRCThreadNum;
+    }
+
+    public void setRecoverCheckCRCThreadNum(int recoverCheckCRCThreadNum) {
+        this.recoverCheckCRCThreadNum = recoverCheckCRCThreadNum;
+    }
+
     public String getStorePathCommitLog() {
         return storePathCommitLog;
     }
@@ -452,6 +569,134 @@ public class MessageStoreConfig {
         this.messageIndexEnable = messageIndexEnable;
     }
 
+    public int getReputDispatchThreadNum() {
+        return reputDispatchThreadNum;
+    }
+
+    public void setReputDispatchThreadNum(int reputDispatchThreadNum) {
+        this.reputDispatchThreadNum = reputDispatchThreadNum;
+    }
+
+    public int getConsumeQueueLoadThreadNum() {
+        return consumeQueueLoadThreadNum;
+    }
+
+    public void setConsumeQueueLoadThreadNum(int consumeQueueLoadThreadNum) {
+        this.consumeQueueLoadThreadNum = consumeQueueLoadThreadNum;
+    }
+
+    public boolean isMessageCacheEnable() {
+        return messageCacheEnable;
+    }
+
+    public void setMessageCacheEnable(boolean messageCacheEnable) {
+        this.messageCacheEnable = messageCacheEnable;
+    }
+
+    public long getMessageCacheSize() {
+        return messageCacheSize;
+    }
+
+    public void setMessageCacheSize(long messageCacheSize) {
+        this.messageCacheSize = messageCacheSize;
+    }
+
+    public int getMessageCacheSegmentSize() {
+        return messageCacheSegmentSize;
+    }
+
+    public void setMessageCacheSegmentSize(int messageCacheSegmentSize) {
+        this.messageCacheSegmentSize = messageCacheSegmentSize;
+    }
+
+    public boolean isPrefetchEnable() {
+        return prefetchEnable;
+    }
+
+    public void setPrefetchEnable(boolean prefetchEnable) {
+        this.prefetchEnable = prefetchEnable;
+    }
+
+    public int getPrefetchMessageNum() {
+        return prefetchMessageNum;
+    }
+
+    public void setPrefetchMessageNum(int prefetchMessageNum) {
+        this.prefetchMessageNum = prefetchMessageNum;
+    }
+
+    public long getPrefetchMaxBytesPerSecond() {
+        return prefetchMaxBytesPerSecond;
+    }
+
+    public void setPrefetchMaxBytesPerSecond(long prefetchMaxBytesPerSecond) {
+        this.prefetchMaxBytesPerSecond = prefetchMaxBytesPerSecond;
+    }
+
+    public boolean isTimerWheelEnable() {
+        return timerWheelEnable;
+    }
+
+    public void setTimerWheelEnable(boolean timerWheelEnable) {
+        this.timerWheelEnable = timerWheelEnable;
+    }
+
+    public int getTimerPrecisionMs() {
+        return timerPrecisionMs;
+    }
+
+    public void setTimerPrecisionMs(int timerPrecisionMs) {
+        this.timerPrecisionMs = timerPrecisionMs;
+    }
+
+    public int getTimerRollWindowSec() {
+        return timerRollWindowSec;
+    }
+
+    public void setTimerRollWindowSec(int timerRollWindowSec) {
+        this.timerRollWindowSec = timerRollWindowSec;
+    }
+
+    public int getTimerMaxDelaySec() {
+        return timerMaxDelaySec;
+    }
+
+    public void setTimerMaxDelaySec(int timerMaxDelaySec) {
+        this.timerMaxDelaySec = timerMaxDelaySec;
+    }
+
+    public int getTimerFlushIntervalMs() {
+        return timerFlushIntervalMs;
+    }
+
+    public void setTimerFlushIntervalMs(int timerFlushIntervalMs) {
+        this.timerFlushIntervalMs = timerFlushIntervalMs;
+    }
+
+    public int getMappedFileSizeTimerLog() {
+        return mappedFileSizeTimerLog;
+    }
+
+    public void setMappedFileSizeTimerLog(int mappedFileSizeTimerLog) {
+        this.mappedFileSizeTimerLog = mappedFileSizeTimerLog;
+    }
+
+    public int getMaxTagsCodeScanUnitNum() {
+        return maxTagsCodeScanUnitNum;
+    }
+
+    public void setMaxTagsCodeScanUnitNum(int maxTagsCodeScanUnitNum) {
+        this.maxTagsCodeScanUnitNum = maxTagsCodeScanUnitNum;
+    }
+
+    public int getReputDispatchQueueCapacity() {
+        return reputDispatchQueueCapacity;
+    }
+
+    public void setReputDispatchQueueCapacity(int reputDispatchQueueCapacity) {
+        this.reputDispatchQueueCapacity = reputDispatchQueueCapacity;
+    }
+
     public int getMaxHashSlotNum() {
         return maxHashSlotNum;
     }
@@ -809,4 +1054,44 @@ public class MessageStoreConfig {
     public void setScheduleAsyncDeliverMaxResendNum2Blocked(int scheduleAsyncDeliverMaxResendNum2Blocked) {
         this.scheduleAsyncDeliverMaxResendNum2Blocked = scheduleAsyncDeliverMaxResendNum2Blocked;
     }
+
+    public int getScheduleDeliverBatchSize() {
+        return scheduleDeliverBatchSize;
+    }
+
+    public void setScheduleDeliverBatchSize(int scheduleDeliverBatchSize) {
+        this.scheduleDeliverBatchSize = scheduleDeliverBatchSize;
+    }
+
+    public boolean isCompactionEnable() {
+        return compactionEnable;
+    }
+
+    public void setCompactionEnable(boolean compactionEnable) {
+        this.compactionEnable = compactionEnable;
+    }
+
+    public long getCompactionIntervalMs() {
+        return compactionIntervalMs;
+    }
+
+    public void setCompactionIntervalMs(long compactionIntervalMs) {
+        this.compactionIntervalMs = compactionIntervalMs;
+    }
+
+    public int getCompactionSegmentSize() {
+        return compactionSegmentSize;
+    }
+
+    public void setCompactionSegmentSize(int compactionSegmentSize) {
+        this.compactionSegmentSize = compactionSegmentSize;
+    }
+
+    public int getScheduleDeliverThreadNumPerLevel() {
+        return scheduleDeliverThreadNumPerLevel;
+    }
+
+    public void setScheduleDeliverThreadNumPerLevel(int scheduleDeliverThreadNumPerLevel) {
+        this.scheduleDeliverThreadNumPerLevel = scheduleDeliverThreadNumPerLevel;
+    }
 }
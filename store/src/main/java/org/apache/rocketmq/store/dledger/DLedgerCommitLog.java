@@ -33,7 +33,6 @@ import io.openmessaging.storage.dledger.utils.DLedgerUtils;
 import java.net.Inet6Address;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
@@ -42,11 +41,13 @@ import org.apache.rocketmq.common.message.MessageAccessor;
 import org.apache.rocketmq.common.message.MessageConst;
 import org.apache.rocketmq.common.message.MessageDecoder;
 import org.apache.rocketmq.common.message.MessageExtBatch;
+import org.apache.rocketmq.common.message.MessagePropertiesCodec;
 import org.apache.rocketmq.common.sysflag.MessageSysFlag;
 import org.apache.rocketmq.common.topic.TopicValidator;
 import org.apache.rocketmq.store.AppendMessageResult;
 import org.apache.rocketmq.store.AppendMessageStatus;
 import org.apache.rocketmq.store.CommitLog;
+import org.apache.rocketmq.store.ConsumeQueue;
 import org.apache.rocketmq.store.DefaultMessageStore;
 import org.apache.rocketmq.store.DispatchRequest;
 import org.apache.rocketmq.store.MappedFile;
@@ -432,12 +433,13 @@ public class DLedgerCommitLog extends CommitLog {
         if (encodeResult.status != AppendMessageStatus.PUT_OK) {
             return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, new AppendMessageResult(encodeResult.status)));
         }
+        ConsumeQueue consumeQueue = this.defaultMessageStore.findConsumeQueue(msg.getTopic(), msg.getQueueId());
         putMessageLock.lock(); //spin or ReentrantLock ,depending on store config
         long elapsedTimeInLock;
         long queueOffset;
         try {
             beginTimeInDledgerLock = this.defaultMessageStore.getSystemClock().now();
-            queueOffset = getQueueOffsetByKey(encodeResult.queueOffsetKey, tranType);
+            queueOffset = getQueueOffset(consumeQueue, tranType);
             encodeResult.setQueueOffsetKey(queueOffset, false);
             AppendEntryRequest request = new AppendEntryRequest();
             request.setGroup(dLedgerConfig.getGroup());
@@ -462,7 +464,7 @@ public class DLedgerCommitLog extends CommitLog {
                 case MessageSysFlag.TRANSACTION_NOT_TYPE:
                 case MessageSysFlag.TRANSACTION_COMMIT_TYPE:
                     // The next update ConsumeQueue information
-                    DLedgerCommitLog.this.topicQueueTable.put(encodeResult.queueOffsetKey, queueOffset + 1);
+                    consumeQueue.setNextQueueOffset(queueOffset + 1);
                     break;
                 default:
                     break;
@@ -546,6 +548,7 @@ public class DLedgerCommitLog extends CommitLog {
                     .status)));
         }
 
+        ConsumeQueue consumeQueue = this.defaultMessageStore.findConsumeQueue(messageExtBatch.getTopic(), messageExtBatch.getQueueId());
         putMessageLock.lock(); //spin or ReentrantLock ,depending on store config
         msgIdBuilder.setLength(0);
         long elapsedTimeInLock;
@@ -553,7 +556,7 @@ public class DLedgerCommitLog extends CommitLog {
         int msgNum = 0;
         try {
             beginTimeInDledgerLock = this.defaultMessageStore.getSystemClock().now();
-            queueOffset = getQueueOffsetByKey(encodeResult.queueOffsetKey, tranType);
+            queueOffset = getQueueOffset(consumeQueue, tranType);
             encodeResult.setQueueOffsetKey(queueOffset, true);
             BatchAppendEntryRequest request = new BatchAppendEntryRequest();
             request.setGroup(dLedgerConfig.getGroup());
@@ -592,7 +595,7 @@ public class DLedgerCommitLog extends CommitLog {
             appendResult = new AppendMessageResult(AppendMessageStatus.PUT_OK, firstWroteOffset, encodeResult.totalMsgLen,
                     msgIdBuilder.toString(), System.currentTimeMillis(), queueOffset, elapsedTimeInLock);
             appendResult.setMsgNum(msgNum);
-            DLedgerCommitLog.this.topicQueueTable.put(encodeResult.queueOffsetKey, queueOffset + msgNum);
+            consumeQueue.setNextQueueOffset(queueOffset + msgNum);
         } catch (Exception e) {
             log.error("Put message error", e);
             return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.UNKNOWN_ERROR, new AppendMessageResult(AppendMessageStatus.UNKNOWN_ERROR)));
@@ -656,16 +659,6 @@ public class DLedgerCommitLog extends CommitLog {
         return offset + mappedFileSize - offset % mappedFileSize;
     }
 
-    @Override
-    public HashMap<String, Long> getTopicQueueTable() {
-        return topicQueueTable;
-    }
-
-    @Override
-    public void setTopicQueueTable(HashMap<String, Long> topicQueueTable) {
-        this.topicQueueTable = topicQueueTable;
-    }
-
     @Override
     public void destroy() {
         super.destroy();
@@ -698,12 +691,8 @@ public class DLedgerCommitLog extends CommitLog {
         return diff;
     }
 
-    private long getQueueOffsetByKey(String key, int tranType) {
-        Long queueOffset = DLedgerCommitLog.this.topicQueueTable.get(key);
-        if (null == queueOffset) {
-            queueOffset = 0L;
-            DLedgerCommitLog.this.topicQueueTable.put(key, queueOffset);
-        }
+    private long getQueueOffset(ConsumeQueue consumeQueue, int tranType) {
+        long queueOffset = consumeQueue.getNextQueueOffset();
 
         // Transaction messages that require special handling
         switch (tranType) {
@@ -723,16 +712,14 @@ public class DLedgerCommitLog extends CommitLog {
 
 
     class EncodeResult {
-        private String queueOffsetKey;
         private ByteBuffer data;
         private List<byte[]> batchData;
         private AppendMessageStatus status;
         private int totalMsgLen;
 
-        public EncodeResult(AppendMessageStatus status, ByteBuffer data, String queueOffsetKey) {
+        public EncodeResult(AppendMessageStatus status, ByteBuffer data) {
             this.data = data;
             this.status = status;
-            this.queueOffsetKey = queueOffsetKey;
         }
 
         public void setQueueOffsetKey(long offset, boolean isBatch) {
@@ -750,10 +737,9 @@ public class DLedgerCommitLog extends CommitLog {
             return data.array();
         }
 
-        public EncodeResult(AppendMessageStatus status, String queueOffsetKey, List<byte[]> batchData, int totalMsgLen) {
+        public EncodeResult(AppendMessageStatus status, List<byte[]> batchData, int totalMsgLen) {
             this.batchData = batchData;
             this.status = status;
-            this.queueOffsetKey = queueOffsetKey;
             this.totalMsgLen = totalMsgLen;
         }
     }
@@ -782,19 +768,26 @@ public class DLedgerCommitLog extends CommitLog {
             ByteBuffer bornHostHolder = ByteBuffer.allocate(bornHostLength);
             ByteBuffer storeHostHolder = ByteBuffer.allocate(storeHostLength);
 
-            String key = msgInner.getTopic() + "-" + msgInner.getQueueId();
-
             /**
              * Serialize message
              */
-            final byte[] propertiesData =
-                msgInner.getPropertiesString() == null ? null : msgInner.getPropertiesString().getBytes(MessageDecoder.CHARSET_UTF8);
+            final byte[] propertiesData;
+            if ((sysflag & MessageSysFlag.BINARY_PROPERTIES_FLAG) == MessageSysFlag.BINARY_PROPERTIES_FLAG) {
+                // encoded from the parsed properties, the same way CommitLog does
+                propertiesData = MessagePropertiesCodec.encode(msgInner.getProperties(), MessageConst.PROPERTY_WAIT_STORE_MSG_OK);
+                if (propertiesData == null) {
+                    log.warn("putMessage message property too long for the binary properties layout");
+                    return new EncodeResult(AppendMessageStatus.PROPERTIES_SIZE_EXCEEDED, null);
+                }
+            } else {
+                propertiesData = msgInner.getPropertiesString() == null ? null : msgInner.getPropertiesString().getBytes(MessageDecoder.CHARSET_UTF8);
+            }
 
             final int propertiesLength = propertiesData == null ? 0 : propertiesData.length;
 
             if (propertiesLength > Short.MAX_VALUE) {
                 log.warn("putMessage message properties length too long. length={}", propertiesData.length);
-                return new EncodeResult(AppendMessageStatus.PROPERTIES_SIZE_EXCEEDED, null, key);
+                return new EncodeResult(AppendMessageStatus.PROPERTIES_SIZE_EXCEEDED, null);
             }
 
             final byte[] topicData = msgInner.getTopic().getBytes(MessageDecoder.CHARSET_UTF8);
@@ -810,7 +803,7 @@ public class DLedgerCommitLog extends CommitLog {
             if (msgLen > this.maxMessageSize) {
                 DLedgerCommitLog.log.warn("message size exceeded, msg total size: " + msgLen + ", msg body size: " + bodyLength
                     + ", maxMessageSize: " + this.maxMessageSize);
-                return new EncodeResult(AppendMessageStatus.MESSAGE_SIZE_EXCEEDED, null, key);
+                return new EncodeResult(AppendMessageStatus.MESSAGE_SIZE_EXCEEDED, null);
             }
             // Initialization of storage space
             this.resetByteBuffer(msgStoreItemMemory, msgLen);
@@ -858,17 +851,17 @@ public class DLedgerCommitLog extends CommitLog {
             if (propertiesLength > 0) {
                 msgStoreItemMemory.put(propertiesData);
             }
-            return new EncodeResult(AppendMessageStatus.PUT_OK, msgStoreItemMemory, key);
+            return new EncodeResult(AppendMessageStatus.PUT_OK, msgStoreItemMemory);
         }
 
         public EncodeResult serialize(final MessageExtBatch messageExtBatch) {
-            String key = messageExtBatch.getTopic() + "-" + messageExtBatch.getQueueId();
 
             int totalMsgLen = 0;
             ByteBuffer messagesByteBuff = messageExtBatch.wrap();
             List<byte[]> batchBody = new LinkedList<>();
 
             int sysFlag = messageExtBatch.getSysFlag();
+            boolean binaryProperties = (sysFlag & MessageSysFlag.BINARY_PROPERTIES_FLAG) == MessageSysFlag.BINARY_PROPERTIES_FLAG;
             int bornHostLength = (sysFlag & MessageSysFlag.BORNHOST_V6_FLAG) == 0 ? 4 + 4 : 16 + 4;
             int storeHostLength = (sysFlag & MessageSysFlag.STOREHOSTADDRESS_V6_FLAG) == 0 ? 4 + 4 : 16 + 4;
             ByteBuffer bornHostHolder = ByteBuffer.allocate(bornHostLength);
@@ -893,11 +886,22 @@ public class DLedgerCommitLog extends CommitLog {
                 int propertiesPos = messagesByteBuff.position();
                 messagesByteBuff.position(propertiesPos + propertiesLen);
 
+                byte[] binaryPropData = null;
+                if (binaryProperties) {
+                    // the batch body is always encoded with string properties by the client, transcode them
+                    binaryPropData = MessagePropertiesCodec.transcode(messagesByteBuff.array(), propertiesPos, propertiesLen);
+                    if (binaryPropData == null || binaryPropData.length > Short.MAX_VALUE) {
+                        log.warn("Properties size of message in batch exceeded, maxSize: {}.", Short.MAX_VALUE);
+                        return new EncodeResult(AppendMessageStatus.PROPERTIES_SIZE_EXCEEDED, null);
+                    }
+                }
+                final int totalPropLen = binaryPropData != null ? binaryPropData.length : propertiesLen;
+
                 final byte[] topicData = messageExtBatch.getTopic().getBytes(MessageDecoder.CHARSET_UTF8);
 
                 final int topicLength = topicData.length;
 
-                final int msgLen = calMsgLength(messageExtBatch.getSysFlag(), bodyLen, topicLength, propertiesLen);
+                final int msgLen = calMsgLength(messageExtBatch.getSysFlag(), bodyLen, topicLength, totalPropLen);
                 ByteBuffer msgStoreItemMemory = ByteBuffer.allocate(msgLen);
 
                 // Exceeds the maximum message
@@ -955,8 +959,10 @@ public class DLedgerCommitLog extends CommitLog {
                 msgStoreItemMemory.put((byte) topicLength);
                 msgStoreItemMemory.put(topicData);
                 // 17 PROPERTIES
-                msgStoreItemMemory.putShort(propertiesLen);
-                if (propertiesLen > 0) {
+                msgStoreItemMemory.putShort((short) totalPropLen);
+                if (binaryPropData != null) {
+                    msgStoreItemMemory.put(binaryPropData);
+                } else if (propertiesLen > 0) {
                     msgStoreItemMemory.put(messagesByteBuff.array(), propertiesPos, propertiesLen);
                 }
                 byte[] data = new byte[msgLen];
@@ -965,7 +971,7 @@ public class DLedgerCommitLog extends CommitLog {
                 batchBody.add(data);
             }
 
-            return new EncodeResult(AppendMessageStatus.PUT_OK, key, batchBody, totalMsgLen);
+            return new EncodeResult(AppendMessageStatus.PUT_OK, batchBody, totalMsgLen);
         }
 
         private void resetByteBuffer(final ByteBuffer byteBuffer, final int limit) {
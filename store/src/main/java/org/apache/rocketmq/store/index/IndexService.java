@@ -349,15 +349,18 @@ public class IndexService {
             return;
 
         long indexMsgTimestamp = 0;
+        long indexOffset = 0;
 
         if (f.isWriteFull()) {
             indexMsgTimestamp = f.getEndTimestamp();
+            indexOffset = f.getEndPhyOffset();
         }
 
         f.flush();
 
         if (indexMsgTimestamp > 0) {
             this.defaultMessageStore.getStoreCheckpoint().setIndexMsgTimestamp(indexMsgTimestamp);
+            this.defaultMessageStore.getStoreCheckpoint().setIndexOffset(indexOffset);
             this.defaultMessageStore.getStoreCheckpoint().flush();
         }
     }
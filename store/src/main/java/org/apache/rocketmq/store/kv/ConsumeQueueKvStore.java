@@ -0,0 +1,640 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.kv;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.rocketmq.common.UtilAll;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.logging.InternalLogger;
+import org.apache.rocketmq.logging.InternalLoggerFactory;
+import org.apache.rocketmq.store.ConsumeQueue;
+import org.apache.rocketmq.store.DefaultMessageStore;
+import org.apache.rocketmq.store.MappedFile;
+import org.apache.rocketmq.store.SelectMappedBufferResult;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.apache.rocketmq.store.config.StorePathConfigHelper;
+
+/**
+ * Keeps the units of all the {@link KvConsumeQueue}s in a few shared segment files, the way a log-structured merge
+ * tree does: the units dispatched are buffered in memory per queue and written in batch as a new segment at every
+ * flush of the consume queues, and adjacent segments are merged once there are too many of them.
+ * <pre>
+ * segment: | magic(4) | minSeq(8) | maxSeq(8) | dispatchedOffsetPy(8) | runNum(4) | run * runNum |
+ * run:     | topicLength(2) | topic | queueId(4) | startOffset(8) | unitNum(4) | unit * unitNum |
+ * </pre>
+ * The segments are ordered by their sequence, a merged segment covers the sequences of the segments merged. A run
+ * hides the units of its queue in the older segments from its start offset on, a run without unit marks a truncated or
+ * destroyed queue. The units dispatched after the last flush are lost on a crash, the dispatch goes on from the
+ * dispatchedOffsetPy of the newest segment after a restart.
+ */
+public class ConsumeQueueKvStore {
+    private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
+
+    private static final int MAGIC = 0xAABB0C01;
+    private static final int HEADER_SIZE = 4 + 8 + 8 + 8 + 4;
+    private static final int RUN_HEADER_SIZE = 2 + 4 + 8 + 4;
+    private static final int MERGE_FACTOR = 4;
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+    private static final String TEMP_SUFFIX = ".tmp";
+    /**
+     * Not allowed in topic names.
+     */
+    private static final String KEY_SEPARATOR = "@";
+
+    private final DefaultMessageStore defaultMessageStore;
+    private final MessageStoreConfig messageStoreConfig;
+    private final String storePath;
+
+    /**
+     * Queues with units, by {@link #buildKey}.
+     */
+    private final ConcurrentMap<String, KvConsumeQueue> queueTable = new ConcurrentHashMap<>(1024);
+    /**
+     * Queues destroyed, whose runs are hidden by the next flush.
+     */
+    private final ConcurrentMap<String, KvConsumeQueue> tombstoneTable = new ConcurrentHashMap<>();
+    /**
+     * Guards the runs of the queues against a merge, the segments are guarded by the monitor of the store.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    private final List<Segment> segments = new ArrayList<>();
+    private final List<Segment> expiredSegments = new ArrayList<>();
+
+    private long nextSeq = 0;
+    private long nextFileId = 0;
+    private volatile long dispatchedOffsetPy = -1;
+
+    public ConsumeQueueKvStore(final DefaultMessageStore defaultMessageStore) {
+        this.defaultMessageStore = defaultMessageStore;
+        this.messageStoreConfig = defaultMessageStore.getMessageStoreConfig();
+        this.storePath = StorePathConfigHelper.getStorePathConsumeQueueKv(this.messageStoreConfig.getStorePathRootDir());
+        if (this.messageStoreConfig.isEnableConsumeQueueExt()) {
+            log.warn("consume queue ext is not supported by the kv consume queue store, ignored");
+        }
+    }
+
+    static String buildKey(final String topic, final int queueId) {
+        return topic + KEY_SEPARATOR + queueId;
+    }
+
+    public KvConsumeQueue newConsumeQueue(final String topic, final int queueId) {
+        return new KvConsumeQueue(topic, queueId,
+            StorePathConfigHelper.getStorePathConsumeQueue(this.messageStoreConfig.getStorePathRootDir()),
+            this.messageStoreConfig.getMappedFileSizeConsumeQueue(), this.defaultMessageStore, this);
+    }
+
+    public boolean load() {
+        File[] files = new File(this.storePath).listFiles();
+        if (null == files) {
+            return true;
+        }
+
+        List<Segment> loaded = new ArrayList<>(files.length);
+        Map<String, String> topics = new HashMap<>();
+        for (File file : files) {
+            if (file.getName().endsWith(TEMP_SUFFIX)) {
+                log.info("delete the segment not completed {}", file.getPath());
+                UtilAll.deleteFile(file);
+                continue;
+            }
+            try {
+                this.nextFileId = Math.max(this.nextFileId, Long.parseLong(file.getName()) + 1);
+                loaded.add(this.loadSegment(file, topics));
+            } catch (Exception e) {
+                log.error("load kv consume queue segment {} failed", file.getPath(), e);
+                return false;
+            }
+        }
+
+        // a merged segment is renamed before the segments it merged are deleted
+        Collections.sort(loaded, (o1, o2) -> o1.minSeq != o2.minSeq ? Long.compare(o1.minSeq, o2.minSeq)
+            : Long.compare(o2.maxSeq, o1.maxSeq));
+        long maxSeq = -1;
+        for (Segment segment : loaded) {
+            if (segment.maxSeq <= maxSeq) {
+                log.info("delete the segment merged {}", segment.mappedFile.getFileName());
+                segment.mappedFile.destroy(0);
+                continue;
+            }
+            maxSeq = segment.maxSeq;
+            this.segments.add(segment);
+        }
+        this.nextSeq = maxSeq + 1;
+        if (!this.segments.isEmpty()) {
+            this.dispatchedOffsetPy = this.segments.get(this.segments.size() - 1).dispatchedOffsetPy;
+        }
+
+        Map<String, List<KvConsumeQueue.Run>> runTable = new LinkedHashMap<>();
+        Map<String, RunEntry> keyTable = new HashMap<>();
+        for (Segment segment : this.segments) {
+            for (RunEntry entry : segment.directory) {
+                String key = buildKey(entry.topic, entry.queueId);
+                keyTable.putIfAbsent(key, entry);
+                shadow(runTable.computeIfAbsent(key, k -> new ArrayList<>()), entry.run);
+            }
+        }
+
+        for (Map.Entry<String, List<KvConsumeQueue.Run>> entry : runTable.entrySet()) {
+            List<KvConsumeQueue.Run> runs = entry.getValue();
+            if (runs.isEmpty()) {
+                continue;
+            }
+            RunEntry runEntry = keyTable.get(entry.getKey());
+            KvConsumeQueue consumeQueue = (KvConsumeQueue) this.defaultMessageStore.findConsumeQueue(runEntry.topic, runEntry.queueId);
+            for (KvConsumeQueue.Run run : runs) {
+                this.retain(run);
+            }
+            consumeQueue.loadRuns(runs);
+            this.queueTable.put(entry.getKey(), consumeQueue);
+        }
+
+        log.info("load kv consume queue store, {} segments, {} queues, dispatchedOffsetPy={}", this.segments.size(),
+            this.queueTable.size(), this.dispatchedOffsetPy);
+        return true;
+    }
+
+    private Segment loadSegment(final File file, final Map<String, String> topics) throws IOException {
+        MappedFile mappedFile = new MappedFile(file.getPath(), (int) file.length());
+        int size = mappedFile.getFileSize();
+        mappedFile.setWrotePosition(size);
+        mappedFile.setFlushedPosition(size);
+        mappedFile.setCommittedPosition(size);
+
+        ByteBuffer byteBuffer = mappedFile.sliceByteBuffer();
+        if (size < HEADER_SIZE || byteBuffer.getInt() != MAGIC) {
+            mappedFile.destroy(0);
+            throw new IOException("illegal segment " + file.getPath());
+        }
+        Segment segment = new Segment(mappedFile, byteBuffer.getLong(), byteBuffer.getLong(), byteBuffer.getLong());
+        int runNum = byteBuffer.getInt();
+        for (int i = 0; i < runNum; i++) {
+            byte[] topicBytes = new byte[byteBuffer.getShort()];
+            byteBuffer.get(topicBytes);
+            String topic = new String(topicBytes, StandardCharsets.UTF_8);
+            topic = topics.computeIfAbsent(topic, k -> k);
+            int queueId = byteBuffer.getInt();
+            long startOffset = byteBuffer.getLong();
+            int unitNum = byteBuffer.getInt();
+            int position = byteBuffer.position();
+            byteBuffer.position(position + unitNum * ConsumeQueue.CQ_STORE_UNIT_SIZE);
+            segment.directory.add(new RunEntry(topic, queueId, new KvConsumeQueue.Run(segment, startOffset, unitNum, position)));
+        }
+        return segment;
+    }
+
+    /**
+     * Add a run newer than the runs of the queue, which hides their units from its start offset on.
+     */
+    private static void shadow(final List<KvConsumeQueue.Run> runs, final KvConsumeQueue.Run run) {
+        while (!runs.isEmpty()) {
+            int last = runs.size() - 1;
+            KvConsumeQueue.Run lastRun = runs.get(last);
+            if (lastRun.getStartOffset() >= run.getStartOffset()) {
+                runs.remove(last);
+            } else {
+                if (lastRun.getEndOffset() > run.getStartOffset()) {
+                    runs.set(last, lastRun.trim(run.getStartOffset()));
+                }
+                break;
+            }
+        }
+        if (run.getUnitNum() > 0) {
+            runs.add(run);
+        }
+    }
+
+    /**
+     * Write the units dispatched since the last flush as a new segment, then merge the segments if there are too
+     * many of them.
+     *
+     * @param dispatchedOffsetPy offset of the CommitLog below which every message has been dispatched, read before
+     * the flush
+     */
+    public synchronized void flush(final long dispatchedOffsetPy) {
+        List<PendingRun> pendingRuns = new ArrayList<>();
+        List<KvConsumeQueue> tombstones = new ArrayList<>(this.tombstoneTable.values());
+        for (KvConsumeQueue consumeQueue : tombstones) {
+            pendingRuns.add(new PendingRun(null, consumeQueue.getTopic(), consumeQueue.getQueueId(), 0));
+        }
+        for (KvConsumeQueue consumeQueue : this.queueTable.values()) {
+            long truncatedOffset = consumeQueue.getTruncatedOffset();
+            if (truncatedOffset >= 0) {
+                PendingRun pendingRun = new PendingRun(consumeQueue, consumeQueue.getTopic(), consumeQueue.getQueueId(), truncatedOffset);
+                pendingRun.truncatedOffset = truncatedOffset;
+                pendingRuns.add(pendingRun);
+            }
+            KvConsumeQueue.MemTable memTable = consumeQueue.freeze();
+            if (memTable != null) {
+                PendingRun pendingRun = new PendingRun(consumeQueue, consumeQueue.getTopic(), consumeQueue.getQueueId(), memTable.getStartOffset());
+                pendingRun.memTable = memTable;
+                pendingRun.add(memTable.getData(), memTable.getUnitNum());
+                pendingRuns.add(pendingRun);
+            }
+        }
+
+        if (!pendingRuns.isEmpty()) {
+            Segment segment;
+            try {
+                segment = this.writeSegment(this.nextSeq, this.nextSeq, dispatchedOffsetPy, pendingRuns);
+            } catch (IOException e) {
+                log.error("flush kv consume queue store failed", e);
+                return;
+            }
+            this.nextSeq++;
+            this.dispatchedOffsetPy = dispatchedOffsetPy;
+
+            this.lock.lock();
+            try {
+                this.segments.add(segment);
+                for (KvConsumeQueue consumeQueue : tombstones) {
+                    this.tombstoneTable.remove(buildKey(consumeQueue.getTopic(), consumeQueue.getQueueId()), consumeQueue);
+                }
+                for (PendingRun pendingRun : pendingRuns) {
+                    if (pendingRun.consumeQueue != null
+                        && pendingRun.consumeQueue.flushed(pendingRun.memTable, pendingRun.run, pendingRun.truncatedOffset)
+                        && pendingRun.run != null) {
+                        this.retain(pendingRun.run);
+                    }
+                }
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        try {
+            this.merge();
+        } catch (IOException e) {
+            log.error("merge kv consume queue segments failed", e);
+        }
+        this.deleteExpiredSegments();
+    }
+
+    private void merge() throws IOException {
+        if (this.segments.size() <= Math.max(this.messageStoreConfig.getKvConsumeQueueMaxSegmentNum(), MERGE_FACTOR)) {
+            return;
+        }
+
+        // the adjacent segments with the least live units, the small segments of the last flushes mostly
+        long maxUnitNum = (this.messageStoreConfig.getKvConsumeQueueMaxSegmentSize() - HEADER_SIZE) / ConsumeQueue.CQ_STORE_UNIT_SIZE;
+        for (int windowSize = MERGE_FACTOR; windowSize >= 2; windowSize--) {
+            int from = -1;
+            long minUnitNum = Long.MAX_VALUE;
+            for (int i = 0; i + windowSize <= this.segments.size(); i++) {
+                long unitNum = 0;
+                for (int j = i; j < i + windowSize; j++) {
+                    unitNum += this.segments.get(j).liveUnitNum.get();
+                }
+                if (unitNum < minUnitNum && unitNum <= maxUnitNum) {
+                    minUnitNum = unitNum;
+                    from = i;
+                }
+            }
+            if (from >= 0) {
+                this.lock.lock();
+                try {
+                    this.merge(from, windowSize);
+                } finally {
+                    this.lock.unlock();
+                }
+                return;
+            }
+        }
+        log.warn("no segments to merge, all of them are too large, segmentNum={}", this.segments.size());
+    }
+
+    private void merge(final int from, final int windowSize) throws IOException {
+        long beginTime = System.currentTimeMillis();
+        List<Segment> window = new ArrayList<>(this.segments.subList(from, from + windowSize));
+        Set<Segment> windowSet = Collections.newSetFromMap(new IdentityHashMap<>());
+        windowSet.addAll(window);
+        // without older segments, there is no unit to hide
+        boolean oldest = from == 0;
+
+        Map<String, RunEntry> firstRuns = new LinkedHashMap<>();
+        for (Segment segment : window) {
+            for (RunEntry entry : segment.directory) {
+                RunEntry first = firstRuns.putIfAbsent(buildKey(entry.topic, entry.queueId), entry);
+                if (first != null && entry.run.getStartOffset() < first.run.getStartOffset()) {
+                    firstRuns.put(buildKey(entry.topic, entry.queueId), entry);
+                }
+            }
+        }
+
+        List<PendingRun> pendingRuns = new ArrayList<>();
+        List<SelectMappedBufferResult> selected = new ArrayList<>();
+        Segment merged;
+        try {
+            for (Map.Entry<String, RunEntry> entry : firstRuns.entrySet()) {
+                RunEntry first = entry.getValue();
+                KvConsumeQueue consumeQueue = this.queueTable.get(entry.getKey());
+                List<KvConsumeQueue.Run> liveRuns = new ArrayList<>();
+                if (consumeQueue != null) {
+                    for (KvConsumeQueue.Run run : consumeQueue.getRuns()) {
+                        if (windowSet.contains(run.getSegment())) {
+                            liveRuns.add(run);
+                        }
+                    }
+                }
+
+                long startOffset = first.run.getStartOffset();
+                if (!oldest && (liveRuns.isEmpty() || liveRuns.get(0).getStartOffset() > startOffset)) {
+                    pendingRuns.add(new PendingRun(null, first.topic, first.queueId, startOffset));
+                }
+
+                // the consecutive runs are merged into one
+                PendingRun current = null;
+                for (KvConsumeQueue.Run run : liveRuns) {
+                    SelectMappedBufferResult result = run.select(run.getStartOffset(), Integer.MAX_VALUE);
+                    if (null == result) {
+                        throw new IOException("segment " + run.getSegment().mappedFile.getFileName() + " is not available");
+                    }
+                    selected.add(result);
+                    if (null == current || current.getEndOffset() != run.getStartOffset()) {
+                        current = new PendingRun(consumeQueue, first.topic, first.queueId, run.getStartOffset());
+                        pendingRuns.add(current);
+                    }
+                    current.add(result.getByteBuffer(), run.getUnitNum());
+                }
+            }
+
+            Segment last = window.get(window.size() - 1);
+            merged = this.writeSegment(window.get(0).minSeq, last.maxSeq, last.dispatchedOffsetPy, pendingRuns);
+        } finally {
+            for (SelectMappedBufferResult result : selected) {
+                result.release();
+            }
+        }
+
+        Map<KvConsumeQueue, List<KvConsumeQueue.Run>> newRunTable = new IdentityHashMap<>();
+        for (PendingRun pendingRun : pendingRuns) {
+            if (pendingRun.consumeQueue != null) {
+                newRunTable.computeIfAbsent(pendingRun.consumeQueue, k -> new ArrayList<>()).add(pendingRun.run);
+            }
+        }
+        for (Map.Entry<KvConsumeQueue, List<KvConsumeQueue.Run>> entry : newRunTable.entrySet()) {
+            for (KvConsumeQueue.Run run : entry.getKey().replaceRuns(windowSet, entry.getValue())) {
+                this.release(run);
+            }
+            for (KvConsumeQueue.Run run : entry.getValue()) {
+                this.retain(run);
+            }
+        }
+
+        this.segments.subList(from, from + window.size()).clear();
+        this.segments.add(from, merged);
+        this.expiredSegments.addAll(window);
+        log.info("merge {} kv consume queue segments into {}, {} runs, cost {} ms", window.size(),
+            merged.mappedFile.getFileName(), pendingRuns.size(), System.currentTimeMillis() - beginTime);
+    }
+
+    private Segment writeSegment(final long minSeq, final long maxSeq, final long dispatchedOffsetPy,
+        final List<PendingRun> pendingRuns) throws IOException {
+        long size = HEADER_SIZE;
+        for (PendingRun pendingRun : pendingRuns) {
+            size += RUN_HEADER_SIZE + pendingRun.topicBytes.length + (long) pendingRun.unitNum * ConsumeQueue.CQ_STORE_UNIT_SIZE;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("segment is too large, " + size);
+        }
+
+        MappedFile.ensureDirOK(this.storePath);
+        String fileName = this.storePath + File.separator + UtilAll.offset2FileName(this.nextFileId++);
+        File tempFile = new File(fileName + TEMP_SUFFIX);
+        try (RandomAccessFile file = new RandomAccessFile(tempFile, "rw")) {
+            FileChannel channel = file.getChannel();
+            ByteBuffer writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+            writeBuffer.putInt(MAGIC);
+            writeBuffer.putLong(minSeq);
+            writeBuffer.putLong(maxSeq);
+            writeBuffer.putLong(dispatchedOffsetPy);
+            writeBuffer.putInt(pendingRuns.size());
+            int position = HEADER_SIZE;
+            for (PendingRun pendingRun : pendingRuns) {
+                if (writeBuffer.remaining() < RUN_HEADER_SIZE + pendingRun.topicBytes.length) {
+                    drain(channel, writeBuffer);
+                }
+                writeBuffer.putShort((short) pendingRun.topicBytes.length);
+                writeBuffer.put(pendingRun.topicBytes);
+                writeBuffer.putInt(pendingRun.queueId);
+                writeBuffer.putLong(pendingRun.startOffset);
+                writeBuffer.putInt(pendingRun.unitNum);
+                position += RUN_HEADER_SIZE + pendingRun.topicBytes.length;
+                pendingRun.position = position;
+                for (ByteBuffer data : pendingRun.data) {
+                    ByteBuffer src = data.slice();
+                    while (src.hasRemaining()) {
+                        if (!writeBuffer.hasRemaining()) {
+                            drain(channel, writeBuffer);
+                        }
+                        int length = Math.min(src.remaining(), writeBuffer.remaining());
+                        ByteBuffer chunk = src.slice();
+                        chunk.limit(length);
+                        writeBuffer.put(chunk);
+                        src.position(src.position() + length);
+                    }
+                }
+                position += pendingRun.unitNum * ConsumeQueue.CQ_STORE_UNIT_SIZE;
+            }
+            drain(channel, writeBuffer);
+            channel.force(true);
+        }
+        if (!tempFile.renameTo(new File(fileName))) {
+            throw new IOException("rename " + tempFile.getPath() + " failed");
+        }
+
+        MappedFile mappedFile = new MappedFile(fileName, (int) size);
+        mappedFile.setWrotePosition((int) size);
+        mappedFile.setFlushedPosition((int) size);
+        mappedFile.setCommittedPosition((int) size);
+        Segment segment = new Segment(mappedFile, minSeq, maxSeq, dispatchedOffsetPy);
+        for (PendingRun pendingRun : pendingRuns) {
+            KvConsumeQueue.Run run = new KvConsumeQueue.Run(segment, pendingRun.startOffset, pendingRun.unitNum, pendingRun.position);
+            segment.directory.add(new RunEntry(pendingRun.topic, pendingRun.queueId, run));
+            if (pendingRun.unitNum > 0) {
+                pendingRun.run = run;
+            }
+        }
+        return segment;
+    }
+
+    private static void drain(final FileChannel channel, final ByteBuffer writeBuffer) throws IOException {
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            channel.write(writeBuffer);
+        }
+        writeBuffer.clear();
+    }
+
+    /**
+     * Delete the oldest segments without live runs, but the newest one which keeps the dispatched offset.
+     */
+    private void deleteExpiredSegments() {
+        while (this.segments.size() > 1 && this.segments.get(0).liveRuns.get() == 0) {
+            Segment segment = this.segments.remove(0);
+            log.info("kv consume queue segment {} is expired", segment.mappedFile.getFileName());
+            this.expiredSegments.add(segment);
+        }
+
+        Iterator<Segment> it = this.expiredSegments.iterator();
+        while (it.hasNext()) {
+            if (it.next().mappedFile.destroy(1000 * 60)) {
+                it.remove();
+            }
+        }
+    }
+
+    void register(final KvConsumeQueue consumeQueue) {
+        this.queueTable.put(consumeQueue.getKey(), consumeQueue);
+    }
+
+    void unregister(final KvConsumeQueue consumeQueue) {
+        if (this.queueTable.remove(consumeQueue.getKey(), consumeQueue)) {
+            this.tombstoneTable.put(consumeQueue.getKey(), consumeQueue);
+        }
+    }
+
+    void retain(final KvConsumeQueue.Run run) {
+        run.getSegment().liveRuns.incrementAndGet();
+        run.getSegment().liveUnitNum.addAndGet(run.getUnitNum());
+    }
+
+    void release(final KvConsumeQueue.Run run) {
+        run.getSegment().liveRuns.decrementAndGet();
+        run.getSegment().liveUnitNum.addAndGet(-run.getUnitNum());
+    }
+
+    ReentrantLock getLock() {
+        return lock;
+    }
+
+    public synchronized void destroy() {
+        this.lock.lock();
+        try {
+            this.queueTable.clear();
+            this.tombstoneTable.clear();
+            this.expiredSegments.addAll(this.segments);
+            this.segments.clear();
+            for (Segment segment : this.expiredSegments) {
+                segment.mappedFile.destroy(1000 * 3);
+            }
+            this.expiredSegments.clear();
+            UtilAll.deleteFile(new File(this.storePath));
+            this.nextSeq = 0;
+            this.nextFileId = 0;
+            this.dispatchedOffsetPy = -1;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return offset of the CommitLog below which every message has been written to the segments, or -1
+     */
+    public long getDispatchedOffsetPy() {
+        return dispatchedOffsetPy;
+    }
+
+    public synchronized int getSegmentNum() {
+        return this.segments.size();
+    }
+
+    static class Segment {
+        private final MappedFile mappedFile;
+        private final long minSeq;
+        private final long maxSeq;
+        private final long dispatchedOffsetPy;
+        private final List<RunEntry> directory = new ArrayList<>();
+        private final AtomicInteger liveRuns = new AtomicInteger(0);
+        private final AtomicLong liveUnitNum = new AtomicLong(0);
+
+        Segment(final MappedFile mappedFile, final long minSeq, final long maxSeq, final long dispatchedOffsetPy) {
+            this.mappedFile = mappedFile;
+            this.minSeq = minSeq;
+            this.maxSeq = maxSeq;
+            this.dispatchedOffsetPy = dispatchedOffsetPy;
+        }
+
+        MappedFile getMappedFile() {
+            return mappedFile;
+        }
+    }
+
+    private static class RunEntry {
+        private final String topic;
+        private final int queueId;
+        private final KvConsumeQueue.Run run;
+
+        RunEntry(final String topic, final int queueId, final KvConsumeQueue.Run run) {
+            this.topic = topic;
+            this.queueId = queueId;
+            this.run = run;
+        }
+    }
+
+    /**
+     * A run to write, from the frozen units of a queue, or from the runs of the segments merged.
+     */
+    private static class PendingRun {
+        private final KvConsumeQueue consumeQueue;
+        private final String topic;
+        private final byte[] topicBytes;
+        private final int queueId;
+        private final long startOffset;
+        private final List<ByteBuffer> data = new ArrayList<>(1);
+        private int unitNum;
+        private KvConsumeQueue.MemTable memTable;
+        private long truncatedOffset = -1;
+        private int position;
+        private KvConsumeQueue.Run run;
+
+        PendingRun(final KvConsumeQueue consumeQueue, final String topic, final int queueId, final long startOffset) {
+            this.consumeQueue = consumeQueue;
+            this.topic = topic;
+            this.topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+            this.queueId = queueId;
+            this.startOffset = startOffset;
+        }
+
+        void add(final ByteBuffer units, final int unitNum) {
+            this.data.add(units);
+            this.unitNum += unitNum;
+        }
+
+        long getEndOffset() {
+            return this.startOffset + this.unitNum;
+        }
+    }
+}
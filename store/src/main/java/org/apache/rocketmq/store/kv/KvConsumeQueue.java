@@ -0,0 +1,667 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.kv;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.logging.InternalLogger;
+import org.apache.rocketmq.logging.InternalLoggerFactory;
+import org.apache.rocketmq.store.ConsumeQueue;
+import org.apache.rocketmq.store.DefaultMessageStore;
+import org.apache.rocketmq.store.SelectMappedBufferResult;
+
+/**
+ * A consume queue whose units are kept by the {@link ConsumeQueueKvStore}: in runs of consecutive units in the shared
+ * segments, and in memory for the units dispatched since the last flush. No file is opened per queue.
+ */
+public class KvConsumeQueue extends ConsumeQueue {
+    private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
+
+    private static final Run[] EMPTY_RUNS = new Run[0];
+    /**
+     * Units copied at most for a read of the units in memory, the next read goes on from there.
+     */
+    private static final int MAX_COPY_UNIT_NUM = 1024;
+    private static final int MAX_READ_RETRIES = 3;
+
+    private final DefaultMessageStore defaultMessageStore;
+    private final ConsumeQueueKvStore kvStore;
+    private final String key;
+
+    private volatile Run[] runs = EMPTY_RUNS;
+    /**
+     * Units being written to a new segment, readable until the run of the segment is published.
+     */
+    private volatile MemTable frozen;
+    private volatile MemTable active = new MemTable(0);
+    /**
+     * Queue offset from which the units of the older segments are invalid, written with the next flush.
+     */
+    private long truncatedOffset = -1;
+    private boolean registered;
+
+    public KvConsumeQueue(
+        final String topic,
+        final int queueId,
+        final String storePath,
+        final int mappedFileSize,
+        final DefaultMessageStore defaultMessageStore,
+        final ConsumeQueueKvStore kvStore) {
+        super(topic, queueId, storePath, mappedFileSize, defaultMessageStore);
+        this.defaultMessageStore = defaultMessageStore;
+        this.kvStore = kvStore;
+        this.key = ConsumeQueueKvStore.buildKey(topic, queueId);
+    }
+
+    /**
+     * The units are loaded by {@link ConsumeQueueKvStore#load()}.
+     */
+    @Override
+    public boolean load() {
+        return true;
+    }
+
+    synchronized void loadRuns(final List<Run> runs) {
+        this.runs = runs.toArray(EMPTY_RUNS);
+        this.active = new MemTable(runs.get(runs.size() - 1).getEndOffset());
+        this.setMinLogicOffset(runs.get(0).getStartOffset() * CQ_STORE_UNIT_SIZE);
+        this.registered = true;
+    }
+
+    @Override
+    public void recover() {
+        this.setMaxPhysicOffset(this.getLastOffset());
+    }
+
+    @Override
+    public void recover(final boolean lastExitOK) {
+        this.recover();
+    }
+
+    @Override
+    public long getOffsetInQueueByTime(final long timestamp) {
+        long low = this.getMinOffsetInQueue();
+        long high = this.getMaxOffsetInQueue() - 1;
+        long leftOffset = -1, rightOffset = -1;
+        long leftIndexValue = -1L, rightIndexValue = -1L;
+        long minPhysicOffset = this.defaultMessageStore.getMinPhyOffset();
+        while (high >= low) {
+            long midOffset = (low + high) >>> 1;
+            SelectMappedBufferResult sbr = this.getIndexBuffer(midOffset);
+            if (null == sbr) {
+                return 0;
+            }
+            long phyOffset;
+            int size;
+            try {
+                phyOffset = sbr.getByteBuffer().getLong(0);
+                size = sbr.getByteBuffer().getInt(8);
+            } finally {
+                sbr.release();
+            }
+
+            if (phyOffset < minPhysicOffset) {
+                low = midOffset + 1;
+                leftOffset = midOffset;
+                continue;
+            }
+
+            long storeTime = this.defaultMessageStore.getCommitLog().pickupStoreTimestamp(phyOffset, size);
+            if (storeTime < 0) {
+                return 0;
+            } else if (storeTime == timestamp) {
+                return midOffset;
+            } else if (storeTime > timestamp) {
+                high = midOffset - 1;
+                rightOffset = midOffset;
+                rightIndexValue = storeTime;
+            } else {
+                low = midOffset + 1;
+                leftOffset = midOffset;
+                leftIndexValue = storeTime;
+            }
+        }
+
+        long offset;
+        if (leftIndexValue == -1) {
+            offset = rightOffset;
+        } else if (rightIndexValue == -1) {
+            offset = leftOffset;
+        } else {
+            offset = Math.abs(timestamp - leftIndexValue) > Math.abs(timestamp - rightIndexValue) ? rightOffset : leftOffset;
+        }
+        return Math.max(offset, 0);
+    }
+
+    @Override
+    public void truncateDirtyLogicFiles(final long phyOffset) {
+        this.kvStore.getLock().lock();
+        try {
+            synchronized (this) {
+                long cutOffset = this.getMaxOffsetInQueue();
+                List<Units> sources = this.sources();
+                for (int i = sources.size() - 1; i >= 0; i--) {
+                    Units units = sources.get(i);
+                    if (units.getUnitNum() == 0) {
+                        continue;
+                    }
+                    cutOffset = this.lowerBound(units, phyOffset);
+                    if (cutOffset > units.getStartOffset()) {
+                        break;
+                    }
+                }
+
+                if (cutOffset < this.getMaxOffsetInQueue()) {
+                    log.info("truncate kv consume queue {}-{} to {}, phyOffset={}", this.getTopic(), this.getQueueId(),
+                        cutOffset, phyOffset);
+                    this.truncateTo(cutOffset);
+                }
+                this.setMaxPhysicOffset(this.getLastOffset());
+            }
+        } finally {
+            this.kvStore.getLock().unlock();
+        }
+    }
+
+    private void truncateTo(final long cutOffset) {
+        List<Run> kept = new ArrayList<>(this.runs.length);
+        for (Run run : this.runs) {
+            if (run.getStartOffset() >= cutOffset) {
+                this.kvStore.release(run);
+            } else if (run.getEndOffset() > cutOffset) {
+                Run trimmed = run.trim(cutOffset);
+                this.kvStore.release(run);
+                this.kvStore.retain(trimmed);
+                kept.add(trimmed);
+            } else {
+                kept.add(run);
+            }
+        }
+        this.runs = kept.toArray(EMPTY_RUNS);
+
+        MemTable memTable = this.frozen;
+        if (memTable != null && memTable.getEndOffset() > cutOffset) {
+            this.frozen = memTable.getStartOffset() >= cutOffset ? null : memTable.trim(cutOffset);
+        }
+        memTable = this.active;
+        this.active = memTable.getStartOffset() >= cutOffset ? new MemTable(cutOffset) : memTable.trim(cutOffset);
+        this.truncatedOffset = this.truncatedOffset < 0 ? cutOffset : Math.min(this.truncatedOffset, cutOffset);
+    }
+
+    @Override
+    public long getLastOffset() {
+        List<Units> sources = this.sources();
+        for (int i = sources.size() - 1; i >= 0; i--) {
+            Units units = sources.get(i);
+            if (units.getUnitNum() > 0) {
+                SelectMappedBufferResult sbr = units.select(units.getEndOffset() - 1, 1);
+                if (sbr != null) {
+                    try {
+                        return sbr.getByteBuffer().getLong(0) + sbr.getByteBuffer().getInt(8);
+                    } finally {
+                        sbr.release();
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The units are written by {@link ConsumeQueueKvStore#flush(long)}.
+     */
+    @Override
+    public boolean flush(final int flushLeastPages) {
+        return true;
+    }
+
+    @Override
+    public int deleteExpiredFile(final long offset) {
+        int cnt = 0;
+        this.kvStore.getLock().lock();
+        try {
+            synchronized (this) {
+                Run[] runs = this.runs;
+                while (cnt < runs.length && this.offsetPyAt(runs[cnt], runs[cnt].getEndOffset() - 1) < offset) {
+                    this.kvStore.release(runs[cnt]);
+                    cnt++;
+                }
+                if (cnt > 0) {
+                    this.runs = Arrays.copyOfRange(runs, cnt, runs.length);
+                }
+            }
+        } finally {
+            this.kvStore.getLock().unlock();
+        }
+        this.correctMinOffset(offset);
+        return cnt;
+    }
+
+    @Override
+    public void correctMinOffset(final long phyMinOffset) {
+        for (Units units : this.sources()) {
+            if (units.getUnitNum() == 0 || this.offsetPyAt(units, units.getEndOffset() - 1) < phyMinOffset) {
+                continue;
+            }
+            this.setMinLogicOffset(this.lowerBound(units, phyMinOffset) * CQ_STORE_UNIT_SIZE);
+            log.info("Compute logical min offset: {}, topic: {}, queueId: {}", this.getMinOffsetInQueue(),
+                this.getTopic(), this.getQueueId());
+            return;
+        }
+        this.setMinLogicOffset(this.getMaxOffsetInQueue() * CQ_STORE_UNIT_SIZE);
+    }
+
+    @Override
+    protected boolean putMessagePositionInfo(final long offset, final int size, final long tagsCode,
+        final long cqOffset) {
+        if (offset + size <= this.getMaxPhysicOffset()) {
+            log.warn("Maybe try to build consume queue repeatedly maxPhysicOffset={} phyOffset={}", this.getMaxPhysicOffset(), offset);
+            return true;
+        }
+
+        synchronized (this) {
+            MemTable memTable = this.active;
+            if (cqOffset != memTable.getEndOffset() && memTable.getUnitNum() == 0 && this.frozen == null
+                && this.runs.length == 0) {
+                memTable = new MemTable(cqOffset);
+                this.active = memTable;
+                this.setMinLogicOffset(cqOffset * CQ_STORE_UNIT_SIZE);
+            }
+
+            if (cqOffset != 0) {
+                if (cqOffset < memTable.getEndOffset()) {
+                    log.warn("Build  consume queue repeatedly, expectOffset: {} currentOffset: {} Topic: {} QID: {}",
+                        cqOffset, memTable.getEndOffset(), this.getTopic(), this.getQueueId());
+                    return true;
+                }
+                if (cqOffset != memTable.getEndOffset()) {
+                    log.warn("[BUG]logic queue order maybe wrong, expectOffset: {} currentOffset: {} Topic: {} QID: {}",
+                        cqOffset, memTable.getEndOffset(), this.getTopic(), this.getQueueId());
+                    // realign at cqOffset, the readers skip the gap like a gap between runs
+                    if (memTable.getUnitNum() > 0) {
+                        if (this.frozen != null) {
+                            // a flush is in progress, retried by the wrapper
+                            return false;
+                        }
+                        this.frozen = memTable;
+                    }
+                    memTable = new MemTable(cqOffset);
+                    this.active = memTable;
+                }
+            }
+
+            memTable.append(offset, size, tagsCode);
+            this.setMaxPhysicOffset(offset + size);
+            if (!this.registered) {
+                this.kvStore.register(this);
+                this.registered = true;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public SelectMappedBufferResult getIndexBuffer(final long startIndex) {
+        if (startIndex < this.getMinOffsetInQueue()) {
+            return null;
+        }
+
+        for (int i = 0; i < MAX_READ_RETRIES; i++) {
+            // newest first, a flush publishes the run of the frozen units before dropping them
+            MemTable memTable = this.active;
+            if (startIndex >= memTable.getStartOffset()) {
+                return memTable.select(startIndex, MAX_COPY_UNIT_NUM);
+            }
+            memTable = this.frozen;
+            if (memTable != null && startIndex >= memTable.getStartOffset()) {
+                return memTable.select(startIndex, MAX_COPY_UNIT_NUM);
+            }
+
+            Run run = findRun(this.runs, startIndex);
+            if (null == run) {
+                return null;
+            }
+            SelectMappedBufferResult result = run.select(startIndex, Integer.MAX_VALUE);
+            if (result != null) {
+                return result;
+            }
+            // the segment is replaced by a merge meanwhile
+        }
+        return null;
+    }
+
+    private static Run findRun(final Run[] runs, final long offset) {
+        int low = 0;
+        int high = runs.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            Run run = runs[mid];
+            if (offset < run.getStartOffset()) {
+                high = mid - 1;
+            } else if (offset >= run.getEndOffset()) {
+                low = mid + 1;
+            } else {
+                return run;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * There may be gaps between the runs once a truncated queue is dispatched again, skip to the next run.
+     */
+    @Override
+    public long rollNextFile(final long index) {
+        for (Units units : this.sources()) {
+            if (units.getStartOffset() > index) {
+                return units.getStartOffset();
+            }
+        }
+        return this.getMaxOffsetInQueue();
+    }
+
+    @Override
+    public void destroy() {
+        this.kvStore.getLock().lock();
+        try {
+            synchronized (this) {
+                for (Run run : this.runs) {
+                    this.kvStore.release(run);
+                }
+                this.runs = EMPTY_RUNS;
+                this.frozen = null;
+                this.active = new MemTable(0);
+                this.truncatedOffset = -1;
+                if (this.registered) {
+                    this.kvStore.unregister(this);
+                    this.registered = false;
+                }
+            }
+        } finally {
+            this.kvStore.getLock().unlock();
+        }
+        this.setMaxPhysicOffset(-1);
+        this.setMinLogicOffset(0);
+    }
+
+    @Override
+    public long getMaxOffsetInQueue() {
+        return this.active.getEndOffset();
+    }
+
+    @Override
+    public void checkSelf() {
+    }
+
+    @Override
+    protected boolean isExtReadEnable() {
+        return false;
+    }
+
+    @Override
+    protected boolean isExtWriteEnable() {
+        return false;
+    }
+
+    synchronized MemTable freeze() {
+        if (null == this.frozen && this.active.getUnitNum() > 0) {
+            MemTable memTable = this.active;
+            this.frozen = memTable;
+            this.active = new MemTable(memTable.getEndOffset());
+        }
+        return this.frozen;
+    }
+
+    synchronized long getTruncatedOffset() {
+        return this.truncatedOffset;
+    }
+
+    /**
+     * Publish the run written for the frozen units, or the truncated offset written.
+     *
+     * @return false if the queue is destroyed meanwhile
+     */
+    synchronized boolean flushed(final MemTable memTable, final Run run, final long truncatedOffset) {
+        if (!this.registered) {
+            return false;
+        }
+        if (run != null) {
+            Run[] runs = Arrays.copyOf(this.runs, this.runs.length + 1);
+            runs[runs.length - 1] = run;
+            this.runs = runs;
+        }
+        if (memTable != null && this.frozen == memTable) {
+            this.frozen = null;
+        }
+        if (truncatedOffset >= 0 && this.truncatedOffset == truncatedOffset) {
+            this.truncatedOffset = -1;
+        }
+        return true;
+    }
+
+    /**
+     * Replace the runs in the merged segments with the runs of the new segment.
+     *
+     * @return the runs replaced
+     */
+    synchronized List<Run> replaceRuns(final Set<ConsumeQueueKvStore.Segment> merged, final List<Run> newRuns) {
+        List<Run> replaced = new ArrayList<>();
+        List<Run> runs = new ArrayList<>(this.runs.length);
+        for (Run run : this.runs) {
+            if (merged.contains(run.getSegment())) {
+                replaced.add(run);
+            } else {
+                runs.add(run);
+            }
+        }
+        runs.addAll(newRuns);
+        Collections.sort(runs, Comparator.comparingLong(Run::getStartOffset));
+        this.runs = runs.toArray(EMPTY_RUNS);
+        return replaced;
+    }
+
+    Run[] getRuns() {
+        return runs;
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    /**
+     * The runs, then the units in memory, by queue offset.
+     */
+    private List<Units> sources() {
+        MemTable active = this.active;
+        MemTable frozen = this.frozen;
+        Run[] runs = this.runs;
+        List<Units> sources = new ArrayList<>(runs.length + 2);
+        Collections.addAll(sources, runs);
+        if (frozen != null) {
+            sources.add(frozen);
+        }
+        sources.add(active);
+        return sources;
+    }
+
+    private long offsetPyAt(final Units units, final long queueOffset) {
+        SelectMappedBufferResult sbr = units.select(queueOffset, 1);
+        if (null == sbr) {
+            return -1;
+        }
+        try {
+            return sbr.getByteBuffer().getLong(0);
+        } finally {
+            sbr.release();
+        }
+    }
+
+    /**
+     * @return queue offset of the first unit at or after {@code phyOffset}, the end of the units if none
+     */
+    private long lowerBound(final Units units, final long phyOffset) {
+        long low = units.getStartOffset();
+        long high = units.getEndOffset();
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (this.offsetPyAt(units, mid) < phyOffset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    abstract static class Units {
+        private final long startOffset;
+
+        Units(final long startOffset) {
+            this.startOffset = startOffset;
+        }
+
+        long getStartOffset() {
+            return startOffset;
+        }
+
+        long getEndOffset() {
+            return this.startOffset + this.getUnitNum();
+        }
+
+        abstract int getUnitNum();
+
+        /**
+         * @return the units from {@code queueOffset} on, {@code maxUnitNum} at most, or null if there is none
+         */
+        abstract SelectMappedBufferResult select(long queueOffset, int maxUnitNum);
+    }
+
+    /**
+     * Consecutive units of the queue in a segment.
+     */
+    static class Run extends Units {
+        private final ConsumeQueueKvStore.Segment segment;
+        private final int position;
+        private final int unitNum;
+
+        Run(final ConsumeQueueKvStore.Segment segment, final long startOffset, final int unitNum, final int position) {
+            super(startOffset);
+            this.segment = segment;
+            this.unitNum = unitNum;
+            this.position = position;
+        }
+
+        @Override
+        int getUnitNum() {
+            return unitNum;
+        }
+
+        @Override
+        SelectMappedBufferResult select(final long queueOffset, final int maxUnitNum) {
+            if (queueOffset < this.getStartOffset() || queueOffset >= this.getEndOffset()) {
+                return null;
+            }
+            int index = (int) (queueOffset - this.getStartOffset());
+            int num = Math.min(this.unitNum - index, maxUnitNum);
+            return this.segment.getMappedFile().selectMappedBuffer(this.position + index * CQ_STORE_UNIT_SIZE,
+                num * CQ_STORE_UNIT_SIZE);
+        }
+
+        Run trim(final long endOffset) {
+            return new Run(this.segment, this.getStartOffset(), (int) (endOffset - this.getStartOffset()), this.position);
+        }
+
+        ConsumeQueueKvStore.Segment getSegment() {
+            return segment;
+        }
+
+        int getPosition() {
+            return position;
+        }
+    }
+
+    /**
+     * Units dispatched since the last flush. Appended under the lock of the queue, and read without it: the units
+     * are written before the unit number is published, and a grown buffer keeps the units of the previous one.
+     */
+    static class MemTable extends Units {
+        private volatile byte[] buffer;
+        private volatile int unitNum;
+
+        MemTable(final long startOffset) {
+            super(startOffset);
+        }
+
+        @Override
+        int getUnitNum() {
+            return unitNum;
+        }
+
+        void append(final long offset, final int size, final long tagsCode) {
+            byte[] buffer = this.buffer;
+            int position = this.unitNum * CQ_STORE_UNIT_SIZE;
+            if (null == buffer || position == buffer.length) {
+                buffer = Arrays.copyOf(buffer == null ? new byte[0] : buffer,
+                    Math.max(4 * CQ_STORE_UNIT_SIZE, position * 2));
+            }
+            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, position, CQ_STORE_UNIT_SIZE);
+            byteBuffer.putLong(offset);
+            byteBuffer.putInt(size);
+            byteBuffer.putLong(tagsCode);
+            this.buffer = buffer;
+            this.unitNum++;
+        }
+
+        @Override
+        SelectMappedBufferResult select(final long queueOffset, final int maxUnitNum) {
+            int unitNum = this.unitNum;
+            byte[] buffer = this.buffer;
+            int index = (int) (queueOffset - this.getStartOffset());
+            if (index < 0 || index >= unitNum) {
+                return null;
+            }
+            int num = Math.min(unitNum - index, maxUnitNum);
+            ByteBuffer byteBuffer = ByteBuffer.allocate(num * CQ_STORE_UNIT_SIZE);
+            byteBuffer.put(buffer, index * CQ_STORE_UNIT_SIZE, num * CQ_STORE_UNIT_SIZE);
+            byteBuffer.flip();
+            return new SelectMappedBufferResult(queueOffset * CQ_STORE_UNIT_SIZE, byteBuffer, byteBuffer.limit(), null);
+        }
+
+        /**
+         * @return the units of the frozen memory table, written to a segment
+         */
+        ByteBuffer getData() {
+            return ByteBuffer.wrap(this.buffer, 0, this.unitNum * CQ_STORE_UNIT_SIZE);
+        }
+
+        MemTable trim(final long endOffset) {
+            MemTable memTable = new MemTable(this.getStartOffset());
+            int num = (int) (endOffset - this.getStartOffset());
+            if (num > 0) {
+                memTable.buffer = Arrays.copyOf(this.buffer, num * CQ_STORE_UNIT_SIZE);
+                memTable.unitNum = num;
+            }
+            return memTable;
+        }
+    }
+}
@@ -16,14 +16,20 @@
  */
 package org.apache.rocketmq.store.schedule;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
@@ -75,12 +81,22 @@ public class ScheduleMessageService extends ConfigManager {
     private ScheduledExecutorService handleExecutorService;
     private final Map<Integer /* level */, LinkedBlockingQueue<PutResultProcess>> deliverPendingTable =
         new ConcurrentHashMap<>(32);
+    private int deliverBatchSize = 1;
+    private final Map<Integer /* level */, ExecutorService> deliverWorkerTable = new ConcurrentHashMap<>(32);
+    private final ConcurrentMap<Integer /* level */, Long/* delay of the last due message */> deliverLatencyTable =
+        new ConcurrentHashMap<Integer, Long>(32);
+    private final ConcurrentMap<Integer /* level */, Set<Long>/* offsets delivered past a failed one */> deliveredAheadTable =
+        new ConcurrentHashMap<Integer, Set<Long>>(32);
 
     public ScheduleMessageService(final DefaultMessageStore defaultMessageStore) {
         this.defaultMessageStore = defaultMessageStore;
         this.writeMessageStore = defaultMessageStore;
         if (defaultMessageStore != null) {
             this.enableAsyncDeliver = defaultMessageStore.getMessageStoreConfig().isEnableScheduleAsyncDeliver();
+            // the asynchronous delivery already has its own pipeline
+            if (!this.enableAsyncDeliver) {
+                this.deliverBatchSize = Math.max(1, defaultMessageStore.getMessageStoreConfig().getScheduleDeliverBatchSize());
+            }
         }
     }
 
@@ -109,6 +125,11 @@ public class ScheduleMessageService extends ConfigManager {
             String value = String.format("%d,%d", delayOffset, maxOffset);
             String key = String.format("%s_%d", RunningStats.scheduleMessageOffset.name(), next.getKey());
             stats.put(key, value);
+            key = String.format("%s_%d", RunningStats.scheduleMessageBacklog.name(), next.getKey());
+            stats.put(key, String.valueOf(Math.max(0, maxOffset - delayOffset)));
+            Long latency = this.deliverLatencyTable.get(next.getKey());
+            key = String.format("%s_%d", RunningStats.scheduleMessageDeliverLatency.name(), next.getKey());
+            stats.put(key, String.valueOf(latency == null ? 0 : latency));
         }
     }
 
@@ -132,6 +153,13 @@ public class ScheduleMessageService extends ConfigManager {
             if (this.enableAsyncDeliver) {
                 this.handleExecutorService = new ScheduledThreadPoolExecutor(this.maxDelayLevel, new ThreadFactoryImpl("ScheduleMessageExecutorHandleThread_"));
             }
+            int deliverThreadNum = this.defaultMessageStore.getMessageStoreConfig().getScheduleDeliverThreadNumPerLevel();
+            if (this.deliverBatchSize > 1 && deliverThreadNum > 1) {
+                for (Integer level : this.delayLevelTable.keySet()) {
+                    this.deliverWorkerTable.put(level, Executors.newFixedThreadPool(deliverThreadNum,
+                        new ThreadFactoryImpl("ScheduleMessageDeliverWorker_" + level + "_")));
+                }
+            }
             for (Map.Entry<Integer, Long> entry : this.delayLevelTable.entrySet()) {
                 Integer level = entry.getKey();
                 Long timeDelay = entry.getValue();
@@ -182,6 +210,11 @@ public class ScheduleMessageService extends ConfigManager {
                 }
             }
 
+            for (ExecutorService deliverWorker : this.deliverWorkerTable.values()) {
+                deliverWorker.shutdown();
+            }
+            this.deliverWorkerTable.clear();
+
             if (this.deliverPendingTable != null) {
                 for (int i = 1; i <= this.deliverPendingTable.size(); i++) {
                     log.warn("deliverPendingTable level: {}, size: {}", i, this.deliverPendingTable.get(i).size());
@@ -403,6 +436,8 @@ public class ScheduleMessageService extends ConfigManager {
             }
 
             long nextOffset = this.offset;
+            List<DeliverRequest> batch = ScheduleMessageService.this.deliverBatchSize > 1
+                ? new ArrayList<DeliverRequest>(ScheduleMessageService.this.deliverBatchSize) : null;
             try {
                 int i = 0;
                 ConsumeQueueExt.CqExtUnit cqExtUnit = new ConsumeQueueExt.CqExtUnit();
@@ -429,9 +464,26 @@ public class ScheduleMessageService extends ConfigManager {
 
                     long countdown = deliverTimestamp - now;
                     if (countdown > 0) {
+                        ScheduleMessageService.this.deliverLatencyTable.put(this.delayLevel, 0L);
+                        if (batch != null) {
+                            nextOffset = this.batchDeliver(batch, nextOffset);
+                        }
                         this.scheduleNextTimerTask(nextOffset, DELAY_FOR_A_WHILE);
                         return;
                     }
+                    ScheduleMessageService.this.deliverLatencyTable.put(this.delayLevel, -countdown);
+
+                    if (batch != null) {
+                        batch.add(new DeliverRequest(nextOffset, offsetPy, sizePy));
+                        if (batch.size() >= ScheduleMessageService.this.deliverBatchSize) {
+                            long batchNextOffset = this.batchDeliver(batch, nextOffset + 1);
+                            if (batchNextOffset <= nextOffset) {
+                                this.scheduleNextTimerTask(batchNextOffset, DELAY_FOR_A_WHILE);
+                                return;
+                            }
+                        }
+                        continue;
+                    }
 
                     MessageExt msgExt = ScheduleMessageService.this.defaultMessageStore.lookMessageByOffset(offsetPy, sizePy);
                     if (msgExt == null) {
@@ -459,6 +511,9 @@ public class ScheduleMessageService extends ConfigManager {
                 }
 
                 nextOffset = this.offset + (i / ConsumeQueue.CQ_STORE_UNIT_SIZE);
+                if (batch != null) {
+                    nextOffset = this.batchDeliver(batch, nextOffset);
+                }
             } catch (Exception e) {
                 log.error("ScheduleMessageService, messageTimeup execute error, offset = {}", nextOffset, e);
             } finally {
@@ -468,6 +523,100 @@ public class ScheduleMessageService extends ConfigManager {
             this.scheduleNextTimerTask(nextOffset, DELAY_FOR_A_WHILE);
         }
 
+        /**
+         * Put the messages of the batch to the store all together, then wait for the results. The offset only moves
+         * up to the first message not delivered, the messages after it that were delivered all the same are
+         * remembered so that they are not put again when the batch is retried.
+         *
+         * @return offsetOnSuccess if every message is delivered, the offset of the first message not delivered
+         * otherwise
+         */
+        private long batchDeliver(List<DeliverRequest> batch, long offsetOnSuccess) {
+            if (batch.isEmpty()) {
+                return offsetOnSuccess;
+            }
+
+            Set<Long> deliveredAhead = ScheduleMessageService.this.deliveredAheadTable
+                .computeIfAbsent(this.delayLevel, k -> ConcurrentHashMap.newKeySet());
+            long firstOffset = batch.get(0).getOffset();
+            deliveredAhead.removeIf(offset -> offset < firstOffset);
+
+            List<DeliverRequest> pending = new ArrayList<DeliverRequest>(batch.size());
+            for (DeliverRequest request : batch) {
+                if (!deliveredAhead.remove(request.getOffset())) {
+                    pending.add(request);
+                }
+            }
+
+            PutResultProcess[] processes = new PutResultProcess[pending.size()];
+            int issued = 0;
+            try {
+                List<MessageExt> msgExtList = this.lookMessages(pending);
+                for (; issued < pending.size(); issued++) {
+                    MessageExt msgExt = msgExtList.get(issued);
+                    if (msgExt == null) {
+                        continue;
+                    }
+
+                    MessageExtBrokerInner msgInner = ScheduleMessageService.this.messageTimeup(msgExt);
+                    if (TopicValidator.RMQ_SYS_TRANS_HALF_TOPIC.equals(msgInner.getTopic())) {
+                        log.error("[BUG] the real topic of schedule msg is {}, discard the msg. msg={}",
+                            msgInner.getTopic(), msgInner);
+                        continue;
+                    }
+
+                    DeliverRequest request = pending.get(issued);
+                    processes[issued] = this.deliverMessage(msgInner, msgExt.getMsgId(), request.getOffset(),
+                        request.getOffsetPy(), request.getSizePy(), false);
+                }
+            } catch (Exception e) {
+                // the messages not put yet are retried together with the first one that failed
+                log.error("ScheduleMessageService, batch deliver error, offset = {}", pending.get(issued).getOffset(), e);
+            }
+
+            int firstFailed = issued;
+            for (int k = 0; k < issued; k++) {
+                if (processes[k] == null) {
+                    continue;
+                }
+                PutMessageResult result = processes[k].get();
+                if (result == null || result.getPutMessageStatus() != PutMessageStatus.PUT_OK) {
+                    firstFailed = Math.min(firstFailed, k);
+                } else if (k > firstFailed) {
+                    deliveredAhead.add(pending.get(k).getOffset());
+                }
+            }
+
+            long nextOffset = firstFailed < pending.size() ? pending.get(firstFailed).getOffset() : offsetOnSuccess;
+            if (nextOffset > firstOffset) {
+                ScheduleMessageService.this.updateOffset(this.delayLevel, nextOffset);
+            }
+            batch.clear();
+            return nextOffset;
+        }
+
+        private List<MessageExt> lookMessages(List<DeliverRequest> batch) throws Exception {
+            List<MessageExt> msgExtList = new ArrayList<MessageExt>(batch.size());
+            ExecutorService deliverWorker = ScheduleMessageService.this.deliverWorkerTable.get(this.delayLevel);
+            if (null == deliverWorker || batch.size() == 1) {
+                for (DeliverRequest request : batch) {
+                    msgExtList.add(ScheduleMessageService.this.defaultMessageStore.lookMessageByOffset(
+                        request.getOffsetPy(), request.getSizePy()));
+                }
+                return msgExtList;
+            }
+
+            List<Future<MessageExt>> futureList = new ArrayList<Future<MessageExt>>(batch.size());
+            for (DeliverRequest request : batch) {
+                futureList.add(deliverWorker.submit(() -> ScheduleMessageService.this.defaultMessageStore
+                    .lookMessageByOffset(request.getOffsetPy(), request.getSizePy())));
+            }
+            for (Future<MessageExt> future : futureList) {
+                msgExtList.add(future.get());
+            }
+            return msgExtList;
+        }
+
         public void scheduleNextTimerTask(long offset, long delay) {
             ScheduleMessageService.this.deliverExecutorService.schedule(new DeliverDelayedMessageTimerTask(
                 this.delayLevel, offset), delay, TimeUnit.MILLISECONDS);
@@ -527,6 +676,30 @@ public class ScheduleMessageService extends ConfigManager {
         }
     }
 
+    static class DeliverRequest {
+        private final long offset;
+        private final long offsetPy;
+        private final int sizePy;
+
+        DeliverRequest(long offset, long offsetPy, int sizePy) {
+            this.offset = offset;
+            this.offsetPy = offsetPy;
+            this.sizePy = sizePy;
+        }
+
+        long getOffset() {
+            return offset;
+        }
+
+        long getOffsetPy() {
+            return offsetPy;
+        }
+
+        int getSizePy() {
+            return sizePy;
+        }
+    }
+
     public class HandlePutResultTask implements Runnable {
         private final int delayLevel;
 
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.timer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.logging.InternalLogger;
+import org.apache.rocketmq.logging.InternalLoggerFactory;
+import org.apache.rocketmq.store.MappedFile;
+import org.apache.rocketmq.store.MappedFileQueue;
+import org.apache.rocketmq.store.SelectMappedBufferResult;
+
+/**
+ * Append only log of the timer records, the records of a slot of the {@link TimerWheel} are chained backwards by
+ * their prevPos.
+ * <pre>
+ * | size(4) | prevPos(8) | slotTimeMs(8) | deliverMs(8) | offsetPy(8) | sizePy(4) | readTimeMs(8) |
+ * </pre>
+ * readTimeMs is the read time of the wheel when the record is written, every slot of a record is at most one roll
+ * window after it, which tells when a file only holds records already read.
+ */
+public class TimerLog {
+    private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
+
+    public static final int UNIT_SIZE = 4 + 8 + 8 + 8 + 8 + 4 + 8;
+    private static final int READ_TIME_POS = UNIT_SIZE - 8;
+
+    private final MappedFileQueue mappedFileQueue;
+    private final int fileSize;
+    private final ByteBuffer unitBuffer = ByteBuffer.allocate(UNIT_SIZE);
+
+    public TimerLog(final String storePath, final int fileSize) {
+        this.fileSize = fileSize / UNIT_SIZE * UNIT_SIZE;
+        this.mappedFileQueue = new MappedFileQueue(storePath, this.fileSize, null);
+    }
+
+    public boolean load() {
+        return this.mappedFileQueue.load();
+    }
+
+    /**
+     * Drop what was written after {@code flushedPosition}, those records are enqueued again from the consume queue.
+     */
+    public void recover(final long flushedPosition) {
+        this.mappedFileQueue.setFlushedWhere(flushedPosition);
+        this.mappedFileQueue.setCommittedWhere(flushedPosition);
+        this.mappedFileQueue.truncateDirtyFiles(flushedPosition);
+    }
+
+    /**
+     * Not thread safe, there is a single writer.
+     *
+     * @return position of the record, or -1 if it can not be written
+     */
+    public long append(final long prevPos, final long slotTimeMs, final long deliverMs, final long offsetPy,
+        final int sizePy, final long readTimeMs) {
+        MappedFile mappedFile = this.mappedFileQueue.getLastMappedFile(0);
+        if (null == mappedFile) {
+            log.error("create timer log mapped file failed");
+            return -1;
+        }
+
+        this.unitBuffer.clear();
+        this.unitBuffer.putInt(UNIT_SIZE);
+        this.unitBuffer.putLong(prevPos);
+        this.unitBuffer.putLong(slotTimeMs);
+        this.unitBuffer.putLong(deliverMs);
+        this.unitBuffer.putLong(offsetPy);
+        this.unitBuffer.putInt(sizePy);
+        this.unitBuffer.putLong(readTimeMs);
+
+        long pos = mappedFile.getFileFromOffset() + mappedFile.getWrotePosition();
+        if (!mappedFile.appendMessage(this.unitBuffer.array())) {
+            log.error("append timer log failed, pos={}", pos);
+            return -1;
+        }
+        return pos;
+    }
+
+    /**
+     * @return the buffer of the record to be released by the caller, or null if it does not exist any more
+     */
+    public SelectMappedBufferResult getRecord(final long pos) {
+        MappedFile mappedFile = this.mappedFileQueue.findMappedFileByOffset(pos);
+        if (null == mappedFile) {
+            return null;
+        }
+        return mappedFile.selectMappedBuffer((int) (pos % this.fileSize), UNIT_SIZE);
+    }
+
+    /**
+     * Delete the files only holding records of slots before {@code readTimeMs}.
+     */
+    public int deleteExpiredFiles(final long readTimeMs, final long rollWindowMs) {
+        List<MappedFile> mappedFiles = this.mappedFileQueue.getMappedFiles();
+        List<MappedFile> expiredFiles = new ArrayList<MappedFile>();
+        // the last file is still written
+        for (int i = 0; i < mappedFiles.size() - 1; i++) {
+            MappedFile mappedFile = mappedFiles.get(i);
+            SelectMappedBufferResult result = mappedFile.selectMappedBuffer(this.fileSize - UNIT_SIZE);
+            if (null == result) {
+                break;
+            }
+            long lastReadTimeMs = result.getByteBuffer().getLong(READ_TIME_POS);
+            result.release();
+            if (lastReadTimeMs + rollWindowMs >= readTimeMs || !mappedFile.destroy(1000 * 60)) {
+                break;
+            }
+            log.info("delete expired timer log file {}, lastReadTimeMs={}", mappedFile.getFileName(), lastReadTimeMs);
+            expiredFiles.add(mappedFile);
+        }
+        this.mappedFileQueue.deleteExpiredFile(expiredFiles);
+        return expiredFiles.size();
+    }
+
+    public void flush() {
+        this.mappedFileQueue.flush(0);
+    }
+
+    public long getMaxOffset() {
+        return this.mappedFileQueue.getMaxOffset();
+    }
+
+    public MappedFileQueue getMappedFileQueue() {
+        return mappedFileQueue;
+    }
+
+    public void shutdown() {
+        this.mappedFileQueue.shutdown(1000 * 3);
+    }
+
+    public void destroy() {
+        this.mappedFileQueue.destroy();
+    }
+}
@@ -0,0 +1,711 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.timer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.rocketmq.common.ServiceThread;
+import org.apache.rocketmq.common.TopicFilterType;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.common.message.MessageAccessor;
+import org.apache.rocketmq.common.message.MessageConst;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.common.running.RunningStats;
+import org.apache.rocketmq.common.topic.TopicValidator;
+import org.apache.rocketmq.logging.InternalLogger;
+import org.apache.rocketmq.logging.InternalLoggerFactory;
+import org.apache.rocketmq.store.ConsumeQueue;
+import org.apache.rocketmq.store.DefaultMessageStore;
+import org.apache.rocketmq.store.MappedFile;
+import org.apache.rocketmq.store.MessageExtBrokerInner;
+import org.apache.rocketmq.store.PutMessageResult;
+import org.apache.rocketmq.store.PutMessageStatus;
+import org.apache.rocketmq.store.SelectMappedBufferResult;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.apache.rocketmq.store.config.StorePathConfigHelper;
+
+/**
+ * Delay messages with an arbitrary deliver time, kept in a hashed timing wheel.
+ * <p>
+ * A message carrying {@link MessageConst#PROPERTY_TIMER_DELIVER_MS} or {@link MessageConst#PROPERTY_TIMER_DELAY_MS}
+ * is stored in {@link TopicValidator#RMQ_SYS_WHEEL_TIMER}. The enqueue service reads that consume queue and appends
+ * a record per message to the {@link TimerLog}, linked into the slot of its deliver time in the {@link TimerWheel}.
+ * The dequeue service reads the slots one after the other once their time is over and hands their records to the
+ * deliver service, which puts the messages back to their real topic.
+ * <p>
+ * A slot is never further than timerRollWindowSec ahead of the read time, a message due later is put again to the
+ * timer topic when it reaches the end of the window and so rolls into the next one. The CommitLog thus only has to
+ * keep a timer message for one window.
+ * <p>
+ * The read time is only checkpointed once every message of a slot is delivered, messages are delivered at least once.
+ */
+public class TimerMessageStore {
+    private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
+
+    private static final int DELIVER_QUEUE_CAPACITY = 1024 * 4;
+    private static final long DELAY_FOR_A_WHILE = 100L;
+
+    private final DefaultMessageStore defaultMessageStore;
+    private final MessageStoreConfig storeConfig;
+    private final int precisionMs;
+    private final long rollWindowMs;
+    private final long maxDelayMs;
+
+    private final TimerLog timerLog;
+    private final TimerWheel timerWheel;
+    private final TimerCheckpoint timerCheckpoint;
+
+    private final ReentrantLock wheelLock = new ReentrantLock();
+    private final BlockingQueue<TimerRequest> deliverQueue = new LinkedBlockingQueue<TimerRequest>(DELIVER_QUEUE_CAPACITY);
+    private final AtomicBoolean started = new AtomicBoolean(false);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    /**
+     * Start time of the next slot to read, guarded by the wheel lock.
+     */
+    private volatile long currReadTimeMs;
+    /**
+     * Every message of the slots before it is delivered.
+     */
+    private volatile long committedReadTimeMs;
+    private volatile long currQueueOffset;
+
+    private final EnqueueService enqueueService = new EnqueueService();
+    private final DequeueService dequeueService = new DequeueService();
+    private final DeliverService deliverService = new DeliverService();
+
+    private final LongAdder enqueueCount = new LongAdder();
+    private final LongAdder deliverCount = new LongAdder();
+    private final LongAdder rollCount = new LongAdder();
+
+    public TimerMessageStore(final DefaultMessageStore defaultMessageStore) throws IOException {
+        this.defaultMessageStore = defaultMessageStore;
+        this.storeConfig = defaultMessageStore.getMessageStoreConfig();
+        this.precisionMs = this.storeConfig.getTimerPrecisionMs();
+        this.rollWindowMs = this.storeConfig.getTimerRollWindowSec() * 1000L / this.precisionMs * this.precisionMs;
+        this.maxDelayMs = this.storeConfig.getTimerMaxDelaySec() * 1000L;
+
+        String rootDir = this.storeConfig.getStorePathRootDir();
+        this.timerLog = new TimerLog(StorePathConfigHelper.getStorePathTimerLog(rootDir),
+            this.storeConfig.getMappedFileSizeTimerLog());
+        // twice the window, the slots being read never collide with the slots being written
+        int slotsTotal = (int) (this.rollWindowMs / this.precisionMs * 2);
+        this.timerWheel = new TimerWheel(StorePathConfigHelper.getTimerWheelPath(rootDir), slotsTotal, this.precisionMs);
+        this.timerCheckpoint = new TimerCheckpoint(StorePathConfigHelper.getTimerCheckpointPath(rootDir));
+    }
+
+    public boolean load(final boolean lastExitOK) {
+        if (!this.timerLog.load()) {
+            return false;
+        }
+        this.timerLog.recover(this.timerCheckpoint.getLastTimerLogFlushPos());
+
+        this.currQueueOffset = this.timerCheckpoint.getLastTimerQueueOffset();
+        long readTimeMs = this.timerCheckpoint.getLastReadTimeMs();
+        if (readTimeMs <= 0) {
+            readTimeMs = this.alignTime(System.currentTimeMillis());
+        }
+        this.currReadTimeMs = readTimeMs;
+        this.committedReadTimeMs = readTimeMs;
+
+        if (!lastExitOK || !this.timerWheel.isLoaded()) {
+            this.rebuildTimerWheel(readTimeMs);
+        }
+        log.info("load timer message store, readTimeMs={} queueOffset={} timerLogMaxOffset={}",
+            readTimeMs, this.currQueueOffset, this.timerLog.getMaxOffset());
+        return true;
+    }
+
+    /**
+     * The wheel may have been written further than the timer log was flushed, link the records again.
+     */
+    private void rebuildTimerWheel(final long readTimeMs) {
+        long beginTime = System.currentTimeMillis();
+        this.timerWheel.reset();
+        int recordNum = 0;
+        for (MappedFile mappedFile : this.timerLog.getMappedFileQueue().getMappedFiles()) {
+            SelectMappedBufferResult result = mappedFile.selectMappedBuffer(0);
+            if (null == result) {
+                continue;
+            }
+            try {
+                ByteBuffer byteBuffer = result.getByteBuffer();
+                for (int i = 0; i + TimerLog.UNIT_SIZE <= result.getSize(); i += TimerLog.UNIT_SIZE) {
+                    if (byteBuffer.getInt(i) != TimerLog.UNIT_SIZE) {
+                        break;
+                    }
+                    long slotTimeMs = byteBuffer.getLong(i + 12);
+                    if (slotTimeMs < readTimeMs) {
+                        continue;
+                    }
+                    long pos = mappedFile.getFileFromOffset() + i;
+                    TimerWheel.Slot slot = this.timerWheel.getSlot(slotTimeMs);
+                    this.timerWheel.putSlot(slotTimeMs, slot.getFirstPos() < 0 ? pos : slot.getFirstPos(), pos,
+                        slot.getNum() + 1);
+                    recordNum++;
+                }
+            } finally {
+                result.release();
+            }
+        }
+        log.info("rebuild timer wheel from timer log, {} records, cost {} ms", recordNum,
+            System.currentTimeMillis() - beginTime);
+    }
+
+    public void start() {
+        if (this.started.compareAndSet(false, true)) {
+            // read again what was left over by the last run
+            this.deliverQueue.clear();
+            this.currReadTimeMs = this.committedReadTimeMs;
+            this.enqueueService.start();
+            this.dequeueService.start();
+            this.deliverService.start();
+        }
+    }
+
+    /**
+     * Stop enqueueing and delivering, the files stay mapped so that the store can be started again, e.g. when the
+     * broker becomes master again.
+     */
+    public void stop() {
+        if (this.started.compareAndSet(true, false)) {
+            this.enqueueService.shutdown();
+            this.dequeueService.shutdown();
+            this.deliverService.shutdown();
+            this.flush();
+        }
+    }
+
+    /**
+     * Stop, then release the timer log, the timer wheel and the checkpoint, the store can not be started again.
+     */
+    public void shutdown() {
+        if (this.closed.compareAndSet(false, true)) {
+            this.stop();
+            this.timerLog.shutdown();
+            this.timerWheel.shutdown();
+            this.timerCheckpoint.shutdown();
+        }
+    }
+
+    public void destroy() {
+        this.shutdown();
+        this.timerLog.destroy();
+        String rootDir = this.storeConfig.getStorePathRootDir();
+        new File(StorePathConfigHelper.getTimerWheelPath(rootDir)).delete();
+        new File(StorePathConfigHelper.getTimerCheckpointPath(rootDir)).delete();
+    }
+
+    /**
+     * Redirect a message with a timer property to the timer topic, called before it is appended to the CommitLog.
+     *
+     * @return null if the message can be put, the result to return otherwise
+     */
+    public PutMessageResult transformTimerMessage(final MessageExtBrokerInner msg) {
+        if (TopicValidator.RMQ_SYS_WHEEL_TIMER.equals(msg.getTopic())) {
+            return null;
+        }
+        String deliverMsStr = msg.getProperty(MessageConst.PROPERTY_TIMER_DELIVER_MS);
+        String delayMsStr = msg.getProperty(MessageConst.PROPERTY_TIMER_DELAY_MS);
+        if (null == deliverMsStr && null == delayMsStr) {
+            return null;
+        }
+
+        long deliverMs;
+        try {
+            if (deliverMsStr != null) {
+                deliverMs = Long.parseLong(deliverMsStr);
+            } else {
+                deliverMs = msg.getStoreTimestamp() + Long.parseLong(delayMsStr);
+            }
+        } catch (NumberFormatException e) {
+            log.warn("illegal timer property of message, deliverMs={}, delayMs={}", deliverMsStr, delayMsStr);
+            return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, null);
+        }
+        if (deliverMs - msg.getStoreTimestamp() > this.maxDelayMs) {
+            log.warn("deliver time of message is too far, deliverMs={}, timerMaxDelaySec={}", deliverMs,
+                this.storeConfig.getTimerMaxDelaySec());
+            return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, null);
+        }
+
+        MessageAccessor.clearProperty(msg, MessageConst.PROPERTY_TIMER_DELAY_MS);
+        if (deliverMs <= msg.getStoreTimestamp()) {
+            MessageAccessor.clearProperty(msg, MessageConst.PROPERTY_TIMER_DELIVER_MS);
+        } else {
+            MessageAccessor.putProperty(msg, MessageConst.PROPERTY_TIMER_DELIVER_MS, String.valueOf(deliverMs));
+            // Backup real topic, queueId
+            MessageAccessor.putProperty(msg, MessageConst.PROPERTY_REAL_TOPIC, msg.getTopic());
+            MessageAccessor.putProperty(msg, MessageConst.PROPERTY_REAL_QUEUE_ID, String.valueOf(msg.getQueueId()));
+            msg.setTopic(TopicValidator.RMQ_SYS_WHEEL_TIMER);
+            msg.setQueueId(0);
+        }
+        msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+        return null;
+    }
+
+    private long alignTime(final long timeMs) {
+        return timeMs / this.precisionMs * this.precisionMs;
+    }
+
+    /**
+     * Only called by the enqueue service.
+     */
+    private boolean addTimer(final long deliverMs, final long offsetPy, final int sizePy) {
+        this.wheelLock.lock();
+        try {
+            long readTimeMs = this.currReadTimeMs;
+            long slotTimeMs = this.alignTime(deliverMs);
+            if (slotTimeMs < readTimeMs) {
+                slotTimeMs = readTimeMs;
+            } else if (slotTimeMs > readTimeMs + this.rollWindowMs) {
+                slotTimeMs = readTimeMs + this.rollWindowMs;
+            }
+
+            TimerWheel.Slot slot = this.timerWheel.getSlot(slotTimeMs);
+            long pos = this.timerLog.append(slot.getLastPos(), slotTimeMs, deliverMs, offsetPy, sizePy, readTimeMs);
+            if (pos < 0) {
+                return false;
+            }
+            this.timerWheel.putSlot(slotTimeMs, slot.getFirstPos() < 0 ? pos : slot.getFirstPos(), pos,
+                slot.getNum() + 1);
+            return true;
+        } finally {
+            this.wheelLock.unlock();
+        }
+    }
+
+    /**
+     * Only called by the enqueue service, or once the services are stopped.
+     */
+    private void flush() {
+        long flushPos = this.timerLog.getMaxOffset();
+        long queueOffset = this.currQueueOffset;
+        long readTimeMs = this.committedReadTimeMs;
+
+        this.timerLog.flush();
+        this.timerWheel.flush();
+        this.timerCheckpoint.setLastTimerLogFlushPos(flushPos);
+        this.timerCheckpoint.setLastTimerQueueOffset(queueOffset);
+        this.timerCheckpoint.setLastReadTimeMs(readTimeMs);
+        this.timerCheckpoint.flush();
+    }
+
+    private MessageExtBrokerInner convertMessage(final MessageExt msgExt, final boolean roll) {
+        MessageExtBrokerInner msgInner = new MessageExtBrokerInner();
+        msgInner.setBody(msgExt.getBody());
+        msgInner.setFlag(msgExt.getFlag());
+        MessageAccessor.setProperties(msgInner, msgExt.getProperties());
+
+        TopicFilterType topicFilterType = MessageExt.parseTopicFilterType(msgInner.getSysFlag());
+        long tagsCodeValue =
+            MessageExtBrokerInner.tagsString2tagsCode(topicFilterType, msgInner.getTags());
+        msgInner.setTagsCode(tagsCodeValue);
+
+        msgInner.setSysFlag(msgExt.getSysFlag());
+        msgInner.setBornTimestamp(msgExt.getBornTimestamp());
+        msgInner.setBornHost(msgExt.getBornHost());
+        msgInner.setStoreHost(msgExt.getStoreHost());
+        msgInner.setReconsumeTimes(msgExt.getReconsumeTimes());
+
+        msgInner.setWaitStoreMsgOK(false);
+
+        if (roll) {
+            msgInner.setTopic(msgExt.getTopic());
+            msgInner.setQueueId(msgExt.getQueueId());
+        } else {
+            MessageAccessor.clearProperty(msgInner, MessageConst.PROPERTY_TIMER_DELIVER_MS);
+            msgInner.setTopic(msgInner.getProperty(MessageConst.PROPERTY_REAL_TOPIC));
+            msgInner.setQueueId(Integer.parseInt(msgInner.getProperty(MessageConst.PROPERTY_REAL_QUEUE_ID)));
+        }
+        msgInner.setPropertiesString(MessageDecoder.messageProperties2String(msgInner.getProperties()));
+        return msgInner;
+    }
+
+    public void buildRunningStats(HashMap<String, String> stats) {
+        long maxOffset = this.defaultMessageStore.getMaxOffsetInQueue(TopicValidator.RMQ_SYS_WHEEL_TIMER, 0);
+        stats.put(RunningStats.timerEnqueueBehindMessages.name(),
+            String.valueOf(Math.max(0, maxOffset - this.currQueueOffset)));
+        stats.put(RunningStats.timerDequeueBehindMillis.name(),
+            String.valueOf(Math.max(0, System.currentTimeMillis() - this.currReadTimeMs)));
+        stats.put(RunningStats.timerDeliverPendingRequests.name(), String.valueOf(this.deliverQueue.size()));
+    }
+
+    public long getCurrReadTimeMs() {
+        return currReadTimeMs;
+    }
+
+    public long getCommittedReadTimeMs() {
+        return committedReadTimeMs;
+    }
+
+    public long getCurrQueueOffset() {
+        return currQueueOffset;
+    }
+
+    public long getEnqueueCount() {
+        return enqueueCount.sum();
+    }
+
+    public long getDeliverCount() {
+        return deliverCount.sum();
+    }
+
+    public long getRollCount() {
+        return rollCount.sum();
+    }
+
+    public TimerLog getTimerLog() {
+        return timerLog;
+    }
+
+    public TimerWheel getTimerWheel() {
+        return timerWheel;
+    }
+
+    /**
+     * Reads the timer topic and puts its messages into the wheel, also checkpoints the store.
+     */
+    class EnqueueService extends ServiceThread {
+        private long lastFlushTime = System.currentTimeMillis();
+
+        @Override
+        public String getServiceName() {
+            return EnqueueService.class.getSimpleName();
+        }
+
+        @Override
+        public void run() {
+            log.info(this.getServiceName() + " service started");
+
+            while (!this.isStopped()) {
+                try {
+                    if (!this.enqueue()) {
+                        this.waitForRunning(50);
+                    }
+
+                    long now = System.currentTimeMillis();
+                    if (now - this.lastFlushTime >= TimerMessageStore.this.storeConfig.getTimerFlushIntervalMs()) {
+                        this.lastFlushTime = now;
+                        TimerMessageStore.this.flush();
+                        TimerMessageStore.this.timerLog.deleteExpiredFiles(TimerMessageStore.this.committedReadTimeMs,
+                            TimerMessageStore.this.rollWindowMs);
+                    }
+                } catch (Throwable e) {
+                    log.warn(this.getServiceName() + " service has exception. ", e);
+                }
+            }
+
+            log.info(this.getServiceName() + " service end");
+        }
+
+        /**
+         * @return whether the queue offset went forward
+         */
+        private boolean enqueue() {
+            ConsumeQueue cq = TimerMessageStore.this.defaultMessageStore.findConsumeQueue(
+                TopicValidator.RMQ_SYS_WHEEL_TIMER, 0);
+            long offset = TimerMessageStore.this.currQueueOffset;
+            long minOffset = cq.getMinOffsetInQueue();
+            if (offset < minOffset) {
+                log.warn("timer queue offset {} is behind the min offset {}, the messages in between are lost",
+                    offset, minOffset);
+                offset = minOffset;
+                TimerMessageStore.this.currQueueOffset = offset;
+            }
+
+            SelectMappedBufferResult bufferCQ = cq.getIndexBuffer(offset);
+            if (null == bufferCQ) {
+                return false;
+            }
+
+            int i = 0;
+            try {
+                ByteBuffer byteBuffer = bufferCQ.getByteBuffer();
+                for (; i < bufferCQ.getSize() && !this.isStopped(); i += ConsumeQueue.CQ_STORE_UNIT_SIZE) {
+                    long offsetPy = byteBuffer.getLong();
+                    int sizePy = byteBuffer.getInt();
+                    byteBuffer.getLong();
+
+                    if (!this.enqueueMessage(offsetPy, sizePy)) {
+                        break;
+                    }
+                    TimerMessageStore.this.currQueueOffset = offset + i / ConsumeQueue.CQ_STORE_UNIT_SIZE + 1;
+                }
+            } finally {
+                bufferCQ.release();
+            }
+            return i > 0;
+        }
+
+        /**
+         * @return false if the message should be enqueued again
+         */
+        private boolean enqueueMessage(final long offsetPy, final int sizePy) {
+            SelectMappedBufferResult msgBuffer =
+                TimerMessageStore.this.defaultMessageStore.getCommitLog().getMessage(offsetPy, sizePy);
+            if (null == msgBuffer) {
+                log.error("timer message is missing from the CommitLog, offsetPy={}, sizePy={}", offsetPy, sizePy);
+                return true;
+            }
+
+            Map<String, String> properties;
+            try {
+                properties = MessageDecoder.decodeProperties(msgBuffer.getByteBuffer());
+            } finally {
+                msgBuffer.release();
+            }
+            String deliverMs = properties == null ? null : properties.get(MessageConst.PROPERTY_TIMER_DELIVER_MS);
+            if (null == deliverMs) {
+                log.error("[BUG] timer message without deliver time, offsetPy={}, sizePy={}", offsetPy, sizePy);
+                return true;
+            }
+
+            if (!TimerMessageStore.this.addTimer(Long.parseLong(deliverMs), offsetPy, sizePy)) {
+                return false;
+            }
+            TimerMessageStore.this.enqueueCount.add(1);
+            return true;
+        }
+    }
+
+    /**
+     * Reads the slot whose time is over and hands its records to the deliver service.
+     */
+    class DequeueService extends ServiceThread {
+
+        @Override
+        public String getServiceName() {
+            return DequeueService.class.getSimpleName();
+        }
+
+        @Override
+        public void run() {
+            log.info(this.getServiceName() + " service started");
+
+            while (!this.isStopped()) {
+                try {
+                    if (!this.dequeue()) {
+                        this.waitForRunning(Math.min(DELAY_FOR_A_WHILE, TimerMessageStore.this.precisionMs));
+                    }
+                } catch (Throwable e) {
+                    log.warn(this.getServiceName() + " service has exception. ", e);
+                }
+            }
+
+            log.info(this.getServiceName() + " service end");
+        }
+
+        /**
+         * @return whether a slot was read
+         */
+        private boolean dequeue() throws InterruptedException {
+            long readTimeMs = TimerMessageStore.this.currReadTimeMs;
+            if (System.currentTimeMillis() < readTimeMs + TimerMessageStore.this.precisionMs) {
+                return false;
+            }
+
+            TimerWheel.Slot slot;
+            TimerMessageStore.this.wheelLock.lock();
+            try {
+                slot = TimerMessageStore.this.timerWheel.getSlot(readTimeMs);
+                // the messages enqueued from now on for this slot go to the next one
+                TimerMessageStore.this.currReadTimeMs = readTimeMs + TimerMessageStore.this.precisionMs;
+            } finally {
+                TimerMessageStore.this.wheelLock.unlock();
+            }
+
+            // walk backwards along the chain of the slot
+            long pos = slot.getLastPos();
+            while (pos >= 0 && !this.isStopped()) {
+                SelectMappedBufferResult result = TimerMessageStore.this.timerLog.getRecord(pos);
+                if (null == result) {
+                    log.error("timer log record is missing, pos={}, slotTimeMs={}", pos, readTimeMs);
+                    break;
+                }
+                try {
+                    ByteBuffer byteBuffer = result.getByteBuffer();
+                    long prevPos = byteBuffer.getLong(4);
+                    long slotTimeMs = byteBuffer.getLong(12);
+                    long deliverMs = byteBuffer.getLong(20);
+                    long offsetPy = byteBuffer.getLong(28);
+                    int sizePy = byteBuffer.getInt(36);
+                    if (slotTimeMs != readTimeMs) {
+                        log.error("[BUG] timer log record of another slot, pos={}, slotTimeMs={}, expected={}",
+                            pos, slotTimeMs, readTimeMs);
+                        break;
+                    }
+                    this.putDeliverRequest(new TimerRequest(offsetPy, sizePy, deliverMs, slotTimeMs));
+                    pos = prevPos;
+                } finally {
+                    result.release();
+                }
+            }
+
+            this.putDeliverRequest(new TimerRequest(-1, 0, 0, readTimeMs + TimerMessageStore.this.precisionMs));
+            return true;
+        }
+
+        private void putDeliverRequest(final TimerRequest request) throws InterruptedException {
+            while (!this.isStopped()) {
+                if (TimerMessageStore.this.deliverQueue.offer(request, DELAY_FOR_A_WHILE, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Puts the messages back to their real topic, or to the timer topic if they roll to the next window.
+     */
+    class DeliverService extends ServiceThread {
+
+        @Override
+        public String getServiceName() {
+            return DeliverService.class.getSimpleName();
+        }
+
+        @Override
+        public void run() {
+            log.info(this.getServiceName() + " service started");
+
+            while (!this.isStopped()) {
+                try {
+                    TimerRequest request =
+                        TimerMessageStore.this.deliverQueue.poll(DELAY_FOR_A_WHILE, TimeUnit.MILLISECONDS);
+                    if (null == request) {
+                        continue;
+                    }
+                    if (request.isMarker()) {
+                        TimerMessageStore.this.committedReadTimeMs = request.getSlotTimeMs();
+                    } else {
+                        this.deliver(request);
+                    }
+                } catch (InterruptedException e) {
+                    log.warn(this.getServiceName() + " interrupted, this may caused by shutdown");
+                } catch (Throwable e) {
+                    log.warn(this.getServiceName() + " service has exception. ", e);
+                }
+            }
+
+            log.info(this.getServiceName() + " service end");
+        }
+
+        private void deliver(final TimerRequest request) throws InterruptedException {
+            SelectMappedBufferResult msgBuffer = TimerMessageStore.this.defaultMessageStore.getCommitLog()
+                .getMessage(request.getOffsetPy(), request.getSizePy());
+            if (null == msgBuffer) {
+                log.error("timer message is missing from the CommitLog, offsetPy={}, sizePy={}",
+                    request.getOffsetPy(), request.getSizePy());
+                return;
+            }
+
+            MessageExt msgExt;
+            try {
+                msgExt = MessageDecoder.decode(msgBuffer.getByteBuffer(), true, false, false);
+            } finally {
+                msgBuffer.release();
+            }
+            if (null == msgExt) {
+                log.error("[BUG] failed to decode timer message, offsetPy={}, sizePy={}",
+                    request.getOffsetPy(), request.getSizePy());
+                return;
+            }
+
+            boolean roll = request.getDeliverMs() >= request.getSlotTimeMs() + TimerMessageStore.this.precisionMs;
+            if (!roll && null == msgExt.getProperty(MessageConst.PROPERTY_REAL_TOPIC)) {
+                log.error("[BUG] timer message without real topic, discard it. msg={}", msgExt);
+                return;
+            }
+            MessageExtBrokerInner msgInner = TimerMessageStore.this.convertMessage(msgExt, roll);
+
+            while (!this.isStopped()) {
+                PutMessageResult result = TimerMessageStore.this.defaultMessageStore.putMessage(msgInner);
+                if (result != null && result.isOk()) {
+                    if (roll) {
+                        TimerMessageStore.this.rollCount.add(1);
+                    } else {
+                        TimerMessageStore.this.deliverCount.add(1);
+                    }
+                    return;
+                }
+
+                PutMessageStatus status = result == null ? PutMessageStatus.UNKNOWN_ERROR : result.getPutMessageStatus();
+                switch (status) {
+                    case SERVICE_NOT_AVAILABLE:
+                    case OS_PAGECACHE_BUSY:
+                    case CREATE_MAPEDFILE_FAILED:
+                    case UNKNOWN_ERROR:
+                        log.warn("put timer message failed, retry later. status={}, msgId={}", status,
+                            msgExt.getMsgId());
+                        Thread.sleep(DELAY_FOR_A_WHILE);
+                        break;
+                    default:
+                        log.error("put timer message failed, discard it. status={}, msgId={}", status,
+                            msgExt.getMsgId());
+                        return;
+                }
+            }
+        }
+    }
+
+    /**
+     * A record to deliver, or with a negative offsetPy the marker telling every record before slotTimeMs is delivered.
+     */
+    static class TimerRequest {
+        private final long offsetPy;
+        private final int sizePy;
+        private final long deliverMs;
+        private final long slotTimeMs;
+
+        TimerRequest(long offsetPy, int sizePy, long deliverMs, long slotTimeMs) {
+            this.offsetPy = offsetPy;
+            this.sizePy = sizePy;
+            this.deliverMs = deliverMs;
+            this.slotTimeMs = slotTimeMs;
+        }
+
+        boolean isMarker() {
+            return offsetPy < 0;
+        }
+
+        long getOffsetPy() {
+            return offsetPy;
+        }
+
+        int getSizePy() {
+            return sizePy;
+        }
+
+        long getDeliverMs() {
+            return deliverMs;
+        }
+
+        long getSlotTimeMs() {
+            return slotTimeMs;
+        }
+    }
+}
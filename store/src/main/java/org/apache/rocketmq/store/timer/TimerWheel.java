@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.timer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.logging.InternalLogger;
+import org.apache.rocketmq.logging.InternalLoggerFactory;
+import org.apache.rocketmq.store.MappedFile;
+
+/**
+ * Memory mapped ring of slots, one per precision interval, each pointing to the first and last record of its time in
+ * the {@link TimerLog}. A slot is reused every slotsTotal intervals, its timeMs tells which round it holds.
+ * <pre>
+ * | timeMs(8) | firstPos(8) | lastPos(8) | num(4) | reserved(4) |
+ * </pre>
+ */
+public class TimerWheel {
+    private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
+
+    public static final int SLOT_SIZE = 8 + 8 + 8 + 4 + 4;
+
+    private final int slotsTotal;
+    private final int precisionMs;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel fileChannel;
+    private final MappedByteBuffer mappedByteBuffer;
+    private final boolean loaded;
+
+    public TimerWheel(final String fileName, final int slotsTotal, final int precisionMs) throws IOException {
+        this.slotsTotal = slotsTotal;
+        this.precisionMs = precisionMs;
+        final long size = (long) slotsTotal * SLOT_SIZE;
+
+        File file = new File(fileName);
+        MappedFile.ensureDirOK(file.getParent());
+        boolean matched = file.exists() && file.length() == size;
+        if (file.exists() && !matched) {
+            log.warn("timer wheel {} size {} does not match {} slots, it is rebuilt", fileName, file.length(), slotsTotal);
+        }
+
+        this.randomAccessFile = new RandomAccessFile(file, "rw");
+        this.randomAccessFile.setLength(size);
+        this.fileChannel = this.randomAccessFile.getChannel();
+        this.mappedByteBuffer = this.fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        this.loaded = matched;
+    }
+
+    private int slotIndex(final long timeMs) {
+        return (int) ((timeMs / this.precisionMs) % this.slotsTotal) * SLOT_SIZE;
+    }
+
+    public Slot getSlot(final long timeMs) {
+        int index = this.slotIndex(timeMs);
+        long slotTimeMs = this.mappedByteBuffer.getLong(index);
+        if (slotTimeMs != timeMs) {
+            return new Slot(timeMs, -1, -1, 0);
+        }
+        return new Slot(slotTimeMs, this.mappedByteBuffer.getLong(index + 8), this.mappedByteBuffer.getLong(index + 16),
+            this.mappedByteBuffer.getInt(index + 24));
+    }
+
+    public void putSlot(final long timeMs, final long firstPos, final long lastPos, final int num) {
+        int index = this.slotIndex(timeMs);
+        this.mappedByteBuffer.putLong(index, timeMs);
+        this.mappedByteBuffer.putLong(index + 8, firstPos);
+        this.mappedByteBuffer.putLong(index + 16, lastPos);
+        this.mappedByteBuffer.putInt(index + 24, num);
+    }
+
+    public void reset() {
+        for (int i = 0; i < this.slotsTotal; i++) {
+            this.mappedByteBuffer.putLong(i * SLOT_SIZE, -1);
+        }
+    }
+
+    public void flush() {
+        this.mappedByteBuffer.force();
+    }
+
+    public void shutdown() {
+        this.flush();
+        MappedFile.clean(this.mappedByteBuffer);
+        try {
+            this.fileChannel.close();
+            this.randomAccessFile.close();
+        } catch (IOException e) {
+            log.error("Failed to properly close the timer wheel", e);
+        }
+    }
+
+    /**
+     * Whether the wheel was loaded from a file of the expected size.
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public int getSlotsTotal() {
+        return slotsTotal;
+    }
+
+    public static class Slot {
+        private final long timeMs;
+        private final long firstPos;
+        private final long lastPos;
+        private final int num;
+
+        public Slot(long timeMs, long firstPos, long lastPos, int num) {
+            this.timeMs = timeMs;
+            this.firstPos = firstPos;
+            this.lastPos = lastPos;
+            this.num = num;
+        }
+
+        public long getTimeMs() {
+            return timeMs;
+        }
+
+        public long getFirstPos() {
+            return firstPos;
+        }
+
+        public long getLastPos() {
+            return lastPos;
+        }
+
+        public int getNum() {
+            return num;
+        }
+    }
+}
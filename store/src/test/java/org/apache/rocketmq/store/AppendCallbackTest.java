@@ -44,6 +44,8 @@ public class AppendCallbackTest {
 
     AppendMessageCallback callback;
 
+    DefaultMessageStore messageStore;
+
     MessageExtEncoder batchEncoder = new MessageExtEncoder(10 * 1024 * 1024);
 
     @Before
@@ -56,7 +58,7 @@ public class AppendCallbackTest {
         messageStoreConfig.setStorePathRootDir(System.getProperty("user.home") + File.separator + "unitteststore");
         messageStoreConfig.setStorePathCommitLog(System.getProperty("user.home") + File.separator + "unitteststore" + File.separator + "commitlog");
         //too much reference
-        DefaultMessageStore messageStore = new DefaultMessageStore(messageStoreConfig, null, null, null);
+        messageStore = new DefaultMessageStore(messageStoreConfig, null, null, null);
         CommitLog commitLog = new CommitLog(messageStore);
         callback = commitLog.new DefaultAppendMessageCallback(1024);
     }
@@ -86,7 +88,7 @@ public class AppendCallbackTest {
         messageExtBatch.setStoreHost(new InetSocketAddress("127.0.0.1", 124));
         messageExtBatch.setBody(MessageDecoder.encodeMessages(messages));
 
-        PutMessageContext putMessageContext = new PutMessageContext(topic + "-" + queue);
+        PutMessageContext putMessageContext = new PutMessageContext(messageStore.findConsumeQueue(topic, queue));
         messageExtBatch.setEncodedBuff(batchEncoder.encode(messageExtBatch, putMessageContext));
         ByteBuffer buff = ByteBuffer.allocate(1024 * 10);
         //encounter end of file when append half of the data
@@ -125,7 +127,7 @@ public class AppendCallbackTest {
         messageExtBatch.setStoreHost(new InetSocketAddress("::1", 124));
         messageExtBatch.setBody(MessageDecoder.encodeMessages(messages));
 
-        PutMessageContext putMessageContext = new PutMessageContext(topic + "-" + queue);
+        PutMessageContext putMessageContext = new PutMessageContext(messageStore.findConsumeQueue(topic, queue));
         messageExtBatch.setEncodedBuff(batchEncoder.encode(messageExtBatch, putMessageContext));
         ByteBuffer buff = ByteBuffer.allocate(1024 * 10);
         //encounter end of file when append half of the data
@@ -160,7 +162,7 @@ public class AppendCallbackTest {
         messageExtBatch.setStoreHost(new InetSocketAddress("127.0.0.1", 124));
         messageExtBatch.setBody(MessageDecoder.encodeMessages(messages));
 
-        PutMessageContext putMessageContext = new PutMessageContext(topic + "-" + queue);
+        PutMessageContext putMessageContext = new PutMessageContext(messageStore.findConsumeQueue(topic, queue));
         messageExtBatch.setEncodedBuff(batchEncoder.encode(messageExtBatch, putMessageContext));
         ByteBuffer buff = ByteBuffer.allocate(1024 * 10);
         AppendMessageResult allresult =
@@ -222,7 +224,7 @@ public class AppendCallbackTest {
         messageExtBatch.setStoreHost(new InetSocketAddress("::1", 124));
         messageExtBatch.setBody(MessageDecoder.encodeMessages(messages));
 
-        PutMessageContext putMessageContext = new PutMessageContext(topic + "-" + queue);
+        PutMessageContext putMessageContext = new PutMessageContext(messageStore.findConsumeQueue(topic, queue));
         messageExtBatch.setEncodedBuff(batchEncoder.encode(messageExtBatch, putMessageContext));
         ByteBuffer buff = ByteBuffer.allocate(1024 * 10);
         AppendMessageResult allresult =
@@ -0,0 +1,213 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.store;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.apache.rocketmq.common.BrokerConfig;
+import org.apache.rocketmq.common.message.MessageConst;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.common.message.MessageExtBatch;
+import org.apache.rocketmq.common.sysflag.MessageSysFlag;
+import org.apache.rocketmq.store.config.FlushDiskType;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.apache.rocketmq.store.stats.BrokerStatsManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CommitLogDispatchRequestTest extends StoreTestBase {
+
+    private DefaultMessageStore messageStore;
+
+    @Before
+    public void init() throws Exception {
+        String baseDir = createBaseDir();
+        baseDirs.add(baseDir);
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setMappedFileSizeCommitLog(1024 * 64);
+        messageStoreConfig.setMappedFileSizeConsumeQueue(1024 * 4);
+        messageStoreConfig.setMaxHashSlotNum(100);
+        messageStoreConfig.setMaxIndexNum(100 * 10);
+        messageStoreConfig.setFlushDiskType(FlushDiskType.ASYNC_FLUSH);
+        messageStoreConfig.setStorePathRootDir(baseDir);
+        messageStoreConfig.setStorePathCommitLog(baseDir + File.separator + "commitlog");
+        messageStore = new DefaultMessageStore(messageStoreConfig, new BrokerStatsManager("dispatchRequestTest", true),
+            new MyMessageArrivingListener(), new BrokerConfig());
+        assertThat(messageStore.load()).isTrue();
+        messageStore.start();
+    }
+
+    @After
+    public void destroy() {
+        messageStore.shutdown();
+        messageStore.destroy();
+    }
+
+    @Test
+    public void testCheckMessageAndReturnSize() {
+        MessageExtBrokerInner plain = buildMessage();
+        plain.setPropertiesString(MessageDecoder.messageProperties2String(plain.getProperties()));
+        putMessage(plain);
+
+        MessageExtBrokerInner unicodeTags = buildMessage();
+        unicodeTags.setTags("标签-é");
+        unicodeTags.setKeys("key1 key2");
+        unicodeTags.putUserProperty("userKey", "userValue");
+        unicodeTags.setPropertiesString(MessageDecoder.messageProperties2String(unicodeTags.getProperties()));
+        putMessage(unicodeTags);
+
+        MessageExtBrokerInner noProperties = buildMessage();
+        noProperties.setPropertiesString(null);
+        putMessage(noProperties);
+
+        List<DispatchRequest> requests = new ArrayList<>();
+        List<MessageExt> expected = new ArrayList<>();
+        SelectMappedBufferResult result = messageStore.getCommitLog().getData(0);
+        try {
+            ByteBuffer byteBuffer = result.getByteBuffer();
+            for (int i = 0; i < 3; i++) {
+                int position = byteBuffer.position();
+                expected.add(MessageDecoder.decode(byteBuffer.duplicate(), true, false));
+                DispatchRequest request = messageStore.getCommitLog().checkMessageAndReturnSize(byteBuffer, true, true);
+                assertThat(request.isSuccess()).isTrue();
+                assertThat(byteBuffer.position()).isEqualTo(position + request.getMsgSize());
+                requests.add(request);
+            }
+        } finally {
+            result.release();
+        }
+
+        for (int i = 0; i < requests.size(); i++) {
+            DispatchRequest request = requests.get(i);
+            MessageExt msg = expected.get(i);
+            assertThat(request.getTopic()).isEqualTo(msg.getTopic());
+            assertThat(request.getQueueId()).isEqualTo(msg.getQueueId());
+            assertThat(request.getConsumeQueueOffset()).isEqualTo(msg.getQueueOffset());
+            assertThat(request.getCommitLogOffset()).isEqualTo(msg.getCommitLogOffset());
+            assertThat(request.getStoreTimestamp()).isEqualTo(msg.getStoreTimestamp());
+            assertThat(request.getMsgSize()).isEqualTo(msg.getStoreSize());
+        }
+        assertThat(requests.get(1).getTopic()).isSameAs(requests.get(0).getTopic());
+
+        for (int i = 0; i < 2; i++) {
+            DispatchRequest request = requests.get(i);
+            Map<String, String> properties = expected.get(i).getProperties();
+            assertThat(request.getKeys()).isEqualTo(properties.get(MessageConst.PROPERTY_KEYS));
+            assertThat(request.getUniqKey()).isEqualTo(properties.get(MessageConst.PROPERTY_UNIQ_CLIENT_MESSAGE_ID_KEYIDX));
+            assertThat(request.getTagsCode()).isEqualTo(properties.get(MessageConst.PROPERTY_TAGS).hashCode());
+            assertThat(request.getPropertiesMap()).isEqualTo(properties);
+        }
+        assertThat(requests.get(1).getPropertiesMap().get("userKey")).isEqualTo("userValue");
+
+        assertThat(requests.get(2).getKeys()).isEmpty();
+        assertThat(requests.get(2).getUniqKey()).isNull();
+        assertThat(requests.get(2).getTagsCode()).isEqualTo(0);
+        assertThat(requests.get(2).getPropertiesMap()).isNull();
+    }
+
+    @Test
+    public void testCheckMessageAndReturnSizeWithBinaryProperties() {
+        MessageExtBrokerInner msg = buildMessage();
+        msg.setSysFlag(MessageSysFlag.BINARY_PROPERTIES_FLAG);
+        msg.setTags("TagA");
+        msg.putUserProperty("userKey", "userValue");
+        msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+        putMessage(msg);
+
+        MessageExtBatch batch = buildBatchMessage(2);
+        batch.setSysFlag(MessageSysFlag.BINARY_PROPERTIES_FLAG);
+        assertThat(messageStore.putMessages(batch).isOk()).isTrue();
+
+        SelectMappedBufferResult result = messageStore.getCommitLog().getData(0);
+        try {
+            ByteBuffer byteBuffer = result.getByteBuffer();
+            for (int i = 0; i < 3; i++) {
+                MessageExt expected = MessageDecoder.decode(byteBuffer.duplicate(), true, false);
+                DispatchRequest request = messageStore.getCommitLog().checkMessageAndReturnSize(byteBuffer, true, true);
+                assertThat(request.isSuccess()).isTrue();
+                assertThat(request.getMsgSize()).isEqualTo(expected.getStoreSize());
+                assertThat(expected.getSysFlag() & MessageSysFlag.BINARY_PROPERTIES_FLAG).isNotZero();
+                assertThat(request.getTopic()).isEqualTo(expected.getTopic());
+                assertThat(request.getKeys()).isEqualTo(expected.getKeys()).isNotNull();
+                assertThat(request.getTagsCode()).isEqualTo(expected.getTags().hashCode());
+                assertThat(request.getPropertiesMap()).isEqualTo(expected.getProperties());
+            }
+        } finally {
+            result.release();
+        }
+    }
+
+    @Test
+    public void testPutMessageWithOversizedBinaryProperty() {
+        StringBuilder longValue = new StringBuilder();
+        // short enough a string to pass the store check, but more than 32767 bytes once UTF-8 encoded
+        for (int i = 0; i < 12000; i++) {
+            longValue.append('值');
+        }
+        MessageExtBrokerInner msg = buildMessage();
+        msg.setSysFlag(MessageSysFlag.BINARY_PROPERTIES_FLAG);
+        msg.putUserProperty("userKey", longValue.toString());
+        msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+        assertThat(messageStore.putMessage(msg).getPutMessageStatus()).isEqualTo(PutMessageStatus.PROPERTIES_SIZE_EXCEEDED);
+    }
+
+    @Test
+    public void testCheckMessageAndReturnSizeWithCorruptedBody() {
+        MessageExtBrokerInner msg = buildMessage();
+        msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+        putMessage(msg);
+
+        ByteBuffer copy;
+        SelectMappedBufferResult result = messageStore.getCommitLog().getData(0);
+        try {
+            copy = ByteBuffer.allocate(result.getSize());
+            copy.put(result.getByteBuffer());
+            copy.flip();
+        } finally {
+            result.release();
+        }
+
+        int bodyOffset = 4 + 4 + 4 + 4 + 4 + 8 + 8 + 4 + 8 + 8 + 8 + 8 + 4 + 8 + 4;
+        copy.put(bodyOffset, (byte) (copy.get(bodyOffset) + 1));
+
+        DispatchRequest unchecked = messageStore.getCommitLog().checkMessageAndReturnSize(copy.duplicate(), false, true);
+        assertThat(unchecked.isSuccess()).isTrue();
+
+        DispatchRequest checked = messageStore.getCommitLog().checkMessageAndReturnSize(copy.duplicate(), true, true);
+        assertThat(checked.isSuccess()).isFalse();
+        assertThat(checked.getMsgSize()).isEqualTo(-1);
+    }
+
+    private void putMessage(MessageExtBrokerInner msg) {
+        assertThat(messageStore.putMessage(msg).isOk()).isTrue();
+    }
+
+    private static class MyMessageArrivingListener implements MessageArrivingListener {
+        @Override
+        public void arriving(String topic, int queueId, long logicOffset, long tagsCode, long msgStoreTime,
+            byte[] filterBitMap, Map<String, String> properties) {
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.store;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.rocketmq.common.BrokerConfig;
+import org.apache.rocketmq.store.config.FlushDiskType;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.apache.rocketmq.store.stats.BrokerStatsManager;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+public class CommitLogPrefetchServiceTest extends StoreTestBase {
+
+    private static final int MESSAGE_NUM = 200;
+
+    private DefaultMessageStore messageStore;
+
+    @Before
+    public void init() throws Exception {
+        String baseDir = createBaseDir();
+        baseDirs.add(baseDir);
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setMappedFileSizeCommitLog(1024 * 64);
+        messageStoreConfig.setMappedFileSizeConsumeQueue(1024 * 64);
+        messageStoreConfig.setMaxHashSlotNum(100);
+        messageStoreConfig.setMaxIndexNum(100 * 10);
+        messageStoreConfig.setFlushDiskType(FlushDiskType.ASYNC_FLUSH);
+        // every message but the last one is considered in disk
+        messageStoreConfig.setAccessMessageInMemoryMaxRatio(0);
+        messageStoreConfig.setPrefetchEnable(true);
+        messageStoreConfig.setPrefetchMessageNum(32);
+        messageStoreConfig.setStorePathRootDir(baseDir);
+        messageStoreConfig.setStorePathCommitLog(baseDir + File.separator + "commitlog");
+        messageStore = new DefaultMessageStore(messageStoreConfig, new BrokerStatsManager("prefetchTest", true),
+            new MyMessageArrivingListener(), new BrokerConfig());
+        assertThat(messageStore.load()).isTrue();
+        messageStore.start();
+        Assume.assumeTrue(messageStore.getPrefetchService() != null);
+
+        for (int i = 0; i < MESSAGE_NUM; i++) {
+            MessageExtBrokerInner msg = buildMessage();
+            msg.setQueueId(0);
+            assertThat(messageStore.putMessage(msg).isOk()).isTrue();
+        }
+        await().atMost(10, TimeUnit.SECONDS).until(() -> messageStore.dispatchBehindBytes() == 0);
+    }
+
+    @After
+    public void destroy() {
+        messageStore.shutdown();
+        messageStore.destroy();
+    }
+
+    @Test
+    public void testSequentialReaderIsPrefetched() {
+        CommitLogPrefetchService prefetchService = messageStore.getPrefetchService();
+        long offset = 0;
+        for (int i = 0; i < 4; i++) {
+            GetMessageResult result = messageStore.getMessage("group", "StoreTest", 0, offset, 8, null);
+            assertThat(result.getStatus()).isEqualTo(GetMessageStatus.FOUND);
+            offset = result.getNextBeginOffset();
+            result.release();
+        }
+
+        assertThat(prefetchService.getReaderNum()).isEqualTo(1);
+        await().atMost(5, TimeUnit.SECONDS).until(() -> prefetchService.getPrefetchTimes() > 0);
+        assertThat(prefetchService.getPrefetchBytes()).isGreaterThan(0);
+    }
+
+    @Test
+    public void testRandomReaderIsNotPrefetched() throws Exception {
+        CommitLogPrefetchService prefetchService = messageStore.getPrefetchService();
+        long[] offsets = {100, 10, 150, 40};
+        for (long offset : offsets) {
+            GetMessageResult result = messageStore.getMessage("group", "StoreTest", 0, offset, 8, null);
+            assertThat(result.getStatus()).isEqualTo(GetMessageStatus.FOUND);
+            result.release();
+        }
+
+        Thread.sleep(200);
+        assertThat(prefetchService.getPrefetchTimes()).isEqualTo(0);
+    }
+
+    @Test
+    public void testMadviseWillNeed() throws Exception {
+        String baseDir = createBaseDir();
+        baseDirs.add(baseDir);
+        MappedFile mappedFile = new MappedFile(baseDir + File.separator + "00000000000000000000", 1024 * 64);
+        try {
+            assertThat(mappedFile.madviseWillNeed(100, 5000)).isEqualTo(0);
+            assertThat(mappedFile.madviseWillNeed(1024 * 64, 100)).isEqualTo(-1);
+        } finally {
+            mappedFile.destroy(1000);
+        }
+
+        // the messages span two files of the CommitLog
+        assertThat(messageStore.getCommitLog().prefetch(0, 1024 * 100)).isEqualTo(1024 * 100);
+    }
+
+    private static class MyMessageArrivingListener implements MessageArrivingListener {
+        @Override
+        public void arriving(String topic, int queueId, long logicOffset, long tagsCode, long msgStoreTime,
+            byte[] filterBitMap, Map<String, String> properties) {
+        }
+    }
+}
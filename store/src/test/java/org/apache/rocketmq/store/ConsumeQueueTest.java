@@ -34,6 +34,8 @@ import org.apache.rocketmq.store.stats.BrokerStatsManager;
 import org.junit.Test;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 public class ConsumeQueueTest {
 
@@ -431,4 +433,39 @@ public class ConsumeQueueTest {
             UtilAll.deleteFile(new File(storePath));
         }
     }
+
+    @Test
+    public void testRecoverAfterNormalShutdown() {
+        DefaultMessageStore messageStore = mock(DefaultMessageStore.class);
+        when(messageStore.getMessageStoreConfig()).thenReturn(buildStoreConfig(commitLogFileSize, cqFileSize, false, cqExtFileSize));
+        String cqStorePath = storePath + File.separator + "consumequeue";
+        int unitNumPerFile = cqFileSize / ConsumeQueue.CQ_STORE_UNIT_SIZE;
+        try {
+            // the last file is partly written, then full
+            for (int unitNum : new int[] {unitNumPerFile * 2 + 3, unitNumPerFile * 3}) {
+                ConsumeQueue cq = new ConsumeQueue(topic, queueId, cqStorePath, cqFileSize, messageStore);
+                for (int i = 0; i < unitNum; i++) {
+                    assertThat(cq.putMessagePositionInfo(i * 100L, 100, i, i)).isTrue();
+                }
+                cq.flush(0);
+
+                ConsumeQueue scanned = new ConsumeQueue(topic, queueId, cqStorePath, cqFileSize, messageStore);
+                assertThat(scanned.load()).isTrue();
+                scanned.recover(false);
+
+                ConsumeQueue searched = new ConsumeQueue(topic, queueId, cqStorePath, cqFileSize, messageStore);
+                assertThat(searched.load()).isTrue();
+                searched.recover(true);
+
+                assertThat(searched.getMaxOffsetInQueue()).isEqualTo(unitNum).isEqualTo(scanned.getMaxOffsetInQueue());
+                assertThat(searched.getMaxPhysicOffset()).isEqualTo(unitNum * 100L).isEqualTo(scanned.getMaxPhysicOffset());
+
+                cq.destroy();
+                scanned.destroy();
+                searched.destroy();
+            }
+        } finally {
+            UtilAll.deleteFile(new File(storePath));
+        }
+    }
 }
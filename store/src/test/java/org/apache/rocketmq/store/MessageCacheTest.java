@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.store;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.rocketmq.common.BrokerConfig;
+import org.apache.rocketmq.store.config.FlushDiskType;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.apache.rocketmq.store.stats.BrokerStatsManager;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+public class MessageCacheTest extends StoreTestBase {
+
+    @Test
+    public void testPutAndGet() {
+        MessageCache messageCache = new MessageCache(256, 64);
+        messageCache.put(100, message((byte) 1, 40), 40);
+
+        SelectMappedBufferResult result = messageCache.get(100, 40);
+        assertThat(result).isNotNull();
+        assertThat(result.getStartOffset()).isEqualTo(100);
+        assertThat(result.getSize()).isEqualTo(40);
+        assertThat(result.getByteBuffer().remaining()).isEqualTo(40);
+        assertThat(result.getByteBuffer().get(39)).isEqualTo((byte) 1);
+        result.release();
+
+        assertThat(messageCache.get(100, 41)).isNull();
+        assertThat(messageCache.get(140, 40)).isNull();
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsedSegment() {
+        MessageCache messageCache = new MessageCache(192, 64);
+        messageCache.put(0, message((byte) 1, 40), 40, 1);
+        messageCache.put(40, message((byte) 2, 40), 40, 2);
+        messageCache.put(80, message((byte) 3, 40), 40, 3);
+        messageCache.get(0, 40, 4).release();
+
+        messageCache.put(120, message((byte) 4, 40), 40, 5);
+
+        assertThat(messageCache.get(40, 40)).isNull();
+        for (long offsetPy : new long[] {0, 80, 120}) {
+            SelectMappedBufferResult result = messageCache.get(offsetPy, 40);
+            assertThat(result).isNotNull();
+            result.release();
+        }
+    }
+
+    @Test
+    public void testSegmentRecycledAfterRelease() {
+        MessageCache messageCache = new MessageCache(128, 64);
+        messageCache.put(0, message((byte) 1, 40), 40);
+        messageCache.put(40, message((byte) 2, 40), 40);
+        SelectMappedBufferResult held = messageCache.get(0, 40);
+
+        // the only segment to evict is still read, so the message is not admitted
+        messageCache.put(80, message((byte) 3, 40), 40);
+        assertThat(messageCache.get(80, 40)).isNull();
+        assertThat(messageCache.get(0, 40)).isNull();
+        assertThat(held.getByteBuffer().get(0)).isEqualTo((byte) 1);
+
+        held.release();
+        messageCache.put(80, message((byte) 3, 40), 40);
+        SelectMappedBufferResult result = messageCache.get(80, 40);
+        assertThat(result).isNotNull();
+        assertThat(result.getByteBuffer().get(0)).isEqualTo((byte) 3);
+        result.release();
+    }
+
+    @Test
+    public void testGetMessageFromCache() throws Exception {
+        String baseDir = createBaseDir();
+        baseDirs.add(baseDir);
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setMappedFileSizeCommitLog(1024 * 64);
+        messageStoreConfig.setMappedFileSizeConsumeQueue(1024 * 4);
+        messageStoreConfig.setMaxHashSlotNum(100);
+        messageStoreConfig.setMaxIndexNum(100 * 10);
+        messageStoreConfig.setFlushDiskType(FlushDiskType.ASYNC_FLUSH);
+        messageStoreConfig.setMessageCacheEnable(true);
+        messageStoreConfig.setMessageCacheSize(1024 * 64);
+        messageStoreConfig.setMessageCacheSegmentSize(1024 * 16);
+        messageStoreConfig.setStorePathRootDir(baseDir);
+        messageStoreConfig.setStorePathCommitLog(baseDir + File.separator + "commitlog");
+        DefaultMessageStore messageStore = new DefaultMessageStore(messageStoreConfig,
+            new BrokerStatsManager("messageCacheTest", true), new MyMessageArrivingListener(), new BrokerConfig());
+        assertThat(messageStore.load()).isTrue();
+        messageStore.start();
+        try {
+            for (int i = 0; i < 8; i++) {
+                MessageExtBrokerInner msg = buildMessage();
+                msg.setQueueId(0);
+                assertThat(messageStore.putMessage(msg).isOk()).isTrue();
+            }
+            await().atMost(5, TimeUnit.SECONDS).until(() -> messageStore.getMaxOffsetInQueue("StoreTest", 0) == 8);
+
+            GetMessageResult first = messageStore.getMessage("group1", "StoreTest", 0, 0, 8, null);
+            assertThat(first.getMessageCount()).isEqualTo(8);
+            GetMessageResult second = messageStore.getMessage("group2", "StoreTest", 0, 0, 8, null);
+            assertThat(second.getMessageCount()).isEqualTo(8);
+            for (int i = 0; i < 8; i++) {
+                assertThat(second.getMessageBufferList().get(i)).isEqualTo(first.getMessageBufferList().get(i));
+            }
+            first.release();
+            second.release();
+
+            assertThat(messageStore.getStoreStatsService().getMessageCacheMissCount().longValue()).isEqualTo(8);
+            assertThat(messageStore.getStoreStatsService().getMessageCacheHitCount().longValue()).isEqualTo(8);
+            assertThat(messageStore.getMessageCache().getCachedMessageNum()).isEqualTo(8);
+        } finally {
+            messageStore.shutdown();
+            messageStore.destroy();
+        }
+    }
+
+    private static ByteBuffer message(byte content, int size) {
+        ByteBuffer byteBuffer = ByteBuffer.allocate(size);
+        for (int i = 0; i < size; i++) {
+            byteBuffer.put(content);
+        }
+        byteBuffer.flip();
+        return byteBuffer;
+    }
+
+    private static class MyMessageArrivingListener implements MessageArrivingListener {
+        @Override
+        public void arriving(String topic, int queueId, long logicOffset, long tagsCode, long msgStoreTime,
+            byte[] filterBitMap, Map<String, String> properties) {
+        }
+    }
+}
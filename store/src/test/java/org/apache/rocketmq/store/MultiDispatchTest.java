@@ -28,14 +28,13 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
-import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 public class MultiDispatchTest {
 
-    private CommitLog commitLog;
+    private DefaultMessageStore messageStore;
     private MultiDispatch multiDispatch;
 
     @Before
@@ -52,9 +51,8 @@ public class MultiDispatchTest {
         messageStoreConfig.setEnableLmq(true);
         messageStoreConfig.setEnableMultiDispatch(true);
         //too much reference
-        DefaultMessageStore messageStore = new DefaultMessageStore(messageStoreConfig, null, null, null);
-        this.commitLog = new CommitLog(messageStore);
-        this.multiDispatch = new MultiDispatch(messageStore, commitLog);
+        this.messageStore = new DefaultMessageStore(messageStoreConfig, null, null, null);
+        this.multiDispatch = new MultiDispatch(messageStore, new CommitLog(messageStore));
     }
 
     @After
@@ -62,14 +60,6 @@ public class MultiDispatchTest {
         UtilAll.deleteFile(new File(System.getProperty("user.home") + File.separator + "unitteststore1"));
     }
 
-    @Test
-    public void queueKey() {
-        MessageExtBrokerInner messageExtBrokerInner = mock(MessageExtBrokerInner.class);
-        when(messageExtBrokerInner.getQueueId()).thenReturn(2);
-        String ret = multiDispatch.queueKey("%LMQ%lmq123", messageExtBrokerInner);
-        assertEquals(ret, "%LMQ%lmq123-0");
-    }
-
     @Test
     public void wrapMultiDispatch() {
         MessageExtBrokerInner messageExtBrokerInner = mock(MessageExtBrokerInner.class);
@@ -80,9 +70,9 @@ public class MultiDispatchTest {
         when(messageExtBrokerInner.getBornHost()).thenReturn(new InetSocketAddress("127.0.0.1", 54270));
         when(messageExtBrokerInner.getStoreHost()).thenReturn(new InetSocketAddress("127.0.0.1", 10911));
         multiDispatch.wrapMultiDispatch(messageExtBrokerInner);
-        assertTrue(commitLog.getLmqTopicQueueTable().size() == 2);
-        assertTrue(commitLog.getLmqTopicQueueTable().get("%LMQ%123-0") == 0L);
-        assertTrue(commitLog.getLmqTopicQueueTable().get("%LMQ%456-0") == 0L);
+        assertTrue(messageStore.getConsumeQueueTable().size() == 2);
+        assertTrue(messageStore.findConsumeQueue("%LMQ%123", 0).getNextQueueOffset() == 0L);
+        assertTrue(messageStore.findConsumeQueue("%LMQ%456", 0).getNextQueueOffset() == 0L);
     }
 
     @Test
@@ -91,8 +81,8 @@ public class MultiDispatchTest {
         when(messageExtBrokerInner.getProperty(MessageConst.PROPERTY_INNER_MULTI_DISPATCH)).thenReturn("%LMQ%123,%LMQ%456");
         when(messageExtBrokerInner.getProperty(MessageConst.PROPERTY_INNER_MULTI_QUEUE_OFFSET)).thenReturn("0,1");
         multiDispatch.updateMultiQueueOffset(messageExtBrokerInner);
-        assertTrue(commitLog.getLmqTopicQueueTable().size() == 2);
-        assertTrue(commitLog.getLmqTopicQueueTable().get("%LMQ%123-0") == 1L);
-        assertTrue(commitLog.getLmqTopicQueueTable().get("%LMQ%456-0") == 2L);
+        assertTrue(messageStore.getConsumeQueueTable().size() == 2);
+        assertTrue(messageStore.findConsumeQueue("%LMQ%123", 0).getNextQueueOffset() == 1L);
+        assertTrue(messageStore.findConsumeQueue("%LMQ%456", 0).getNextQueueOffset() == 2L);
     }
 }
\ No newline at end of file
@@ -0,0 +1,215 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.store;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.rocketmq.common.BrokerConfig;
+import org.apache.rocketmq.common.UtilAll;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.common.message.MessageExtBatch;
+import org.apache.rocketmq.store.config.FlushDiskType;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.apache.rocketmq.store.config.StorePathConfigHelper;
+import org.apache.rocketmq.store.stats.BrokerStatsManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.spy;
+
+public class MultiWriterAppendTest extends StoreTestBase {
+
+    private static final int THREAD_NUM = 8;
+    private static final int MESSAGE_NUM_PER_THREAD = 100;
+    private static final int BATCH_SIZE = 4;
+    private static final int QUEUE_NUM = 4;
+
+    private String baseDir;
+    private DefaultMessageStore messageStore;
+
+    @Before
+    public void init() throws Exception {
+        baseDir = createBaseDir();
+        baseDirs.add(baseDir);
+        messageStore = createMessageStore();
+        messageStore.start();
+    }
+
+    private DefaultMessageStore createMessageStore() throws Exception {
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        // small files so that writers keep rolling to new files
+        messageStoreConfig.setMappedFileSizeCommitLog(1024 * 64);
+        messageStoreConfig.setMappedFileSizeConsumeQueue(1024 * 64);
+        messageStoreConfig.setMaxHashSlotNum(100);
+        messageStoreConfig.setMaxIndexNum(100 * 10);
+        messageStoreConfig.setFlushDiskType(FlushDiskType.ASYNC_FLUSH);
+        messageStoreConfig.setEnableMultiWriterAppend(true);
+        messageStoreConfig.setStorePathRootDir(baseDir);
+        messageStoreConfig.setStorePathCommitLog(baseDir + File.separator + "commitlog");
+        DefaultMessageStore store = new DefaultMessageStore(messageStoreConfig, new BrokerStatsManager("multiWriterTest", true),
+            new MyMessageArrivingListener(), new BrokerConfig());
+        assertThat(store.load()).isTrue();
+        return store;
+    }
+
+    @After
+    public void destroy() {
+        messageStore.shutdown();
+        messageStore.destroy();
+    }
+
+    @Test
+    public void testConcurrentPutMessage() throws Exception {
+        final AtomicInteger failed = new AtomicInteger(0);
+        final CountDownLatch latch = new CountDownLatch(THREAD_NUM);
+        for (int i = 0; i < THREAD_NUM; i++) {
+            final int threadIndex = i;
+            new Thread(() -> {
+                try {
+                    for (int j = 0; j < MESSAGE_NUM_PER_THREAD; j++) {
+                        PutMessageResult result;
+                        if (threadIndex % 2 == 0) {
+                            MessageExtBrokerInner msg = buildMessage();
+                            msg.setQueueId(j % QUEUE_NUM);
+                            result = messageStore.putMessage(msg);
+                        } else {
+                            MessageExtBatch batch = buildBatchMessage(BATCH_SIZE);
+                            batch.setQueueId(j % QUEUE_NUM);
+                            result = messageStore.putMessages(batch);
+                        }
+                        if (!result.isOk()) {
+                            failed.incrementAndGet();
+                        }
+                    }
+                } finally {
+                    latch.countDown();
+                }
+            }).start();
+        }
+        assertThat(latch.await(60, TimeUnit.SECONDS)).isTrue();
+        assertThat(failed.get()).isEqualTo(0);
+
+        final long messageNumPerQueue = (long) THREAD_NUM / 2 * MESSAGE_NUM_PER_THREAD * (1 + BATCH_SIZE) / QUEUE_NUM;
+        await().atMost(10, TimeUnit.SECONDS).until(() -> {
+            for (int queueId = 0; queueId < QUEUE_NUM; queueId++) {
+                if (messageStore.getMaxOffsetInQueue("StoreTest", queueId) != messageNumPerQueue) {
+                    return false;
+                }
+            }
+            return true;
+        });
+
+        for (int queueId = 0; queueId < QUEUE_NUM; queueId++) {
+            long lastPhyOffset = -1;
+            for (long offset = 0; offset < messageNumPerQueue; offset++) {
+                GetMessageResult getResult = messageStore.getMessage("group", "StoreTest", queueId, offset, 1, null);
+                assertThat(getResult.getStatus()).isEqualTo(GetMessageStatus.FOUND);
+                List<MessageExt> messages = decode(getResult);
+                getResult.release();
+                assertThat(messages).hasSize(1);
+                assertThat(messages.get(0).getQueueOffset()).isEqualTo(offset);
+                assertThat(messages.get(0).getCommitLogOffset()).isGreaterThan(lastPhyOffset);
+                lastPhyOffset = messages.get(0).getCommitLogOffset();
+            }
+        }
+    }
+
+    @Test
+    public void testFailedWriteNotHideLaterMessages() throws Exception {
+        putMessages(5);
+
+        // the copy of the next message into its reserved region fails, the filler written instead succeeds
+        List<MappedFile> mappedFiles = messageStore.getCommitLog().mappedFileQueue.getMappedFiles();
+        MappedFile mappedFile = spy(mappedFiles.get(mappedFiles.size() - 1));
+        doThrow(new IllegalStateException("copy failed")).doCallRealMethod()
+            .when(mappedFile).writeReserved(anyInt(), any(ByteBuffer.class));
+        mappedFiles.set(mappedFiles.size() - 1, mappedFile);
+        MessageExtBrokerInner msg = buildMessage();
+        msg.setQueueId(1);
+        assertThat(messageStore.putMessage(msg).getPutMessageStatus()).isEqualTo(PutMessageStatus.UNKNOWN_ERROR);
+
+        putMessages(5);
+        await().atMost(10, TimeUnit.SECONDS).until(() -> messageStore.getMaxOffsetInQueue("StoreTest", 0) == 10);
+        assertMessages(10);
+        final long maxPhyOffset = messageStore.getMaxPhyOffset();
+
+        // recovered normally
+        messageStore.shutdown();
+        messageStore = createMessageStore();
+        messageStore.start();
+        assertThat(messageStore.getMaxPhyOffset()).isEqualTo(maxPhyOffset);
+        assertMessages(10);
+
+        // recovered abnormally, the consume queues are built again from the start of the CommitLog
+        messageStore.shutdown();
+        UtilAll.deleteFile(new File(StorePathConfigHelper.getStorePathConsumeQueue(baseDir)));
+        UtilAll.deleteFile(new File(StorePathConfigHelper.getStoreCheckpoint(baseDir)));
+        assertThat(new File(StorePathConfigHelper.getAbortFile(baseDir)).createNewFile()).isTrue();
+        messageStore = createMessageStore();
+        messageStore.start();
+        assertThat(messageStore.getMaxPhyOffset()).isEqualTo(maxPhyOffset);
+        await().atMost(10, TimeUnit.SECONDS).until(() -> messageStore.getMaxOffsetInQueue("StoreTest", 0) == 10);
+        assertMessages(10);
+    }
+
+    private void putMessages(int num) {
+        for (int i = 0; i < num; i++) {
+            MessageExtBrokerInner msg = buildMessage();
+            msg.setQueueId(0);
+            assertThat(messageStore.putMessage(msg).isOk()).isTrue();
+        }
+    }
+
+    private void assertMessages(int num) {
+        for (long offset = 0; offset < num; offset++) {
+            GetMessageResult getResult = messageStore.getMessage("group", "StoreTest", 0, offset, 1, null);
+            assertThat(getResult.getStatus()).isEqualTo(GetMessageStatus.FOUND);
+            List<MessageExt> messages = decode(getResult);
+            getResult.release();
+            assertThat(messages.get(0).getQueueOffset()).isEqualTo(offset);
+        }
+    }
+
+    private List<MessageExt> decode(GetMessageResult getResult) {
+        List<MessageExt> messages = new ArrayList<>();
+        for (ByteBuffer byteBuffer : getResult.getMessageBufferList()) {
+            messages.add(MessageDecoder.decode(byteBuffer, true, false));
+        }
+        return messages;
+    }
+
+    private static class MyMessageArrivingListener implements MessageArrivingListener {
+        @Override
+        public void arriving(String topic, int queueId, long logicOffset, long tagsCode, long msgStoreTime,
+            byte[] filterBitMap, Map<String, String> properties) {
+        }
+    }
+}
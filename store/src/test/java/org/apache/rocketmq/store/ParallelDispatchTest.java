@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.store;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.rocketmq.common.BrokerConfig;
+import org.apache.rocketmq.common.message.MessageConst;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.store.config.FlushDiskType;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.apache.rocketmq.store.stats.BrokerStatsManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+public class ParallelDispatchTest extends StoreTestBase {
+
+    private static final int QUEUE_NUM = 8;
+    private static final int MESSAGE_NUM_PER_QUEUE = 50;
+
+    private DefaultMessageStore messageStore;
+
+    @Before
+    public void init() throws Exception {
+        String baseDir = createBaseDir();
+        baseDirs.add(baseDir);
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setMappedFileSizeCommitLog(1024 * 64);
+        messageStoreConfig.setMappedFileSizeConsumeQueue(1024 * 4);
+        messageStoreConfig.setMaxHashSlotNum(100);
+        messageStoreConfig.setMaxIndexNum(100 * 10);
+        messageStoreConfig.setFlushDiskType(FlushDiskType.ASYNC_FLUSH);
+        messageStoreConfig.setReputDispatchThreadNum(3);
+        messageStoreConfig.setReputDispatchQueueCapacity(16);
+        messageStoreConfig.setEnableLmq(true);
+        messageStoreConfig.setEnableMultiDispatch(true);
+        messageStoreConfig.setStorePathRootDir(baseDir);
+        messageStoreConfig.setStorePathCommitLog(baseDir + File.separator + "commitlog");
+        messageStore = new DefaultMessageStore(messageStoreConfig, new BrokerStatsManager("parallelDispatchTest", true),
+            new MyMessageArrivingListener(), new BrokerConfig());
+        assertThat(messageStore.load()).isTrue();
+        messageStore.start();
+    }
+
+    @After
+    public void destroy() {
+        messageStore.shutdown();
+        messageStore.destroy();
+    }
+
+    @Test
+    public void testDispatchInParallel() {
+        for (int i = 0; i < MESSAGE_NUM_PER_QUEUE; i++) {
+            for (int queueId = 0; queueId < QUEUE_NUM; queueId++) {
+                MessageExtBrokerInner msg = buildMessage();
+                msg.setQueueId(queueId);
+                msg.setKeys("key-" + queueId + "-" + i);
+                msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+                assertThat(messageStore.putMessage(msg).isOk()).isTrue();
+            }
+        }
+
+        await().atMost(10, TimeUnit.SECONDS).until(() -> messageStore.dispatchBehindBytes() == 0);
+
+        for (int queueId = 0; queueId < QUEUE_NUM; queueId++) {
+            assertThat(messageStore.getMaxOffsetInQueue("StoreTest", queueId)).isEqualTo(MESSAGE_NUM_PER_QUEUE);
+            long lastPhyOffset = -1;
+            for (long offset = 0; offset < MESSAGE_NUM_PER_QUEUE; offset++) {
+                long phyOffset = messageStore.getCommitLogOffsetInQueue("StoreTest", queueId, offset);
+                assertThat(phyOffset).isGreaterThan(lastPhyOffset);
+                lastPhyOffset = phyOffset;
+            }
+        }
+
+        QueryMessageResult queryResult = messageStore.queryMessage("StoreTest", "key-3-7", 32, 0, System.currentTimeMillis() + 1000);
+        assertThat(queryResult.getMessageBufferList()).hasSize(1);
+        queryResult.release();
+    }
+
+    @Test
+    public void testMultiDispatchAndShutdownInParallel() {
+        String lmqTopic = "%LMQ%parallel";
+        int lmqMessageNum = 0;
+        for (int i = 0; i < MESSAGE_NUM_PER_QUEUE; i++) {
+            for (int queueId = 0; queueId < QUEUE_NUM; queueId++) {
+                MessageExtBrokerInner msg = buildMessage();
+                msg.setQueueId(queueId);
+                if (queueId % 4 == 0) {
+                    msg.getProperties().put(MessageConst.PROPERTY_INNER_MULTI_DISPATCH, lmqTopic);
+                    lmqMessageNum++;
+                }
+                msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+                assertThat(messageStore.putMessage(msg).isOk()).isTrue();
+            }
+        }
+
+        // whatever is still queued in the dispatch workers is dispatched before they stop
+        messageStore.shutdown();
+
+        for (int queueId = 0; queueId < QUEUE_NUM; queueId++) {
+            assertThat(messageStore.getMaxOffsetInQueue("StoreTest", queueId)).isEqualTo(MESSAGE_NUM_PER_QUEUE);
+        }
+        assertThat(messageStore.getMaxOffsetInQueue(lmqTopic, 0)).isEqualTo(lmqMessageNum);
+        long lastPhyOffset = -1;
+        for (long offset = 0; offset < lmqMessageNum; offset++) {
+            long phyOffset = messageStore.getCommitLogOffsetInQueue(lmqTopic, 0, offset);
+            assertThat(phyOffset).isGreaterThan(lastPhyOffset);
+            lastPhyOffset = phyOffset;
+        }
+    }
+
+    private static class MyMessageArrivingListener implements MessageArrivingListener {
+        @Override
+        public void arriving(String topic, int queueId, long logicOffset, long tagsCode, long msgStoreTime,
+            byte[] filterBitMap, Map<String, String> properties) {
+        }
+    }
+}
@@ -47,6 +47,31 @@ public class StoreCheckpointTest {
         assertThat(storeCheckpoint.getLogicsMsgTimestamp()).isEqualTo(logicsMsgTimestamp);
     }
 
+    @Test
+    public void testWriteAndReadOffsets() throws IOException {
+        StoreCheckpoint storeCheckpoint = new StoreCheckpoint("target/checkpoint_test/0000");
+        storeCheckpoint.setPhysicOffset(3000);
+        storeCheckpoint.setLogicsOffset(2000);
+        storeCheckpoint.setIndexOffset(1000);
+        storeCheckpoint.flush();
+        assertThat(storeCheckpoint.getMinOffset()).isEqualTo(2000);
+        assertThat(storeCheckpoint.getMinOffsetIndex()).isEqualTo(1000);
+        storeCheckpoint.shutdown();
+
+        storeCheckpoint = new StoreCheckpoint("target/checkpoint_test/0000");
+        assertThat(storeCheckpoint.getPhysicOffset()).isEqualTo(3000);
+        assertThat(storeCheckpoint.getLogicsOffset()).isEqualTo(2000);
+        assertThat(storeCheckpoint.getIndexOffset()).isEqualTo(1000);
+
+        storeCheckpoint.truncateOffsets(1500);
+        storeCheckpoint.shutdown();
+        storeCheckpoint = new StoreCheckpoint("target/checkpoint_test/0000");
+        assertThat(storeCheckpoint.getPhysicOffset()).isEqualTo(1500);
+        assertThat(storeCheckpoint.getLogicsOffset()).isEqualTo(1500);
+        assertThat(storeCheckpoint.getIndexOffset()).isEqualTo(1000);
+        storeCheckpoint.shutdown();
+    }
+
     @After
     public void destory() {
         File file = new File("target/checkpoint_test");
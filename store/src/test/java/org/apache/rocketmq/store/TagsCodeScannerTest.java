@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.store;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.rocketmq.common.BrokerConfig;
+import org.apache.rocketmq.common.filter.FilterAPI;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.store.config.FlushDiskType;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.apache.rocketmq.store.stats.BrokerStatsManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+public class TagsCodeScannerTest extends StoreTestBase {
+
+    private static final int MESSAGE_NUM = 3000;
+    private static final int SPARSE_TAG_INTERVAL = 1000;
+
+    private DefaultMessageStore messageStore;
+
+    @Before
+    public void init() throws Exception {
+        String baseDir = createBaseDir();
+        baseDirs.add(baseDir);
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setMappedFileSizeCommitLog(1024 * 1024 * 4);
+        messageStoreConfig.setMappedFileSizeConsumeQueue(ConsumeQueue.CQ_STORE_UNIT_SIZE * MESSAGE_NUM * 2);
+        messageStoreConfig.setMaxHashSlotNum(100);
+        messageStoreConfig.setMaxIndexNum(100 * 10);
+        messageStoreConfig.setFlushDiskType(FlushDiskType.ASYNC_FLUSH);
+        messageStoreConfig.setStorePathRootDir(baseDir);
+        messageStoreConfig.setStorePathCommitLog(baseDir + File.separator + "commitlog");
+        messageStore = new DefaultMessageStore(messageStoreConfig, new BrokerStatsManager("tagsCodeScannerTest", true),
+            new MyMessageArrivingListener(), new BrokerConfig());
+        assertThat(messageStore.load()).isTrue();
+        messageStore.start();
+    }
+
+    @After
+    public void destroy() {
+        messageStore.shutdown();
+        messageStore.destroy();
+    }
+
+    @Test
+    public void testMatchTagsCodes() {
+        long[] tagsCodes = {1, 2, 3, 2, ConsumeQueueExt.MAX_ADDR, 4};
+        int[] matchedIndexes = new int[tagsCodes.length];
+        int matched = ConsumeQueue.matchTagsCodes(tagsCodes, tagsCodes.length, new int[] {2, 4}, matchedIndexes);
+        assertThat(matched).isEqualTo(4);
+        assertThat(matchedIndexes).startsWith(1, 3, 4, 5);
+
+        assertThat(ConsumeQueue.matchTagsCodes(tagsCodes, 3, new int[] {5}, matchedIndexes)).isEqualTo(0);
+    }
+
+    @Test
+    public void testNextCandidate() {
+        final int unitNum = 3000;
+        ByteBuffer byteBuffer = ByteBuffer.allocate(unitNum * ConsumeQueue.CQ_STORE_UNIT_SIZE);
+        for (int i = 0; i < unitNum; i++) {
+            byteBuffer.putLong(i * 100L);
+            byteBuffer.putInt(100);
+            byteBuffer.putLong(i % 1500 == 7 ? 2 : 1);
+        }
+        byteBuffer.flip();
+
+        TagsCodeScanner scanner = new TagsCodeScanner(byteBuffer, new int[] {2});
+        int limit = byteBuffer.limit();
+        int first = scanner.nextCandidate(0, limit);
+        assertThat(first).isEqualTo(7 * ConsumeQueue.CQ_STORE_UNIT_SIZE);
+        assertThat(scanner.nextCandidate(first, limit)).isEqualTo(first);
+        int second = scanner.nextCandidate(first + ConsumeQueue.CQ_STORE_UNIT_SIZE, limit);
+        assertThat(second).isEqualTo(1507 * ConsumeQueue.CQ_STORE_UNIT_SIZE);
+        assertThat(scanner.nextCandidate(second + ConsumeQueue.CQ_STORE_UNIT_SIZE, limit)).isEqualTo(limit);
+        assertThat(scanner.nextCandidate(0, 5 * ConsumeQueue.CQ_STORE_UNIT_SIZE)).isEqualTo(5 * ConsumeQueue.CQ_STORE_UNIT_SIZE);
+        assertThat(byteBuffer.position()).isEqualTo(0);
+    }
+
+    @Test
+    public void testGetMessageOfSparseTag() throws Exception {
+        for (int i = 0; i < MESSAGE_NUM; i++) {
+            MessageExtBrokerInner msg = buildMessage();
+            msg.setQueueId(0);
+            if (i % SPARSE_TAG_INTERVAL == SPARSE_TAG_INTERVAL - 1) {
+                msg.setTags("TAG2");
+            }
+            msg.setTagsCode(MessageExtBrokerInner.tagsString2tagsCode(msg.getTags()));
+            msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+            assertThat(messageStore.putMessage(msg).isOk()).isTrue();
+        }
+        await().atMost(10, TimeUnit.SECONDS).until(() -> messageStore.getMaxOffsetInQueue("StoreTest", 0) == MESSAGE_NUM);
+
+        MessageFilter messageFilter = new DefaultMessageFilter(FilterAPI.build("StoreTest", "TAG2", null));
+        GetMessageResult result = messageStore.getMessage("group", "StoreTest", 0, 0, 1, messageFilter);
+        assertThat(result.getStatus()).isEqualTo(GetMessageStatus.FOUND);
+        assertThat(result.getMessageCount()).isEqualTo(1);
+        // the batch is full when it reaches the next message of the tag
+        assertThat(result.getNextBeginOffset()).isEqualTo(2 * SPARSE_TAG_INTERVAL - 1);
+        result.release();
+
+        // one pull reaches every message of the tag however sparse they are
+        result = messageStore.getMessage("group", "StoreTest", 0, 0, 32, messageFilter);
+        assertThat(result.getStatus()).isEqualTo(GetMessageStatus.FOUND);
+        assertThat(result.getMessageCount()).isEqualTo(MESSAGE_NUM / SPARSE_TAG_INTERVAL);
+        assertThat(result.getNextBeginOffset()).isEqualTo(MESSAGE_NUM);
+        for (int i = 0; i < result.getMessageCount(); i++) {
+            MessageExt messageExt = MessageDecoder.decode(result.getMessageBufferList().get(i));
+            assertThat(messageExt.getTags()).isEqualTo("TAG2");
+            assertThat(messageExt.getQueueOffset()).isEqualTo((long) (i + 1) * SPARSE_TAG_INTERVAL - 1);
+        }
+        result.release();
+
+        messageStore.getMessageStoreConfig().setMaxTagsCodeScanUnitNum(0);
+        result = messageStore.getMessage("group", "StoreTest", 0, SPARSE_TAG_INTERVAL, 32, messageFilter);
+        assertThat(result.getStatus()).isEqualTo(GetMessageStatus.NO_MATCHED_MESSAGE);
+        assertThat(result.getNextBeginOffset()).isEqualTo(SPARSE_TAG_INTERVAL + 16000 / ConsumeQueue.CQ_STORE_UNIT_SIZE);
+        result.release();
+    }
+
+    private static class MyMessageArrivingListener implements MessageArrivingListener {
+        @Override
+        public void arriving(String topic, int queueId, long logicOffset, long tagsCode, long msgStoreTime,
+            byte[] filterBitMap, Map<String, String> properties) {
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.compaction;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.rocketmq.common.BrokerConfig;
+import org.apache.rocketmq.common.message.MessageConst;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.store.DefaultMessageStore;
+import org.apache.rocketmq.store.GetMessageResult;
+import org.apache.rocketmq.store.GetMessageStatus;
+import org.apache.rocketmq.store.MessageArrivingListener;
+import org.apache.rocketmq.store.MessageExtBrokerInner;
+import org.apache.rocketmq.store.StoreTestBase;
+import org.apache.rocketmq.store.config.FlushDiskType;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.apache.rocketmq.store.config.StorePathConfigHelper;
+import org.apache.rocketmq.store.stats.BrokerStatsManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+public class CompactionServiceTest extends StoreTestBase {
+
+    private static final int KEY_NUM = 5;
+    private static final int UNITS_PER_CQ_FILE = 10;
+    // holds a few messages only
+    private static final int SEGMENT_SIZE = 4096;
+
+    private String baseDir;
+    private DefaultMessageStore messageStore;
+
+    @Before
+    public void init() throws Exception {
+        baseDir = createBaseDir();
+        baseDirs.add(baseDir);
+        messageStore = createMessageStore();
+        messageStore.start();
+    }
+
+    private DefaultMessageStore createMessageStore() throws Exception {
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setMappedFileSizeCommitLog(1024 * 64);
+        messageStoreConfig.setMappedFileSizeConsumeQueue(20 * UNITS_PER_CQ_FILE);
+        messageStoreConfig.setMaxHashSlotNum(100);
+        messageStoreConfig.setMaxIndexNum(100 * 10);
+        messageStoreConfig.setFlushDiskType(FlushDiskType.ASYNC_FLUSH);
+        messageStoreConfig.setCompactionEnable(true);
+        messageStoreConfig.setCompactionIntervalMs(1000 * 60);
+        messageStoreConfig.setCompactionSegmentSize(SEGMENT_SIZE);
+        messageStoreConfig.setStorePathRootDir(baseDir);
+        messageStoreConfig.setStorePathCommitLog(baseDir + File.separator + "commitlog");
+        DefaultMessageStore store = new DefaultMessageStore(messageStoreConfig, new BrokerStatsManager("compactionTest", true),
+            new MyMessageArrivingListener(), new BrokerConfig());
+        store.getCompactionService().setCompactionTopicFilter(topic -> true);
+        assertThat(store.load()).isTrue();
+        return store;
+    }
+
+    @After
+    public void destroy() {
+        messageStore.shutdown();
+        messageStore.destroy();
+    }
+
+    @Test
+    public void testCompact() {
+        putMessages(0, 35);
+        messageStore.getCompactionService().compactAll();
+
+        CompactedQueue compactedQueue = messageStore.getCompactionService().findCompactedQueue("StoreTest", 0);
+        assertThat(compactedQueue.getCompactedOffset()).isEqualTo(30);
+        assertThat(compactedQueue.getMessageNum()).isEqualTo(KEY_NUM);
+
+        GetMessageResult getResult = messageStore.getMessage("group", "StoreTest", 0, 0, 32, null);
+        assertThat(getResult.getStatus()).isEqualTo(GetMessageStatus.FOUND);
+        assertThat(getResult.getNextBeginOffset()).isEqualTo(30);
+        List<MessageExt> messages = decode(getResult);
+        getResult.release();
+        assertThat(messages).hasSize(KEY_NUM);
+        for (int i = 0; i < KEY_NUM; i++) {
+            MessageExt message = messages.get(i);
+            assertThat(message.getQueueOffset()).isEqualTo(25 + i);
+            assertThat(message.getKeys()).isEqualTo("key-" + i);
+        }
+
+        // the messages of the active consume queue file are read as they are
+        getResult = messageStore.getMessage("group", "StoreTest", 0, 30, 32, null);
+        assertThat(getResult.getMessageCount()).isEqualTo(5);
+        getResult.release();
+    }
+
+    @Test
+    public void testCompactIncrementally() {
+        putMessages(0, 12);
+        messageStore.getCompactionService().compactAll();
+        CompactedQueue compactedQueue = messageStore.getCompactionService().findCompactedQueue("StoreTest", 0);
+        assertThat(compactedQueue.getCompactedOffset()).isEqualTo(10);
+        assertThat(compactedQueue.getMessageNum()).isEqualTo(KEY_NUM);
+
+        // the messages of the second round take the place of the ones of the first round
+        putMessages(12, 10);
+        messageStore.getCompactionService().compactAll();
+        assertThat(compactedQueue.getCompactedOffset()).isEqualTo(20);
+        assertThat(compactedQueue.getMessageNum()).isEqualTo(KEY_NUM);
+
+        GetMessageResult getResult = messageStore.getMessage("group", "StoreTest", 0, 0, 2, null);
+        assertThat(getResult.getNextBeginOffset()).isEqualTo(17);
+        List<MessageExt> messages = decode(getResult);
+        getResult.release();
+        assertThat(messages).hasSize(2);
+        assertThat(messages.get(0).getQueueOffset()).isEqualTo(15);
+        assertThat(messages.get(1).getQueueOffset()).isEqualTo(16);
+    }
+
+    @Test
+    public void testReload() throws Exception {
+        putMessages(0, 20);
+        messageStore.getCompactionService().compactAll();
+        messageStore.shutdown();
+
+        messageStore = createMessageStore();
+        messageStore.start();
+        CompactedQueue compactedQueue = messageStore.getCompactionService().findCompactedQueue("StoreTest", 0);
+        assertThat(compactedQueue.getCompactedOffset()).isEqualTo(20);
+        assertThat(compactedQueue.getMessageNum()).isEqualTo(KEY_NUM);
+
+        GetMessageResult getResult = messageStore.getMessage("group", "StoreTest", 0, 0, 32, null);
+        assertThat(getResult.getMessageCount()).isEqualTo(KEY_NUM);
+        getResult.release();
+    }
+
+    @Test
+    public void testKeepMessagesWithoutKey() throws Exception {
+        putMessages(0, 5);
+        putMessages(5, 5, false);
+        putMessages(10, 5);
+        putMessages(15, 5, false);
+        messageStore.getCompactionService().compactAll();
+
+        CompactedQueue compactedQueue = messageStore.getCompactionService().findCompactedQueue("StoreTest", 0);
+        assertThat(compactedQueue.getCompactedOffset()).isEqualTo(20);
+        assertThat(compactedQueue.getMessageNum()).isEqualTo(KEY_NUM + 10);
+
+        messageStore.shutdown();
+        messageStore = createMessageStore();
+        messageStore.start();
+
+        GetMessageResult getResult = messageStore.getMessage("group", "StoreTest", 0, 0, 32, null);
+        List<MessageExt> messages = decode(getResult);
+        getResult.release();
+        assertThat(messages).hasSize(KEY_NUM + 10);
+        for (int i = 0; i < messages.size(); i++) {
+            assertThat(messages.get(i).getQueueOffset()).isEqualTo(5 + i);
+            assertThat(messages.get(i).getKeys()).isEqualTo(i < 5 || i >= 10 ? null : "key-" + i % KEY_NUM);
+        }
+        // written in segments of at most SEGMENT_SIZE
+        File[] generations = new File(StorePathConfigHelper.getStorePathCompaction(baseDir), "StoreTest" + File.separator + 0)
+            .listFiles(File::isDirectory);
+        assertThat(generations).hasSize(1);
+        File[] segments = generations[0].listFiles();
+        assertThat(segments.length).isGreaterThan(1);
+        for (File segment : segments) {
+            assertThat(segment.length()).isLessThanOrEqualTo(SEGMENT_SIZE);
+        }
+    }
+
+    private void putMessages(int from, int num) {
+        putMessages(from, num, true);
+    }
+
+    private void putMessages(int from, int num, boolean withKey) {
+        for (int i = from; i < from + num; i++) {
+            MessageExtBrokerInner msg = buildMessage();
+            msg.setQueueId(0);
+            if (withKey) {
+                msg.setKeys("key-" + i % KEY_NUM);
+            } else {
+                msg.getProperties().remove(MessageConst.PROPERTY_KEYS);
+            }
+            msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+            assertThat(messageStore.putMessage(msg).isOk()).isTrue();
+        }
+        final long maxOffset = from + num;
+        await().atMost(10, TimeUnit.SECONDS).until(() -> messageStore.getMaxOffsetInQueue("StoreTest", 0) == maxOffset);
+    }
+
+    private List<MessageExt> decode(GetMessageResult getResult) {
+        List<MessageExt> messages = new ArrayList<>();
+        for (ByteBuffer byteBuffer : getResult.getMessageBufferList()) {
+            messages.add(MessageDecoder.decode(byteBuffer, true, false));
+        }
+        return messages;
+    }
+
+    private static class MyMessageArrivingListener implements MessageArrivingListener {
+        @Override
+        public void arriving(String topic, int queueId, long logicOffset, long tagsCode, long msgStoreTime,
+            byte[] filterBitMap, Map<String, String> properties) {
+        }
+    }
+}
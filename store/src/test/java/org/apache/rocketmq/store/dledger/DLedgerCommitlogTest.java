@@ -30,6 +30,7 @@ import java.util.concurrent.TimeUnit;
 import org.apache.rocketmq.common.message.MessageDecoder;
 import org.apache.rocketmq.common.message.MessageExt;
 import org.apache.rocketmq.common.message.MessageExtBatch;
+import org.apache.rocketmq.common.sysflag.MessageSysFlag;
 import org.apache.rocketmq.store.DefaultMessageStore;
 import org.apache.rocketmq.store.GetMessageResult;
 import org.apache.rocketmq.store.GetMessageStatus;
@@ -226,6 +227,62 @@ public class DLedgerCommitlogTest extends MessageStoreTestBase {
         messageStore.shutdown();
     }
 
+    @Test
+    public void testPutAndGetMessageWithBinaryProperties() throws Exception {
+        String base = createBaseDir();
+        String peers = String.format("n0-localhost:%d", nextPort());
+        String group = UUID.randomUUID().toString();
+        DefaultMessageStore messageStore = createDledgerMessageStore(base, group, "n0", peers, null, false, 0);
+        Thread.sleep(1000);
+        String topic = UUID.randomUUID().toString();
+
+        MessageExtBrokerInner msgInner = buildMessage();
+        msgInner.setTopic(topic);
+        msgInner.setQueueId(0);
+        msgInner.setSysFlag(MessageSysFlag.BINARY_PROPERTIES_FLAG);
+        msgInner.putUserProperty("userKey", "userValue");
+        msgInner.setPropertiesString(MessageDecoder.messageProperties2String(msgInner.getProperties()));
+        Assert.assertEquals(PutMessageStatus.PUT_OK, messageStore.putMessage(msgInner).getPutMessageStatus());
+
+        MessageExtBatch messageExtBatch = buildBatchMessage(2);
+        messageExtBatch.setTopic(topic);
+        messageExtBatch.setQueueId(0);
+        messageExtBatch.setSysFlag(MessageSysFlag.BINARY_PROPERTIES_FLAG);
+        Assert.assertEquals(PutMessageStatus.PUT_OK, messageStore.putMessages(messageExtBatch).getPutMessageStatus());
+
+        StringBuilder longValue = new StringBuilder();
+        // short enough a string to pass the store check, but more than 32767 bytes once UTF-8 encoded
+        for (int i = 0; i < 12000; i++) {
+            longValue.append('值');
+        }
+        MessageExtBrokerInner oversized = buildMessage();
+        oversized.setTopic(topic);
+        oversized.setQueueId(0);
+        oversized.setSysFlag(MessageSysFlag.BINARY_PROPERTIES_FLAG);
+        oversized.putUserProperty("userKey", longValue.toString());
+        oversized.setPropertiesString(MessageDecoder.messageProperties2String(oversized.getProperties()));
+        Assert.assertNotEquals(PutMessageStatus.PUT_OK, messageStore.putMessage(oversized).getPutMessageStatus());
+
+        Thread.sleep(100);
+        Assert.assertEquals(3, messageStore.getMaxOffsetInQueue(topic, 0));
+        GetMessageResult getMessageResult = messageStore.getMessage("group", topic, 0, 0, 32, null);
+        Assert.assertEquals(GetMessageStatus.FOUND, getMessageResult.getStatus());
+        Assert.assertEquals(3, getMessageResult.getMessageBufferList().size());
+
+        MessageExt messageExt = MessageDecoder.decode(getMessageResult.getMessageBufferList().get(0));
+        Assert.assertEquals(msgInner.getProperties(), messageExt.getProperties());
+        Assert.assertArrayEquals(msgInner.getBody(), messageExt.getBody());
+        for (int i = 1; i < 3; i++) {
+            messageExt = MessageDecoder.decode(getMessageResult.getMessageBufferList().get(i));
+            Assert.assertEquals("TAG1", messageExt.getTags());
+            Assert.assertNotNull(messageExt.getKeys());
+            Assert.assertArrayEquals(msgInner.getBody(), messageExt.getBody());
+        }
+        getMessageResult.release();
+        messageStore.destroy();
+        messageStore.shutdown();
+    }
+
     @Test
     public void testAsyncPutAndGetMessage() throws Exception {
         String base = createBaseDir();
@@ -0,0 +1,224 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.kv;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.rocketmq.common.BrokerConfig;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.store.ConsumeQueue;
+import org.apache.rocketmq.store.DefaultMessageStore;
+import org.apache.rocketmq.store.GetMessageResult;
+import org.apache.rocketmq.store.GetMessageStatus;
+import org.apache.rocketmq.store.MessageArrivingListener;
+import org.apache.rocketmq.store.MessageExtBrokerInner;
+import org.apache.rocketmq.store.SelectMappedBufferResult;
+import org.apache.rocketmq.store.StoreTestBase;
+import org.apache.rocketmq.store.config.ConsumeQueueStoreType;
+import org.apache.rocketmq.store.config.FlushDiskType;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.apache.rocketmq.store.config.StorePathConfigHelper;
+import org.apache.rocketmq.store.stats.BrokerStatsManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+public class KvConsumeQueueTest extends StoreTestBase {
+
+    private static final int QUEUE_NUM = 3;
+    private static final int MAX_SEGMENT_NUM = 4;
+
+    private String baseDir;
+    private DefaultMessageStore messageStore;
+    private int messageNumPerQueue;
+
+    @Before
+    public void init() throws Exception {
+        baseDir = createBaseDir();
+        baseDirs.add(baseDir);
+        messageStore = createMessageStore();
+        messageStore.start();
+    }
+
+    private DefaultMessageStore createMessageStore() throws Exception {
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setMappedFileSizeCommitLog(1024 * 64);
+        messageStoreConfig.setMaxHashSlotNum(100);
+        messageStoreConfig.setMaxIndexNum(100 * 10);
+        messageStoreConfig.setFlushDiskType(FlushDiskType.ASYNC_FLUSH);
+        messageStoreConfig.setConsumeQueueStoreType(ConsumeQueueStoreType.KV);
+        messageStoreConfig.setKvConsumeQueueMaxSegmentNum(MAX_SEGMENT_NUM);
+        // flushed by the test only
+        messageStoreConfig.setFlushIntervalConsumeQueue(1000 * 60);
+        messageStoreConfig.setStorePathRootDir(baseDir);
+        messageStoreConfig.setStorePathCommitLog(baseDir + File.separator + "commitlog");
+        DefaultMessageStore store = new DefaultMessageStore(messageStoreConfig, new BrokerStatsManager("kvConsumeQueueTest", true),
+            new MyMessageArrivingListener(), new BrokerConfig());
+        assertThat(store.load()).isTrue();
+        return store;
+    }
+
+    @After
+    public void destroy() {
+        messageStore.shutdown();
+        messageStore.destroy();
+    }
+
+    @Test
+    public void testGetMessageFromMemoryAndSegment() {
+        putMessages("StoreTest", 20);
+        assertMessages("StoreTest");
+        assertThat(messageStore.getConsumeQueueKvStore().getSegmentNum()).isEqualTo(0);
+
+        flush();
+        assertThat(messageStore.getConsumeQueueKvStore().getSegmentNum()).isEqualTo(1);
+        putMessages("StoreTest", 10);
+        assertMessages("StoreTest");
+
+        ConsumeQueue consumeQueue = messageStore.findConsumeQueue("StoreTest", 0);
+        assertThat(consumeQueue).isInstanceOf(KvConsumeQueue.class);
+        assertThat(consumeQueue.getMinOffsetInQueue()).isEqualTo(0);
+        assertThat(consumeQueue.getMaxOffsetInQueue()).isEqualTo(30);
+        // the last message is put into the last queue
+        assertThat(messageStore.findConsumeQueue("StoreTest", QUEUE_NUM - 1).getLastOffset()).isEqualTo(messageStore.getMaxPhyOffset());
+        assertThat(new File(StorePathConfigHelper.getStorePathConsumeQueue(baseDir), "StoreTest").exists()).isFalse();
+    }
+
+    @Test
+    public void testMergeSegments() {
+        for (int i = 0; i < MAX_SEGMENT_NUM * 3; i++) {
+            putMessages("StoreTest", 5);
+            flush();
+            assertThat(messageStore.getConsumeQueueKvStore().getSegmentNum()).isLessThanOrEqualTo(MAX_SEGMENT_NUM + 1);
+        }
+        assertMessages("StoreTest");
+    }
+
+    @Test
+    public void testReload() throws Exception {
+        for (int i = 0; i < MAX_SEGMENT_NUM * 2; i++) {
+            putMessages("StoreTest", 5);
+            flush();
+        }
+        putMessages("StoreTest", 5);
+        messageStore.shutdown();
+
+        messageStore = createMessageStore();
+        messageStore.start();
+        assertMessages("StoreTest");
+
+        putMessages("StoreTest", 5);
+        assertMessages("StoreTest");
+    }
+
+    @Test
+    public void testDestroyedQueueNotReloaded() throws Exception {
+        putMessages("StoreTest", 10);
+        putMessages("OtherTopic", 10);
+        flush();
+
+        messageStore.cleanUnusedTopic(Collections.singleton("StoreTest"));
+        messageStore.shutdown();
+
+        messageStore = createMessageStore();
+        messageStore.start();
+        assertThat(messageStore.getConsumeQueueTable()).doesNotContainKey("OtherTopic");
+        assertMessages("StoreTest");
+    }
+
+    @Test
+    public void testRealignOnOffsetGap() {
+        putMessages("StoreTest", 5);
+        KvConsumeQueue consumeQueue = (KvConsumeQueue) messageStore.findConsumeQueue("StoreTest", 0);
+        long phyOffset = messageStore.getMaxPhyOffset();
+
+        // a unit behind the next offset is not built again
+        assertThat(consumeQueue.putMessagePositionInfo(phyOffset, 100, 0, 3)).isTrue();
+        assertThat(consumeQueue.getMaxOffsetInQueue()).isEqualTo(5);
+
+        assertThat(consumeQueue.putMessagePositionInfo(phyOffset, 100, 0, 8)).isTrue();
+        assertThat(consumeQueue.getMaxOffsetInQueue()).isEqualTo(9);
+        assertThat(consumeQueue.getIndexBuffer(6)).isNull();
+        assertThat(consumeQueue.rollNextFile(6)).isEqualTo(8);
+        SelectMappedBufferResult sbr = consumeQueue.getIndexBuffer(8);
+        assertThat(sbr.getByteBuffer().getLong(0)).isEqualTo(phyOffset);
+        sbr.release();
+
+        // not realigned while the frozen units are being flushed
+        assertThat(consumeQueue.freeze()).isNotNull();
+        assertThat(consumeQueue.putMessagePositionInfo(phyOffset + 100, 100, 0, 9)).isTrue();
+        assertThat(consumeQueue.putMessagePositionInfo(phyOffset + 200, 100, 0, 12)).isFalse();
+        flush();
+        assertThat(consumeQueue.putMessagePositionInfo(phyOffset + 200, 100, 0, 12)).isTrue();
+        assertThat(consumeQueue.getMaxOffsetInQueue()).isEqualTo(13);
+        assertThat(consumeQueue.rollNextFile(10)).isEqualTo(12);
+        assertThat(consumeQueue.getLastOffset()).isEqualTo(phyOffset + 300);
+    }
+
+    private void flush() {
+        messageStore.getConsumeQueueKvStore().flush(messageStore.getMaxPhyOffset());
+    }
+
+    private void putMessages(String topic, int num) {
+        for (int i = 0; i < num; i++) {
+            for (int queueId = 0; queueId < QUEUE_NUM; queueId++) {
+                MessageExtBrokerInner msg = buildMessage();
+                msg.setTopic(topic);
+                msg.setQueueId(queueId);
+                msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+                assertThat(messageStore.putMessage(msg).isOk()).isTrue();
+            }
+        }
+        if ("StoreTest".equals(topic)) {
+            messageNumPerQueue += num;
+        }
+        await().atMost(10, TimeUnit.SECONDS).until(() -> messageStore.dispatchBehindBytes() == 0);
+    }
+
+    private void assertMessages(String topic) {
+        for (int queueId = 0; queueId < QUEUE_NUM; queueId++) {
+            assertThat(messageStore.getMaxOffsetInQueue(topic, queueId)).isEqualTo(messageNumPerQueue);
+            long offset = 0;
+            while (offset < messageNumPerQueue) {
+                GetMessageResult getResult = messageStore.getMessage("group", topic, queueId, offset, 7, null);
+                assertThat(getResult.getStatus()).isEqualTo(GetMessageStatus.FOUND);
+                for (ByteBuffer byteBuffer : getResult.getMessageBufferList()) {
+                    MessageExt message = MessageDecoder.decode(byteBuffer, true, false);
+                    assertThat(message.getQueueId()).isEqualTo(queueId);
+                    assertThat(message.getQueueOffset()).isEqualTo(offset);
+                    offset++;
+                }
+                assertThat(getResult.getNextBeginOffset()).isEqualTo(offset);
+                getResult.release();
+            }
+        }
+    }
+
+    private static class MyMessageArrivingListener implements MessageArrivingListener {
+        @Override
+        public void arriving(String topic, int queueId, long logicOffset, long tagsCode, long msgStoreTime,
+            byte[] filterBitMap, Map<String, String> properties) {
+        }
+    }
+}
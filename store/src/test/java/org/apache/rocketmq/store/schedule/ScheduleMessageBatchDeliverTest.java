@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.schedule;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.rocketmq.common.BrokerConfig;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.common.running.RunningStats;
+import org.apache.rocketmq.common.topic.TopicValidator;
+import org.apache.rocketmq.store.DefaultMessageStore;
+import org.apache.rocketmq.store.MessageArrivingListener;
+import org.apache.rocketmq.store.MessageExtBrokerInner;
+import org.apache.rocketmq.store.MessageStore;
+import org.apache.rocketmq.store.PutMessageResult;
+import org.apache.rocketmq.store.PutMessageStatus;
+import org.apache.rocketmq.store.StoreTestBase;
+import org.apache.rocketmq.store.config.FlushDiskType;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.apache.rocketmq.store.stats.BrokerStatsManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ScheduleMessageBatchDeliverTest extends StoreTestBase {
+
+    private static final int QUEUE_NUM = 4;
+    private static final int MESSAGE_NUM = 50;
+
+    private DefaultMessageStore messageStore;
+
+    @Before
+    public void init() throws Exception {
+        String baseDir = createBaseDir();
+        baseDirs.add(baseDir);
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setMappedFileSizeCommitLog(1024 * 1024);
+        messageStoreConfig.setMappedFileSizeConsumeQueue(1024 * 4);
+        messageStoreConfig.setMaxHashSlotNum(100);
+        messageStoreConfig.setMaxIndexNum(100 * 10);
+        messageStoreConfig.setFlushDiskType(FlushDiskType.ASYNC_FLUSH);
+        messageStoreConfig.setMessageDelayLevel("1s 2s");
+        messageStoreConfig.setScheduleDeliverBatchSize(8);
+        messageStoreConfig.setScheduleDeliverThreadNumPerLevel(2);
+        messageStoreConfig.setStorePathRootDir(baseDir);
+        messageStoreConfig.setStorePathCommitLog(baseDir + File.separator + "commitlog");
+        messageStore = new DefaultMessageStore(messageStoreConfig, new BrokerStatsManager("scheduleBatchTest", true),
+            new MyMessageArrivingListener(), new BrokerConfig());
+        assertThat(messageStore.load()).isTrue();
+        messageStore.start();
+    }
+
+    @After
+    public void destroy() {
+        messageStore.shutdown();
+        messageStore.destroy();
+    }
+
+    @Test
+    public void testBatchDeliver() {
+        for (int i = 0; i < MESSAGE_NUM; i++) {
+            MessageExtBrokerInner msg = buildMessage();
+            msg.setQueueId(i % QUEUE_NUM);
+            msg.setDelayTimeLevel(1);
+            msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+            assertThat(messageStore.putMessage(msg).isOk()).isTrue();
+        }
+
+        await().atMost(10, TimeUnit.SECONDS).until(() -> {
+            for (int queueId = 0; queueId < QUEUE_NUM; queueId++) {
+                if (messageStore.getMaxOffsetInQueue("StoreTest", queueId) != MESSAGE_NUM / QUEUE_NUM
+                    + (queueId < MESSAGE_NUM % QUEUE_NUM ? 1 : 0)) {
+                    return false;
+                }
+            }
+            return true;
+        });
+
+        HashMap<String, String> stats = new HashMap<>();
+        await().atMost(5, TimeUnit.SECONDS).until(() -> {
+            messageStore.getScheduleMessageService().buildRunningStats(stats);
+            return "0".equals(stats.get(RunningStats.scheduleMessageBacklog.name() + "_1"));
+        });
+        assertThat(stats.get(RunningStats.scheduleMessageOffset.name() + "_1")).isEqualTo(MESSAGE_NUM + "," + MESSAGE_NUM);
+        assertThat(stats).containsKey(RunningStats.scheduleMessageDeliverLatency.name() + "_1");
+        assertThat(messageStore.getMaxOffsetInQueue(TopicValidator.RMQ_SYS_SCHEDULE_TOPIC, 0)).isEqualTo(MESSAGE_NUM);
+    }
+
+    @Test
+    public void testBatchDeliverWithFailedPut() {
+        // the fourth put of the first batch fails, the messages after it must not be put twice
+        AtomicInteger puts = new AtomicInteger();
+        MessageStore writeMessageStore = mock(MessageStore.class);
+        when(writeMessageStore.asyncPutMessage(any(MessageExtBrokerInner.class))).thenAnswer(invocation -> {
+            if (puts.incrementAndGet() == 4) {
+                return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.UNKNOWN_ERROR, null));
+            }
+            return messageStore.asyncPutMessage(invocation.getArgument(0));
+        });
+        messageStore.getScheduleMessageService().setWriteMessageStore(writeMessageStore);
+
+        for (int i = 0; i < MESSAGE_NUM; i++) {
+            MessageExtBrokerInner msg = buildMessage();
+            msg.setQueueId(i % QUEUE_NUM);
+            msg.setDelayTimeLevel(1);
+            msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+            assertThat(messageStore.putMessage(msg).isOk()).isTrue();
+        }
+
+        HashMap<String, String> stats = new HashMap<>();
+        await().atMost(10, TimeUnit.SECONDS).until(() -> {
+            messageStore.getScheduleMessageService().buildRunningStats(stats);
+            return "0".equals(stats.get(RunningStats.scheduleMessageBacklog.name() + "_1"));
+        });
+        assertThat(puts.get()).isEqualTo(MESSAGE_NUM + 1);
+        await().atMost(5, TimeUnit.SECONDS).until(() -> {
+            long total = 0;
+            for (int queueId = 0; queueId < QUEUE_NUM; queueId++) {
+                total += messageStore.getMaxOffsetInQueue("StoreTest", queueId);
+            }
+            return total == MESSAGE_NUM;
+        });
+        for (int queueId = 0; queueId < QUEUE_NUM; queueId++) {
+            assertThat(messageStore.getMaxOffsetInQueue("StoreTest", queueId))
+                .isEqualTo(MESSAGE_NUM / QUEUE_NUM + (queueId < MESSAGE_NUM % QUEUE_NUM ? 1 : 0));
+        }
+    }
+
+    private static class MyMessageArrivingListener implements MessageArrivingListener {
+        @Override
+        public void arriving(String topic, int queueId, long logicOffset, long tagsCode, long msgStoreTime,
+            byte[] filterBitMap, Map<String, String> properties) {
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.timer;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.rocketmq.common.BrokerConfig;
+import org.apache.rocketmq.common.message.MessageAccessor;
+import org.apache.rocketmq.common.message.MessageConst;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.store.DefaultMessageStore;
+import org.apache.rocketmq.store.GetMessageResult;
+import org.apache.rocketmq.store.GetMessageStatus;
+import org.apache.rocketmq.store.MessageArrivingListener;
+import org.apache.rocketmq.store.MessageExtBrokerInner;
+import org.apache.rocketmq.store.PutMessageResult;
+import org.apache.rocketmq.store.PutMessageStatus;
+import org.apache.rocketmq.store.StoreTestBase;
+import org.apache.rocketmq.store.config.FlushDiskType;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.apache.rocketmq.store.stats.BrokerStatsManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+public class TimerMessageStoreTest extends StoreTestBase {
+
+    private static final String TOPIC = "StoreTest";
+
+    private String baseDir;
+    private DefaultMessageStore messageStore;
+
+    @Before
+    public void init() throws Exception {
+        baseDir = createBaseDir();
+        baseDirs.add(baseDir);
+        messageStore = createMessageStore(10);
+    }
+
+    @After
+    public void destroy() {
+        messageStore.shutdown();
+        messageStore.destroy();
+    }
+
+    private DefaultMessageStore createMessageStore(int rollWindowSec) throws Exception {
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setMappedFileSizeCommitLog(1024 * 1024);
+        messageStoreConfig.setMappedFileSizeConsumeQueue(1024 * 4);
+        messageStoreConfig.setMaxHashSlotNum(100);
+        messageStoreConfig.setMaxIndexNum(100 * 10);
+        messageStoreConfig.setFlushDiskType(FlushDiskType.ASYNC_FLUSH);
+        messageStoreConfig.setStorePathRootDir(baseDir);
+        messageStoreConfig.setStorePathCommitLog(baseDir + File.separator + "commitlog");
+        messageStoreConfig.setTimerWheelEnable(true);
+        messageStoreConfig.setTimerPrecisionMs(100);
+        messageStoreConfig.setTimerRollWindowSec(rollWindowSec);
+        messageStoreConfig.setTimerFlushIntervalMs(100);
+        messageStoreConfig.setMappedFileSizeTimerLog(TimerLog.UNIT_SIZE * 1024);
+        DefaultMessageStore store = new DefaultMessageStore(messageStoreConfig, new BrokerStatsManager("timerTest", true),
+            new MyMessageArrivingListener(), new BrokerConfig());
+        assertThat(store.load()).isTrue();
+        store.start();
+        return store;
+    }
+
+    private MessageExtBrokerInner buildTimerMessage(String name, String value) {
+        MessageExtBrokerInner msg = buildMessage();
+        msg.setQueueId(0);
+        MessageAccessor.putProperty(msg, name, value);
+        msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+        return msg;
+    }
+
+    private MessageExt getMessage(long offset) {
+        GetMessageResult getResult = messageStore.getMessage("group", TOPIC, 0, offset, 1, null);
+        try {
+            assertThat(getResult.getStatus()).isEqualTo(GetMessageStatus.FOUND);
+            ByteBuffer byteBuffer = getResult.getMessageBufferList().get(0);
+            return MessageDecoder.decode(byteBuffer, true, false);
+        } finally {
+            getResult.release();
+        }
+    }
+
+    @Test
+    public void testDeliverAfterDelay() {
+        long beginTime = System.currentTimeMillis();
+        PutMessageResult result = messageStore.putMessage(buildTimerMessage(MessageConst.PROPERTY_TIMER_DELAY_MS, "500"));
+        assertThat(result.isOk()).isTrue();
+
+        await().atMost(5, TimeUnit.SECONDS).until(() -> messageStore.getMaxOffsetInQueue(TOPIC, 0) == 1);
+        assertThat(System.currentTimeMillis() - beginTime).isGreaterThanOrEqualTo(500);
+
+        MessageExt msgExt = getMessage(0);
+        assertThat(msgExt.getTopic()).isEqualTo(TOPIC);
+        assertThat(msgExt.getProperty(MessageConst.PROPERTY_TIMER_DELIVER_MS)).isNull();
+        assertThat(msgExt.getProperty(MessageConst.PROPERTY_TIMER_DELAY_MS)).isNull();
+        assertThat(messageStore.getTimerMessageStore().getDeliverCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testRollToNextWindow() throws Exception {
+        messageStore.shutdown();
+        messageStore.destroy();
+        messageStore = createMessageStore(1);
+
+        long deliverMs = System.currentTimeMillis() + 2500;
+        PutMessageResult result = messageStore.putMessage(
+            buildTimerMessage(MessageConst.PROPERTY_TIMER_DELIVER_MS, String.valueOf(deliverMs)));
+        assertThat(result.isOk()).isTrue();
+
+        await().atMost(10, TimeUnit.SECONDS).until(() -> messageStore.getMaxOffsetInQueue(TOPIC, 0) == 1);
+        assertThat(System.currentTimeMillis()).isGreaterThanOrEqualTo(deliverMs);
+        assertThat(messageStore.getTimerMessageStore().getRollCount()).isGreaterThan(0);
+        assertThat(messageStore.getTimerMessageStore().getDeliverCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testDeliverAfterReload() throws Exception {
+        PutMessageResult result = messageStore.putMessage(buildTimerMessage(MessageConst.PROPERTY_TIMER_DELAY_MS, "2000"));
+        assertThat(result.isOk()).isTrue();
+        await().atMost(5, TimeUnit.SECONDS).until(() -> messageStore.getTimerMessageStore().getEnqueueCount() == 1);
+
+        messageStore.shutdown();
+        messageStore = createMessageStore(10);
+        assertThat(messageStore.getTimerMessageStore().getCurrQueueOffset()).isEqualTo(1);
+
+        await().atMost(10, TimeUnit.SECONDS).until(() -> messageStore.getMaxOffsetInQueue(TOPIC, 0) == 1);
+        assertThat(getMessage(0).getTopic()).isEqualTo(TOPIC);
+    }
+
+    @Test
+    public void testIllegalTimerProperty() {
+        PutMessageResult result = messageStore.putMessage(buildTimerMessage(MessageConst.PROPERTY_TIMER_DELAY_MS, "abc"));
+        assertThat(result.getPutMessageStatus()).isEqualTo(PutMessageStatus.MESSAGE_ILLEGAL);
+
+        long tooFar = System.currentTimeMillis() + TimeUnit.DAYS.toMillis(365);
+        result = messageStore.putMessage(buildTimerMessage(MessageConst.PROPERTY_TIMER_DELIVER_MS, String.valueOf(tooFar)));
+        assertThat(result.getPutMessageStatus()).isEqualTo(PutMessageStatus.MESSAGE_ILLEGAL);
+    }
+
+    @Test
+    public void testDeliverDueMessageDirectly() {
+        long deliverMs = System.currentTimeMillis() - 1000;
+        PutMessageResult result = messageStore.putMessage(
+            buildTimerMessage(MessageConst.PROPERTY_TIMER_DELIVER_MS, String.valueOf(deliverMs)));
+        assertThat(result.isOk()).isTrue();
+
+        await().atMost(5, TimeUnit.SECONDS).until(() -> messageStore.getMaxOffsetInQueue(TOPIC, 0) == 1);
+        assertThat(messageStore.getTimerMessageStore().getEnqueueCount()).isEqualTo(0);
+    }
+
+    private static class MyMessageArrivingListener implements MessageArrivingListener {
+        @Override
+        public void arriving(String topic, int queueId, long logicOffset, long tagsCode, long msgStoreTime,
+            byte[] filterBitMap, Map<String, String> properties) {
+        }
+    }
+}
@@ -83,6 +83,10 @@ public class UpdateTopicSubCommand implements SubCommand {
         opt.setRequired(false);
         options.addOption(opt);
 
+        opt = new Option("m", "compaction", true, "keep the latest message of each key in a compacted log (true|false)");
+        opt.setRequired(false);
+        options.addOption(opt);
+
         return options;
     }
 
@@ -124,6 +128,9 @@ public class UpdateTopicSubCommand implements SubCommand {
             }
 
             int topicCenterSync = TopicSysFlag.buildSysFlag(isUnit, isCenterSync);
+            if (commandLine.hasOption('m') && Boolean.parseBoolean(commandLine.getOptionValue('m').trim())) {
+                topicCenterSync = TopicSysFlag.setCompactionFlag(topicCenterSync);
+            }
             topicConfig.setTopicSysFlag(topicCenterSync);
 
             boolean isOrder = false;